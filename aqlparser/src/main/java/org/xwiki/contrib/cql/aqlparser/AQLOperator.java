@@ -77,5 +77,12 @@ public enum AQLOperator
     /**
      * The does not contain ('!~') operator.
      */
-    DOES_NOT_CONTAIN
+    DOES_NOT_CONTAIN,
+
+    /**
+     * The range operator, followed by an {@link org.xwiki.contrib.cql.aqlparser.ast.AQLRangeExpression}. It cannot be
+     * written in CQL: it is the result of merging comparisons of the same field with a lower and an upper bound.
+     * @since 0.0.3
+     */
+    RANGE
 }
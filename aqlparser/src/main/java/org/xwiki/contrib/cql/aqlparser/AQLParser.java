@@ -23,6 +23,7 @@ import java.io.IOException;
 
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 import org.xwiki.contrib.cql.aqlparser.internal.Parser;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
 import org.xwiki.stability.Unstable;
 
@@ -46,11 +47,24 @@ public final class AQLParser
      * @param stmt the statement containing the AQL content to parse
      * @return the parsed result as an AST tree
      * @throws ParserException if a parse error happens
-     * @throws IOException in case a IO error happens, though it shouldn't
+     * @throws IOException never thrown since 0.0.3, kept for backward compatibility
      * @since 0.0.1
      */
     public static AQLStatement parse(String stmt) throws ParserException, IOException
     {
         return new Parser(stmt).parse();
     }
+
+    /**
+     * Parse a date written like the CQL date literals ({@code 2024-01-02}, {@code 2024/01/02 13:45}...).
+     *
+     * @param date the string to parse
+     * @param parserState the position to give to the date literal, to report errors
+     * @return the parsed date, or null if the string is not a CQL date
+     * @since 0.0.3
+     */
+    public static AQLDateLiteral parseDate(String date, AQLParserState parserState)
+    {
+        return Parser.parseDate(date, parserState);
+    }
 }
@@ -0,0 +1,293 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAndExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLBooleanLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLConstantClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNotExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLOrExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLOrderByClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLRangeExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanOperation;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Serializes AQL statements back to a canonical CQL text.
+ * Statements which only differ by their whitespace, the case of their keywords, the quotes of their strings, the
+ * order of the values of their IN lists or the order of the operands of their AND and OR operations have the same
+ * canonical text, and thus the same fingerprint. The order of the ORDER BY clauses is kept, since it matters.
+ * Positional parameters are written with their position ({@code ?1}), since the order of the clauses can change.
+ * The canonical text of a parsed statement can be parsed again. The constant clauses and the ranges created by the
+ * rewriting of statements are serialized too, but constant clauses have no CQL syntax.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public final class AQLSerializer
+{
+    private static final Map<AQLOperator, String> OPERATORS = new EnumMap<>(AQLOperator.class);
+
+    static {
+        OPERATORS.put(AQLOperator.IN, "in");
+        OPERATORS.put(AQLOperator.NOT_IN, "not in");
+        OPERATORS.put(AQLOperator.EQ, "=");
+        OPERATORS.put(AQLOperator.NEQ, "!=");
+        OPERATORS.put(AQLOperator.GT, ">");
+        OPERATORS.put(AQLOperator.GTE, ">=");
+        OPERATORS.put(AQLOperator.LT, "<");
+        OPERATORS.put(AQLOperator.LTE, "<=");
+        OPERATORS.put(AQLOperator.CONTAINS, "~");
+        OPERATORS.put(AQLOperator.DOES_NOT_CONTAIN, "!~");
+    }
+
+    private static final String NOT = "not ";
+
+    private static final String SEPARATOR = ", ";
+
+    // The operands which are not negated come first, a CQL list of clauses can't start with NOT.
+    private static final Comparator<Operand> OPERAND_ORDER =
+        Comparator.comparing((Operand operand) -> operand.negated).thenComparing(operand -> operand.text);
+
+    private AQLSerializer()
+    {
+    }
+
+    /**
+     * @param statement the statement to serialize
+     * @return the canonical CQL text of the statement
+     * @since 0.0.3
+     */
+    public static String serialize(AQLStatement statement)
+    {
+        StringBuilder cql = new StringBuilder(serialize(statement.getBooleanExpression()));
+        List<AQLOrderByClause> orderByClauses = statement.getOrderByClauses();
+        for (int i = 0; i < orderByClauses.size(); i++) {
+            AQLOrderByClause orderByClause = orderByClauses.get(i);
+            cql.append(i == 0 ? " order by " : SEPARATOR).append(orderByClause.getField());
+            if (orderByClause.isDesc()) {
+                cql.append(" desc");
+            }
+        }
+        return cql.toString();
+    }
+
+    /**
+     * @param statement a statement
+     * @return a 64-bit hash of the canonical CQL text of the statement, the same across executions and machines.
+     *     It is a truncated SHA-256 digest, so different statements can have the same fingerprint: it must not be
+     *     used to identify a statement, for instance as a cache key, the canonical text has to be used instead.
+     * @see AQLStatement#getFingerprint()
+     * @since 0.0.3
+     */
+    public static long getFingerprint(AQLStatement statement)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // All the Java platforms are required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+
+        byte[] hash = digest.digest(statement.getCanonicalText().getBytes(StandardCharsets.UTF_8));
+        long fingerprint = 0;
+        for (int i = 0; i < Long.BYTES; i++) {
+            fingerprint = (fingerprint << Byte.SIZE) | (hash[i] & 0xFF);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @param expression the boolean expression to serialize
+     * @return the canonical CQL text of the expression
+     * @since 0.0.3
+     */
+    public static String serialize(AbstractAQLBooleanExpression expression)
+    {
+        if (expression instanceof AQLClauseExpression) {
+            return serialize(((AQLClauseExpression) expression).getClause());
+        }
+
+        if (expression instanceof AQLNotExpression) {
+            return NOT + serializeOperand(((AQLNotExpression) expression).getOperand(), null);
+        }
+
+        boolean and = expression instanceof AQLAndExpression;
+        List<Operand> operands = new ArrayList<>();
+        addOperands((AbstractAQLBooleanOperation) expression, operands);
+        operands.sort(OPERAND_ORDER);
+
+        StringBuilder cql = new StringBuilder();
+        for (Operand operand : operands) {
+            if (cql.length() > 0) {
+                cql.append(and ? " and " : " or ");
+            }
+            cql.append(operand.text);
+        }
+        return cql.toString();
+    }
+
+    private static void addOperands(AbstractAQLBooleanOperation operation, List<Operand> operands)
+    {
+        for (AbstractAQLBooleanExpression operand : operation.getOperands()) {
+            if (operand.getClass() == operation.getClass()) {
+                // AND and OR are associative, (a AND b) AND c is a AND b AND c.
+                addOperands((AbstractAQLBooleanOperation) operand, operands);
+            } else {
+                boolean negated = operand instanceof AQLNotExpression;
+                operands.add(new Operand(negated, negated ? serialize(operand) : serializeOperand(operand, operation)));
+            }
+        }
+    }
+
+    private static String serializeOperand(AbstractAQLBooleanExpression operand, AbstractAQLBooleanOperation parent)
+    {
+        String cql = serialize(operand);
+        // AND binds tighter than OR, so the operands of an OR don't need parentheses.
+        if (operand instanceof AbstractAQLBooleanOperation && !(parent instanceof AQLOrExpression)) {
+            return '(' + cql + ')';
+        }
+        return cql;
+    }
+
+    private static String serialize(AbstractAQLClause clause)
+    {
+        if (clause instanceof AQLConstantClause) {
+            return String.valueOf(((AQLConstantClause) clause).isTrue());
+        }
+
+        AQLAtomicClause atom = (AQLAtomicClause) clause;
+        AbstractAQLRightHandValue right = atom.getRight();
+        if (right instanceof AQLRangeExpression) {
+            return serialize(atom.getField(), (AQLRangeExpression) right);
+        }
+
+        return atom.getField() + ' ' + OPERATORS.get(atom.getOp().getOperator()) + ' ' + serialize(right);
+    }
+
+    private static String serialize(String field, AQLRangeExpression range)
+    {
+        StringBuilder cql = new StringBuilder();
+        if (range.getLower() != null) {
+            cql.append(field).append(range.isLowerInclusive() ? " >= " : " > ").append(serialize(range.getLower()));
+        }
+        if (range.getUpper() != null) {
+            if (cql.length() > 0) {
+                cql.insert(0, '(').append(" and ");
+            }
+            cql.append(field).append(range.isUpperInclusive() ? " <= " : " < ").append(serialize(range.getUpper()));
+            if (range.getLower() != null) {
+                cql.append(')');
+            }
+        }
+        return cql.toString();
+    }
+
+    private static String serialize(AbstractAQLRightHandValue value)
+    {
+        if (value instanceof AQLStringLiteral) {
+            return quote(((AQLStringLiteral) value).getString());
+        }
+
+        if (value instanceof AQLNumberLiteral) {
+            return ((AQLNumberLiteral) value).getNumber();
+        }
+
+        if (value instanceof AQLBooleanLiteral) {
+            return String.valueOf(((AQLBooleanLiteral) value).isTrue());
+        }
+
+        if (value instanceof AQLDateLiteral) {
+            AQLDateLiteral date = (AQLDateLiteral) value;
+            // Quoted, because a date followed by a closing parenthesis can't be parsed.
+            String cql = String.format("%d-%02d-%02d", date.getYear(), date.getMonth(), date.getDay());
+            if (date.getHours() >= 0) {
+                cql += String.format(" %02d:%02d", date.getHours(), date.getMinutes());
+            }
+            return quote(cql);
+        }
+
+        if (value instanceof AQLParameter) {
+            return value.toString();
+        }
+
+        if (value instanceof AQLFunctionCall) {
+            AQLFunctionCall call = (AQLFunctionCall) value;
+            return call.getFunctionName() + '(' + serialize(call.getArguments(), false) + ')';
+        }
+
+        // The order of the values of an IN list doesn't matter.
+        return '(' + serialize(((AQLInExpression) value).getValues(), true) + ')';
+    }
+
+    private static String serialize(List<AbstractAQLAtomicValue> values, boolean sorted)
+    {
+        List<String> cql = new ArrayList<>(values.size());
+        for (AbstractAQLAtomicValue value : values) {
+            cql.add(serialize(value));
+        }
+        if (sorted) {
+            cql.sort(null);
+        }
+        return String.join(SEPARATOR, cql);
+    }
+
+    private static String quote(String string)
+    {
+        return '"' + string.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private static final class Operand
+    {
+        private final boolean negated;
+
+        private final String text;
+
+        Operand(boolean negated, String text)
+        {
+            this.negated = negated;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+import org.xwiki.contrib.cql.aqlparser.internal.Parser;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A bounded, thread-safe cache of parsed AQL statements, keyed by the statement text.
+ * Both successfully parsed statements and parse errors are cached, so a broken statement is not parsed again each
+ * time it is used. The least recently used entries are evicted when the number of entries or the total weight (the
+ * summed length of the cached statements) goes beyond the configured limits.
+ * The cached trees are immutable and shared between all the callers.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public class AQLStatementCache
+{
+    private final int maxEntries;
+
+    private final long maxWeight;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of statements to keep
+     * @param maxWeight the maximum number of characters of all the statements kept, taken together
+     * @since 0.0.3
+     */
+    public AQLStatementCache(int maxEntries, long maxWeight)
+    {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("The size and the weight of the cache must be positive");
+        }
+
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Parse the AQL statement passed as parameter, or return the result of a previous parse of the same statement.
+     *
+     * @param stmt the statement containing the AQL content to parse
+     * @return the parsed result as an AST tree, shared with the other callers
+     * @throws ParserException if a parse error happens, or happened the previous time this statement was parsed
+     * @since 0.0.3
+     */
+    public AQLStatement parse(String stmt) throws ParserException
+    {
+        Entry entry;
+        synchronized (this.entries) {
+            entry = this.entries.get(stmt);
+        }
+
+        if (entry == null) {
+            this.misses.incrementAndGet();
+            entry = parseEntry(stmt);
+            put(stmt, entry);
+        } else {
+            this.hits.incrementAndGet();
+        }
+
+        if (entry.exception != null) {
+            throw entry.exception;
+        }
+
+        return entry.statement;
+    }
+
+    private static Entry parseEntry(String stmt)
+    {
+        try {
+            return new Entry(new Parser(stmt).parse(), null);
+        } catch (ParserException e) {
+            return new Entry(null, e);
+        }
+    }
+
+    private void put(String stmt, Entry entry)
+    {
+        long entryWeight = stmt.length();
+        if (entryWeight > this.maxWeight) {
+            // Caching this statement would evict everything else.
+            return;
+        }
+
+        synchronized (this.entries) {
+            if (this.entries.put(stmt, entry) == null) {
+                this.weight += entryWeight;
+            }
+
+            Iterator<String> eldest = this.entries.keySet().iterator();
+            while (this.entries.size() > this.maxEntries || this.weight > this.maxWeight) {
+                this.weight -= eldest.next().length();
+                eldest.remove();
+                this.evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Remove all the cached statements. The statistics are kept.
+     * @since 0.0.3
+     */
+    public void clear()
+    {
+        synchronized (this.entries) {
+            this.entries.clear();
+            this.weight = 0;
+        }
+    }
+
+    /**
+     * @return the number of statements currently cached
+     * @since 0.0.3
+     */
+    public int size()
+    {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * @return the total weight of the statements currently cached
+     * @since 0.0.3
+     */
+    public long getWeight()
+    {
+        synchronized (this.entries) {
+            return this.weight;
+        }
+    }
+
+    /**
+     * @return the number of calls to {@link #parse(String)} that were answered from the cache
+     * @since 0.0.3
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of calls to {@link #parse(String)} that required parsing the statement
+     * @since 0.0.3
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the number of statements removed from the cache to respect its limits
+     * @since 0.0.3
+     */
+    public long getEvictionCount()
+    {
+        return this.evictions.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d statements (weight %d), %d hits, %d misses, %d evictions",
+            size(), getWeight(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    private static final class Entry
+    {
+        private final AQLStatement statement;
+
+        private final ParserException exception;
+
+        Entry(AQLStatement statement, ParserException exception)
+        {
+            this.statement = statement;
+            this.exception = exception;
+        }
+    }
+}
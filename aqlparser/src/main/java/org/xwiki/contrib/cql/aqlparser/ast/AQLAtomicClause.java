@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -79,4 +81,24 @@ public class AQLAtomicClause extends AbstractAQLClause
     {
         return right;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLAtomicClause other = (AQLAtomicClause) obj;
+        return new EqualsBuilder().append(this.field, other.field).append(this.op, other.op)
+            .append(this.right, other.right).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.field).append(this.op).append(this.right).toHashCode();
+    }
 }
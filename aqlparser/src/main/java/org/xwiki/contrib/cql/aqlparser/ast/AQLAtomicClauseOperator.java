@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLOperator;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
@@ -52,4 +54,23 @@ public class AQLAtomicClauseOperator extends AbstractAQLNode
     {
         return operator;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLAtomicClauseOperator other = (AQLAtomicClauseOperator) obj;
+        return new EqualsBuilder().append(this.operator, other.operator).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.operator).toHashCode();
+    }
 }
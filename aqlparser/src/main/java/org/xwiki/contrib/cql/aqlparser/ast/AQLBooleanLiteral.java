@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -51,4 +53,23 @@ public class AQLBooleanLiteral extends AbstractAQLAtomicValue
     {
         return this.isTrue;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLBooleanLiteral other = (AQLBooleanLiteral) obj;
+        return new EqualsBuilder().append(this.isTrue, other.isTrue).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.isTrue).toHashCode();
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents a leaf of a boolean expression: an atomic clause, or a constant clause.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public class AQLClauseExpression extends AbstractAQLBooleanExpression
+{
+    private final AbstractAQLClause clause;
+
+    /**
+     * @param clause the clause, which is not a group of clauses
+     * @since 0.0.3
+     */
+    public AQLClauseExpression(AbstractAQLClause clause)
+    {
+        super(clause.getParserState());
+        if (clause instanceof AQLClausesWithNextOperator) {
+            throw new IllegalArgumentException("A group of clauses must be converted to a boolean expression");
+        }
+        this.clause = clause;
+    }
+
+    /**
+     * @return the clause
+     * @since 0.0.3
+     */
+    public AbstractAQLClause getClause()
+    {
+        return clause;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLClauseExpression other = (AQLClauseExpression) obj;
+        return new EqualsBuilder().append(this.clause, other.clause).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.clause).toHashCode();
+    }
+}
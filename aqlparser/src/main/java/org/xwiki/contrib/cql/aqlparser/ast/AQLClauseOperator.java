@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -64,4 +66,23 @@ public class AQLClauseOperator extends AbstractAQLNode
     {
         return isNot;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLClauseOperator other = (AQLClauseOperator) obj;
+        return new EqualsBuilder().append(this.isAnd, other.isAnd).append(this.isNot, other.isNot).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.isAnd).append(this.isNot).toHashCode();
+    }
 }
@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -64,4 +66,24 @@ public class AQLClauseWithNextOperator extends AbstractAQLNode
     {
         return nextOperator;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLClauseWithNextOperator other = (AQLClauseWithNextOperator) obj;
+        return new EqualsBuilder().append(this.clause, other.clause).append(this.nextOperator, other.nextOperator)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.clause).append(this.nextOperator).toHashCode();
+    }
 }
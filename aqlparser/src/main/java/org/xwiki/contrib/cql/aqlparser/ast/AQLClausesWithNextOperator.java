@@ -19,15 +19,19 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
 /**
  * Represents a list of clauses from left to right, each containing the clause operator between the clause and the next
- * one. Note: clauses are to be evaluated from left to right and there's no priority difference between the AND
- * operator and the OR operator, hence the flat (list) structure.
+ * one, as they appear in the statement. This flat structure doesn't reflect the precedence of the operators: AND binds
+ * tighter than OR. Use {@link #getBooleanExpression()} to evaluate these clauses.
  *
  * @version $Id$
  * @since 0.0.1
@@ -37,21 +41,58 @@ public class AQLClausesWithNextOperator extends AbstractAQLClause
 {
     private final List<AQLClauseWithNextOperator> clausesWithNextOp;
 
+    private volatile AbstractAQLBooleanExpression booleanExpression;
+
     /**
      * @param parserState the state of the parser right before starting to parse this node
-     * @param clausesWithNextOp the clauses with their operators.
+     * @param clausesWithNextOp the clauses with their operators. The list is copied.
      */
     public AQLClausesWithNextOperator(AQLParserState parserState, List<AQLClauseWithNextOperator> clausesWithNextOp)
     {
         super(parserState);
-        this.clausesWithNextOp = clausesWithNextOp;
+        this.clausesWithNextOp = Collections.unmodifiableList(new ArrayList<>(clausesWithNextOp));
     }
 
     /**
-     * @return the clauses with their operators.
+     * @return the clauses with their operators, as an unmodifiable list.
      */
     public List<AQLClauseWithNextOperator> getClausesWithNextOp()
     {
         return clausesWithNextOp;
     }
+
+    /**
+     * @return the boolean expression equivalent to these clauses, in which AND binds tighter than OR. It is computed
+     *     on first use.
+     * @since 0.0.3
+     */
+    public AbstractAQLBooleanExpression getBooleanExpression()
+    {
+        AbstractAQLBooleanExpression expression = this.booleanExpression;
+        if (expression == null) {
+            // The expression is immutable, computing it twice concurrently is harmless.
+            expression = AbstractAQLBooleanExpression.fromClauses(this.clausesWithNextOp);
+            this.booleanExpression = expression;
+        }
+        return expression;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLClausesWithNextOperator other = (AQLClausesWithNextOperator) obj;
+        return new EqualsBuilder().append(this.clausesWithNextOp, other.clausesWithNextOp).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.clausesWithNextOp).toHashCode();
+    }
 }
@@ -19,6 +19,8 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -110,4 +112,25 @@ public class AQLDateLiteral extends AbstractAQLAtomicValue
     {
         return minutes;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLDateLiteral other = (AQLDateLiteral) obj;
+        return new EqualsBuilder().append(this.year, other.year).append(this.month, other.month)
+            .append(this.day, other.day).append(this.hours, other.hours).append(this.minutes, other.minutes).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.year).append(this.month).append(this.day).append(this.hours)
+            .append(this.minutes).toHashCode();
+    }
 }
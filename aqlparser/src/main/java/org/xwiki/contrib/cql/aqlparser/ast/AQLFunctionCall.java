@@ -19,8 +19,12 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -39,14 +43,14 @@ public class AQLFunctionCall extends AbstractAQLAtomicValue
     /**
      * @param parserState the state of the parser right before starting to parse this node
      * @param functionName the name of the called function
-     * @param arguments the arguments passed to the function
+     * @param arguments the arguments passed to the function. The list is copied.
      * @since 0.0.1
      */
     public AQLFunctionCall(AQLParserState parserState, String functionName, List<AbstractAQLAtomicValue> arguments)
     {
         super(parserState);
         this.functionName = functionName;
-        this.arguments = arguments;
+        this.arguments = Collections.unmodifiableList(new ArrayList<>(arguments));
     }
 
     /**
@@ -59,11 +63,31 @@ public class AQLFunctionCall extends AbstractAQLAtomicValue
     }
 
     /**
-     * @return the arguments passed to the function
+     * @return the arguments passed to the function, as an unmodifiable list
      * @since 0.0.1
      */
     public List<AbstractAQLAtomicValue> getArguments()
     {
         return arguments;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLFunctionCall other = (AQLFunctionCall) obj;
+        return new EqualsBuilder().append(this.functionName, other.functionName).append(this.arguments, other.arguments)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.functionName).append(this.arguments).toHashCode();
+    }
 }
@@ -19,8 +19,12 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.stability.Unstable;
 
@@ -36,21 +40,40 @@ public class AQLInExpression extends AbstractAQLRightHandValue
 
     /**
      * @param parserState the state of the parser right before starting to parse this node
-     * @param values the list of atomic values in this IN expression.
+     * @param values the list of atomic values in this IN expression. The list is copied.
      * @since 0.0.1
      */
     public AQLInExpression(AQLParserState parserState, List<AbstractAQLAtomicValue> values)
     {
         super(parserState);
-        this.values = values;
+        this.values = Collections.unmodifiableList(new ArrayList<>(values));
     }
 
     /**
-     * @return the list of atomic values in this in expression.
+     * @return the list of atomic values in this in expression, as an unmodifiable list.
      * @since 0.0.1
      */
     public List<AbstractAQLAtomicValue> getValues()
     {
         return values;
     }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLInExpression other = (AQLInExpression) obj;
+        return new EqualsBuilder().append(this.values, other.values).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.values).toHashCode();
+    }
 }
@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents a placeholder for a value bound when executing the statement: {@code ?} or {@code ?1} for a positional
+ * parameter, {@code :name} for a named parameter. The positions of the {@code ?} placeholders without index start at
+ * 1 and follow their order in the statement, so they can't be used together with placeholders having an index.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public class AQLParameter extends AbstractAQLAtomicValue
+{
+    private final String name;
+
+    private final int index;
+
+    /**
+     * @param parserState the state of the parser right before starting to parse this node
+     * @param name the name of the parameter
+     * @since 0.0.3
+     */
+    public AQLParameter(AQLParserState parserState, String name)
+    {
+        super(parserState);
+        this.name = name;
+        this.index = 0;
+    }
+
+    /**
+     * @param parserState the state of the parser right before starting to parse this node
+     * @param index the position of the parameter, starting at 1
+     * @since 0.0.3
+     */
+    public AQLParameter(AQLParserState parserState, int index)
+    {
+        super(parserState);
+        this.name = null;
+        this.index = index;
+    }
+
+    /**
+     * @return whether this parameter is named, as opposed to positional
+     * @since 0.0.3
+     */
+    public boolean isNamed()
+    {
+        return this.name != null;
+    }
+
+    /**
+     * @return the name of the parameter, or null if it is positional
+     * @since 0.0.3
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the position of the parameter, starting at 1, or 0 if it is named
+     * @since 0.0.3
+     */
+    public int getIndex()
+    {
+        return this.index;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLParameter other = (AQLParameter) obj;
+        return new EqualsBuilder().append(this.name, other.name).append(this.index, other.index).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.name).append(this.index).toHashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return isNamed() ? ":" + this.name : "?" + this.index;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents the right-hand side of a range operator: a lower bound, an upper bound, or both.
+ * This node is not produced by the parser, but by the rewriting of comparisons of the same field.
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public class AQLRangeExpression extends AbstractAQLRightHandValue
+{
+    private final AbstractAQLAtomicValue lower;
+
+    private final boolean lowerInclusive;
+
+    private final AbstractAQLAtomicValue upper;
+
+    private final boolean upperInclusive;
+
+    /**
+     * @param parserState the state of the parser right before starting to parse the first bound
+     * @param lower the lower bound, or null if the range is not bounded below
+     * @param lowerInclusive whether the lower bound is part of the range
+     * @param upper the upper bound, or null if the range is not bounded above
+     * @param upperInclusive whether the upper bound is part of the range
+     * @since 0.0.3
+     */
+    public AQLRangeExpression(AQLParserState parserState, AbstractAQLAtomicValue lower, boolean lowerInclusive,
+        AbstractAQLAtomicValue upper, boolean upperInclusive)
+    {
+        super(parserState);
+        this.lower = lower;
+        this.lowerInclusive = lowerInclusive;
+        this.upper = upper;
+        this.upperInclusive = upperInclusive;
+    }
+
+    /**
+     * @return the lower bound, or null if the range is not bounded below
+     * @since 0.0.3
+     */
+    public AbstractAQLAtomicValue getLower()
+    {
+        return lower;
+    }
+
+    /**
+     * @return whether the lower bound is part of the range
+     * @since 0.0.3
+     */
+    public boolean isLowerInclusive()
+    {
+        return lowerInclusive;
+    }
+
+    /**
+     * @return the upper bound, or null if the range is not bounded above
+     * @since 0.0.3
+     */
+    public AbstractAQLAtomicValue getUpper()
+    {
+        return upper;
+    }
+
+    /**
+     * @return whether the upper bound is part of the range
+     * @since 0.0.3
+     */
+    public boolean isUpperInclusive()
+    {
+        return upperInclusive;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLRangeExpression other = (AQLRangeExpression) obj;
+        return new EqualsBuilder().append(this.lower, other.lower).append(this.lowerInclusive, other.lowerInclusive)
+            .append(this.upper, other.upper).append(this.upperInclusive, other.upperInclusive).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.lower).append(this.lowerInclusive).append(this.upper)
+            .append(this.upperInclusive).toHashCode();
+    }
+}
@@ -19,9 +19,14 @@
  */
 package org.xwiki.contrib.cql.aqlparser.ast;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.AQLSerializer;
 import org.xwiki.stability.Unstable;
 
 /**
@@ -34,26 +39,80 @@ public class AQLStatement extends AQLClausesWithNextOperator
 {
     private final List<AQLOrderByClause> orderByClauses;
 
+    private volatile String canonicalText;
+
+    private volatile Long fingerprint;
+
     /**
      * @param parserState the state of the reader right before starting to parse this statement (likely at position 0,
      * line 1, column 1)
      * @param clausesWithNextOp the clauses
-     * @param orderByClauses the order by clauses, from left to right
+     * @param orderByClauses the order by clauses, from left to right. The list is copied.
      * @since 0.0.1
      */
     public AQLStatement(AQLParserState parserState, List<AQLClauseWithNextOperator> clausesWithNextOp,
         List<AQLOrderByClause> orderByClauses)
     {
         super(parserState, clausesWithNextOp);
-        this.orderByClauses = orderByClauses;
+        this.orderByClauses = Collections.unmodifiableList(new ArrayList<>(orderByClauses));
     }
 
     /**
-     * @return the order by clauses
+     * @return the order by clauses, as an unmodifiable list
      * @since 0.0.1
      */
     public List<AQLOrderByClause> getOrderByClauses()
     {
         return orderByClauses;
     }
+
+    /**
+     * @return the canonical CQL text of this statement, computed on first use
+     * @see AQLSerializer#serialize(AQLStatement)
+     * @since 0.0.3
+     */
+    public String getCanonicalText()
+    {
+        String text = this.canonicalText;
+        if (text == null) {
+            text = AQLSerializer.serialize(this);
+            this.canonicalText = text;
+        }
+        return text;
+    }
+
+    /**
+     * @return the fingerprint of this statement, computed on first use
+     * @see AQLSerializer#getFingerprint(AQLStatement)
+     * @since 0.0.3
+     */
+    public long getFingerprint()
+    {
+        Long f = this.fingerprint;
+        if (f == null) {
+            f = AQLSerializer.getFingerprint(this);
+            this.fingerprint = f;
+        }
+        return f;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AQLStatement other = (AQLStatement) obj;
+        return new EqualsBuilder().appendSuper(super.equals(obj)).append(this.orderByClauses, other.orderByClauses)
+            .isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).appendSuper(super.hashCode()).append(this.orderByClauses).toHashCode();
+    }
 }
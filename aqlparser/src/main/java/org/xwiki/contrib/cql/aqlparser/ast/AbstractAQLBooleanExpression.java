@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents a boolean expression, the tree form of a list of clauses in which the precedence of the operators has been
+ * applied: AND binds tighter than OR, and NOT applies to the clause following it. For instance,
+ * {@code a AND b OR c AND NOT d} is the expression {@code OR(AND(a, b), AND(c, NOT(d)))}.
+ * The leaves of the tree are {@link AQLClauseExpression}s, holding atomic clauses. The groups of clauses between
+ * parentheses are converted to sub-expressions.
+ *
+ * @see AQLClausesWithNextOperator#getBooleanExpression()
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public abstract class AbstractAQLBooleanExpression extends AbstractAQLNode
+{
+    AbstractAQLBooleanExpression(AQLParserState parserState)
+    {
+        super(parserState);
+    }
+
+    /**
+     * @param clausesWithNextOp a non-empty list of clauses with their operators, as produced by the parser
+     * @return the boolean expression corresponding to these clauses
+     * @since 0.0.3
+     */
+    public static AbstractAQLBooleanExpression fromClauses(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        List<AbstractAQLBooleanExpression> orOperands = new ArrayList<>();
+        List<AbstractAQLBooleanExpression> andOperands = new ArrayList<>();
+        AQLClauseOperator previousOp = null;
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLBooleanExpression operand = fromClause(clauseWithNextOp.getClause());
+            if (previousOp != null) {
+                if (previousOp.isNot()) {
+                    operand = new AQLNotExpression(previousOp.getParserState(), operand);
+                }
+
+                if (!previousOp.isAnd()) {
+                    orOperands.add(and(andOperands));
+                    andOperands = new ArrayList<>();
+                }
+            }
+            andOperands.add(operand);
+            previousOp = clauseWithNextOp.getNextOperator();
+        }
+        orOperands.add(and(andOperands));
+
+        return orOperands.size() == 1
+            ? orOperands.get(0)
+            : new AQLOrExpression(orOperands.get(0).getParserState(), orOperands);
+    }
+
+    private static AbstractAQLBooleanExpression fromClause(AbstractAQLClause clause)
+    {
+        if (clause instanceof AQLClausesWithNextOperator) {
+            return ((AQLClausesWithNextOperator) clause).getBooleanExpression();
+        }
+        return new AQLClauseExpression(clause);
+    }
+
+    private static AbstractAQLBooleanExpression and(List<AbstractAQLBooleanExpression> operands)
+    {
+        return operands.size() == 1
+            ? operands.get(0)
+            : new AQLAndExpression(operands.get(0).getParserState(), operands);
+    }
+}
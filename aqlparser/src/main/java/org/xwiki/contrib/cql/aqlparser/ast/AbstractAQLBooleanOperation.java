@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Represents an operation between two or more boolean expressions.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public abstract class AbstractAQLBooleanOperation extends AbstractAQLBooleanExpression
+{
+    private final List<AbstractAQLBooleanExpression> operands;
+
+    AbstractAQLBooleanOperation(AQLParserState parserState, List<AbstractAQLBooleanExpression> operands)
+    {
+        super(parserState);
+        this.operands = Collections.unmodifiableList(new ArrayList<>(operands));
+    }
+
+    /**
+     * @return the operands, from left to right, as an unmodifiable list
+     * @since 0.0.3
+     */
+    public List<AbstractAQLBooleanExpression> getOperands()
+    {
+        return operands;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null || getClass() != obj.getClass()) {
+            return false;
+        }
+        AbstractAQLBooleanOperation other = (AbstractAQLBooleanOperation) obj;
+        return new EqualsBuilder().append(this.operands, other.operands).isEquals();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return new HashCodeBuilder(17, 37).append(this.operands).toHashCode();
+    }
+}
@@ -24,6 +24,9 @@ import org.xwiki.stability.Unstable;
 
 /**
  * Represents a CQL AST node, produced when parsing a CQL statement.
+ * Nodes are immutable, so a parsed tree can safely be shared between threads.
+ * Nodes are compared structurally: two nodes are equal when they have the same type and content, whatever their
+ * position in the statement.
  * @version $Id$
  * @since 0.0.1
  */
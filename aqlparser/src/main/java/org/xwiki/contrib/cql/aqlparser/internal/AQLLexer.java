@@ -0,0 +1,232 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.aqlparser.internal;
+
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+
+/**
+ * A cursor over the characters of an AQL statement. The input is never copied: reading moves an index over the
+ * given character sequence, and going back is done either one character at a time with {@link #unread(int)}, or in
+ * constant time with {@link #mark()} and {@link #reset()}.
+ * Not thread-safe: a lexer is meant to be used by a single parser.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+class AQLLexer
+{
+    private static final int EOF = -1;
+
+    private final CharSequence input;
+
+    private final int start;
+
+    private final int end;
+
+    private int cursor;
+
+    private long line = 1;
+
+    private long previousCol = 1;
+
+    private long col = 1;
+
+    private int markedCursor;
+
+    private long markedLine = 1;
+
+    private long markedPreviousCol = 1;
+
+    private long markedCol = 1;
+
+    AQLLexer(CharSequence input)
+    {
+        this(input, 0);
+    }
+
+    /**
+     * @param input the characters to read
+     * @param start the index of the first character to read. Positions are reported relatively to this index.
+     */
+    AQLLexer(CharSequence input, int start)
+    {
+        this.input = input;
+        this.start = start;
+        this.end = input.length();
+        this.cursor = start;
+        this.markedCursor = start;
+    }
+
+    public int read()
+    {
+        if (cursor >= end) {
+            return EOF;
+        }
+
+        char c = input.charAt(cursor++);
+        if (c == '\n') {
+            line++;
+            previousCol = col;
+            col = 1;
+        } else {
+            col++;
+        }
+
+        return c;
+    }
+
+    /**
+     * Go back one character.
+     * @param c the character that was last read. Unreading {@code -1} (the end of the input) does nothing.
+     */
+    public void unread(int c)
+    {
+        if (c == EOF) {
+            return;
+        }
+
+        cursor--;
+        if (c == '\n') {
+            line--;
+            col = previousCol;
+        } else {
+            col--;
+        }
+    }
+
+    public int peek()
+    {
+        return cursor < end ? input.charAt(cursor) : EOF;
+    }
+
+    /**
+     * Remember the current position, to go back to it with {@link #reset()}. Only the last mark is kept.
+     */
+    public void mark()
+    {
+        markedCursor = cursor;
+        markedLine = line;
+        markedPreviousCol = previousCol;
+        markedCol = col;
+    }
+
+    /**
+     * Go back to the position saved by the last call to {@link #mark()}.
+     */
+    public void reset()
+    {
+        cursor = markedCursor;
+        line = markedLine;
+        previousCol = markedPreviousCol;
+        col = markedCol;
+    }
+
+    public String readWordOneOf(boolean requireWhiteOrEndAfter, String... words) throws ParserException
+    {
+        skipWhite();
+        for (String word : words) {
+            if (readWord(word, requireWhiteOrEndAfter)) {
+                return word;
+            }
+        }
+
+        return null;
+    }
+
+    public boolean readWord(String word) throws ParserException
+    {
+        return readWord(word, true);
+    }
+
+    public boolean readWord(String word, boolean requireWhiteOrEndAfter) throws ParserException
+    {
+        return readWord(word, requireWhiteOrEndAfter, ",(");
+    }
+
+    public boolean readWord(String word, boolean requireWhiteOrEndAfter, String endChars) throws ParserException
+    {
+        skipWhite();
+        mark();
+        for (int i = 0, n = word.length(); i < n; i++) {
+            char expectedChar = word.charAt(i);
+            if (Character.isWhitespace(expectedChar)) {
+                throw new ParserException(
+                    "readWord can't be called with whitespace characters, please use a call per word.", getState());
+            }
+            int actualChar = read();
+            if (Character.toLowerCase(expectedChar) != Character.toLowerCase(actualChar)) {
+                reset();
+                return false;
+            }
+        }
+
+        if (!requireWhiteOrEndAfter || isNextCharWhiteOrEnd(endChars)) {
+            return true;
+        }
+
+        reset();
+        return false;
+    }
+
+    public String readAlphaNumericWord()
+    {
+        int wordStart = cursor;
+        if (cursor >= end || !Character.isAlphabetic(input.charAt(cursor))) {
+            return "";
+        }
+
+        do {
+            cursor++;
+        } while (cursor < end && Character.isLetterOrDigit(input.charAt(cursor)));
+
+        // letters and digits are never line breaks
+        col += cursor - wordStart;
+        return input.subSequence(wordStart, cursor).toString();
+    }
+
+    public void skipWhite()
+    {
+        while (cursor < end && Character.isWhitespace(input.charAt(cursor))) {
+            read();
+        }
+    }
+
+    public boolean isNextCharWhiteOrEnd(String endChars)
+    {
+        int c = peek();
+        return c == EOF || Character.isWhitespace(c) || (endChars != null && endChars.indexOf(c) != -1);
+    }
+
+    public boolean maybeEat(char expectedChar)
+    {
+        if (cursor < end && input.charAt(cursor) == expectedChar) {
+            read();
+            return true;
+        }
+
+        return false;
+    }
+
+    AQLParserState getState()
+    {
+        return new AQLParserState(cursor - start, line, col);
+    }
+}
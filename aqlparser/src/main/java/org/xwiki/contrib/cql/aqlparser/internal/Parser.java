@@ -19,7 +19,6 @@
  */
 package org.xwiki.contrib.cql.aqlparser.internal;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -37,6 +36,7 @@ import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLOrderByClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
@@ -79,30 +79,36 @@ public class Parser
 
     private static final String[] ATOM_OPS = ATOM_OPS_MAP.keySet().toArray(new String[0]);
 
-    private final AQLReader reader;
+    private static final int MAX_PARAMETER_INDEX_LENGTH = 9;
+
+    private final AQLLexer lexer;
+
+    private int positionalParameterCount;
+
+    private boolean numberedParameters;
 
     /**
-     * @param aqlStatement the CQL statement to parse.
+     * @param aqlStatement the CQL statement to parse. It is read in place and must not change during the parsing.
      */
-    public Parser(String aqlStatement) throws ParserException
+    public Parser(CharSequence aqlStatement) throws ParserException
     {
-        if (aqlStatement.isEmpty()) {
+        if (aqlStatement.length() == 0) {
             throw new ParserException("The CQL expression is empty", new AQLParserState(0, 0, 0));
         }
-        this.reader = new AQLReader(aqlStatement);
+        this.lexer = new AQLLexer(aqlStatement);
     }
 
     /**
      * Parse the CQL statement used to initialize the class. Can only be called once.
      * @return the AST corresponding to the aqlStatement.
      */
-    public AQLStatement parse() throws ParserException, IOException
+    public AQLStatement parse() throws ParserException
     {
-        AQLParserState state = reader.getState();
+        AQLParserState state = lexer.getState();
         List<AQLClauseWithNextOperator> clausesWithNextOperator = parseClausesWithNextOperator();
         List<AQLOrderByClause> orderByClauses = maybeParseOrderByClauses();
         AQLStatement expression = new AQLStatement(state, clausesWithNextOperator, orderByClauses);
-        int c = this.reader.read();
+        int c = this.lexer.read();
         if (c != -1) {
             String maybe = "";
             if (expression.getOrderByClauses().isEmpty()) {
@@ -114,40 +120,40 @@ public class Parser
         return expression;
     }
 
-    List<AQLOrderByClause> maybeParseOrderByClauses() throws ParserException, IOException
+    List<AQLOrderByClause> maybeParseOrderByClauses() throws ParserException
     {
-        if (this.reader.readWord("order")) {
+        if (this.lexer.readWord("order")) {
             eat("by");
             List<AQLOrderByClause> orderByClauses = new ArrayList<>();
             int c;
             do {
-                this.reader.skipWhite();
+                this.lexer.skipWhite();
                 orderByClauses.add(parseOrderByClause());
-                this.reader.skipWhite();
-                c = this.reader.read();
+                this.lexer.skipWhite();
+                c = this.lexer.read();
             } while (c == ',');
-            this.reader.unread(c);
+            this.lexer.unread(c);
             return orderByClauses;
         }
         return Collections.emptyList();
     }
 
-    AQLOrderByClause parseOrderByClause() throws ParserException, IOException
+    AQLOrderByClause parseOrderByClause() throws ParserException
     {
-        AQLParserState state = this.reader.getState();
+        AQLParserState state = this.lexer.getState();
         String field = parseField();
-        this.reader.skipWhite();
+        this.lexer.skipWhite();
         boolean desc = false;
-        if (this.reader.readWord("desc")) {
+        if (this.lexer.readWord("desc")) {
             desc = true;
         } else {
-            this.reader.readWord("asc");
+            this.lexer.readWord("asc");
         }
 
         return new AQLOrderByClause(state, field, desc);
     }
 
-    List<AQLClauseWithNextOperator> parseClausesWithNextOperator() throws ParserException, IOException
+    List<AQLClauseWithNextOperator> parseClausesWithNextOperator() throws ParserException
     {
         List<AQLClauseWithNextOperator> clauses = new ArrayList<>();
         AQLClauseWithNextOperator clause;
@@ -158,28 +164,28 @@ public class Parser
         return clauses;
     }
 
-    AQLClauseWithNextOperator parseClauseWithNextOperator() throws ParserException, IOException
+    AQLClauseWithNextOperator parseClauseWithNextOperator() throws ParserException
     {
         AbstractAQLClause clause;
-        this.reader.skipWhite();
-        if (this.reader.maybeEat('(')) {
-            clause = new AQLClausesWithNextOperator(this.reader.getState(), parseClausesWithNextOperator());
-            this.reader.skipWhite();
+        this.lexer.skipWhite();
+        if (this.lexer.maybeEat('(')) {
+            clause = new AQLClausesWithNextOperator(this.lexer.getState(), parseClausesWithNextOperator());
+            this.lexer.skipWhite();
             eatClosingParenthesis();
         } else {
             clause = parseAtom();
         }
 
-        return new AQLClauseWithNextOperator(this.reader.getState(), clause, maybeParseClauseOperator());
+        return new AQLClauseWithNextOperator(this.lexer.getState(), clause, maybeParseClauseOperator());
     }
 
-    private AQLAtomicClause parseAtom() throws ParserException, IOException
+    private AQLAtomicClause parseAtom() throws ParserException
     {
-        AQLParserState state = this.reader.getState();
+        AQLParserState state = this.lexer.getState();
         String field = parseField();
-        this.reader.skipWhite();
+        this.lexer.skipWhite();
         AQLAtomicClauseOperator op = parseAtomOperator();
-        this.reader.skipWhite();
+        this.lexer.skipWhite();
         AbstractAQLRightHandValue right = op.getOperator() == AQLOperator.IN || op.getOperator() == AQLOperator.NOT_IN
             ? parseInExpr()
             : parseAtomicValue(false);
@@ -187,39 +193,43 @@ public class Parser
         return new AQLAtomicClause(state, field, op, right);
     }
 
-    private AQLInExpression parseInExpr() throws ParserException, IOException
+    private AQLInExpression parseInExpr() throws ParserException
     {
-        AQLParserState state = reader.getState();
+        AQLParserState state = lexer.getState();
         List<AbstractAQLAtomicValue> values = new ArrayList<>();
         eatOpeningParenthesis();
         do {
             values.add(parseAtomicValue(true));
-            this.reader.skipWhite();
-        } while (this.reader.maybeEat(','));
+            this.lexer.skipWhite();
+        } while (this.lexer.maybeEat(','));
         eatClosingParenthesis();
         return new AQLInExpression(state, values);
     }
 
-    private AbstractAQLAtomicValue parseAtomicValue(boolean inParentheses) throws ParserException, IOException
+    private AbstractAQLAtomicValue parseAtomicValue(boolean inParentheses) throws ParserException
     {
-        this.reader.skipWhite();
-        AQLParserState state = this.reader.getState();
+        this.lexer.skipWhite();
+        AQLParserState state = this.lexer.getState();
 
-        int c = this.reader.read();
+        int c = this.lexer.read();
 
         if (c == '"' || c == '\'') {
             return parseRemainingString(state, c);
         }
 
         if (Character.isDigit(c) || c == '.') {
-            return parseRemainingNumberOrDate(c, state, this.reader);
+            return parseRemainingNumberOrDate(c, state, this.lexer);
         }
 
         if (Character.isAlphabetic(c)) {
             return parseRemainingAtomicValue(c, state);
         }
 
-        this.reader.unread(c);
+        if (c == '?' || c == ':') {
+            return parseRemainingParameter(c, state);
+        }
+
+        this.lexer.unread(c);
         if (inParentheses && c == ')') {
             error("Expected a value before closing parenthesis ')'");
         }
@@ -229,25 +239,25 @@ public class Parser
     }
 
     private AbstractAQLAtomicValue parseRemainingAtomicValue(int first, AQLParserState state)
-        throws IOException, ParserException
+        throws ParserException
     {
         StringBuilder identifier = new StringBuilder();
         int c = first;
         do {
             identifier.append((char) c);
-            c = this.reader.read();
+            c = this.lexer.read();
         } while (c == '_' || c == '.' || Character.isLetterOrDigit(c));
 
         if (Character.isWhitespace(c)) {
-            this.reader.skipWhite();
-            c = this.reader.read();
+            this.lexer.skipWhite();
+            c = this.lexer.read();
         }
 
         if (c == '(') {
             return new AQLFunctionCall(state, identifier.toString(), parseRemainingFunctionCallArguments());
         }
 
-        this.reader.unread(c);
+        this.lexer.unread(c);
 
         String lower = identifier.toString().toLowerCase();
         if (TRUE.equals(lower) || FALSE.equals(lower)) {
@@ -257,10 +267,53 @@ public class Parser
         return new AQLStringLiteral(state, identifier.toString());
     }
 
-    private List<AbstractAQLAtomicValue> parseRemainingFunctionCallArguments() throws ParserException, IOException
+    private AQLParameter parseRemainingParameter(int first, AQLParserState state) throws ParserException
+    {
+        if (first == ':') {
+            String name = this.lexer.readAlphaNumericWord();
+            if (name.isEmpty()) {
+                error("Expected the name of the parameter after ':'");
+            }
+            return new AQLParameter(state, name);
+        }
+
+        StringBuilder index = new StringBuilder();
+        int c = this.lexer.read();
+        while (Character.isDigit(c)) {
+            index.append((char) c);
+            c = this.lexer.read();
+        }
+        this.lexer.unread(c);
+
+        // The position of '?' would be ambiguous next to numbered parameters, as in JDBC and JPA.
+        if (index.length() == 0) {
+            if (this.numberedParameters) {
+                mixedPositionalParametersError();
+            }
+            this.positionalParameterCount++;
+            return new AQLParameter(state, this.positionalParameterCount);
+        }
+
+        if (this.positionalParameterCount > 0) {
+            mixedPositionalParametersError();
+        }
+        int i = index.length() > MAX_PARAMETER_INDEX_LENGTH ? 0 : Integer.parseInt(index.toString());
+        if (i < 1) {
+            error("Expected a parameter position starting at 1 after '?'");
+        }
+        this.numberedParameters = true;
+        return new AQLParameter(state, i);
+    }
+
+    private void mixedPositionalParametersError() throws ParserException
+    {
+        error("Parameters [?] and numbered parameters like [?1] cannot be used in the same statement");
+    }
+
+    private List<AbstractAQLAtomicValue> parseRemainingFunctionCallArguments() throws ParserException
     {
-        this.reader.skipWhite();
-        if (this.reader.maybeEat(')')) {
+        this.lexer.skipWhite();
+        if (this.lexer.maybeEat(')')) {
             return Collections.emptyList();
         }
 
@@ -268,8 +321,8 @@ public class Parser
         int c;
         do {
             arguments.add(parseAtomicValue(true));
-            this.reader.skipWhite();
-            c = this.reader.read();
+            this.lexer.skipWhite();
+            c = this.lexer.read();
         } while (c == ',');
 
         if (c != ')') {
@@ -279,10 +332,10 @@ public class Parser
         return arguments;
     }
 
-    private static AbstractAQLAtomicValue parseRemainingNumberOrDate(int first, AQLParserState state, AQLReader r)
-        throws IOException, ParserException
+    private static AbstractAQLAtomicValue parseRemainingNumberOrDate(int first, AQLParserState state, AQLLexer r)
+        throws ParserException
     {
-        // In this method, we use the passed reader and not this.reader, because it can be used for trying to parse a
+        // In this method, we use the passed lexer and not this.lexer, because it can be used for trying to parse a
         // date in an already parsed string
 
         StringBuilder number = new StringBuilder();
@@ -330,8 +383,7 @@ public class Parser
         return c == -1 || Character.isWhitespace(c) || ",()".indexOf((char) c) != -1;
     }
 
-    private static boolean parseRemainingFloat(StringBuilder number, AQLReader r, int first)
-        throws IOException
+    private static boolean parseRemainingFloat(StringBuilder number, AQLLexer r, int first)
     {
         int c = first;
         boolean ok = true;
@@ -367,8 +419,8 @@ public class Parser
         return ok;
     }
 
-    private static AQLDateLiteral parseRemainingDate(char dateSep, int year, AQLParserState state, AQLReader r)
-        throws IOException, ParserException
+    private static AQLDateLiteral parseRemainingDate(char dateSep, int year, AQLParserState state, AQLLexer r)
+        throws ParserException
     {
         int month = parseDatePart(dateSep, state, r, false);
         int day = parseDatePart(dateSep, state, r, true);
@@ -390,8 +442,8 @@ public class Parser
         return new AQLDateLiteral(state, year, month, day, hours, minutes);
     }
 
-    private static int parseDatePart(int dateSep, AQLParserState state, AQLReader r, boolean allowEnd)
-        throws IOException, ParserException
+    private static int parseDatePart(int dateSep, AQLParserState state, AQLLexer r, boolean allowEnd)
+        throws ParserException
     {
         StringBuilder atom = new StringBuilder();
         int c = r.read();
@@ -412,17 +464,17 @@ public class Parser
     }
 
     private AbstractAQLAtomicValue parseRemainingString(AQLParserState state, int quote)
-        throws IOException, ParserException
+        throws ParserException
     {
         StringBuilder builder = new StringBuilder();
         while (true) {
-            int c = this.reader.read();
+            int c = this.lexer.read();
             switch (c) {
                 case -1:
                     error("Unexpected end, expected the end of string started at [{}]", state);
                     break;
                 case '\\':
-                    c = this.reader.read();
+                    c = this.lexer.read();
                     if (c == -1) {
                         error("Unexpected end, expected an escaped character after '\\', and the end of string "
                             + "started at [{}]", state);
@@ -442,31 +494,42 @@ public class Parser
     }
 
     private AbstractAQLAtomicValue parseEndString(AQLParserState state, StringBuilder builder)
-        throws IOException
     {
         String str = builder.toString();
+        // Dates can be quoted, especially those which contain hours and minutes so let's try parsing
+        // this string as date
+        AQLDateLiteral date = parseDate(str, state);
+        return date == null ? new AQLStringLiteral(state, str) : date;
+    }
+
+    /**
+     * @param str the string to parse
+     * @param state the state of the parser to give to the date literal
+     * @return the date literal written in the string, or null if the string is not a CQL date
+     * @since 0.0.3
+     */
+    public static AQLDateLiteral parseDate(String str, AQLParserState state)
+    {
         if (!str.isEmpty() && Character.isDigit(str.charAt(0))) {
-            // Dates can be quoted, especially those which contain hours and minutes so let's try parsing
-            // this string as date
             try {
-                AQLReader r = new AQLReader(str.substring(1));
+                AQLLexer r = new AQLLexer(str, 1);
                 AbstractAQLAtomicValue v = parseRemainingNumberOrDate(str.charAt(0), state, r);
                 if (r.read() == -1 && v instanceof AQLDateLiteral) {
                     // Only return a date literal if the whole string has been read; parseRemainingNumberOrDate can
                     // return a number literal, and we don't want this instead of a string literal.
-                    return v;
+                    return (AQLDateLiteral) v;
                 }
             } catch (ParserException e) {
-                // Well, this failed, so this is likely a regular string. Let's just produce a string literal.
+                // Well, this failed, so this is likely a regular string.
             }
         }
-        return new AQLStringLiteral(state, str);
+        return null;
     }
 
-    private String parseField() throws IOException, ParserException
+    private String parseField() throws ParserException
     {
-        String field = this.reader.readAlphaNumericWord();
-        if (this.reader.maybeEat('.')) {
+        String field = this.lexer.readAlphaNumericWord();
+        if (this.lexer.maybeEat('.')) {
             field += '.';
             field += parseField();
         }
@@ -476,22 +539,22 @@ public class Parser
         return field.toLowerCase();
     }
 
-    private AQLAtomicClauseOperator parseAtomOperator() throws ParserException, IOException
+    private AQLAtomicClauseOperator parseAtomOperator() throws ParserException
     {
-        this.reader.skipWhite();
+        this.lexer.skipWhite();
 
-        AQLParserState state = this.reader.getState();
+        AQLParserState state = this.lexer.getState();
 
-        if (this.reader.readWord(NOT)) {
+        if (this.lexer.readWord(NOT)) {
             eat(IN);
             return new AQLAtomicClauseOperator(state, AQLOperator.NOT_IN);
         }
 
-        if (this.reader.readWord(IN)) {
+        if (this.lexer.readWord(IN)) {
             return new AQLAtomicClauseOperator(state, AQLOperator.IN);
         }
 
-        String op = this.reader.readWordOneOf(false, ATOM_OPS);
+        String op = this.lexer.readWordOneOf(false, ATOM_OPS);
         if (op == null) {
             error("Expected a CQL operator among [IN, NOT IN, {}]", String.join(", ", ATOM_OPS));
         }
@@ -499,24 +562,24 @@ public class Parser
         return new AQLAtomicClauseOperator(state, ATOM_OPS_MAP.get(op));
     }
 
-    private AQLClauseOperator maybeParseClauseOperator() throws ParserException, IOException
+    private AQLClauseOperator maybeParseClauseOperator() throws ParserException
     {
-        reader.skipWhite();
-        AQLParserState state = this.reader.getState();
-        String op = this.reader.readWordOneOf(true, AND, OR);
+        lexer.skipWhite();
+        AQLParserState state = this.lexer.getState();
+        String op = this.lexer.readWordOneOf(true, AND, OR);
         if (op == null) {
             return null;
         }
 
         boolean isAnd = AND.equals(op);
-        boolean isNot = this.reader.readWord(NOT);
+        boolean isNot = this.lexer.readWord(NOT);
         return new AQLClauseOperator(state, isAnd, isNot);
     }
 
-    private void eat(String expectedWord) throws ParserException, IOException
+    private void eat(String expectedWord) throws ParserException
     {
-        this.reader.skipWhite();
-        if (!this.reader.readWord(expectedWord, false)) {
+        this.lexer.skipWhite();
+        if (!this.lexer.readWord(expectedWord, false)) {
             errorExpected(expectedWord);
         }
     }
@@ -526,16 +589,16 @@ public class Parser
         error("Expected [{}]", expectedCharOrWord);
     }
 
-    private void eatClosingParenthesis() throws ParserException, IOException
+    private void eatClosingParenthesis() throws ParserException
     {
-        if (this.reader.read() != ')') {
+        if (this.lexer.read() != ')') {
             error("Expected closing parenthesis ')'");
         }
     }
 
-    private void eatOpeningParenthesis() throws ParserException, IOException
+    private void eatOpeningParenthesis() throws ParserException
     {
-        if (this.reader.read() != '(') {
+        if (this.lexer.read() != '(') {
             error("Expected opening parenthesis '('");
         }
     }
@@ -543,12 +606,12 @@ public class Parser
 
     private void error(String message, Object... parameters) throws ParserException
     {
-        error(this.reader, message, parameters);
+        error(this.lexer, message, parameters);
     }
 
-    private static void error(AQLReader reader, String message, Object... parameters) throws ParserException
+    private static void error(AQLLexer lexer, String message, Object... parameters) throws ParserException
     {
-        AQLParserState state = reader.getState();
+        AQLParserState state = lexer.getState();
 
         error(state, message, parameters);
     }
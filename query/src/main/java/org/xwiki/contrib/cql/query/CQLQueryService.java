@@ -0,0 +1,339 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.solr.common.SolrDocument;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLQueryExecutor;
+import org.xwiki.contrib.cql.query.internal.CQLSingleFlight.QueryExecution;
+import org.xwiki.contrib.cql.query.internal.SolrQueryKey;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryExecutor;
+import org.xwiki.stability.Unstable;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Executes CQL queries without blocking the calling thread, so that a request can run several queries at the same
+ * time, or do something else while Solr answers.
+ * <p>
+ * The queries are executed by a bounded pool of threads ({@code cql.async.threads}), in a new execution context with
+ * the wiki, the user, the current document and the locale of the thread submitting them, so that the statement is
+ * converted and the results are filtered as if the query was executed by this thread. When too many queries are
+ * already waiting for a thread ({@code cql.async.queueSize}), the query is executed right away by the submitting
+ * thread instead, and the returned future is already completed. The queries still waiting for a thread when the
+ * service is disposed are cancelled.
+ * <p>
+ * Several CQL queries can also be executed as a batch, sharing their conversion and their identical Solr requests,
+ * and the results of a query can be streamed, for exports and reports going through all of them.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLQueryService.class)
+@Singleton
+@Unstable
+public class CQLQueryService implements Initializable, Disposable
+{
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    @Named(CQLQueryExecutor.CQL)
+    private QueryExecutor queryExecutor;
+
+    @Inject
+    private Logger logger;
+
+    private ThreadPoolExecutor executor;
+
+    private final AtomicLong callerExecutions = new AtomicLong();
+
+    /**
+     * A query execution submitted to the pool of threads, which can be cancelled if it never gets a thread.
+     */
+    private static final class BackgroundExecution implements Runnable
+    {
+        private final Runnable execution;
+
+        private final CompletableFuture<?> future;
+
+        BackgroundExecution(Runnable execution, CompletableFuture<?> future)
+        {
+            this.execution = execution;
+            this.future = future;
+        }
+
+        @Override
+        public void run()
+        {
+            this.execution.run();
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int threads = Math.max(1, this.configuration.getAsyncThreads());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(Math.max(1, this.configuration.getAsyncQueueSize())), runnable -> {
+                Thread thread = new Thread(runnable, "CQL query executor " + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Execute the given query in the background.
+     *
+     * @param <T> the expected type of the results
+     * @param query the query to execute, usually a CQL query. It must not be modified until the returned future is
+     *     completed.
+     * @return the future result of the query, completed exceptionally with a {@link QueryException} if the query
+     *     fails, or with a {@link CancellationException} if the service is disposed before the query is executed
+     */
+    public <T> CompletableFuture<List<T>> executeAsync(Query query)
+    {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        submit(query::execute, future, getContextInitializer());
+        return future;
+    }
+
+    /**
+     * Execute the given CQL queries together, for instance the queries of all the CQL macros of a page. The
+     * statements are converted at once, resolving the Confluence ids used by all of them in one go. Queries converted
+     * to the same Solr query, with the same parameters, are executed only once, and the distinct Solr queries are
+     * executed in the background, at most {@code cql.batch.parallelism} of them at the same time.
+     *
+     * @param <T> the expected type of the results
+     * @param queries the CQL queries to execute. They must not be modified until the returned futures are completed.
+     * @return the future results of the queries, in the order of the given queries. Each future is completed
+     *     exceptionally with a {@link QueryException} if its query fails, independently of the other queries.
+     */
+    public <T> List<CompletableFuture<List<T>>> executeBatch(List<Query> queries)
+    {
+        XWikiContext xcontext = this.contextProvider.get();
+        String wiki = xcontext.getWikiId();
+        DocumentReference user = xcontext.getUserReference();
+        Consumer<XWikiContext> contextInitializer = getContextInitializer();
+        CQLQueryExecutor cqlQueryExecutor = (CQLQueryExecutor) this.queryExecutor;
+
+        Map<String, CompletableFuture<List<T>>> distinctResults = new HashMap<>();
+        Queue<Runnable> pendingExecutions = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<List<T>>> results = new ArrayList<>(queries.size());
+        for (CompletableFuture<Query> conversion : cqlQueryExecutor.toSolrQueries(queries)) {
+            if (conversion.isCompletedExceptionally()) {
+                results.add(conversion.thenApply(solrQuery -> null));
+                continue;
+            }
+
+            Query solrQuery = conversion.join();
+            String key = SolrQueryKey.getKey(solrQuery.getWiki() == null ? wiki : solrQuery.getWiki(), user,
+                solrQuery);
+            CompletableFuture<List<T>> result = distinctResults.computeIfAbsent(key, k -> {
+                CompletableFuture<List<T>> future = new CompletableFuture<>();
+                // Start the next pending execution of the batch once this one is done.
+                future.whenComplete((r, e) -> runNext(pendingExecutions));
+                pendingExecutions.add(() -> submit(() -> cqlQueryExecutor.executeSolrQuery(solrQuery), future,
+                    contextInitializer));
+                return future;
+            });
+            // Each query gets its own future, even when its result is shared.
+            results.add(result.thenApply(Function.identity()));
+        }
+
+        for (int i = 0; i < Math.max(1, this.configuration.getBatchParallelism()); i++) {
+            runNext(pendingExecutions);
+        }
+        return results;
+    }
+
+    /**
+     * Execute the given CQL query and stream all the documents it matches, for instance for an export. The documents
+     * are fetched from Solr lazily, {@code cql.stream.pageSize} at a time, using a Solr cursor: memory stays bounded
+     * and deep pages are as fast as the first ones, unlike with offset paging. The documents are fetched by the
+     * thread consuming the stream.
+     *
+     * @param query the CQL query to execute. Its offset and limit are ignored, use {@link Stream#skip(long)} and
+     *     {@link Stream#limit(long)} instead.
+     * @return the documents matching the query, in the order of the query, using the unique key ({@code id}) of the
+     *     documents as a tiebreaker. The stream throws an {@link IllegalStateException} caused by a
+     *     {@link QueryException} if a page of documents cannot be fetched.
+     * @throws QueryException if the statement cannot be parsed or converted
+     */
+    public Stream<SolrDocument> stream(Query query) throws QueryException
+    {
+        Iterator<SolrDocument> documents = ((CQLQueryExecutor) this.queryExecutor).iterate(query,
+            this.configuration.getStreamPageSize());
+        return StreamSupport.stream(
+            Spliterators.spliteratorUnknownSize(documents, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private static void runNext(Queue<Runnable> pendingExecutions)
+    {
+        Runnable execution = pendingExecutions.poll();
+        if (execution != null) {
+            execution.run();
+        }
+    }
+
+    /**
+     * @return a function setting the wiki, the user, the current document and the locale of the current thread in
+     *     the context of a background thread
+     */
+    private Consumer<XWikiContext> getContextInitializer()
+    {
+        XWikiContext xcontext = this.contextProvider.get();
+        String wiki = xcontext.getWikiId();
+        DocumentReference user = xcontext.getUserReference();
+        // The current document is not thread safe: it is loaded again by the background thread.
+        DocumentReference docRef = xcontext.getDoc() == null ? null : xcontext.getDoc().getDocumentReference();
+        Locale locale = xcontext.getLocale();
+        return backgroundContext -> {
+            backgroundContext.setWikiId(wiki);
+            backgroundContext.setUserReference(user);
+            if (docRef != null) {
+                backgroundContext.setDoc(getDocument(docRef, backgroundContext));
+            }
+            backgroundContext.setLocale(locale);
+        };
+    }
+
+    private XWikiDocument getDocument(DocumentReference docRef, XWikiContext xcontext)
+    {
+        try {
+            return xcontext.getWiki().getDocument(docRef, xcontext);
+        } catch (XWikiException e) {
+            // The statements only need the reference of the current document.
+            this.logger.warn("Failed to load the current document [{}] of a CQL query", docRef, e);
+            return new XWikiDocument(docRef);
+        }
+    }
+
+    private <T> void submit(QueryExecution<T> execution, CompletableFuture<List<T>> future,
+        Consumer<XWikiContext> contextInitializer)
+    {
+        Runnable backgroundExecution = () -> {
+            contextInitializer.accept(this.contextProvider.get());
+            execute(execution, future);
+        };
+
+        try {
+            this.executor.execute(new BackgroundExecution(
+                new ExecutionContextRunnable(backgroundExecution, this.componentManager), future));
+        } catch (RejectedExecutionException e) {
+            if (this.executor.isShutdown()) {
+                // The service is disposed, for instance while a batch is still running.
+                future.cancel(false);
+                return;
+            }
+
+            // Too many queries are waiting: slow the submitting thread down rather than queueing without limit. The
+            // query is executed in the current execution context, which already has the right wiki and user.
+            this.callerExecutions.incrementAndGet();
+            execute(execution, future);
+        }
+    }
+
+    private static <T> void execute(QueryExecution<T> execution, CompletableFuture<List<T>> future)
+    {
+        try {
+            future.complete(execution.execute());
+        } catch (QueryException | RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * @return the number of asynchronous queries submitted and not completed yet, including the ones being executed
+     */
+    public int getPendingQueryCount()
+    {
+        return this.executor.getQueue().size() + this.executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of asynchronous queries executed by the submitting thread because too many queries were
+     *     waiting
+     */
+    public long getCallerExecutionCount()
+    {
+        return this.callerExecutions.get();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        // Don't leave the callers waiting for the queries which won't be executed.
+        for (Runnable pendingExecution : this.executor.shutdownNow()) {
+            ((BackgroundExecution) pendingExecution).future.cancel(false);
+        }
+    }
+}
@@ -38,4 +38,27 @@ public interface CQLToSolrAtomConverter
      * @throws ConversionException if something wrong happens
      */
     String convertToSolr(AQLAtomicClause atom) throws ConversionException;
+
+    /**
+     * Append the given CQL atom converted to a Solr atom to the statement being built. The default implementation
+     * appends the result of {@link #convertToSolr(AQLAtomicClause)}; converters can override it to avoid creating an
+     * intermediate string.
+     *
+     * @param atom the atom to convert
+     * @param solrStatement the statement being built
+     * @return whether the atom was converted. When false, nothing was appended.
+     * @throws ConversionException if something wrong happens
+     * @since 0.0.3
+     */
+    default boolean convertToSolr(AQLAtomicClause atom, SolrStatementBuilder solrStatement)
+        throws ConversionException
+    {
+        String solrAtom = convertToSolr(atom);
+        if (solrAtom == null) {
+            return false;
+        }
+
+        solrStatement.append(solrAtom);
+        return true;
+    }
 }
@@ -0,0 +1,93 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Converts the CQL fields a caller needs in the results of a query to the list of stored Solr fields to fetch (the
+ * {@code fl} parameter), so that Solr doesn't return all the stored fields, including large ones such as the content
+ * of the documents. The fields identifying the documents are always fetched.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLToSolrFieldListConverter.class)
+@Singleton
+@Unstable
+public class CQLToSolrFieldListConverter
+{
+    private static final String ID_SOLR_FIELD = "id";
+
+    // The Solr unique key and the fields needed to build the reference of a document.
+    private static final List<String> DOCUMENT_SOLR_FIELDS =
+        Arrays.asList(ID_SOLR_FIELD, "type", "wiki", "spaces", "name", "locale");
+
+    private static final String AUTHOR_SOLR_FIELD = "author";
+    private static final String DOCCONTENTRAW_FIELD = "doccontentraw";
+
+    private static final Map<String, String> SOLR_FIELD_BY_CQL_FIELD = new HashMap<>();
+    static {
+        SOLR_FIELD_BY_CQL_FIELD.put("creator", "creator");
+        SOLR_FIELD_BY_CQL_FIELD.put("contributor", AUTHOR_SOLR_FIELD);
+        SOLR_FIELD_BY_CQL_FIELD.put("user", AUTHOR_SOLR_FIELD);
+        SOLR_FIELD_BY_CQL_FIELD.put("user.fullname", "author_display");
+        SOLR_FIELD_BY_CQL_FIELD.put("user.accountid", AUTHOR_SOLR_FIELD);
+        // Like in the conditions, content designates the document itself, not its text.
+        SOLR_FIELD_BY_CQL_FIELD.put("content", ID_SOLR_FIELD);
+        SOLR_FIELD_BY_CQL_FIELD.put("id", ID_SOLR_FIELD);
+        SOLR_FIELD_BY_CQL_FIELD.put("title", "title_*");
+        SOLR_FIELD_BY_CQL_FIELD.put("created", "creationdate");
+        SOLR_FIELD_BY_CQL_FIELD.put("lastmodified", "date");
+        SOLR_FIELD_BY_CQL_FIELD.put("text", DOCCONTENTRAW_FIELD);
+        SOLR_FIELD_BY_CQL_FIELD.put("space", "space");
+        SOLR_FIELD_BY_CQL_FIELD.put("label", "property.XWiki.TagClass.tags");
+    }
+
+    /**
+     * @param cqlFields the CQL fields to return, for instance "title" or "lastmodified"
+     * @return the Solr fields to fetch, separated by commas, starting with the fields identifying the documents
+     * @throws ConversionException if one of the fields cannot be returned
+     */
+    public String getSolrFieldList(Collection<String> cqlFields) throws ConversionException
+    {
+        Set<String> solrFields = new LinkedHashSet<>(DOCUMENT_SOLR_FIELDS);
+        for (String cqlField : cqlFields) {
+            String solrField = SOLR_FIELD_BY_CQL_FIELD.get(cqlField.trim().toLowerCase());
+            if (solrField == null) {
+                throw new ConversionException(String.format("Field [%s] cannot be returned", cqlField.trim()),
+                    null);
+            }
+            solrFields.add(solrField);
+        }
+        return String.join(",", solrFields);
+    }
+}
@@ -21,24 +21,39 @@ package org.xwiki.contrib.cql.query.converters;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
-import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLOrderByClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
-import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator;
-import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAndExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLConstantClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNotExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLOrExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLRangeExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanOperation;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdPrefetcher;
+import org.xwiki.contrib.cql.query.converters.internal.ContextSlotValueProvider;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
 import org.xwiki.stability.Unstable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import static org.xwiki.contrib.cql.query.converters.Utils.betweenParentheses;
-
 /**
  * Translates a CQL query to a Solr Query.
  * @version $Id$
@@ -51,6 +66,20 @@ public class CQLToSolrQueryConverter
 {
     private static final String UNEXP = " This is unexpected, please report an issue";
 
+    private static final String SPACED_AND = " AND ";
+
+    private static final String MATCH_ALL = "*:*";
+
+    private static final String MATCH_NONE = "-*:*";
+
+    // Solr local parameter keeping a filter query out of the filter cache.
+    private static final String NO_CACHE = "{!cache=false}";
+
+    private static final String NOW = "now";
+
+    // The fields for which matching documents should be ranked by relevance.
+    private static final List<String> SCORING_CQL_FIELDS = Arrays.asList("text", "title");
+
     @Inject
     @Named("")
     private CQLToSolrAtomConverter atomConverter;
@@ -59,7 +88,211 @@ public class CQLToSolrQueryConverter
     private CQLToSolrSortFieldConverter sortFieldConverter;
 
     @Inject
-    private ComponentManager componentManager;
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private ContextSlotValueProvider contextSlotValueProvider;
+
+    @Inject
+    private ConfluenceIdPrefetcher idPrefetcher;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    /**
+     * Convert the given CQL statement independently of the execution context. The result can be kept and used for
+     * later executions with {@link #getSolrStatement(CompiledCQLStatement)} and
+     * {@link #getSolrFilterQueries(CompiledCQLStatement)}.
+     * When the statement is a conjunction, the operands which don't need to be scored are converted to separate filter
+     * queries.
+     * @return the compiled statement
+     * @param cql the cql statement
+     * @throws ConversionException if something wrong happens
+     * @since 0.0.3
+     */
+    public CompiledCQLStatement compile(AQLStatement cql) throws ConversionException
+    {
+        AbstractAQLBooleanExpression expression = cql.getBooleanExpression();
+        // The statement is still converted to report its errors.
+        boolean matchingNothing = CQLClauses.isMatchingNothing(expression);
+        if (!configuration.isFilterQuerySplitEnabled() || expression instanceof AQLOrExpression) {
+            return new CompiledCQLStatement(SolrStatementTemplate.compile(convertToSolr(cql)),
+                Collections.emptyList(), getSolrSortParameter(cql), matchingNothing);
+        }
+
+        List<AbstractAQLBooleanExpression> operands = expression instanceof AQLAndExpression
+            ? ((AQLAndExpression) expression).getOperands()
+            : Collections.singletonList(expression);
+        List<String> mainClauses = new ArrayList<>(operands.size());
+        List<SolrStatementTemplate> filterQueries = new ArrayList<>(operands.size());
+        SolrStatementBuilder solrClause = new SolrStatementBuilder();
+        idPrefetcher.prefetch(cql);
+        try {
+            for (AbstractAQLBooleanExpression operand : operands) {
+                solrClause.setLength(0);
+                convertOperandToSolr(operand, solrClause);
+                if (isFilter(operand)) {
+                    filterQueries.add(SolrStatementTemplate.compile(isUsingExactCurrentTime(operand)
+                        ? NO_CACHE + solrClause : solrClause.toString()));
+                } else {
+                    mainClauses.add(solrClause.toString());
+                }
+            }
+        } finally {
+            idPrefetcher.clear();
+        }
+
+        solrClause.setLength(0);
+        return new CompiledCQLStatement(SolrStatementTemplate.compile(joinMainClauses(mainClauses, solrClause)),
+            filterQueries, getSolrSortParameter(cql), matchingNothing);
+    }
+
+    /**
+     * @return the Solr filter queries of the given compiled statement, in the current execution context
+     * @param compiled the compiled statement
+     * @throws ConversionException if something wrong happens
+     * @since 0.0.3
+     */
+    public List<String> getSolrFilterQueries(CompiledCQLStatement compiled) throws ConversionException
+    {
+        return getSolrFilterQueries(compiled, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * @return the Solr filter queries of the given compiled statement, in the current execution context and with the
+     *         given values bound to its parameters
+     * @param compiled the compiled statement
+     * @param namedValues the values bound to the named parameters ({@code :name})
+     * @param positionalValues the values bound to the positional parameters ({@code ?}), by position starting at 1
+     * @throws ConversionException if a parameter has no value, or if something else wrong happens
+     * @since 0.0.3
+     */
+    public List<String> getSolrFilterQueries(CompiledCQLStatement compiled, Map<String, ?> namedValues,
+        Map<Integer, ?> positionalValues) throws ConversionException
+    {
+        SolrStatementTemplate.SlotValueProvider provider = new BoundSlotValueProvider(namedValues, positionalValues);
+        List<String> filterQueries = new ArrayList<>(compiled.getFilterQueries().size());
+        for (SolrStatementTemplate filterQuery : compiled.getFilterQueries()) {
+            filterQueries.add(filterQuery.fill(provider));
+        }
+        return filterQueries;
+    }
+
+    private static boolean isFilter(AbstractAQLBooleanExpression expression)
+    {
+        if (expression instanceof AQLClauseExpression) {
+            AbstractAQLClause clause = ((AQLClauseExpression) expression).getClause();
+            if (clause instanceof AQLAtomicClause) {
+                AQLAtomicClause atom = (AQLAtomicClause) clause;
+                AQLOperator op = atom.getOp().getOperator();
+                return op != AQLOperator.CONTAINS && op != AQLOperator.DOES_NOT_CONTAIN
+                    && !SCORING_CQL_FIELDS.contains(atom.getField().toLowerCase());
+            }
+
+            // Constant clauses don't need to be scored.
+            return clause instanceof AQLConstantClause;
+        }
+
+        if (expression instanceof AbstractAQLBooleanOperation) {
+            for (AbstractAQLBooleanExpression operand : ((AbstractAQLBooleanOperation) expression).getOperands()) {
+                if (!isFilter(operand)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Excluded documents are not scored, so a negated expression is always a filter.
+        return expression instanceof AQLNotExpression;
+    }
+
+    /**
+     * @return whether the given expression depends on the exact current time, and matches different documents at
+     *     each execution: its results are not worth caching
+     */
+    private boolean isUsingExactCurrentTime(AbstractAQLBooleanExpression expression)
+    {
+        if (configuration.getDateMathRounding() != null) {
+            return false;
+        }
+
+        if (expression instanceof AQLClauseExpression) {
+            AbstractAQLClause clause = ((AQLClauseExpression) expression).getClause();
+            return clause instanceof AQLAtomicClause && isUsingExactCurrentTime(((AQLAtomicClause) clause).getRight());
+        }
+
+        if (expression instanceof AbstractAQLBooleanOperation) {
+            for (AbstractAQLBooleanExpression operand : ((AbstractAQLBooleanOperation) expression).getOperands()) {
+                if (isUsingExactCurrentTime(operand)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        return expression instanceof AQLNotExpression
+            && isUsingExactCurrentTime(((AQLNotExpression) expression).getOperand());
+    }
+
+    private static boolean isUsingExactCurrentTime(AbstractAQLRightHandValue right)
+    {
+        if (right instanceof AQLInExpression) {
+            return ((AQLInExpression) right).getValues().stream()
+                .anyMatch(CQLToSolrQueryConverter::isUsingExactCurrentTime);
+        }
+        if (right instanceof AQLRangeExpression) {
+            // The ranges created by the rewriting of statements keep the original bounds.
+            AQLRangeExpression range = (AQLRangeExpression) right;
+            return isUsingExactCurrentTime(range.getLower()) || isUsingExactCurrentTime(range.getUpper());
+        }
+        return right instanceof AQLFunctionCall && NOW.equals(((AQLFunctionCall) right).getFunctionName());
+    }
+
+    private static String joinMainClauses(List<String> mainClauses, SolrStatementBuilder solrQuery)
+    {
+        if (mainClauses.isEmpty()) {
+            // Everything is filtered by the filter queries.
+            return MATCH_ALL;
+        }
+
+        if (mainClauses.size() == 1) {
+            return mainClauses.get(0);
+        }
+
+        for (String mainClause : mainClauses) {
+            if (solrQuery.length() > 0) {
+                solrQuery.append(SPACED_AND);
+            }
+            solrQuery.append('(').append(mainClause).append(')');
+        }
+        return solrQuery.toString();
+    }
+
+    /**
+     * @return the Solr statement of the given compiled statement, in the current execution context
+     * @param compiled the compiled statement
+     * @throws ConversionException if something wrong happens
+     * @since 0.0.3
+     */
+    public String getSolrStatement(CompiledCQLStatement compiled) throws ConversionException
+    {
+        return getSolrStatement(compiled, Collections.emptyMap(), Collections.emptyMap());
+    }
+
+    /**
+     * @return the Solr statement of the given compiled statement, in the current execution context and with the given
+     *         values bound to its parameters
+     * @param compiled the compiled statement
+     * @param namedValues the values bound to the named parameters ({@code :name})
+     * @param positionalValues the values bound to the positional parameters ({@code ?}), by position starting at 1
+     * @throws ConversionException if a parameter has no value, or if something else wrong happens
+     * @since 0.0.3
+     */
+    public String getSolrStatement(CompiledCQLStatement compiled, Map<String, ?> namedValues,
+        Map<Integer, ?> positionalValues) throws ConversionException
+    {
+        return compiled.getSolrStatement().fill(new BoundSlotValueProvider(namedValues, positionalValues));
+    }
 
     /**
      * @return the Solr sort parameter of the given cql statement
@@ -88,17 +321,15 @@ public class CQLToSolrQueryConverter
         throws ConversionException
     {
         String solrSortParameter = null;
-        List<Object> converters;
+        List<CQLToSolrSortFieldConverter> converters;
 
         try {
-            converters = componentManager.getInstanceList(CQLToSolrSortFieldConverter.class);
+            converters = converterRegistry.getSortFieldConverters();
         } catch (ComponentLookupException e) {
             throw new ConversionException(e, orderByParameter.getParserState());
         }
 
-        for (Object converterObj : converters) {
-            CQLToSolrSortFieldConverter converter = (CQLToSolrSortFieldConverter) converterObj;
-
+        for (CQLToSolrSortFieldConverter converter : converters) {
             if (converter != sortFieldConverter) {
                 solrSortParameter = converter.getSolrSortParameter(cql, orderByParameter, cqlField);
                 if (solrSortParameter != null && !solrSortParameter.isEmpty()) {
@@ -126,68 +357,125 @@ public class CQLToSolrQueryConverter
     public String getSolrStatement(AQLStatement cql)
         throws ConversionException
     {
-        return convertToSolr(cql);
+        return SolrStatementTemplate.compile(convertToSolr(cql)).fill(contextSlotValueProvider);
     }
 
     private String convertToSolr(AQLStatement expression) throws ConversionException
     {
-        return convertToSolr(expression.getClausesWithNextOp());
+        SolrStatementBuilder solrQuery = new SolrStatementBuilder();
+        // Resolve all the Confluence ids of the statement at once instead of one query per id.
+        idPrefetcher.prefetch(expression);
+        try {
+            convertToSolr(expression.getBooleanExpression(), solrQuery);
+        } finally {
+            idPrefetcher.clear();
+        }
+        return solrQuery.toString().trim();
     }
 
-    private String convertToSolr(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    private void convertToSolr(AbstractAQLBooleanExpression expression, SolrStatementBuilder solrQuery)
         throws ConversionException
     {
-        if (clausesWithNextOp.size() == 1) {
-            return convertToSolr(clausesWithNextOp.get(0));
-        }
-
-        StringBuilder solrQuery = new StringBuilder();
-        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
-            String solrClause = convertToSolr(clauseWithNextOp);
-            solrQuery.append(betweenParentheses(solrClause));
-            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
-            if (nextOp != null) {
-                solrQuery.append(nextOp.isAnd() ? " AND " : " OR ").append(nextOp.isNot() ? "-" : "");
+        if (expression instanceof AQLClauseExpression) {
+            convertToSolr(((AQLClauseExpression) expression).getClause(), solrQuery);
+        } else if (expression instanceof AQLNotExpression) {
+            convertOperandToSolr(expression, solrQuery);
+        } else {
+            // The operations are fully parenthesized, so Solr doesn't need to know about the precedence of the
+            // operators.
+            String operator = expression instanceof AQLAndExpression ? SPACED_AND : " OR ";
+            boolean first = true;
+            for (AbstractAQLBooleanExpression operand : ((AbstractAQLBooleanOperation) expression).getOperands()) {
+                if (!first) {
+                    solrQuery.append(operator);
+                }
+                first = false;
+                if (operand instanceof AQLNotExpression && expression instanceof AQLOrExpression) {
+                    // A negated clause of a disjunction would exclude its documents from the whole disjunction in
+                    // Lucene: it has to match all the documents except these ones.
+                    solrQuery.append('(').append(MATCH_ALL).append(' ');
+                    convertOperandToSolr(operand, solrQuery);
+                    solrQuery.append(')');
+                } else if (operand instanceof AQLNotExpression) {
+                    convertOperandToSolr(operand, solrQuery);
+                } else {
+                    solrQuery.append('(');
+                    convertToSolr(operand, solrQuery);
+                    solrQuery.append(')');
+                }
             }
         }
+    }
 
-        return solrQuery.toString().trim();
+    private void convertOperandToSolr(AbstractAQLBooleanExpression operand, SolrStatementBuilder solrQuery)
+        throws ConversionException
+    {
+        if (operand instanceof AQLNotExpression) {
+            solrQuery.append("-(");
+            convertToSolr(((AQLNotExpression) operand).getOperand(), solrQuery);
+            solrQuery.append(')');
+        } else {
+            convertToSolr(operand, solrQuery);
+        }
     }
 
-    private String convertToSolr(AQLClauseWithNextOperator clauseWithNextOp) throws ConversionException
+    private void convertToSolr(AbstractAQLClause clause, SolrStatementBuilder solrQuery) throws ConversionException
     {
-        String solrClause = null;
-        AbstractAQLClause clause = clauseWithNextOp.getClause();
+        int start = solrQuery.length();
         if (clause instanceof AQLAtomicClause) {
-            solrClause = convertToSolr((AQLAtomicClause) clause);
-        } else if (clause instanceof AQLClausesWithNextOperator) {
-            solrClause =
-                convertToSolr(((AQLClausesWithNextOperator) clause).getClausesWithNextOp());
+            convertToSolr((AQLAtomicClause) clause, solrQuery);
+        } else if (clause instanceof AQLConstantClause) {
+            solrQuery.append(((AQLConstantClause) clause).isTrue() ? MATCH_ALL : MATCH_NONE);
         }
 
-        if (solrClause == null || solrClause.isEmpty()) {
+        if (solrQuery.length() == start) {
             throw new ConversionException("BUG: Failed to convert this clause." + UNEXP, clause.getParserState());
         }
+    }
 
-        return solrClause;
+    private void convertToSolr(AQLAtomicClause atom, SolrStatementBuilder solrQuery) throws ConversionException
+    {
+        // Find a specialized converter for this field and use it if any.
+        CQLToSolrAtomConverter converter;
+        try {
+            converter = this.converterRegistry.getAtomConverter(atom.getField().toLowerCase());
+        } catch (ComponentLookupException e) {
+            throw new ConversionException(e, atom.getParserState());
+        }
+
+        if (converter == null || !converter.convertToSolr(atom, solrQuery)) {
+            atomConverter.convertToSolr(atom, solrQuery);
+        }
     }
 
-    private String convertToSolr(AQLAtomicClause atom) throws ConversionException
+    /**
+     * Fills the slots from the execution context and the parameters from the values bound to the query.
+     */
+    private final class BoundSlotValueProvider implements SolrStatementTemplate.SlotValueProvider
     {
-        String result = null;
+        private final Map<String, ?> namedValues;
 
-        // Find a specialized converter for this field and use it if any.
-        String lowerField = atom.getField().toLowerCase();
-        if (this.componentManager.hasComponent(CQLToSolrAtomConverter.class, lowerField)) {
-            CQLToSolrAtomConverter converter;
-            try {
-                converter = this.componentManager.getInstance(CQLToSolrAtomConverter.class, lowerField);
-            } catch (ComponentLookupException e) {
-                throw new ConversionException(e, atom.getParserState());
-            }
-            result = converter.convertToSolr(atom);
+        private final Map<Integer, ?> positionalValues;
+
+        BoundSlotValueProvider(Map<String, ?> namedValues, Map<Integer, ?> positionalValues)
+        {
+            this.namedValues = namedValues;
+            this.positionalValues = positionalValues;
         }
 
-        return result == null ? atomConverter.convertToSolr(atom) : result;
+        @Override
+        public String getValue(SolrStatementTemplate.Slot slot) throws ConversionException
+        {
+            return contextSlotValueProvider.getValue(slot);
+        }
+
+        @Override
+        public String getValue(SolrStatementTemplate.Parameter parameter) throws ConversionException
+        {
+            Object value = parameter.isNamed()
+                ? this.namedValues.get(parameter.getName())
+                : this.positionalValues.get(parameter.getIndex());
+            return contextSlotValueProvider.getParameterValue(parameter, value);
+        }
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A CQL statement converted to Solr, independently of the execution context. The statement is made of a main query,
+ * which is the one scoring the results, and of filter queries restricting the results without affecting their score.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public final class CompiledCQLStatement
+{
+    private final SolrStatementTemplate solrStatement;
+
+    private final List<SolrStatementTemplate> filterQueries;
+
+    private final String solrSortParameter;
+
+    private final boolean matchingNothing;
+
+    private final Set<String> parameterNames;
+
+    /**
+     * @param solrStatement the converted Solr statement
+     * @param solrSortParameter the converted Solr sort parameter
+     * @since 0.0.3
+     */
+    public CompiledCQLStatement(SolrStatementTemplate solrStatement, String solrSortParameter)
+    {
+        this(solrStatement, Collections.emptyList(), solrSortParameter);
+    }
+
+    /**
+     * @param solrStatement the converted main Solr query
+     * @param filterQueries the converted Solr filter queries
+     * @param solrSortParameter the converted Solr sort parameter
+     * @since 0.0.3
+     */
+    public CompiledCQLStatement(SolrStatementTemplate solrStatement, List<SolrStatementTemplate> filterQueries,
+        String solrSortParameter)
+    {
+        this(solrStatement, filterQueries, solrSortParameter, false);
+    }
+
+    /**
+     * @param solrStatement the converted main Solr query
+     * @param filterQueries the converted Solr filter queries
+     * @param solrSortParameter the converted Solr sort parameter
+     * @param matchingNothing whether the statement is known to match nothing, without needing to query Solr
+     * @since 0.0.3
+     */
+    public CompiledCQLStatement(SolrStatementTemplate solrStatement, List<SolrStatementTemplate> filterQueries,
+        String solrSortParameter, boolean matchingNothing)
+    {
+        this.solrStatement = solrStatement;
+        this.filterQueries = Collections.unmodifiableList(filterQueries);
+        this.solrSortParameter = solrSortParameter;
+        this.matchingNothing = matchingNothing;
+
+        Set<String> names = new LinkedHashSet<>();
+        addParameterNames(solrStatement, names);
+        for (SolrStatementTemplate filterQuery : filterQueries) {
+            addParameterNames(filterQuery, names);
+        }
+        this.parameterNames = Collections.unmodifiableSet(names);
+    }
+
+    private static void addParameterNames(SolrStatementTemplate template, Set<String> names)
+    {
+        for (SolrStatementTemplate.Parameter parameter : template.getParameters()) {
+            if (parameter.isNamed()) {
+                names.add(parameter.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the converted Solr main query, with slots for the values depending on the execution context
+     * @since 0.0.3
+     */
+    public SolrStatementTemplate getSolrStatement()
+    {
+        return this.solrStatement;
+    }
+
+    /**
+     * @return the converted Solr filter queries, each of them with slots for the values depending on the execution
+     *         context. All of them must match, in addition to the main query.
+     * @since 0.0.3
+     */
+    public List<SolrStatementTemplate> getFilterQueries()
+    {
+        return this.filterQueries;
+    }
+
+    /**
+     * @return the converted Solr sort parameter
+     * @since 0.0.3
+     */
+    public String getSolrSortParameter()
+    {
+        return this.solrSortParameter;
+    }
+
+    /**
+     * @return whether the statement is known to match nothing, for instance because it contains contradicting
+     *         conditions, in which case Solr doesn't need to be queried
+     * @since 0.0.3
+     */
+    public boolean isMatchingNothing()
+    {
+        return this.matchingNothing;
+    }
+
+    /**
+     * @return the names of the named parameters ({@code :name}) of the statement, whose values need to be bound at
+     *         each execution
+     * @since 0.0.3
+     */
+    public Set<String> getParameterNames()
+    {
+        return this.parameterNames;
+    }
+}
@@ -19,6 +19,10 @@
  */
 package org.xwiki.contrib.cql.query.converters;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.xwiki.component.annotation.Role;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.model.reference.EntityReference;
@@ -38,4 +42,27 @@ public interface ConfluenceIdResolver
      * @throws ConversionException when something bad happens
      */
     EntityReference getDocumentById(AbstractAQLRightHandValue node, long id) throws ConversionException;
+
+    /**
+     * Find several documents at once. Implementations are encouraged to override this method to resolve all the ids
+     * in a single pass; the default implementation resolves them one by one.
+     *
+     * @return the documents in XWiki, by Confluence ID. The ids for which no document is found are not in the map.
+     * @param node the CQL node containing these ids, or null if not applicable
+     * @param ids the Confluence IDs of the documents
+     * @throws ConversionException when something bad happens
+     * @since 0.0.3
+     */
+    default Map<Long, EntityReference> getDocumentsByIds(AbstractAQLRightHandValue node, Collection<Long> ids)
+        throws ConversionException
+    {
+        Map<Long, EntityReference> documents = new HashMap<>(ids.size());
+        for (Long id : ids) {
+            EntityReference docRef = getDocumentById(node, id);
+            if (docRef != null) {
+                documents.put(id, docRef);
+            }
+        }
+        return documents;
+    }
 }
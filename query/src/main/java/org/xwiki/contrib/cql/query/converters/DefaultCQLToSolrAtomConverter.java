@@ -19,7 +19,6 @@
  */
 package org.xwiki.contrib.cql.query.converters;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -30,7 +29,6 @@ import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 import javax.inject.Named;
-import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
@@ -40,20 +38,19 @@ import org.xwiki.contrib.cql.aqlparser.ast.AQLBooleanLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLRangeExpression;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
-import org.xwiki.model.EntityType;
-import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.contrib.cql.query.converters.internal.ContextSlotValueProvider;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
 import org.xwiki.stability.Unstable;
 
-import com.xpn.xwiki.XWikiContext;
-
-import static org.xwiki.contrib.cql.query.converters.Utils.betweenParentheses;
 import static org.xwiki.contrib.cql.query.converters.Utils.escapeSolr;
+import static org.xwiki.contrib.cql.query.converters.Utils.toSolrDate;
 
 /**
  * Default CQL to Solr Atom Converter.
@@ -71,6 +68,16 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
 
     private static final String UNEXP = " This is unexpected, please report an issue";
 
+    private static final String NO_SOLR_EXPRESSION =
+        "BUG: No Solr expressions were generated for this CQL exception." + UNEXP;
+
+    private static final String TO_ANY_INCLUSIVE = " TO *]";
+
+    private static final String FROM_ANY = ":[* TO ";
+
+    // The only date function depending on the exact current time, which can be rounded.
+    private static final String NOW = "now";
+
     private static final String CREATOR = "creator";
     private static final String CONTRIBUTOR = "contributor";
     private static final String USER = "user";
@@ -108,6 +115,11 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
 
     private static final String BLOG_POST_CLASS = "Blog.BlogPostClass";
 
+    // Fields indexed as strings in Solr, for which large IN lists can be sent as a terms query.
+    private static final List<String> TERMS_QUERY_CQL_FIELDS = Arrays.asList(LABEL, SPACE);
+
+    private static final char TERMS_SEPARATOR = ',';
+
     private static final Pattern INC_PATTERN = Pattern.compile("(?<n>(?:-|\\+|)\\d+)(?<what>[yMwdhm])");
 
     private static final List<String> CQL_RESERVED_WORDS = Arrays.asList(
@@ -119,7 +131,7 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
 
     private static final Map<String, String> CQL_DATE_FN_TO_SOLR = new HashMap<>(9);
     static {
-        CQL_DATE_FN_TO_SOLR.put("now", "NOW");
+        CQL_DATE_FN_TO_SOLR.put(NOW, "NOW");
         CQL_DATE_FN_TO_SOLR.put("startOfDay", "NOW/DAY");
         CQL_DATE_FN_TO_SOLR.put("endOfDay", "NOW+DAY/DAY");
         CQL_DATE_FN_TO_SOLR.put("startOfWeek", "NOW/WEEK");
@@ -148,24 +160,35 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
     }
 
     @Inject
-    private Provider<XWikiContext> contextProvider;
+    private ConfluenceSpaceResolver confluenceSpaceResolver;
 
     @Inject
-    @Named("local")
-    private EntityReferenceSerializer<String> serializer;
+    private ContextSlotValueProvider contextSlotValueProvider;
 
     @Inject
-    private ConfluenceSpaceResolver confluenceSpaceResolver;
+    private CQLConfiguration configuration;
 
     @Override
     public String convertToSolr(AQLAtomicClause atom) throws ConversionException
+    {
+        SolrStatementBuilder solrAtom = new SolrStatementBuilder();
+        return convertToSolr(atom, solrAtom) ? solrAtom.toString() : null;
+    }
+
+    @Override
+    public boolean convertToSolr(AQLAtomicClause atom, SolrStatementBuilder solrStatement) throws ConversionException
     {
         List<String> solrFields = getSolrFields(atom);
+        if (appendTermsQuery(atom, solrFields, solrStatement)) {
+            return true;
+        }
+
         String solrValue = getSolrValue(atom);
         if (solrValue == null) {
-            return null;
+            return false;
         }
-        return convertToSolr(atom, solrFields, solrValue);
+        convertToSolr(atom, solrFields, solrValue, solrStatement);
+        return true;
     }
 
     protected String getSolrValue(AQLAtomicClause atom) throws ConversionException
@@ -180,6 +203,10 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
             return convertToSolr(atom, (AQLInExpression) right);
         }
 
+        if (right instanceof AQLRangeExpression) {
+            return convertToSolr(atom, (AQLRangeExpression) right);
+        }
+
         throw new ConversionException(String.format("BUG: Unexpected right hand value [%s].", right) + UNEXP,
             atom.getOp().getParserState());
     }
@@ -206,9 +233,87 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
             return convertToSolr(atom, (AQLBooleanLiteral) expression);
         }
 
+        if (expression instanceof AQLParameter) {
+            return convertToSolr(atom, (AQLParameter) expression);
+        }
+
         throw new ConversionException("BUG: Unsupported construct." + UNEXP, expression.getParserState());
     }
 
+    /**
+     * Large IN lists are sent as a single terms query instead of a boolean query with one clause per value, which is
+     * faster to parse and execute, and is not limited by the maximum number of clauses of a boolean query.
+     *
+     * @return whether the atom was converted to a terms query
+     */
+    private boolean appendTermsQuery(AQLAtomicClause atom, List<String> solrFields, SolrStatementBuilder out)
+        throws ConversionException
+    {
+        AQLOperator op = atom.getOp().getOperator();
+        if ((op != AQLOperator.IN && op != AQLOperator.NOT_IN) || solrFields.size() != 1
+            || !TERMS_QUERY_CQL_FIELDS.contains(atom.getField()) || !(atom.getRight() instanceof AQLInExpression))
+        {
+            return false;
+        }
+
+        int threshold = this.configuration.getTermsQueryThreshold();
+        List<AbstractAQLAtomicValue> values = ((AQLInExpression) atom.getRight()).getValues();
+        if (threshold <= 0 || values.size() < threshold) {
+            return false;
+        }
+
+        StringBuilder terms = new StringBuilder();
+        for (AbstractAQLAtomicValue value : values) {
+            String term = getSolrTerm(atom, value);
+            if (term == null || term.isEmpty() || term.indexOf(TERMS_SEPARATOR) != -1) {
+                // Fall back to the boolean query, which supports any value.
+                return false;
+            }
+
+            if (terms.length() > 0) {
+                terms.append(TERMS_SEPARATOR);
+            }
+            for (int i = 0; i < term.length(); i++) {
+                char c = term.charAt(i);
+                // Escaping for a quoted local parameter value.
+                if (c == '\\' || c == '\'') {
+                    terms.append('\\');
+                }
+                terms.append(c);
+            }
+        }
+
+        if (op == AQLOperator.NOT_IN) {
+            out.append('-');
+        }
+        out.append("{!terms f=").append(solrFields.get(0)).append(" v='").append(terms).append("'}");
+        return true;
+    }
+
+    /**
+     * @param atom the atom containing the value
+     * @param value a value of an IN expression
+     * @return the value as indexed in Solr, not escaped, or null if it can't be used in a terms query
+     * @throws ConversionException if the value can't be converted
+     * @since 0.0.3
+     */
+    protected String getSolrTerm(AQLAtomicClause atom, AbstractAQLAtomicValue value) throws ConversionException
+    {
+        if (value instanceof AQLStringLiteral) {
+            String v = ((AQLStringLiteral) value).getString();
+            if (atom.getField().equals(SPACE)) {
+                return contextSlotValueProvider.getSpaceFacetTerm(confluenceSpaceResolver.getSpaceByKey(value, v));
+            }
+            return v;
+        }
+
+        if (value instanceof AQLNumberLiteral && !atom.getField().equals(SPACE)) {
+            return ((AQLNumberLiteral) value).getNumber();
+        }
+
+        return null;
+    }
+
     /* NOTE: convertToSolr methods are declared to throw ConversionException even if they don't actually throw so
        inheriting classes can throw. */
 
@@ -221,20 +326,11 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
     {
         String v = expression.getString();
         if (atom.getField().equals(SPACE)) {
-            return getSpaceFacet(confluenceSpaceResolver.getSpaceByKey(expression, v));
+            return contextSlotValueProvider.getSpaceFacet(confluenceSpaceResolver.getSpaceByKey(expression, v));
         }
         return escapeSolr(v);
     }
 
-    private String getSpaceFacet(EntityReference space)
-    {
-        int facetNumber = space.getReversedReferenceChain().size() - 1;
-        if (EntityType.WIKI.equals(space.getRoot().getType())) {
-            facetNumber--;
-        }
-        return escapeSolr(facetNumber + "/" + serializer.serialize(space) + '.');
-    }
-
     protected String convertToSolr(AQLAtomicClause atom, AQLNumberLiteral expression) throws ConversionException
     {
         return escapeSolr(expression.getNumber());
@@ -242,21 +338,36 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
 
     protected String convertToSolr(AQLAtomicClause atom, AQLDateLiteral expression) throws ConversionException
     {
-        String d = String.format("%s-%s-%s",
-            expression.getYear(), pad(expression.getMonth()), pad(expression.getDay()));
+        return toSolrDate(expression);
+    }
 
-        if (expression.getHours() != -1 && expression.getMinutes() != -1) {
-            d += String.format("T%s:%s:00.000Z", pad(expression.getHours()), pad(expression.getMinutes()));
-        } else {
-            d += "T00:00:00.000Z";
+    /**
+     * @param atom the atom containing the parameter
+     * @param expression the bind parameter
+     * @return the marker of the parameter, replaced by its bound value at each execution
+     * @throws ConversionException if parameters are not supported for the field of the atom
+     * @since 0.0.3
+     */
+    protected String convertToSolr(AQLAtomicClause atom, AQLParameter expression) throws ConversionException
+    {
+        if (atom.getField().equals(TYPE)) {
+            // The type is converted to several Solr atoms depending on its value, which needs to be known.
+            throw new ConversionException(String.format("Parameters are not supported with field [%s]", TYPE),
+                expression.getParserState());
         }
-        return '"' + d + '"';
+        return SolrStatementTemplate.parameter(expression, getParameterType(atom.getField()));
     }
 
-    private String getEscapedCurrentUser()
+    private static SolrStatementTemplate.ParameterType getParameterType(String field)
     {
-        String currentUser = serializer.serialize(contextProvider.get().getUserReference());
-        return (currentUser.indexOf(':') == -1 ? "*\\:" : "") + escapeSolr(currentUser);
+        if (field.equals(SPACE)) {
+            return SolrStatementTemplate.ParameterType.SPACE_KEY;
+        }
+
+        if (field.equals(CREATED) || field.equals(LASTMODIFIED)) {
+            return SolrStatementTemplate.ParameterType.DATE;
+        }
+        return SolrStatementTemplate.ParameterType.VALUE;
     }
 
     protected String convertToSolr(AQLAtomicClause atom, AQLFunctionCall expression) throws ConversionException
@@ -272,7 +383,8 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
                             expression.getParserState());
                     }
 
-                    return getEscapedCurrentUser();
+                    // Left as a slot, filled at each execution.
+                    return SolrStatementTemplate.slot(SolrStatementTemplate.Slot.CURRENT_USER);
 
                 case "recentlyViewedContent":
                 case "recentlyViewedSpaces":
@@ -286,7 +398,7 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
                             expression.getParserState());
                     }
 
-                    return getSpaceFacet(confluenceSpaceResolver.getCurrentConfluenceSpace(expression));
+                    return SolrStatementTemplate.slot(SolrStatementTemplate.Slot.CURRENT_SPACE);
 
                 default:
                     throw new ConversionException(String.format("Unknown function [%s]", functionName),
@@ -294,20 +406,32 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
             }
         } else {
             // this is a date function
-            return baseDate + evalDateFn(expression);
+            String rounding = NOW.equals(functionName) ? this.configuration.getDateMathRounding() : null;
+            return rounding == null ? baseDate + evalDateFn(expression)
+                : baseDate + '/' + rounding + evalDateFn(expression);
         }
     }
 
     protected String convertToSolr(AQLAtomicClause atom, AQLInExpression expression) throws ConversionException
     {
-        String solrValue;
+        StringBuilder solrValue = new StringBuilder().append('(');
         List<AbstractAQLAtomicValue> values = expression.getValues();
-        List<String> convertedValues = new ArrayList<>(values.size());
-        for (AbstractAQLAtomicValue value : values) {
-            convertedValues.add(convertToSolr(atom, value));
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                solrValue.append(SPACED_OR);
+            }
+            solrValue.append(convertToSolr(atom, values.get(i)));
         }
-        solrValue = betweenParentheses(String.join(SPACED_OR, convertedValues));
-        return solrValue;
+        return solrValue.append(')').toString();
+    }
+
+    protected String convertToSolr(AQLAtomicClause atom, AQLRangeExpression expression) throws ConversionException
+    {
+        StringBuilder solrValue = new StringBuilder().append(expression.isLowerInclusive() ? '[' : '{');
+        solrValue.append(expression.getLower() == null ? "*" : convertToSolr(atom, expression.getLower()));
+        solrValue.append(" TO ");
+        solrValue.append(expression.getUpper() == null ? "*" : convertToSolr(atom, expression.getUpper()));
+        return solrValue.append(expression.isUpperInclusive() ? ']' : '}').toString();
     }
 
     protected List<String> getSolrFields(AQLAtomicClause atom) throws ConversionException
@@ -398,89 +522,113 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
         return solrFields;
     }
 
-    private String convertToSolr(AQLAtomicClause atom, List<String> solrFields, String solrValue)
-        throws ConversionException
+    private void convertToSolr(AQLAtomicClause atom, List<String> solrFields, String solrValue,
+        SolrStatementBuilder out) throws ConversionException
     {
-        List<String> solrAtoms = new ArrayList<>(solrFields.size());
-
         AQLOperator op = atom.getOp().getOperator();
         boolean not = op == AQLOperator.NEQ || op == AQLOperator.NOT_IN || op == AQLOperator.DOES_NOT_CONTAIN;
-        String solrClauseOp = SPACED_OR;
 
         if (TYPE.equals(atom.getField())) {
-            solrClauseOp = convertTypeFieldToSolr(atom, solrValue, solrAtoms);
-        } else {
-            for (String solrField : solrFields) {
-                solrAtoms.add(toSolrAtomIgnoringNegativeOp(atom, solrField, solrValue));
-            }
+            convertTypeFieldToSolr(atom, solrValue, not, out);
+            return;
         }
 
-        String dash = not ? "-" : "";
-        if (solrAtoms.size() > 1) {
-            String res = String.join(solrClauseOp, solrAtoms);
-            if (not) {
-                res = betweenParentheses(res);
-            }
-            return dash + res;
+        if (solrFields.isEmpty()) {
+            throw new ConversionException(NO_SOLR_EXPRESSION, atom.getParserState());
         }
 
-        if (solrAtoms.isEmpty()) {
-            throw  new ConversionException("BUG: No Solr expressions were generated for this CQL exception." + UNEXP,
-                atom.getParserState());
+        boolean group = not && solrFields.size() > 1;
+        if (not) {
+            out.append('-');
+        }
+        if (group) {
+            out.append('(');
+        }
+        for (int i = 0; i < solrFields.size(); i++) {
+            if (i > 0) {
+                out.append(SPACED_OR);
+            }
+            appendSolrAtomIgnoringNegativeOp(out, atom.getOp(), solrFields.get(i), solrValue);
+        }
+        if (group) {
+            out.append(')');
         }
-
-        return dash + solrAtoms.get(0);
     }
 
-    private String convertTypeFieldToSolr(AQLAtomicClause atom, String escapedSolrValue, List<String> solrAtoms)
-        throws ConversionException
+    private void convertTypeFieldToSolr(AQLAtomicClause atom, String escapedSolrValue, boolean not,
+        SolrStatementBuilder out) throws ConversionException
     {
-        String solrClauseOp = SPACED_OR;
         switch (atom.getOp().getOperator()) {
             case NOT_IN:
             case IN:
                 AbstractAQLRightHandValue right = atom.getRight();
-                if (right instanceof AQLInExpression) {
-                    AQLInExpression in = (AQLInExpression) right;
-                    for (AbstractAQLAtomicValue value : in.getValues()) {
-                        List<String> solrTypeAtoms = new ArrayList<>(2);
-                        addTypeAtoms(
-                            new AQLAtomicClause(
-                                atom.getParserState(),
-                                atom.getField(),
-                                new AQLAtomicClauseOperator(in.getParserState(), AQLOperator.EQ),
-                                value
-                            ),
-                            convertToSolr(atom, value),
-                            solrTypeAtoms
-                        );
-                        solrAtoms.add(betweenParentheses(String.join(SPACED_AND, solrTypeAtoms)));
-                    }
-                } else {
+                if (!(right instanceof AQLInExpression)) {
                     throw  new ConversionException("BUG: IN expression not found after a (NOT) IN operator." + UNEXP,
                         atom.getParserState());
                 }
+
+                AQLInExpression in = (AQLInExpression) right;
+                List<AbstractAQLAtomicValue> values = in.getValues();
+                if (values.isEmpty()) {
+                    throw new ConversionException(NO_SOLR_EXPRESSION, atom.getParserState());
+                }
+
+                boolean group = not && values.size() > 1;
+                if (not) {
+                    out.append('-');
+                }
+                if (group) {
+                    out.append('(');
+                }
+                for (int i = 0; i < values.size(); i++) {
+                    AbstractAQLAtomicValue value = values.get(i);
+                    if (i > 0) {
+                        out.append(SPACED_OR);
+                    }
+                    out.append('(');
+                    appendTypeAtoms(
+                        new AQLAtomicClause(
+                            atom.getParserState(),
+                            atom.getField(),
+                            new AQLAtomicClauseOperator(in.getParserState(), AQLOperator.EQ),
+                            value
+                        ),
+                        convertToSolr(atom, value),
+                        out
+                    );
+                    out.append(')');
+                }
+                if (group) {
+                    out.append(')');
+                }
                 break;
             default:
-                solrClauseOp = SPACED_AND;
-                addTypeAtoms(atom, escapedSolrValue, solrAtoms);
+                // A type is converted to several Solr atoms, which need to be grouped to be negated.
+                if (not) {
+                    out.append("-(");
+                }
+                appendTypeAtoms(atom, escapedSolrValue, out);
+                if (not) {
+                    out.append(')');
+                }
         }
-        return solrClauseOp;
     }
 
-    private static void addTypeAtoms(AQLAtomicClause atom, String solrValue, List<String> solrAtoms)
+    private static void appendTypeAtoms(AQLAtomicClause atom, String solrValue, SolrStatementBuilder out)
         throws ConversionException
     {
         switch (solrValue) {
             case "page":
-                solrAtoms.add(toSolrAtomIgnoringNegativeOp(atom, TYPE, SOLR_DOCUMENT));
+                appendSolrAtomIgnoringNegativeOp(out, atom.getOp(), TYPE, SOLR_DOCUMENT);
                 // a page is a document that is not a blog post
-                solrAtoms.add('-' + toSolrAtomIgnoringNegativeOp(atom, SOLR_CLASS, BLOG_POST_CLASS));
+                out.append(SPACED_AND).append('-');
+                appendSolrAtomIgnoringNegativeOp(out, atom.getOp(), SOLR_CLASS, BLOG_POST_CLASS);
                 break;
 
             case "blogpost":
-                solrAtoms.add(toSolrAtomIgnoringNegativeOp(atom, TYPE, SOLR_DOCUMENT));
-                solrAtoms.add(toSolrAtomIgnoringNegativeOp(atom, SOLR_CLASS, BLOG_POST_CLASS));
+                appendSolrAtomIgnoringNegativeOp(out, atom.getOp(), TYPE, SOLR_DOCUMENT);
+                out.append(SPACED_AND);
+                appendSolrAtomIgnoringNegativeOp(out, atom.getOp(), SOLR_CLASS, BLOG_POST_CLASS);
                 break;
 
             case "comment":
@@ -494,14 +642,8 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
         }
     }
 
-    private static String toSolrAtomIgnoringNegativeOp(AQLAtomicClause atom, String solrField, String solrValue)
-        throws ConversionException
-    {
-        return solrField + ':' + getSolrAtomValueIgnoringNegativeOp(atom.getOp(), solrValue);
-    }
-
-    private static String getSolrAtomValueIgnoringNegativeOp(AQLAtomicClauseOperator operator, String solrValue)
-        throws ConversionException
+    private static void appendSolrAtomIgnoringNegativeOp(SolrStatementBuilder out, AQLAtomicClauseOperator operator,
+        String solrField, String solrValue) throws ConversionException
     {
         AQLOperator op = operator.getOperator();
         switch (op) {
@@ -509,22 +651,29 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
             case EQ:
             case NOT_IN:
             case IN:
-                return solrValue;
+            case RANGE:
+                out.append(solrField).append(':').append(solrValue);
+                break;
 
             case GT:
-                return String.format("{%s TO *]", solrValue);
+                out.append(solrField).append(":{").append(solrValue).append(TO_ANY_INCLUSIVE);
+                break;
             case GTE:
-                return String.format("[%s TO *]", solrValue);
+                out.append(solrField).append(":[").append(solrValue).append(TO_ANY_INCLUSIVE);
+                break;
             case LT:
-                return String.format("[* TO %s}", solrValue);
+                out.append(solrField).append(FROM_ANY).append(solrValue).append('}');
+                break;
             case LTE:
-                return String.format("[* TO %s]", solrValue);
+                out.append(solrField).append(FROM_ANY).append(solrValue).append(']');
+                break;
 
             case DOES_NOT_CONTAIN:
             case CONTAINS:
                 // The CQL operator '~' (contains) does both fuzzy and wildcard searches.
                 // FIXME: check that it mixes well with wildcard searches (with '*')
-                return solrValue + "~";
+                out.append(solrField).append(':').append(solrValue).append('~');
+                break;
 
             default:
                 throw  new ConversionException(String.format("BUG: Unexpected operator [%s].", op) + UNEXP,
@@ -580,12 +729,4 @@ public class DefaultCQLToSolrAtomConverter implements CQLToSolrAtomConverter
         }
         return null;
     }
-
-    private static String pad(int n)
-    {
-        if (n < 10) {
-            return "0" + n;
-        }
-        return "" + n;
-    }
 }
@@ -0,0 +1,106 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Accumulates the Solr statement being converted from a CQL statement. The converters append their output to it
+ * instead of returning intermediate strings, so that a conversion only fills one buffer, reused from one clause to
+ * the next.
+ * Not thread-safe: a builder is meant to be used by a single conversion.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public final class SolrStatementBuilder
+{
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final StringBuilder builder;
+
+    /**
+     * Create an empty builder.
+     * @since 0.0.3
+     */
+    public SolrStatementBuilder()
+    {
+        this.builder = new StringBuilder(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param s the Solr syntax to append, as is
+     * @return this builder
+     * @since 0.0.3
+     */
+    public SolrStatementBuilder append(CharSequence s)
+    {
+        this.builder.append(s);
+        return this;
+    }
+
+    /**
+     * @param c the Solr syntax character to append, as is
+     * @return this builder
+     * @since 0.0.3
+     */
+    public SolrStatementBuilder append(char c)
+    {
+        this.builder.append(c);
+        return this;
+    }
+
+    /**
+     * @param value the value to append, escaped like {@link Utils#escapeSolr(String)} does
+     * @return this builder
+     * @since 0.0.3
+     */
+    public SolrStatementBuilder appendEscaped(CharSequence value)
+    {
+        Utils.appendEscapedSolr(this.builder, value);
+        return this;
+    }
+
+    /**
+     * @return the number of characters appended so far
+     * @since 0.0.3
+     */
+    public int length()
+    {
+        return this.builder.length();
+    }
+
+    /**
+     * Drop the characters appended after the given length, for instance to start the next clause from scratch.
+     * @param length the length to go back to
+     * @since 0.0.3
+     */
+    public void setLength(int length)
+    {
+        this.builder.setLength(length);
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.builder.toString();
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLParameter;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A converted Solr statement in which the values depending on the execution context (the current user, the current
+ * space) and the bind parameters of prepared statements are left as slots, to be filled at each execution. This allows
+ * converting a CQL statement once and reusing the result for every user, every document and every bound value.
+ * Date functions don't need slots: they are converted to Solr date math, which Solr evaluates itself.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public final class SolrStatementTemplate
+{
+    /**
+     * The values that depend on the execution context.
+     * @since 0.0.3
+     */
+    public enum Slot
+    {
+        /**
+         * The escaped reference of the current user, as returned by the currentUser() CQL function.
+         */
+        CURRENT_USER,
+
+        /**
+         * The escaped space facet of the current Confluence space, as returned by the currentSpace() CQL function.
+         */
+        CURRENT_SPACE
+    }
+
+    /**
+     * The kinds of values bound to parameters, which are converted differently.
+     * @since 0.0.3
+     */
+    public enum ParameterType
+    {
+        /**
+         * A value escaped as is, or a date if the bound value is a {@link java.util.Date}.
+         */
+        VALUE('V'),
+
+        /**
+         * A Confluence space key, to be converted to a space facet.
+         */
+        SPACE_KEY('S'),
+
+        /**
+         * A date, bound either as a {@link java.util.Date} or as a string written like the CQL date literals.
+         */
+        DATE('D');
+
+        private final char marker;
+
+        ParameterType(char marker)
+        {
+            this.marker = marker;
+        }
+
+        private static ParameterType fromMarker(char marker)
+        {
+            for (ParameterType type : values()) {
+                if (type.marker == marker) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException(String.format("Unknown parameter type marker [%s]", marker));
+        }
+    }
+
+    /**
+     * A bind parameter of a prepared CQL statement, filled at each execution with the value bound to the query.
+     * @since 0.0.3
+     */
+    public static final class Parameter
+    {
+        private final String name;
+
+        private final int index;
+
+        private final ParameterType type;
+
+        private final AQLParserState parserState;
+
+        private Parameter(String name, int index, ParameterType type, AQLParserState parserState)
+        {
+            this.name = name;
+            this.index = index;
+            this.type = type;
+            this.parserState = parserState;
+        }
+
+        /**
+         * @return whether the parameter is a named parameter ({@code :name}) rather than a positional one
+         */
+        public boolean isNamed()
+        {
+            return this.name != null;
+        }
+
+        /**
+         * @return the name of the parameter, or null if it is a positional parameter
+         */
+        public String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return the position of the parameter, starting at 1, or 0 if it is a named parameter
+         */
+        public int getIndex()
+        {
+            return this.index;
+        }
+
+        /**
+         * @return the kind of value bound to the parameter, which tells how to convert it
+         */
+        public ParameterType getType()
+        {
+            return this.type;
+        }
+
+        /**
+         * @return the position of the parameter in the CQL statement, to report errors. Parameters are compared
+         *         regardless of their position.
+         */
+        public AQLParserState getParserState()
+        {
+            return this.parserState;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj) {
+                return true;
+            }
+
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            Parameter other = (Parameter) obj;
+            return new EqualsBuilder()
+                .append(this.name, other.name)
+                .append(this.index, other.index)
+                .append(this.type, other.type)
+                .isEquals();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return new HashCodeBuilder(17, 37).append(this.name).append(this.index).append(this.type).toHashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return isNamed() ? ':' + this.name : "?" + this.index;
+        }
+    }
+
+    /**
+     * Provides the values of the slots in the current execution context.
+     * @since 0.0.3
+     */
+    @FunctionalInterface
+    public interface SlotValueProvider
+    {
+        /**
+         * @param slot the slot to fill
+         * @return the (escaped) value of the slot in the current execution context
+         * @throws ConversionException if the value cannot be computed
+         */
+        String getValue(Slot slot) throws ConversionException;
+
+        /**
+         * @param parameter the parameter to fill
+         * @return the (escaped) value bound to the parameter for the current execution
+         * @throws ConversionException if no value is bound to the parameter, or if it cannot be converted
+         * @since 0.0.3
+         */
+        default String getValue(Parameter parameter) throws ConversionException
+        {
+            throw new ConversionException(String.format(NO_VALUE_BOUND, parameter), parameter.getParserState());
+        }
+    }
+
+    private static final String NO_VALUE_BOUND = "No value bound for parameter [%s]";
+
+    private static final char SLOT_START = '\uE000';
+
+    private static final char SLOT_END = '\uE001';
+
+    // The random part makes sure that a slot marker can't be forged from a value written in the CQL statement.
+    private static final String SLOT_PREFIX = SLOT_START + Long.toHexString(new SecureRandom().nextLong()) + ':';
+
+    private static final char PARAMETER_MARKER = '?';
+
+    private static final char PARAMETER_SEPARATOR = ',';
+
+    private final List<String> parts;
+
+    // The slots and the parameters, in the order in which they appear in the statement.
+    private final List<Object> holes;
+
+    private SolrStatementTemplate(List<String> parts, List<Object> holes)
+    {
+        this.parts = parts;
+        this.holes = holes;
+    }
+
+    /**
+     * @param slot the slot to reference
+     * @return the marker to put in a converted Solr statement in place of the value of the slot
+     * @since 0.0.3
+     */
+    public static String slot(Slot slot)
+    {
+        return SLOT_PREFIX + slot.name() + SLOT_END;
+    }
+
+    /**
+     * @param parameter the parameter to reference
+     * @param type the kind of value bound to the parameter
+     * @return the marker to put in a converted Solr statement in place of the value of the parameter
+     * @since 0.0.3
+     */
+    public static String parameter(AQLParameter parameter, ParameterType type)
+    {
+        AQLParserState state = parameter.getParserState();
+        return SLOT_PREFIX + PARAMETER_MARKER + type.marker
+            + state.getPos() + PARAMETER_SEPARATOR + state.getLine() + PARAMETER_SEPARATOR + state.getCol()
+            + PARAMETER_SEPARATOR + parameter + SLOT_END;
+    }
+
+    /**
+     * @param solrStatement a converted Solr statement, possibly containing slot and parameter markers
+     * @return the corresponding template
+     * @since 0.0.3
+     */
+    public static SolrStatementTemplate compile(String solrStatement)
+    {
+        int slotStart = solrStatement.indexOf(SLOT_PREFIX);
+        if (slotStart == -1) {
+            return new SolrStatementTemplate(Collections.singletonList(solrStatement), Collections.emptyList());
+        }
+
+        List<String> parts = new ArrayList<>();
+        List<Object> holes = new ArrayList<>();
+        int partStart = 0;
+        while (slotStart != -1) {
+            int nameStart = slotStart + SLOT_PREFIX.length();
+            int slotEnd = solrStatement.indexOf(SLOT_END, nameStart);
+            parts.add(solrStatement.substring(partStart, slotStart));
+            holes.add(parseHole(solrStatement.substring(nameStart, slotEnd)));
+            partStart = slotEnd + 1;
+            slotStart = solrStatement.indexOf(SLOT_PREFIX, partStart);
+        }
+        parts.add(solrStatement.substring(partStart));
+
+        return new SolrStatementTemplate(Collections.unmodifiableList(parts), Collections.unmodifiableList(holes));
+    }
+
+    private static Object parseHole(String hole)
+    {
+        if (hole.charAt(0) != PARAMETER_MARKER) {
+            return Slot.valueOf(hole);
+        }
+
+        // See parameter(): the kind of value, the position in the CQL statement, then the parameter as written by
+        // AQLParameter.toString().
+        ParameterType type = ParameterType.fromMarker(hole.charAt(1));
+        String[] fields = hole.substring(2).split(String.valueOf(PARAMETER_SEPARATOR), 4);
+        AQLParserState state =
+            new AQLParserState(Long.parseLong(fields[0]), Long.parseLong(fields[1]), Long.parseLong(fields[2]));
+        String parameter = fields[3];
+        if (parameter.charAt(0) == PARAMETER_MARKER) {
+            return new Parameter(null, Integer.parseInt(parameter.substring(1)), type, state);
+        }
+        return new Parameter(parameter.substring(1), 0, type, state);
+    }
+
+    /**
+     * @return whether this template depends on the execution context or on bound parameters
+     * @since 0.0.3
+     */
+    public boolean hasSlots()
+    {
+        return !this.holes.isEmpty();
+    }
+
+    /**
+     * @return the bind parameters used in this template, in the order in which they first appear
+     * @since 0.0.3
+     */
+    public Set<Parameter> getParameters()
+    {
+        Set<Parameter> parameters = new LinkedHashSet<>();
+        for (Object hole : this.holes) {
+            if (hole instanceof Parameter) {
+                parameters.add((Parameter) hole);
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @param provider the provider of the slot and parameter values for the current execution
+     * @return the Solr statement with its slots and parameters filled
+     * @throws ConversionException if a slot or parameter value cannot be computed
+     * @since 0.0.3
+     */
+    public String fill(SlotValueProvider provider) throws ConversionException
+    {
+        if (this.holes.isEmpty()) {
+            return this.parts.get(0);
+        }
+
+        Map<Object, String> values = new HashMap<>();
+        StringBuilder result = new StringBuilder();
+        for (int i = 0, n = this.holes.size(); i < n; i++) {
+            Object hole = this.holes.get(i);
+            String value = values.get(hole);
+            if (value == null) {
+                value = hole instanceof Slot ? provider.getValue((Slot) hole) : provider.getValue((Parameter) hole);
+                values.put(hole, value);
+            }
+            result.append(this.parts.get(i)).append(value);
+        }
+
+        return result.append(this.parts.get(this.holes.size())).toString();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0, n = this.holes.size(); i < n; i++) {
+            result.append(this.parts.get(i)).append('{').append(this.holes.get(i)).append('}');
+        }
+
+        return result.append(this.parts.get(this.holes.size())).toString();
+    }
+}
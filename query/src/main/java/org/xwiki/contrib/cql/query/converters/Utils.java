@@ -19,7 +19,7 @@
  */
 package org.xwiki.contrib.cql.query.converters;
 
-import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
 
 /**
  * Utils methods.
@@ -28,13 +28,26 @@ import org.apache.commons.lang3.StringUtils;
  */
 public final class Utils
 {
-    private static final String[] SOLR_SPECIAL_CHARS = new String[] {
-        "+", "-", "&amp;&amp;", "||", "!", "(", ")", "{", "}", "[", "]", "^", "\"", "~", "*", "?", ":", "/", "\\", " ",
-        "AND", "OR", "NOT"};
+    private static final char ESCAPE = '\\';
 
-    private static final String[] ESCAPED_SOLR_SPECIAL_CHARS = new String[] {
-        "\\+", "\\-", "\\&amp;&amp;", "\\||", "\\!", "\\(", "\\)", "\\{", "\\}", "\\[", "\\]", "\\^", "\\\"", "\\~",
-        "\\*", "\\?", "\\:", "\\/", "\\\\", "\\ ", "\\AND", "\\OR", "\\NOT"};
+    // The characters escaped on their own. '&' and '|' are only escaped when doubled, and the words AND, OR and NOT
+    // are escaped wherever they appear.
+    private static final boolean[] SOLR_SPECIAL_CHARS = new boolean[128];
+
+    static {
+        for (char c : "+-!(){}[]^\"~*?:/\\ ".toCharArray()) {
+            SOLR_SPECIAL_CHARS[c] = true;
+        }
+    }
+
+    private static final String AND = "AND";
+
+    private static final String OR = "OR";
+
+    private static final String NOT = "NOT";
+
+    // "2024-01-01T00:00:00.000Z", with the quotes
+    private static final int DATE_LENGTH = 26;
 
     private Utils()
     {
@@ -54,7 +67,125 @@ public final class Utils
             return "\"\"";
         }
 
-        return StringUtils.replaceEach(v, SOLR_SPECIAL_CHARS, ESCAPED_SOLR_SPECIAL_CHARS);
+        int firstEscape = nextEscape(v, 0);
+        if (firstEscape == -1) {
+            return v;
+        }
+
+        StringBuilder escaped = new StringBuilder(v.length() + 8);
+        escaped.append(v, 0, firstEscape);
+        appendEscapedSolr(escaped, v, firstEscape);
+        return escaped.toString();
+    }
+
+    /**
+     * Append the escaped value to use in a Solr standard query, in a single pass over the value. The result is the
+     * same as {@link #escapeSolr(String)}.
+     *
+     * @param out where to append the escaped value
+     * @param v the value to escape
+     * @since 0.0.3
+     */
+    public static void appendEscapedSolr(StringBuilder out, CharSequence v)
+    {
+        if (v.length() == 0) {
+            out.append("\"\"");
+        } else {
+            appendEscapedSolr(out, v, 0);
+        }
+    }
+
+    private static void appendEscapedSolr(StringBuilder out, CharSequence v, int start)
+    {
+        int i = start;
+        int n = v.length();
+        while (i < n) {
+            int escapedLength = getEscapedLength(v, i);
+            if (escapedLength > 0) {
+                out.append(ESCAPE).append(v, i, i + escapedLength);
+                i += escapedLength;
+            } else {
+                out.append(v.charAt(i++));
+            }
+        }
+    }
+
+    private static int nextEscape(CharSequence v, int start)
+    {
+        for (int i = start, n = v.length(); i < n; i++) {
+            if (getEscapedLength(v, i) > 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the length of the sequence to escape at index i, or 0 if there is nothing to escape there
+     */
+    private static int getEscapedLength(CharSequence v, int i)
+    {
+        char c = v.charAt(i);
+        if (c < SOLR_SPECIAL_CHARS.length && SOLR_SPECIAL_CHARS[c]) {
+            return 1;
+        }
+
+        switch (c) {
+            case '&':
+            case '|':
+                return i + 1 < v.length() && v.charAt(i + 1) == c ? 2 : 0;
+            case 'A':
+                return startsWith(v, i, AND);
+            case 'O':
+                return startsWith(v, i, OR);
+            case 'N':
+                return startsWith(v, i, NOT);
+            default:
+                return 0;
+        }
+    }
+
+    private static int startsWith(CharSequence v, int i, String word)
+    {
+        int length = word.length();
+        if (i + length > v.length()) {
+            return 0;
+        }
+
+        for (int j = 1; j < length; j++) {
+            if (v.charAt(i + j) != word.charAt(j)) {
+                return 0;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @param date a CQL date literal
+     * @return the quoted Solr date matching the literal, at midnight UTC if it has no time
+     * @since 0.0.3
+     */
+    public static String toSolrDate(AQLDateLiteral date)
+    {
+        StringBuilder d = new StringBuilder(DATE_LENGTH).append('"').append(date.getYear()).append('-');
+        pad(d, date.getMonth()).append('-');
+        pad(d, date.getDay()).append('T');
+
+        if (date.getHours() != -1 && date.getMinutes() != -1) {
+            pad(d, date.getHours()).append(':');
+            pad(d, date.getMinutes()).append(":00.000Z");
+        } else {
+            d.append("00:00:00.000Z");
+        }
+        return d.append('"').toString();
+    }
+
+    private static StringBuilder pad(StringBuilder out, int n)
+    {
+        if (n < 10) {
+            out.append('0');
+        }
+        return out.append(n);
     }
 
     /**
@@ -44,6 +44,9 @@ public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrA
     @Inject
     private ConfluenceIdResolver idResolver;
 
+    @Inject
+    private ConfluenceIdPrefetcher idPrefetcher;
+
     @Override
     protected String convertToSolr(AQLAtomicClause atom, AbstractAQLAtomicValue right) throws ConversionException
     {
@@ -56,7 +59,10 @@ public abstract class AbstractIdCQLToSolrAtomConverter extends DefaultCQLToSolrA
             throw new ConversionException("Expected a Confluence content id (a number)", right.getParserState());
         }
 
-        EntityReference docRef = idResolver.getDocumentById(atom.getRight(), id);
+        EntityReference docRef = idPrefetcher.get(id);
+        if (docRef == null) {
+            docRef = idResolver.getDocumentById(atom.getRight(), id);
+        }
         if (docRef == null) {
             return null;
         }
@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrSortFieldConverter;
+import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Keeps the atom converters indexed by field, the sort field converters, the Confluence id and space resolvers and
+ * the rewrite rules ordered by priority, so they don't need to be looked up from the component manager for each clause.
+ * The registry is built on first use and rebuilt after {@link #invalidate()} is called, when these components change.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLConverterRegistry.class)
+@Singleton
+public class CQLConverterRegistry
+{
+    // Same default as the component manager for components without a @Priority annotation.
+    private static final int DEFAULT_PRIORITY = 1000;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    private volatile Registry registry;
+
+    /**
+     * @param lowerField the lower-cased CQL field
+     * @return the converter registered for this field, or null if there is no specialized converter for it
+     * @throws ComponentLookupException if the converters cannot be loaded
+     */
+    public CQLToSolrAtomConverter getAtomConverter(String lowerField) throws ComponentLookupException
+    {
+        return getRegistry().atomConverters.get(lowerField);
+    }
+
+    /**
+     * @return the sort field converters, the ones with the highest priority (lowest {@link Priority} value) first
+     * @throws ComponentLookupException if the converters cannot be loaded
+     */
+    public List<CQLToSolrSortFieldConverter> getSortFieldConverters() throws ComponentLookupException
+    {
+        return getRegistry().sortFieldConverters;
+    }
+
+    /**
+     * @return the Confluence id resolvers, the ones with the highest priority (lowest {@link Priority} value) first
+     * @throws ComponentLookupException if the resolvers cannot be loaded
+     * @since 0.0.3
+     */
+    public List<ConfluenceIdResolver> getIdResolvers() throws ComponentLookupException
+    {
+        return getRegistry().idResolvers;
+    }
+
+    /**
+     * @return the Confluence space resolvers, the ones with the highest priority (lowest {@link Priority} value) first
+     * @throws ComponentLookupException if the resolvers cannot be loaded
+     * @since 0.0.3
+     */
+    public List<ConfluenceSpaceResolver> getSpaceResolvers() throws ComponentLookupException
+    {
+        return getRegistry().spaceResolvers;
+    }
+
+    /**
+     * @return the rewrite rules, the ones with the highest priority (lowest {@link Priority} value) first
+     * @throws ComponentLookupException if the rules cannot be loaded
+     * @since 0.0.3
+     */
+    public List<CQLRewriteRule> getRewriteRules() throws ComponentLookupException
+    {
+        return getRegistry().rewriteRules;
+    }
+
+    /**
+     * Forget the loaded converters. They will be loaded again the next time they are needed.
+     */
+    public synchronized void invalidate()
+    {
+        this.registry = null;
+    }
+
+    private Registry getRegistry() throws ComponentLookupException
+    {
+        Registry r = this.registry;
+        if (r == null) {
+            r = buildRegistry();
+        }
+        return r;
+    }
+
+    private synchronized Registry buildRegistry() throws ComponentLookupException
+    {
+        if (this.registry != null) {
+            return this.registry;
+        }
+
+        Map<String, CQLToSolrAtomConverter> atomConverters = new HashMap<>();
+        Map<String, CQLToSolrAtomConverter> atomConvertersByHint =
+            this.componentManager.getInstanceMap(CQLToSolrAtomConverter.class);
+        for (Map.Entry<String, CQLToSolrAtomConverter> entry : atomConvertersByHint.entrySet()) {
+            atomConverters.put(entry.getKey().toLowerCase(), entry.getValue());
+        }
+
+        List<CQLToSolrSortFieldConverter> sortFieldConverters =
+            new ArrayList<>(this.componentManager.getInstanceList(CQLToSolrSortFieldConverter.class));
+        // The sort is stable, converters with the same priority stay in the order of the component manager.
+        sortFieldConverters.sort(Comparator.comparingInt(CQLConverterRegistry::getPriority));
+
+        List<ConfluenceIdResolver> idResolvers =
+            new ArrayList<>(this.componentManager.getInstanceList(ConfluenceIdResolver.class));
+        idResolvers.sort(Comparator.comparingInt(CQLConverterRegistry::getPriority));
+
+        List<ConfluenceSpaceResolver> spaceResolvers =
+            new ArrayList<>(this.componentManager.getInstanceList(ConfluenceSpaceResolver.class));
+        spaceResolvers.sort(Comparator.comparingInt(CQLConverterRegistry::getPriority));
+
+        List<CQLRewriteRule> rewriteRules =
+            new ArrayList<>(this.componentManager.getInstanceList(CQLRewriteRule.class));
+        rewriteRules.sort(Comparator.comparingInt(CQLConverterRegistry::getPriority));
+
+        this.registry = new Registry(Collections.unmodifiableMap(atomConverters),
+            Collections.unmodifiableList(sortFieldConverters), Collections.unmodifiableList(idResolvers),
+            Collections.unmodifiableList(spaceResolvers), Collections.unmodifiableList(rewriteRules));
+        return this.registry;
+    }
+
+    private static int getPriority(Object component)
+    {
+        Priority priority = component.getClass().getAnnotation(Priority.class);
+        return priority == null ? DEFAULT_PRIORITY : priority.value();
+    }
+
+    private static final class Registry
+    {
+        private final Map<String, CQLToSolrAtomConverter> atomConverters;
+
+        private final List<CQLToSolrSortFieldConverter> sortFieldConverters;
+
+        private final List<ConfluenceIdResolver> idResolvers;
+
+        private final List<ConfluenceSpaceResolver> spaceResolvers;
+
+        private final List<CQLRewriteRule> rewriteRules;
+
+        Registry(Map<String, CQLToSolrAtomConverter> atomConverters,
+            List<CQLToSolrSortFieldConverter> sortFieldConverters, List<ConfluenceIdResolver> idResolvers,
+            List<ConfluenceSpaceResolver> spaceResolvers, List<CQLRewriteRule> rewriteRules)
+        {
+            this.atomConverters = atomConverters;
+            this.sortFieldConverters = sortFieldConverters;
+            this.idResolvers = idResolvers;
+            this.spaceResolvers = spaceResolvers;
+            this.rewriteRules = rewriteRules;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Keeps the documents matching Confluence ids, per wiki. Ids which could not be resolved are also remembered, for a
+ * shorter time, so unknown ids used repeatedly don't hit the database each time.
+ * The entries are invalidated when the Confluence.Code.ConfluencePageClass objects holding the ids change.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = ConfluenceIdCache.class)
+@Singleton
+public class ConfluenceIdCache implements Initializable, Disposable, CacheEntryListener<EntityReference>
+{
+    /**
+     * Returned by {@link #get(String, long)} for the ids known not to match any document. To be compared by identity.
+     */
+    public static final EntityReference NOT_FOUND = new EntityReference("NOT_FOUND", EntityType.DOCUMENT);
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    private Cache<EntityReference> documents;
+
+    private Cache<Boolean> notFound;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong removals = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Incremented by each invalidation, so that the ids resolved meanwhile are not cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configuration.getIdCacheSize();
+        if (size > 0) {
+            LRUCacheConfiguration notFoundConfiguration = new LRUCacheConfiguration("cql.id.notfound", size);
+            notFoundConfiguration.getLRUEvictionConfiguration()
+                .setLifespan(this.configuration.getIdCacheNegativeLifespan());
+            try {
+                this.documents = this.cacheManager.createNewCache(new LRUCacheConfiguration("cql.id", size));
+                this.notFound = this.cacheManager.createNewCache(notFoundConfiguration);
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the Confluence id cache", e);
+            }
+            this.documents.addCacheEntryListener(this);
+        }
+    }
+
+    /**
+     * @return whether ids are cached at all
+     */
+    public boolean isEnabled()
+    {
+        return this.documents != null;
+    }
+
+    /**
+     * @param wiki the wiki in which the id is resolved
+     * @param id the Confluence id
+     * @return the cached document, {@link #NOT_FOUND} if the id is known not to match any document, or null if the
+     *     id is not cached
+     */
+    public EntityReference get(String wiki, long id)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        String key = getKey(wiki, id);
+        EntityReference document = this.documents.get(key);
+        if (document != null) {
+            this.hits.incrementAndGet();
+            return document;
+        }
+
+        if (this.notFound.get(key) != null) {
+            this.negativeHits.incrementAndGet();
+            return NOT_FOUND;
+        }
+
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the current generation of the cache, to get before resolving ids and to give when caching them
+     */
+    public long getGeneration()
+    {
+        return this.generation.get();
+    }
+
+    /**
+     * Cache the resolution of an id, unless an id was invalidated since it was resolved: the resolution may then be
+     * outdated.
+     *
+     * @param wiki the wiki in which the id was resolved
+     * @param id the Confluence id
+     * @param document the document matching the id, or null if there is none
+     * @param generation the generation of the cache before the id was resolved, see {@link #getGeneration()}
+     */
+    public void set(String wiki, long id, EntityReference document, long generation)
+    {
+        if (!isEnabled() || generation != this.generation.get()) {
+            return;
+        }
+
+        String key = getKey(wiki, id);
+        Cache<?> cache;
+        if (document == null) {
+            this.notFound.set(key, Boolean.TRUE);
+            cache = this.notFound;
+        } else {
+            this.documents.set(key, document);
+            cache = this.documents;
+        }
+        // An invalidation which happened while caching the id might have missed it.
+        if (generation != this.generation.get()) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Forget what is known about a Confluence id, because a document holding it was created, changed or deleted.
+     *
+     * @param wiki the wiki in which the id changed
+     * @param id the Confluence id
+     */
+    public void invalidate(String wiki, long id)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        // Incremented before removing the id, see set().
+        this.generation.incrementAndGet();
+        String key = getKey(wiki, id);
+        if (this.documents.get(key) != null) {
+            this.invalidations.incrementAndGet();
+            this.documents.remove(key);
+        }
+        this.notFound.remove(key);
+    }
+
+    /**
+     * @return the number of lookups which found the document in the cache
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of lookups which found in the cache that the id matches no document
+     */
+    public long getNegativeHitCount()
+    {
+        return this.negativeHits.get();
+    }
+
+    /**
+     * @return the number of lookups which required resolving the id
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the ratio of lookups answered by the cache, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long answered = getHitCount() + getNegativeHitCount();
+        long total = answered + getMissCount();
+        return total == 0 ? 0 : (double) answered / total;
+    }
+
+    /**
+     * @return the number of resolved documents removed from the cache to respect its size, as opposed to the ones
+     *     removed because they changed
+     */
+    public long getEvictionCount()
+    {
+        return Math.max(0, this.removals.get() - this.invalidations.get());
+    }
+
+    /**
+     * @return the number of resolved documents removed from the cache because they changed
+     */
+    public long getInvalidationCount()
+    {
+        return this.invalidations.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d hits, %d negative hits, %d misses (hit rate %.2f), %d evictions, %d invalidations",
+            getHitCount(), getNegativeHitCount(), getMissCount(), getHitRate(), getEvictionCount(),
+            getInvalidationCount());
+    }
+
+    @Override
+    public void cacheEntryAdded(CacheEntryEvent<EntityReference> event)
+    {
+        // Nothing to do.
+    }
+
+    @Override
+    public void cacheEntryRemoved(CacheEntryEvent<EntityReference> event)
+    {
+        this.removals.incrementAndGet();
+    }
+
+    @Override
+    public void cacheEntryModified(CacheEntryEvent<EntityReference> event)
+    {
+        // Nothing to do.
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.documents != null) {
+            this.documents.dispose();
+            this.notFound.dispose();
+        }
+    }
+
+    private static String getKey(String wiki, long id)
+    {
+        // Wiki identifiers can't contain ':', so the key is not ambiguous.
+        return wiki + ':' + id;
+    }
+}
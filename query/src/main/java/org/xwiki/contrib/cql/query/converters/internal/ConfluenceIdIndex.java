@@ -0,0 +1,252 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.environment.Environment;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import static org.xwiki.query.Query.HQL;
+
+/**
+ * Keeps all the Confluence ids of the Confluence.Code.ConfluencePageClass objects of each wiki, with the full name of
+ * the document holding them. The ids of a wiki are loaded in the background, by pages, the first time they are
+ * needed, and then kept up to date with {@link #update(String, Collection, Collection, String)}.
+ * <p>
+ * Once loaded, the ids are saved to a {@link ConfluenceIdSnapshot} in the permanent directory, which is memory-mapped
+ * and used for lookups without holding the ids on the heap. After a restart, the saved snapshot is used right away
+ * while the ids are loaded again from the database in the background; only the differences are kept in memory until
+ * the snapshot is saved again. If the snapshot cannot be saved, the ids stay in memory: about 20 to 40 bytes per id
+ * plus the full name of its document.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = ConfluenceIdIndex.class)
+@Singleton
+public class ConfluenceIdIndex implements Initializable, Disposable
+{
+    private static final String IDS_USING_CONFLUENCEPAGECLASS = "select idProp.value, doc.fullName "
+        + "from XWikiDocument doc, BaseObject o, LongProperty idProp "
+        + "where "
+        + "idProp.value > :lastId and "
+        + "doc.fullName = o.name and "
+        + "o.className = 'Confluence.Code.ConfluencePageClass' and "
+        + "idProp.id.id = o.id and "
+        + "idProp.id.name = 'id' "
+        + "order by idProp.value";
+
+    private static final int PAGE_SIZE = 10000;
+
+    private static final String SNAPSHOT_DIRECTORY = "cql/ids";
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, ConfluenceIdWikiIndex> indexes = new ConcurrentHashMap<>();
+
+    private ExecutorService loader;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (this.configuration.isIdIndexEnabled()) {
+            this.loader = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CQL Confluence id index loader");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return whether the index is enabled in the configuration
+     */
+    public boolean isEnabled()
+    {
+        return this.loader != null;
+    }
+
+    /**
+     * Start loading the ids of the given wiki in the background, if this was not done already.
+     * @param wiki the wiki of which to load the ids
+     */
+    public void load(String wiki)
+    {
+        if (isEnabled() && !this.indexes.containsKey(wiki)) {
+            ConfluenceIdWikiIndex index = new ConfluenceIdWikiIndex(getSnapshotDirectory(), wiki);
+            // The snapshot is opened once the index is registered, so that concurrent lookups don't wait for it:
+            // they fall back to the database until the index is ready, and the updates are kept.
+            if (this.indexes.putIfAbsent(wiki, index) == null) {
+                openSnapshot(wiki, index);
+                this.loader.execute(new ExecutionContextRunnable(() -> load(wiki, index), this.componentManager));
+            }
+        }
+    }
+
+    /**
+     * @param wiki the wiki in which to resolve the id
+     * @param id the Confluence id
+     * @return the full name of the document matching the id, or null if it is not known, including when the ids of
+     *     the wiki are still being loaded
+     */
+    public String get(String wiki, long id)
+    {
+        ConfluenceIdWikiIndex index = this.indexes.get(wiki);
+        if (index == null) {
+            load(wiki);
+            index = this.indexes.get(wiki);
+        }
+
+        return index != null && index.isReady() ? index.get(id) : null;
+    }
+
+    /**
+     * Take into account a change of the Confluence ids of a document.
+     * @param wiki the wiki of the document
+     * @param removedIds the ids the document does not hold anymore
+     * @param addedIds the ids the document now holds
+     * @param fullName the full name of the document
+     */
+    public void update(String wiki, Collection<Long> removedIds, Collection<Long> addedIds, String fullName)
+    {
+        ConfluenceIdWikiIndex index = this.indexes.get(wiki);
+        if (index != null) {
+            index.update(removedIds, addedIds, fullName);
+        }
+    }
+
+    /**
+     * @param wiki the wiki
+     * @return the approximate number of bytes used on the heap by the ids of the wiki, 0 if they are not loaded
+     */
+    public long getMemoryFootprint(String wiki)
+    {
+        ConfluenceIdWikiIndex index = this.indexes.get(wiki);
+        return index == null ? 0 : index.getMemoryFootprint();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, ConfluenceIdWikiIndex> entry : this.indexes.entrySet()) {
+            if (report.length() > 0) {
+                report.append(", ");
+            }
+            report.append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return report.toString();
+    }
+
+    private File getSnapshotDirectory()
+    {
+        return new File(this.environment.getPermanentDirectory(), SNAPSHOT_DIRECTORY);
+    }
+
+    private void openSnapshot(String wiki, ConfluenceIdWikiIndex index)
+    {
+        try {
+            index.openSnapshot();
+        } catch (IOException e) {
+            this.logger.warn("Ignoring the saved Confluence ids of wiki [{}]: [{}]", wiki, e.getMessage());
+            index.deleteSnapshots();
+        }
+    }
+
+    private void load(String wiki, ConfluenceIdWikiIndex index)
+    {
+        long start = System.currentTimeMillis();
+        long lastId = Long.MIN_VALUE;
+        try {
+            List<Object[]> page;
+            do {
+                page = this.queryManager.createQuery(IDS_USING_CONFLUENCEPAGECLASS, HQL)
+                    .setWiki(wiki)
+                    .bindValue("lastId", lastId)
+                    .setLimit(PAGE_SIZE)
+                    .execute();
+                for (Object[] row : page) {
+                    lastId = (Long) row[0];
+                    index.load(lastId, (String) row[1]);
+                }
+            } while (page.size() == PAGE_SIZE);
+        } catch (QueryException e) {
+            // Without a snapshot, the index stays not ready: ids keep being resolved using the database.
+            this.logger.error("Failed to load the Confluence ids of wiki [{}]", wiki, e);
+            return;
+        }
+
+        index.endLoad();
+        this.logger.info("Loaded the Confluence ids of wiki [{}] in [{}] ms: [{}]", wiki,
+            System.currentTimeMillis() - start, index);
+
+        if (index.hasChanges()) {
+            try {
+                index.saveSnapshot();
+                this.logger.info("Saved the Confluence ids of wiki [{}]: [{}]", wiki, index);
+            } catch (IOException e) {
+                this.logger.warn("Failed to save the Confluence ids of wiki [{}], they are kept in memory", wiki, e);
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.loader != null) {
+            this.loader.shutdownNow();
+        }
+    }
+}
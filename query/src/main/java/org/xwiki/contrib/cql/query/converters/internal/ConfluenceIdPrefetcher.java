@@ -0,0 +1,200 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Resolves all the Confluence ids used in a statement in one go before it is converted, so that converters dealing
+ * with ids don't need to resolve them one by one. The resolved ids are only kept for the conversion running in the
+ * current thread, until {@link #clear()} is called.
+ * Prefetching is an optimization only: ids which could not be resolved are resolved again individually by the
+ * converters, which report the errors at the right place in the statement.
+ * The ids of several statements can be resolved together, for instance for a batch of queries.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = ConfluenceIdPrefetcher.class)
+@Singleton
+public class ConfluenceIdPrefetcher
+{
+    @Inject
+    private ConfluenceIdResolver idResolver;
+
+    @Inject
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private Logger logger;
+
+    private final ThreadLocal<Prefetched> prefetched = new ThreadLocal<>();
+
+    /**
+     * The documents resolved in a thread, and the number of calls to {@link #clear()} expected before forgetting
+     * them.
+     */
+    private static final class Prefetched
+    {
+        private final Map<Long, EntityReference> documents = new HashMap<>();
+
+        private int depth;
+    }
+
+    /**
+     * Resolve the Confluence ids used in the given statement.
+     * @param statement the statement about to be converted
+     */
+    public void prefetch(AQLStatement statement)
+    {
+        prefetch(Collections.singletonList(statement));
+    }
+
+    /**
+     * Resolve the Confluence ids used in the given statements at once. Each call must be followed by a call to
+     * {@link #clear()}. The calls can be nested: the ids prefetched for several statements are kept while they are
+     * converted one by one.
+     * @param statements the statements about to be converted
+     * @since 0.0.3
+     */
+    public void prefetch(Collection<AQLStatement> statements)
+    {
+        Prefetched p = prefetched.get();
+        if (p == null) {
+            p = new Prefetched();
+            prefetched.set(p);
+        }
+        p.depth++;
+
+        Set<Long> ids = new LinkedHashSet<>();
+        try {
+            for (AQLStatement statement : statements) {
+                collectIds(statement.getClausesWithNextOp(), ids);
+            }
+        } catch (ComponentLookupException e) {
+            logger.debug("Could not look up the converters to collect the Confluence ids to resolve", e);
+            return;
+        }
+
+        ids.removeAll(p.documents.keySet());
+        // A single id is resolved as fast by the converter itself.
+        if (ids.size() < 2) {
+            return;
+        }
+
+        try {
+            p.documents.putAll(idResolver.getDocumentsByIds(null, ids));
+        } catch (ConversionException e) {
+            logger.debug("Failed to resolve the Confluence ids [{}] at once, they will be resolved one by one", ids,
+                e);
+        }
+    }
+
+    /**
+     * @param id the Confluence id to look for
+     * @return the document resolved for this id by the calls to {@link #prefetch(Collection)} in this thread, or
+     *     null if it was not resolved
+     */
+    public EntityReference get(long id)
+    {
+        Prefetched p = prefetched.get();
+        return p == null ? null : p.documents.get(id);
+    }
+
+    /**
+     * Forget the ids resolved in this thread, unless this call matches a nested call to {@link #prefetch(Collection)}.
+     */
+    public void clear()
+    {
+        Prefetched p = prefetched.get();
+        if (p != null && --p.depth <= 0) {
+            prefetched.remove();
+        }
+    }
+
+    private void collectIds(List<AQLClauseWithNextOperator> clausesWithNextOp, Set<Long> ids)
+        throws ComponentLookupException
+    {
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            if (clause instanceof AQLClausesWithNextOperator) {
+                collectIds(((AQLClausesWithNextOperator) clause).getClausesWithNextOp(), ids);
+            } else if (clause instanceof AQLAtomicClause) {
+                AQLAtomicClause atom = (AQLAtomicClause) clause;
+                if (converterRegistry.getAtomConverter(atom.getField().toLowerCase())
+                    instanceof AbstractIdCQLToSolrAtomConverter)
+                {
+                    collectIds(atom.getRight(), ids);
+                }
+            }
+        }
+    }
+
+    private static void collectIds(AbstractAQLRightHandValue right, Set<Long> ids)
+    {
+        if (right instanceof AQLInExpression) {
+            for (AbstractAQLAtomicValue value : ((AQLInExpression) right).getValues()) {
+                collectIds(value, ids);
+            }
+            return;
+        }
+
+        String v = null;
+        if (right instanceof AQLNumberLiteral) {
+            v = ((AQLNumberLiteral) right).getNumber();
+        } else if (right instanceof AQLStringLiteral) {
+            v = ((AQLStringLiteral) right).getString();
+        }
+
+        if (v != null) {
+            try {
+                ids.add(Long.parseLong(v));
+            } catch (NumberFormatException e) {
+                // The converter will report this error.
+            }
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only, memory-mapped file associating sorted Confluence ids to document full names. The file contains a
+ * header, the ids as sorted longs, the offsets of the full names as ints, and the UTF-8 encoded full names one after
+ * the other. Lookups are binary searches over the mapped file: the content is never loaded on the heap.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+public final class ConfluenceIdSnapshot
+{
+    private static final int MAGIC = 0x43514C49;
+
+    private static final int VERSION = 1;
+
+    // magic, version, number of ids, size of the full names
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int offsetsStart;
+
+    private final int fullNamesStart;
+
+    private ConfluenceIdSnapshot(ByteBuffer buffer, int size, int fullNamesSize) throws IOException
+    {
+        long expectedFullNamesStart = HEADER_SIZE + (long) size * Long.BYTES + (size + 1L) * Integer.BYTES;
+        if (size < 0 || fullNamesSize < 0 || expectedFullNamesStart + fullNamesSize != buffer.capacity()) {
+            throw new IOException("Truncated or corrupted Confluence id snapshot");
+        }
+
+        this.buffer = buffer;
+        this.size = size;
+        this.offsetsStart = HEADER_SIZE + size * Long.BYTES;
+        this.fullNamesStart = (int) expectedFullNamesStart;
+    }
+
+    /**
+     * Map the given snapshot file in memory.
+     * @param file the snapshot file, written by {@link Writer}
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public static ConfluenceIdSnapshot open(File file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                throw new IOException("Invalid Confluence id snapshot size: " + fileSize);
+            }
+
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(Integer.BYTES) != VERSION) {
+                throw new IOException("Not a Confluence id snapshot, or written by an incompatible version");
+            }
+            return new ConfluenceIdSnapshot(buffer, buffer.getInt(2 * Integer.BYTES),
+                buffer.getInt(3 * Integer.BYTES));
+        }
+    }
+
+    /**
+     * @return the number of ids in the snapshot
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param index the index of an id, between 0 and {@link #size()} excluded
+     * @return the id at this index, the ids being sorted
+     */
+    public long getId(int index)
+    {
+        return this.buffer.getLong(HEADER_SIZE + index * Long.BYTES);
+    }
+
+    /**
+     * @param index the index of an id, between 0 and {@link #size()} excluded
+     * @return the full name of the document holding the id at this index
+     */
+    public String getFullName(int index)
+    {
+        int start = this.buffer.getInt(this.offsetsStart + index * Integer.BYTES);
+        int end = this.buffer.getInt(this.offsetsStart + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        // Work on a duplicate to keep the shared buffer position untouched, for concurrent lookups.
+        ByteBuffer fullName = this.buffer.duplicate();
+        fullName.position(this.fullNamesStart + start);
+        fullName.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param id the Confluence id to look for
+     * @return the index of the id, or a negative value if the id is not in the snapshot
+     */
+    public int indexOf(long id)
+    {
+        int low = 0;
+        int high = this.size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long middleId = getId(middle);
+            if (middleId < id) {
+                low = middle + 1;
+            } else if (middleId > id) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param id the Confluence id to look for
+     * @return the full name of the document holding the id, or null if the id is not in the snapshot
+     */
+    public String get(long id)
+    {
+        int index = indexOf(id);
+        return index < 0 ? null : getFullName(index);
+    }
+
+    /**
+     * @return the size of the mapped file, in bytes
+     */
+    public long getMappedSize()
+    {
+        return this.buffer.capacity();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d ids, %d KB mapped", this.size, getMappedSize() / 1024);
+    }
+
+    /**
+     * Writes a snapshot, creating the target file only once the snapshot is complete. The full names are written
+     * to a temporary file as they come, so only the ids and the offsets are kept in memory. The target file must not
+     * be mapped: a mapped file can't be replaced on some platforms, so a new file is written for each snapshot.
+     */
+    public static final class Writer implements Closeable
+    {
+        private final File file;
+
+        private final File fullNamesFile;
+
+        private final OutputStream fullNames;
+
+        private long[] ids;
+
+        private int[] offsets;
+
+        private int size;
+
+        private int fullNamesSize;
+
+        /**
+         * @param file the snapshot file to write
+         * @param expectedSize the expected number of ids
+         * @throws IOException if the temporary file cannot be created
+         */
+        public Writer(File file, int expectedSize) throws IOException
+        {
+            this.file = file;
+            File directory = file.getAbsoluteFile().getParentFile();
+            Files.createDirectories(directory.toPath());
+            this.fullNamesFile = File.createTempFile(file.getName(), ".names", directory);
+            this.fullNames = new BufferedOutputStream(Files.newOutputStream(this.fullNamesFile.toPath()));
+            this.ids = new long[Math.max(16, expectedSize)];
+            this.offsets = new int[this.ids.length + 1];
+        }
+
+        /**
+         * @param id the id, greater than the previously added one
+         * @param fullName the full name of the document holding the id
+         * @throws IOException if writing fails
+         */
+        public void add(long id, String fullName) throws IOException
+        {
+            if (this.size > 0 && id <= this.ids[this.size - 1]) {
+                throw new IllegalArgumentException("Ids must be added in increasing order");
+            }
+
+            byte[] bytes = fullName.getBytes(StandardCharsets.UTF_8);
+            if ((long) this.fullNamesSize + bytes.length > Integer.MAX_VALUE / 2) {
+                throw new IOException("Too many full names for a Confluence id snapshot");
+            }
+
+            if (this.size == this.ids.length) {
+                this.ids = Arrays.copyOf(this.ids, this.size * 2);
+                this.offsets = Arrays.copyOf(this.offsets, this.size * 2 + 1);
+            }
+
+            this.fullNames.write(bytes);
+            this.ids[this.size] = id;
+            this.offsets[this.size] = this.fullNamesSize;
+            this.fullNamesSize += bytes.length;
+            this.size++;
+        }
+
+        /**
+         * Write the snapshot file.
+         * @throws IOException if writing fails
+         */
+        public void commit() throws IOException
+        {
+            this.fullNames.close();
+            this.offsets[this.size] = this.fullNamesSize;
+
+            File tmpFile = new File(this.fullNamesFile.getPath() + ".tmp");
+            try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(this.size);
+                out.writeInt(this.fullNamesSize);
+                for (int i = 0; i < this.size; i++) {
+                    out.writeLong(this.ids[i]);
+                }
+                for (int i = 0; i <= this.size; i++) {
+                    out.writeInt(this.offsets[i]);
+                }
+                try (InputStream in = Files.newInputStream(this.fullNamesFile.toPath())) {
+                    byte[] chunk = new byte[8192];
+                    for (int n = in.read(chunk); n != -1; n = in.read(chunk)) {
+                        out.write(chunk, 0, n);
+                    }
+                }
+            }
+
+            try {
+                Files.move(tmpFile.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile.toPath());
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            this.fullNames.close();
+            Files.deleteIfExists(this.fullNamesFile.toPath());
+        }
+    }
+}
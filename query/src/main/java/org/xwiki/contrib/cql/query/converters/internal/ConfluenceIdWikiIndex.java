@@ -0,0 +1,516 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.xwiki.contrib.cql.query.converters.internal.LongIntHashMap.NO_VALUE;
+
+/**
+ * The Confluence ids of a wiki. They are read from a memory-mapped {@link ConfluenceIdSnapshot}, if any, and from an
+ * in-memory overlay holding the ids which differ from the snapshot: ids loaded from the database which are missing
+ * from the snapshot or point to another document, and ids changed since. Saving a snapshot moves the overlay to the
+ * new snapshot file.
+ * <p>
+ * Lookups only take a read lock, so they don't wait for each other. Snapshots are written without holding the lock,
+ * to a new file each time: a mapped file can't be replaced or deleted on some platforms, so the previous files are
+ * deleted when possible, and otherwise the next time the snapshot is opened.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+public final class ConfluenceIdWikiIndex
+{
+    // Rough size of a String object and its array, without the characters.
+    private static final int STRING_OVERHEAD = 56;
+
+    private static final int INITIAL_FULL_NAMES = 16;
+
+    private static final String SNAPSHOT_EXTENSION = ".ids";
+
+    private final File directory;
+
+    private final String wiki;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ConfluenceIdSnapshot snapshot;
+
+    // The number in the name of the snapshot file, incremented each time a snapshot is saved.
+    private long generation;
+
+    private LongIntHashMap ids = new LongIntHashMap(0);
+
+    private String[] fullNames = new String[INITIAL_FULL_NAMES];
+
+    private int fullNameCount;
+
+    private long fullNameBytes;
+
+    // The ids of the snapshot which don't exist anymore.
+    private LongIntHashMap removed = new LongIntHashMap(0);
+
+    // The ids changed by events while loading, which the loaded values must not override.
+    private LongIntHashMap changedWhileLoading = new LongIntHashMap(0);
+
+    // The ids changed by events while saving, which are not in the saved snapshot.
+    private LongIntHashMap changedWhileSaving;
+
+    // The position in the snapshot of the next id expected from the database, while loading.
+    private int snapshotCursor;
+
+    private boolean loadedAny;
+
+    private long lastLoadedId;
+
+    private volatile boolean ready;
+
+    /**
+     * @param directory the directory where the ids are saved
+     * @param wiki the wiki of the ids
+     */
+    public ConfluenceIdWikiIndex(File directory, String wiki)
+    {
+        this.directory = directory;
+        this.wiki = wiki;
+    }
+
+    /**
+     * Use the ids saved in the latest snapshot file until they are loaded from the database, if there is one.
+     * @throws IOException if the snapshot file exists but cannot be used
+     */
+    public void openSnapshot() throws IOException
+    {
+        long latestGeneration = getLatestGeneration();
+        if (latestGeneration < 0) {
+            return;
+        }
+
+        ConfluenceIdSnapshot opened = ConfluenceIdSnapshot.open(getSnapshotFile(latestGeneration));
+        this.lock.writeLock().lock();
+        try {
+            this.snapshot = opened;
+            this.generation = latestGeneration;
+            // The ids removed by events before the snapshot was opened could not be marked as removed.
+            if (this.changedWhileLoading != null) {
+                for (long id : this.changedWhileLoading.keys()) {
+                    if (this.ids.get(id) == NO_VALUE && opened.indexOf(id) >= 0) {
+                        this.removed.put(id, 0);
+                    }
+                }
+            }
+            this.ready = true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        deleteSnapshots(latestGeneration);
+    }
+
+    /**
+     * Delete all the snapshot files of the wiki, when possible.
+     */
+    public void deleteSnapshots()
+    {
+        deleteSnapshots(-1);
+    }
+
+    /**
+     * @return whether ids can be looked up
+     */
+    public boolean isReady()
+    {
+        return this.ready;
+    }
+
+    /**
+     * @param id the Confluence id
+     * @return the full name of the document holding the id, or null if it is not known
+     */
+    public String get(long id)
+    {
+        this.lock.readLock().lock();
+        try {
+            int fullName = this.ids.get(id);
+            if (fullName != NO_VALUE) {
+                return this.fullNames[fullName];
+            }
+
+            if (this.snapshot == null || this.removed.get(id) != NO_VALUE) {
+                return null;
+            }
+
+            return this.snapshot.get(id);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Take into account an id read from the database. The ids must be loaded in increasing order.
+     * @param id the id
+     * @param fullName the full name of the document holding the id
+     */
+    public void load(long id, String fullName)
+    {
+        this.lock.writeLock().lock();
+        try {
+            if (this.loadedAny && id == this.lastLoadedId) {
+                // Like when the ids are resolved with the database, the first document holding an id wins.
+                return;
+            }
+            this.loadedAny = true;
+            this.lastLoadedId = id;
+
+            String snapshotFullName = null;
+            if (this.snapshot != null) {
+                removeSnapshotIds(id);
+                if (this.snapshotCursor < this.snapshot.size() && this.snapshot.getId(this.snapshotCursor) == id) {
+                    snapshotFullName = this.snapshot.getFullName(this.snapshotCursor++);
+                }
+            }
+
+            if (this.changedWhileLoading.get(id) == NO_VALUE && !fullName.equals(snapshotFullName)) {
+                this.ids.put(id, addFullName(fullName));
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the ids of the snapshot lower than the given one which were not loaded from the database.
+     */
+    private void removeSnapshotIds(long untilId)
+    {
+        while (this.snapshotCursor < this.snapshot.size() && this.snapshot.getId(this.snapshotCursor) < untilId) {
+            removeSnapshotId(this.snapshot.getId(this.snapshotCursor++));
+        }
+    }
+
+    private void removeSnapshotId(long id)
+    {
+        if (this.changedWhileLoading.get(id) == NO_VALUE) {
+            this.removed.put(id, 0);
+        }
+    }
+
+    /**
+     * Mark the end of the loading of the ids from the database.
+     */
+    public void endLoad()
+    {
+        this.lock.writeLock().lock();
+        try {
+            // The remaining ids of the snapshot were not loaded from the database.
+            while (this.snapshot != null && this.snapshotCursor < this.snapshot.size()) {
+                removeSnapshotId(this.snapshot.getId(this.snapshotCursor++));
+            }
+
+            this.changedWhileLoading = null;
+            this.ready = true;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Take into account a change of the Confluence ids of a document.
+     * @param removedIds the ids the document does not hold anymore
+     * @param addedIds the ids the document now holds
+     * @param fullName the full name of the document
+     */
+    public void update(Collection<Long> removedIds, Collection<Long> addedIds, String fullName)
+    {
+        this.lock.writeLock().lock();
+        try {
+            for (Long id : removedIds) {
+                this.ids.remove(id);
+                if (this.snapshot != null && this.snapshot.indexOf(id) >= 0) {
+                    this.removed.put(id, 0);
+                }
+                changed(id);
+            }
+
+            if (!addedIds.isEmpty()) {
+                int index = addFullName(fullName);
+                for (Long id : addedIds) {
+                    this.ids.put(id, index);
+                    this.removed.remove(id);
+                    changed(id);
+                }
+            }
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    private void changed(long id)
+    {
+        if (this.changedWhileLoading != null) {
+            this.changedWhileLoading.put(id, 0);
+        }
+        if (this.changedWhileSaving != null) {
+            this.changedWhileSaving.put(id, 0);
+        }
+    }
+
+    /**
+     * @return whether the ids differ from the snapshot file
+     */
+    public boolean hasChanges()
+    {
+        this.lock.readLock().lock();
+        try {
+            return this.snapshot == null || this.ids.size() > 0 || this.removed.size() > 0;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Write all the ids to a new snapshot file, and use it instead of the overlay. The file is written without
+     * blocking lookups and updates; the ids changed in the meantime stay in the overlay. Snapshots must not be saved
+     * concurrently.
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void saveSnapshot() throws IOException
+    {
+        ConfluenceIdSnapshot previous;
+        long[] overlayIds;
+        String[] overlayFullNames;
+        LongIntHashMap removedIds;
+        long savedGeneration;
+        this.lock.writeLock().lock();
+        try {
+            previous = this.snapshot;
+            overlayIds = this.ids.keys();
+            Arrays.sort(overlayIds);
+            overlayFullNames = new String[overlayIds.length];
+            for (int i = 0; i < overlayIds.length; i++) {
+                overlayFullNames[i] = this.fullNames[this.ids.get(overlayIds[i])];
+            }
+            removedIds = copy(this.removed);
+            savedGeneration = this.generation + 1;
+            this.changedWhileSaving = new LongIntHashMap(0);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        ConfluenceIdSnapshot saved;
+        try {
+            File file = getSnapshotFile(savedGeneration);
+            write(file, previous, overlayIds, overlayFullNames, removedIds);
+            saved = ConfluenceIdSnapshot.open(file);
+        } catch (IOException e) {
+            this.lock.writeLock().lock();
+            try {
+                this.changedWhileSaving = null;
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            throw e;
+        }
+
+        this.lock.writeLock().lock();
+        try {
+            use(saved, savedGeneration);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+
+        deleteSnapshots(savedGeneration);
+    }
+
+    private static void write(File file, ConfluenceIdSnapshot previous, long[] overlayIds, String[] overlayFullNames,
+        LongIntHashMap removedIds) throws IOException
+    {
+        int snapshotSize = previous == null ? 0 : previous.size();
+        try (ConfluenceIdSnapshot.Writer writer = new ConfluenceIdSnapshot.Writer(file,
+            snapshotSize + overlayIds.length)) {
+            int i = 0;
+            int j = 0;
+            while (i < snapshotSize || j < overlayIds.length) {
+                if (j == overlayIds.length || (i < snapshotSize && previous.getId(i) < overlayIds[j])) {
+                    long id = previous.getId(i);
+                    if (removedIds.get(id) == NO_VALUE) {
+                        writer.add(id, previous.getFullName(i));
+                    }
+                    i++;
+                } else {
+                    if (i < snapshotSize && previous.getId(i) == overlayIds[j]) {
+                        // Overridden by the overlay.
+                        i++;
+                    }
+                    writer.add(overlayIds[j], overlayFullNames[j]);
+                    j++;
+                }
+            }
+            writer.commit();
+        }
+    }
+
+    /**
+     * Replace the snapshot and the overlay with the saved snapshot and the changes which happened while saving it.
+     */
+    private void use(ConfluenceIdSnapshot saved, long savedGeneration)
+    {
+        long[] changedIds = this.changedWhileSaving.keys();
+        String[] changedFullNames = new String[changedIds.length];
+        for (int i = 0; i < changedIds.length; i++) {
+            int fullName = this.ids.get(changedIds[i]);
+            changedFullNames[i] = fullName == NO_VALUE ? null : this.fullNames[fullName];
+        }
+
+        this.snapshot = saved;
+        this.generation = savedGeneration;
+        this.changedWhileSaving = null;
+        this.ids = new LongIntHashMap(0);
+        this.fullNames = new String[INITIAL_FULL_NAMES];
+        this.fullNameCount = 0;
+        this.fullNameBytes = 0;
+        this.removed = new LongIntHashMap(0);
+
+        for (int i = 0; i < changedIds.length; i++) {
+            if (changedFullNames[i] != null) {
+                this.ids.put(changedIds[i], addFullName(changedFullNames[i]));
+            } else if (saved.indexOf(changedIds[i]) >= 0) {
+                this.removed.put(changedIds[i], 0);
+            }
+        }
+    }
+
+    private static LongIntHashMap copy(LongIntHashMap map)
+    {
+        LongIntHashMap result = new LongIntHashMap(map.size());
+        for (long key : map.keys()) {
+            result.put(key, map.get(key));
+        }
+        return result;
+    }
+
+    private File getSnapshotFile(long snapshotGeneration)
+    {
+        return new File(this.directory, this.wiki + '.' + snapshotGeneration + SNAPSHOT_EXTENSION);
+    }
+
+    /**
+     * @return the generation of the latest snapshot file of the wiki, or -1 if there is none
+     */
+    private long getLatestGeneration()
+    {
+        long latest = -1;
+        for (File file : listSnapshotFiles()) {
+            latest = Math.max(latest, getGeneration(file));
+        }
+        return latest;
+    }
+
+    private void deleteSnapshots(long exceptGeneration)
+    {
+        for (File file : listSnapshotFiles()) {
+            if (getGeneration(file) != exceptGeneration) {
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    // Still mapped, it will be deleted the next time the snapshot is opened.
+                }
+            }
+        }
+    }
+
+    private File[] listSnapshotFiles()
+    {
+        File[] files = this.directory.listFiles(file -> getGeneration(file) >= 0);
+        return files == null ? new File[0] : files;
+    }
+
+    private long getGeneration(File file)
+    {
+        String name = file.getName();
+        String prefix = this.wiki + '.';
+        if (name.length() <= prefix.length() + SNAPSHOT_EXTENSION.length() || !name.startsWith(prefix)
+            || !name.endsWith(SNAPSHOT_EXTENSION))
+        {
+            return -1;
+        }
+
+        String snapshotGeneration = name.substring(prefix.length(), name.length() - SNAPSHOT_EXTENSION.length());
+        for (int i = 0; i < snapshotGeneration.length(); i++) {
+            if (!Character.isDigit(snapshotGeneration.charAt(i))) {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(snapshotGeneration);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int addFullName(String fullName)
+    {
+        // The ids of a document are loaded one after the other: share its full name.
+        if (this.fullNameCount > 0 && this.fullNames[this.fullNameCount - 1].equals(fullName)) {
+            return this.fullNameCount - 1;
+        }
+
+        if (this.fullNameCount == this.fullNames.length) {
+            this.fullNames = Arrays.copyOf(this.fullNames, this.fullNameCount * 2);
+        }
+        this.fullNames[this.fullNameCount] = fullName;
+        this.fullNameBytes += STRING_OVERHEAD + 2L * fullName.length();
+        return this.fullNameCount++;
+    }
+
+    /**
+     * @return the approximate number of bytes used on the heap
+     */
+    public long getMemoryFootprint()
+    {
+        this.lock.readLock().lock();
+        try {
+            // Assume 8 bytes per array slot, as with uncompressed references.
+            return this.ids.getMemoryFootprint() + this.removed.getMemoryFootprint() + 8L * this.fullNames.length
+                + this.fullNameBytes;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        this.lock.readLock().lock();
+        try {
+            return String.format("snapshot: [%s], %d ids and %d removed ids in memory, about %d KB on the heap",
+                this.snapshot == null ? "none" : this.snapshot, this.ids.size(), this.removed.size(),
+                getMemoryFootprint() / 1024);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+}
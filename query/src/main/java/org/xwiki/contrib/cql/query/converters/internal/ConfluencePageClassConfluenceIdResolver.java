@@ -19,7 +19,11 @@
  */
 package org.xwiki.contrib.cql.query.converters.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Priority;
 import javax.inject.Inject;
@@ -31,6 +35,7 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
 import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.query.QueryException;
 import org.xwiki.query.QueryManager;
@@ -67,9 +72,26 @@ public class ConfluencePageClassConfluenceIdResolver implements ConfluenceIdReso
         + "idProp.id.id = o.id and "
         + "idProp.id.name = 'id'";
 
+    // Same as above, for several ids at once. Only the full name of the documents is loaded.
+    private static final String IDS_USING_CONFLUENCEPAGECLASS = "select idProp.value, doc.fullName "
+        + "from XWikiDocument doc, BaseObject o, LongProperty idProp "
+        + "where "
+        + "idProp.value in (:ids) and "
+        + "doc.fullName = o.name and "
+        + "o.className = 'Confluence.Code.ConfluencePageClass' and "
+        + "idProp.id.id = o.id and "
+        + "idProp.id.name = 'id'";
+
+    // Some databases limit the number of parameters of a query (Oracle allows 1000 values in a IN list).
+    private static final int MAX_IDS_PER_QUERY = 500;
+
     @Inject
     private QueryManager queryManager;
 
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
     @Inject
     private Logger logger;
 
@@ -92,4 +114,33 @@ public class ConfluencePageClassConfluenceIdResolver implements ConfluenceIdReso
 
         return ((XWikiDocument) results.get(0)).getDocumentReference();
     }
+
+    @Override
+    public Map<Long, EntityReference> getDocumentsByIds(AbstractAQLRightHandValue node, Collection<Long> ids)
+        throws ConversionException
+    {
+        Map<Long, EntityReference> documents = new HashMap<>(ids.size());
+        List<Long> idList = new ArrayList<>(ids);
+        for (int i = 0; i < idList.size(); i += MAX_IDS_PER_QUERY) {
+            List<Long> chunk = idList.subList(i, Math.min(idList.size(), i + MAX_IDS_PER_QUERY));
+            List<Object[]> results;
+            try {
+                results = queryManager.createQuery(IDS_USING_CONFLUENCEPAGECLASS, HQL)
+                    .bindValue("ids", chunk)
+                    .execute();
+            } catch (QueryException e) {
+                throw new ConversionException(e, node == null ? null : node.getParserState());
+            }
+
+            for (Object[] result : results) {
+                // Like the single id query, the first document found for a given id wins.
+                documents.computeIfAbsent((Long) result[0],
+                    id -> documentReferenceResolver.resolve((String) result[1]));
+            }
+        }
+
+        logger.debug("Resolved [{}] Confluence ids out of [{}] using [{}] queries", documents.size(), ids.size(),
+            (idList.size() + MAX_IDS_PER_QUERY - 1) / MAX_IDS_PER_QUERY);
+        return documents;
+    }
 }
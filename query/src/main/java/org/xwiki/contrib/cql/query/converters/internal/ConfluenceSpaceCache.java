@@ -0,0 +1,218 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Keeps the Confluence spaces matching Confluence space keys, per wiki, and the root of the Confluence space of
+ * documents. The entries are invalidated when space home pages are created or deleted.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = ConfluenceSpaceCache.class)
+@Singleton
+public class ConfluenceSpaceCache implements Initializable, Disposable
+{
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    private Cache<EntityReference> spacesByKey;
+
+    private Cache<EntityReference> spacesByDocument;
+
+    private final AtomicLong keyHits = new AtomicLong();
+
+    private final AtomicLong keyMisses = new AtomicLong();
+
+    private final AtomicLong documentHits = new AtomicLong();
+
+    private final AtomicLong documentMisses = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configuration.getSpaceCacheSize();
+        if (size > 0) {
+            try {
+                this.spacesByKey = this.cacheManager.createNewCache(new LRUCacheConfiguration("cql.space.key", size));
+                this.spacesByDocument =
+                    this.cacheManager.createNewCache(new LRUCacheConfiguration("cql.space.document", size));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the Confluence space cache", e);
+            }
+        }
+    }
+
+    /**
+     * @return whether spaces are cached at all
+     */
+    public boolean isEnabled()
+    {
+        return this.spacesByKey != null;
+    }
+
+    /**
+     * @param wiki the wiki in which the key is resolved
+     * @param spaceKey the Confluence space key
+     * @return the cached space, or null if the key is not cached
+     */
+    public EntityReference getSpaceByKey(String wiki, String spaceKey)
+    {
+        return get(this.spacesByKey, wiki + ':' + spaceKey, this.keyHits, this.keyMisses);
+    }
+
+    /**
+     * @param wiki the wiki in which the key was resolved
+     * @param spaceKey the Confluence space key
+     * @param space the space matching the key
+     */
+    public void setSpaceByKey(String wiki, String spaceKey, EntityReference space)
+    {
+        if (isEnabled()) {
+            this.spacesByKey.set(wiki + ':' + spaceKey, space);
+        }
+    }
+
+    /**
+     * @param document the serialized reference of a document, including its wiki
+     * @return the cached root of the Confluence space of the document, or null if it is not cached
+     */
+    public EntityReference getSpaceByDocument(String document)
+    {
+        return get(this.spacesByDocument, document, this.documentHits, this.documentMisses);
+    }
+
+    /**
+     * @param document the serialized reference of a document, including its wiki
+     * @param space the root of the Confluence space of the document
+     */
+    public void setSpaceByDocument(String document, EntityReference space)
+    {
+        if (isEnabled()) {
+            this.spacesByDocument.set(document, space);
+        }
+    }
+
+    private static EntityReference get(Cache<EntityReference> cache, String key, AtomicLong hits, AtomicLong misses)
+    {
+        if (cache == null) {
+            return null;
+        }
+
+        EntityReference space = cache.get(key);
+        if (space == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return space;
+    }
+
+    /**
+     * Forget all the resolved spaces, because spaces were created or deleted.
+     */
+    public void invalidate()
+    {
+        if (isEnabled()) {
+            this.invalidations.incrementAndGet();
+            this.spacesByKey.removeAll();
+            this.spacesByDocument.removeAll();
+        }
+    }
+
+    /**
+     * @return the number of space key lookups answered by the cache
+     */
+    public long getKeyHitCount()
+    {
+        return this.keyHits.get();
+    }
+
+    /**
+     * @return the number of space key lookups which required resolving the key
+     */
+    public long getKeyMissCount()
+    {
+        return this.keyMisses.get();
+    }
+
+    /**
+     * @return the number of current space lookups answered by the cache
+     */
+    public long getDocumentHitCount()
+    {
+        return this.documentHits.get();
+    }
+
+    /**
+     * @return the number of current space lookups which required resolving the space
+     */
+    public long getDocumentMissCount()
+    {
+        return this.documentMisses.get();
+    }
+
+    /**
+     * @return the number of times the cache was emptied because spaces changed
+     */
+    public long getInvalidationCount()
+    {
+        return this.invalidations.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("space keys: %d hits, %d misses; current spaces: %d hits, %d misses; %d invalidations",
+            getKeyHitCount(), getKeyMissCount(), getDocumentHitCount(), getDocumentMissCount(),
+            getInvalidationCount());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.spacesByKey != null) {
+            this.spacesByKey.dispose();
+            this.spacesByDocument.dispose();
+        }
+    }
+}
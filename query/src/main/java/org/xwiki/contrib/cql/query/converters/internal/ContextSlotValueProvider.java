@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.contrib.cql.query.converters.SolrStatementTemplate;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.xwiki.contrib.cql.query.converters.Utils.escapeSolr;
+import static org.xwiki.contrib.cql.query.converters.Utils.toSolrDate;
+
+/**
+ * Computes the values of the slots of a {@link SolrStatementTemplate} in the current execution context, and converts
+ * the values bound to its parameters.
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = ContextSlotValueProvider.class)
+@Singleton
+public class ContextSlotValueProvider implements SolrStatementTemplate.SlotValueProvider
+{
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    @Inject
+    private ConfluenceSpaceResolver confluenceSpaceResolver;
+
+    @Override
+    public String getValue(SolrStatementTemplate.Slot slot) throws ConversionException
+    {
+        switch (slot) {
+            case CURRENT_USER:
+                return getEscapedCurrentUser();
+            case CURRENT_SPACE:
+                return getSpaceFacet(confluenceSpaceResolver.getCurrentConfluenceSpace(null));
+            default:
+                throw new ConversionException(String.format("BUG: Unexpected slot [%s].", slot), null);
+        }
+    }
+
+    /**
+     * @param parameter the parameter to fill
+     * @param value the value bound to the parameter
+     * @return the escaped Solr value of the parameter: a space facet for space keys, a quoted ISO 8601 date for dates
+     *         and the escaped string representation of the value otherwise
+     * @throws ConversionException if the value is missing, is not a single value or is not a date for a date field
+     * @since 0.0.3
+     */
+    public String getParameterValue(SolrStatementTemplate.Parameter parameter, Object value)
+        throws ConversionException
+    {
+        if (value == null) {
+            throw new ConversionException(String.format("No value bound for parameter [%s]", parameter),
+                parameter.getParserState());
+        }
+
+        if (value instanceof Iterable || value.getClass().isArray()) {
+            throw new ConversionException(
+                String.format("Parameter [%s] must be bound to a single value, use IN with one parameter per value",
+                    parameter), parameter.getParserState());
+        }
+
+        if (value instanceof Date) {
+            return '"' + DateTimeFormatter.ISO_INSTANT.format(((Date) value).toInstant()) + '"';
+        }
+
+        String string = String.valueOf(value);
+        switch (parameter.getType()) {
+            case SPACE_KEY:
+                return getSpaceFacet(confluenceSpaceResolver.getSpaceByKey(null, string));
+            case DATE:
+                return getDate(parameter, value);
+            default:
+                return escapeSolr(string);
+        }
+    }
+
+    private static String getDate(SolrStatementTemplate.Parameter parameter, Object value) throws ConversionException
+    {
+        // Strings are parsed like the date literals, so binding "2024-01-02" is the same as writing 2024-01-02.
+        AQLDateLiteral date =
+            value instanceof CharSequence ? AQLParser.parseDate(value.toString(), parameter.getParserState()) : null;
+        if (date == null) {
+            throw new ConversionException(
+                String.format("Parameter [%s] must be bound to a date, got [%s]", parameter, value),
+                parameter.getParserState());
+        }
+        return toSolrDate(date);
+    }
+
+    /**
+     * @param space the space for which to compute the facet
+     * @return the escaped value of the space_facet Solr field matching documents in this space
+     */
+    public String getSpaceFacet(EntityReference space)
+    {
+        return escapeSolr(getSpaceFacetTerm(space));
+    }
+
+    /**
+     * @param space the space for which to compute the facet
+     * @return the raw value of the space_facet Solr field matching documents in this space, as indexed
+     * @since 0.0.3
+     */
+    public String getSpaceFacetTerm(EntityReference space)
+    {
+        int facetNumber = space.getReversedReferenceChain().size() - 1;
+        if (EntityType.WIKI.equals(space.getRoot().getType())) {
+            facetNumber--;
+        }
+        return facetNumber + "/" + serializer.serialize(space) + '.';
+    }
+
+    private String getEscapedCurrentUser()
+    {
+        String currentUser = serializer.serialize(contextProvider.get().getUserReference());
+        return (currentUser.indexOf(':') == -1 ? "*\\:" : "") + escapeSolr(currentUser);
+    }
+}
@@ -19,16 +19,21 @@
  */
 package org.xwiki.contrib.cql.query.converters.internal;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Priority;
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.contrib.cql.aqlparser.AQLParserState;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
@@ -36,8 +41,10 @@ import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.stability.Unstable;
 
+import com.xpn.xwiki.XWikiContext;
+
 /**
- * Default ConfluenceIdResolver, using the available implementations.
+ * Default ConfluenceIdResolver, using the available implementations. The resolved ids are cached.
  * @version $Id$
  * @since 0.0.1
  */
@@ -48,7 +55,13 @@ import org.xwiki.stability.Unstable;
 public class DefaultConfluenceIdResolver implements ConfluenceIdResolver
 {
     @Inject
-    private ComponentManager componentManager;
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private ConfluenceIdCache idCache;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
 
     @Inject
     private Logger logger;
@@ -56,17 +69,30 @@ public class DefaultConfluenceIdResolver implements ConfluenceIdResolver
     @Override
     public EntityReference getDocumentById(AbstractAQLRightHandValue node, long id) throws ConversionException
     {
-        List<ConfluenceIdResolver> resolvers;
-
         AQLParserState state = node == null ? null : node.getParserState();
+        String wiki = contextProvider.get().getWikiId();
 
-        try {
-            resolvers = componentManager.getInstanceList(ConfluenceIdResolver.class);
-        } catch (ComponentLookupException e) {
-            throw new ConversionException(e, state);
+        EntityReference docRef = idCache.get(wiki, id);
+        if (docRef == null) {
+            long generation = idCache.getGeneration();
+            docRef = resolve(node, id, state);
+            idCache.set(wiki, id, docRef, generation);
+        } else {
+            logger.debug("Confluence document id [{}] found in the cache: [{}]", id, docRef);
         }
 
-        for (ConfluenceIdResolver idResolver : resolvers) {
+        if (docRef == null || docRef == ConfluenceIdCache.NOT_FOUND) {
+            throw new ConversionException(
+                String.format("Could not find the document matching Confluence id [%d]", id), state);
+        }
+
+        return docRef;
+    }
+
+    private EntityReference resolve(AbstractAQLRightHandValue node, long id, AQLParserState state)
+        throws ConversionException
+    {
+        for (ConfluenceIdResolver idResolver : getResolvers(state)) {
             if (idResolver != this) {
                 EntityReference docRef = idResolver.getDocumentById(node, id);
                 if (docRef != null) {
@@ -76,7 +102,62 @@ public class DefaultConfluenceIdResolver implements ConfluenceIdResolver
             }
         }
 
-        throw new ConversionException(String.format("Could not find the document matching Confluence id [%d]", id),
-            state);
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Each resolver is only asked for the ids not found by the previous ones. Unlike
+     * {@link #getDocumentById(AbstractAQLRightHandValue, long)}, ids which are not found are not an error: they are
+     * just missing from the result. Cached ids are not resolved again.
+     */
+    @Override
+    public Map<Long, EntityReference> getDocumentsByIds(AbstractAQLRightHandValue node, Collection<Long> ids)
+        throws ConversionException
+    {
+        String wiki = contextProvider.get().getWikiId();
+        long generation = idCache.getGeneration();
+        Map<Long, EntityReference> documents = new HashMap<>(ids.size());
+        Set<Long> remaining = new LinkedHashSet<>(ids.size());
+        for (Long id : ids) {
+            EntityReference docRef = idCache.get(wiki, id);
+            if (docRef == null) {
+                remaining.add(id);
+            } else if (docRef != ConfluenceIdCache.NOT_FOUND) {
+                documents.put(id, docRef);
+            }
+        }
+
+        for (ConfluenceIdResolver idResolver : getResolvers(node == null ? null : node.getParserState())) {
+            if (remaining.isEmpty()) {
+                break;
+            }
+
+            if (idResolver != this) {
+                Map<Long, EntityReference> found = idResolver.getDocumentsByIds(node, remaining);
+                logger.debug("[{}] Confluence document ids out of [{}] resolved using [{}]", found.size(),
+                    remaining.size(), idResolver);
+                for (Map.Entry<Long, EntityReference> entry : found.entrySet()) {
+                    idCache.set(wiki, entry.getKey(), entry.getValue(), generation);
+                }
+                documents.putAll(found);
+                remaining.removeAll(found.keySet());
+            }
+        }
+
+        for (Long id : remaining) {
+            idCache.set(wiki, id, null, generation);
+        }
+
+        return documents;
+    }
+
+    private List<ConfluenceIdResolver> getResolvers(AQLParserState state) throws ConversionException
+    {
+        try {
+            return converterRegistry.getIdResolvers();
+        } catch (ComponentLookupException e) {
+            throw new ConversionException(e, state);
+        }
     }
 }
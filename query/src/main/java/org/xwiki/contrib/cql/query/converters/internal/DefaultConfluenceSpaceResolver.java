@@ -29,18 +29,19 @@ import javax.inject.Singleton;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
 import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
 import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 import org.xwiki.stability.Unstable;
 
 import com.xpn.xwiki.XWikiContext;
 
 /**
- * Default ConfluenceSpaceResolver, using the available implementations.
+ * Default ConfluenceSpaceResolver, using the available implementations. The resolved spaces are cached.
  * @version $Id$
  * @since 0.0.1
  */
@@ -51,7 +52,13 @@ import com.xpn.xwiki.XWikiContext;
 public class DefaultConfluenceSpaceResolver implements ConfluenceSpaceResolver
 {
     @Inject
-    private ComponentManager componentManager;
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private ConfluenceSpaceCache spaceCache;
+
+    @Inject
+    private EntityReferenceSerializer<String> serializer;
 
     @Inject
     private Provider<XWikiContext> contextProvider;
@@ -61,6 +68,18 @@ public class DefaultConfluenceSpaceResolver implements ConfluenceSpaceResolver
 
     @Override
     public EntityReference getSpaceByKey(AbstractAQLRightHandValue node, String spaceKey) throws ConversionException
+    {
+        String wiki = contextProvider.get().getWikiId();
+        EntityReference spaceRef = spaceCache.getSpaceByKey(wiki, spaceKey);
+        if (spaceRef == null) {
+            spaceRef = resolveSpaceByKey(node, spaceKey);
+            spaceCache.setSpaceByKey(wiki, spaceKey, spaceRef);
+        }
+        return spaceRef;
+    }
+
+    private EntityReference resolveSpaceByKey(AbstractAQLRightHandValue node, String spaceKey)
+        throws ConversionException
     {
         for (ConfluenceSpaceResolver spaceResolver : getConfluenceSpaceResolvers(node)) {
             if (spaceResolver != this) {
@@ -82,6 +101,19 @@ public class DefaultConfluenceSpaceResolver implements ConfluenceSpaceResolver
 
     @Override
     public EntityReference getCurrentConfluenceSpace(AbstractAQLRightHandValue node) throws ConversionException
+    {
+        DocumentReference currentDocRef = contextProvider.get().getDoc().getDocumentReference();
+        String currentDoc = serializer.serialize(currentDocRef);
+        EntityReference spaceRef = spaceCache.getSpaceByDocument(currentDoc);
+        if (spaceRef == null) {
+            spaceRef = resolveCurrentConfluenceSpace(node, currentDocRef);
+            spaceCache.setSpaceByDocument(currentDoc, spaceRef);
+        }
+        return spaceRef;
+    }
+
+    private EntityReference resolveCurrentConfluenceSpace(AbstractAQLRightHandValue node,
+        DocumentReference currentDocRef) throws ConversionException
     {
         for (ConfluenceSpaceResolver spaceResolver : getConfluenceSpaceResolvers(node)) {
             if (spaceResolver != this) {
@@ -96,7 +128,7 @@ public class DefaultConfluenceSpaceResolver implements ConfluenceSpaceResolver
         // Fallback.
         // FIXME this is a bit optimistic. We need to make this work with Confluence spaces migrated in a
         //  (non-empty) root space
-        EntityReference spaceEntity = contextProvider.get().getDoc().getDocumentReference();
+        EntityReference spaceEntity = currentDocRef;
         while (spaceEntity.getParent() != null && spaceEntity.getParent().getType().equals(EntityType.SPACE)) {
             spaceEntity = spaceEntity.getParent();
         }
@@ -108,13 +140,10 @@ public class DefaultConfluenceSpaceResolver implements ConfluenceSpaceResolver
     private List<ConfluenceSpaceResolver> getConfluenceSpaceResolvers(AbstractAQLRightHandValue node)
         throws ConversionException
     {
-        List<ConfluenceSpaceResolver> resolvers;
-
         try {
-            resolvers = componentManager.getInstanceList(ConfluenceSpaceResolver.class);
+            return converterRegistry.getSpaceResolvers();
         } catch (ComponentLookupException e) {
             throw new ConversionException(e, node == null ? null : node.getParserState());
         }
-        return resolvers;
     }
 }
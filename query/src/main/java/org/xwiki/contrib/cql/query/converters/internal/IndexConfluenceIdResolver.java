@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Finds documents from their Confluence ID using the in-memory {@link ConfluenceIdIndex}, when it is enabled and
+ * loaded. Otherwise, the next resolvers are used.
+ * @since 0.0.3
+ * @version $Id$
+ */
+@Component
+@Named("index")
+@Singleton
+@Priority(100)
+public class IndexConfluenceIdResolver implements ConfluenceIdResolver
+{
+    @Inject
+    private ConfluenceIdIndex index;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Override
+    public EntityReference getDocumentById(AbstractAQLRightHandValue node, long id) throws ConversionException
+    {
+        if (!index.isEnabled()) {
+            return null;
+        }
+
+        String wiki = contextProvider.get().getWikiId();
+        return resolve(wiki, index.get(wiki, id));
+    }
+
+    @Override
+    public Map<Long, EntityReference> getDocumentsByIds(AbstractAQLRightHandValue node, Collection<Long> ids)
+        throws ConversionException
+    {
+        Map<Long, EntityReference> documents = new HashMap<>();
+        if (index.isEnabled()) {
+            String wiki = contextProvider.get().getWikiId();
+            for (Long id : ids) {
+                EntityReference docRef = resolve(wiki, index.get(wiki, id));
+                if (docRef != null) {
+                    documents.put(id, docRef);
+                }
+            }
+        }
+        return documents;
+    }
+
+    private EntityReference resolve(String wiki, String fullName)
+    {
+        return fullName == null ? null : documentReferenceResolver.resolve(fullName, new WikiReference(wiki));
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.converters.internal;
+
+/**
+ * A map from long keys to non negative int values, using open addressing with linear probing over two primitive
+ * arrays, so no key or value is boxed. Not thread-safe.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+public final class LongIntHashMap
+{
+    /**
+     * Returned when a key is not in the map.
+     */
+    public static final int NO_VALUE = -1;
+
+    // 0 marks the free slots of the arrays; the 0 key is stored aside.
+    private static final long FREE = 0L;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final double LOAD_FACTOR = 0.6;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    private int zeroValue = NO_VALUE;
+
+    /**
+     * @param expectedSize the number of entries the map should hold without growing
+     */
+    public LongIntHashMap(int expectedSize)
+    {
+        allocate(getCapacity(expectedSize));
+    }
+
+    private static int getCapacity(int expectedSize)
+    {
+        long minCapacity = Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR));
+        if (minCapacity > (1 << 30)) {
+            throw new IllegalArgumentException("Too many entries: " + expectedSize);
+        }
+        return Integer.highestOneBit((int) minCapacity - 1) << 1;
+    }
+
+    private void allocate(int capacity)
+    {
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    private int slot(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & this.mask;
+    }
+
+    /**
+     * @param key the key to look for
+     * @return the value associated to the key, or {@link #NO_VALUE}
+     */
+    public int get(long key)
+    {
+        if (key == FREE) {
+            return this.zeroValue;
+        }
+
+        for (int i = slot(key);; i = (i + 1) & this.mask) {
+            long k = this.keys[i];
+            if (k == key) {
+                return this.values[i];
+            }
+            if (k == FREE) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    /**
+     * @param key the key
+     * @param value the value to associate to the key, positive or 0
+     * @return the value previously associated to the key, or {@link #NO_VALUE}
+     */
+    public int put(long key, int value)
+    {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative values are not supported");
+        }
+
+        int previous;
+        if (key == FREE) {
+            previous = this.zeroValue;
+            this.zeroValue = value;
+        } else {
+            int i = slot(key);
+            while (this.keys[i] != FREE && this.keys[i] != key) {
+                i = (i + 1) & this.mask;
+            }
+
+            previous = this.keys[i] == FREE ? NO_VALUE : this.values[i];
+            this.keys[i] = key;
+            this.values[i] = value;
+        }
+
+        if (previous == NO_VALUE && ++this.size > this.keys.length * LOAD_FACTOR) {
+            rehash(this.keys.length << 1);
+        }
+
+        return previous;
+    }
+
+    /**
+     * @param key the key to remove
+     * @return the value which was associated to the key, or {@link #NO_VALUE}
+     */
+    public int remove(long key)
+    {
+        if (key == FREE) {
+            int previous = this.zeroValue;
+            if (previous != NO_VALUE) {
+                this.zeroValue = NO_VALUE;
+                this.size--;
+            }
+            return previous;
+        }
+
+        int gap = slot(key);
+        while (this.keys[gap] != key) {
+            if (this.keys[gap] == FREE) {
+                return NO_VALUE;
+            }
+            gap = (gap + 1) & this.mask;
+        }
+
+        int previous = this.values[gap];
+        this.size--;
+
+        // Move back the following entries of the probe sequence which would not be found anymore because of the gap.
+        for (int i = (gap + 1) & this.mask; this.keys[i] != FREE; i = (i + 1) & this.mask) {
+            int home = slot(this.keys[i]);
+            if (((i - home) & this.mask) >= ((i - gap) & this.mask)) {
+                this.keys[gap] = this.keys[i];
+                this.values[gap] = this.values[i];
+                gap = i;
+            }
+        }
+        this.keys[gap] = FREE;
+
+        return previous;
+    }
+
+    private void rehash(int capacity)
+    {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        allocate(capacity);
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key != FREE) {
+                int i = slot(key);
+                while (this.keys[i] != FREE) {
+                    i = (i + 1) & this.mask;
+                }
+                this.keys[i] = key;
+                this.values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * @return the keys of the map, in no particular order
+     */
+    public long[] keys()
+    {
+        long[] result = new long[this.size];
+        int n = 0;
+        if (this.zeroValue != NO_VALUE) {
+            result[n++] = FREE;
+        }
+        for (long key : this.keys) {
+            if (key != FREE) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of entries in the map
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @return the approximate number of bytes used by the arrays of this map
+     */
+    public long getMemoryFootprint()
+    {
+        return this.keys.length * (long) (Long.BYTES + Integer.BYTES);
+    }
+}
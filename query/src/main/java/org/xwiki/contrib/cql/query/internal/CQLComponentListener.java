@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrSortFieldConverter;
+import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+/**
+ * Invalidates the converted CQL statements and the converter registry when a component taking part in the conversion
+ * is registered or unregistered, for instance when an extension providing a CQL field is installed. The cached
+ * Confluence spaces are invalidated too, since a new space resolver may resolve the space keys differently.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(CQLComponentListener.NAME)
+@Singleton
+public class CQLComponentListener extends AbstractEventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.cql.query.internal.CQLComponentListener";
+
+    private static final Class<?>[] ROLES = {
+        CQLToSolrAtomConverter.class,
+        CQLToSolrSortFieldConverter.class,
+        ConfluenceIdResolver.class,
+        ConfluenceSpaceResolver.class,
+        CQLRewriteRule.class
+    };
+
+    // Lazily loaded to avoid initializing the caches and the registry when the listener is registered.
+    @Inject
+    private Provider<CompiledCQLStatementCache> compiledStatementCacheProvider;
+
+    @Inject
+    private Provider<CQLConverterRegistry> converterRegistryProvider;
+
+    @Inject
+    private Provider<ConfluenceSpaceCache> spaceCacheProvider;
+
+    /**
+     * Default constructor.
+     */
+    public CQLComponentListener()
+    {
+        super(NAME, getComponentEvents());
+    }
+
+    private static List<Event> getComponentEvents()
+    {
+        List<Event> events = new ArrayList<>(ROLES.length * 2);
+        for (Class<?> role : ROLES) {
+            events.add(new ComponentDescriptorAddedEvent(role));
+            events.add(new ComponentDescriptorRemovedEvent(role));
+        }
+        return events;
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        this.converterRegistryProvider.get().invalidate();
+        this.compiledStatementCacheProvider.get().invalidate();
+        this.spaceCacheProvider.get().invalidate();
+    }
+}
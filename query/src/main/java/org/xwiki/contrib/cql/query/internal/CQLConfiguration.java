@@ -0,0 +1,155 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Configuration options for the CQL query support, read from xwiki.properties.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Role
+public interface CQLConfiguration
+{
+    /**
+     * @return the maximum number of parsed CQL statements kept in memory, or 0 to parse statements at each execution
+     */
+    int getParserCacheSize();
+
+    /**
+     * @return the maximum number of characters of all the CQL statements kept in memory, taken together
+     */
+    long getParserCacheMaxWeight();
+
+    /**
+     * @return the maximum number of CQL statements kept converted to Solr (per wiki), or 0 to convert statements at
+     *         each execution
+     */
+    int getConversionCacheSize();
+
+    /**
+     * @return the maximum number of Confluence ids kept resolved to documents (for all the wikis), or 0 to resolve
+     *         ids at each conversion
+     */
+    int getIdCacheSize();
+
+    /**
+     * @return the number of seconds during which a Confluence id which could not be resolved is not looked up again
+     */
+    int getIdCacheNegativeLifespan();
+
+    /**
+     * @return whether all the Confluence ids of each wiki should be loaded in memory in the background, so they can be
+     *         resolved without querying the database
+     */
+    boolean isIdIndexEnabled();
+
+    /**
+     * @return the maximum number of Confluence space keys, and separately of documents, kept resolved to Confluence
+     *         spaces (for all the wikis), or 0 to resolve spaces at each conversion
+     */
+    int getSpaceCacheSize();
+
+    /**
+     * @return whether the root spaces of each wiki should be resolved as Confluence space keys as soon as the wiki is
+     *         ready, to fill the space cache
+     */
+    boolean isSpaceCachePrewarmEnabled();
+
+    /**
+     * @return whether the top-level clauses that don't need to be scored (such as type, space, label or date
+     *         conditions) should be sent to Solr as separate filter queries, which Solr caches independently of the
+     *         rest of the query
+     */
+    boolean isFilterQuerySplitEnabled();
+
+    /**
+     * @return whether the CQL statements should be simplified by the rewrite rules before being converted
+     * @see org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule
+     */
+    boolean isRewriteEnabled();
+
+    /**
+     * @return the number of values from which the IN and NOT IN lists on labels and spaces are sent to Solr as a
+     *         single terms query instead of a boolean query, 0 or less to never use terms queries
+     */
+    int getTermsQueryThreshold();
+
+    /**
+     * @return the maximum number of CQL query results kept in memory (for all the wikis and users), or 0 to query
+     *         Solr at each execution
+     */
+    int getResultCacheSize();
+
+    /**
+     * @return the number of seconds during which a cached result is returned as is
+     */
+    int getResultCacheLifespan();
+
+    /**
+     * @return the number of seconds, after the lifespan of a cached result, during which the result is still returned
+     *         while it is refreshed in the background
+     */
+    int getResultCacheStaleLifespan();
+
+    /**
+     * @return whether concurrent executions of the same Solr query, with the same parameters and for the same user,
+     *         should share a single request to Solr
+     */
+    boolean isSingleFlightEnabled();
+
+    /**
+     * @return the maximum number of milliseconds an execution waits for the result of an identical execution in
+     *         progress, before querying Solr itself
+     */
+    int getSingleFlightTimeout();
+
+    /**
+     * @return the number of threads executing the queries submitted with
+     *         {@link org.xwiki.contrib.cql.query.CQLQueryService#executeAsync(org.xwiki.query.Query)}
+     */
+    int getAsyncThreads();
+
+    /**
+     * @return the maximum number of asynchronous queries waiting for a thread, beyond which queries are executed by
+     *         the thread submitting them
+     */
+    int getAsyncQueueSize();
+
+    /**
+     * @return the maximum number of distinct queries of a batch executed at the same time
+     */
+    int getBatchParallelism();
+
+    /**
+     * @return the number of documents fetched from Solr at once when streaming the results of a CQL query
+     */
+    int getStreamPageSize();
+
+    /**
+     * @return the Solr date math unit to which the current time given by {@code now()} is rounded down
+     *         ({@code SECOND}, {@code MINUTE}, {@code HOUR}, {@code DAY}, {@code MONTH} or {@code YEAR}), or null to
+     *         use the exact current time. Rounding makes the date conditions less accurate but lets Solr cache and
+     *         reuse the results of the queries using them.
+     */
+    String getDateMathRounding();
+}
@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryExecutor;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Counts the documents matching CQL queries, for macros only showing how many documents match. The statements are the
+ * same as with the {@link CQLQueryExecutor#CQL} language and are converted the same way, but Solr is asked for the
+ * number of matching documents only, without any document ({@code rows=0}) and without sorting them. The result is a
+ * list holding this number, as a {@link Long}. The counts are kept in the result cache like other results, and
+ * count queries can be executed in batches.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(CQLCountQueryExecutor.CQL_COUNT)
+@Singleton
+@Unstable
+public class CQLCountQueryExecutor implements QueryExecutor
+{
+    /**
+     * Query language ID.
+     */
+    public static final String CQL_COUNT = "cqlcount";
+
+    @Inject
+    @Named(CQLQueryExecutor.CQL)
+    private Provider<QueryExecutor> cqlQueryExecutorProvider;
+
+    @Override
+    public <T> List<T> execute(Query query) throws QueryException
+    {
+        // The CQL executor knows the count queries from their language.
+        return this.cqlQueryExecutorProvider.get().execute(query);
+    }
+}
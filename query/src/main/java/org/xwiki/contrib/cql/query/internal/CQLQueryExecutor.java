@@ -20,20 +20,42 @@
 package org.xwiki.contrib.cql.query.internal;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrDocumentList;
+import org.apache.solr.common.params.CursorMarkParams;
+import org.apache.solr.common.util.NamedList;
 import org.slf4j.Logger;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.AQLStatementCache;
 import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrFieldListConverter;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.CompiledCQLStatement;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdPrefetcher;
+import org.xwiki.contrib.cql.query.rewriters.internal.CQLStatementRewriter;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -47,6 +69,11 @@ import com.xpn.xwiki.XWikiContext;
 /**
  * Executes CQL queries.
  * Like org.xwiki.query.solr.internal.SolrQueryExecutor, the result is the direct QueryResponse.
+ * The statement can contain named ({@code :name}) and positional ({@code ?}) parameters, whose values are bound to the
+ * query. The bound values of the named parameters of the statement are not passed to Solr as parameters.
+ * The queries of the {@link CQLCountQueryExecutor#CQL_COUNT} language are executed as well, without fetching any
+ * document: their result is the number of matching documents.
+ * The CQL fields to return can be bound to the {@link #FIELDS} parameter, to only fetch these fields from Solr.
  *
  * @version $Id$
  * @since 0.0.1
@@ -55,15 +82,36 @@ import com.xpn.xwiki.XWikiContext;
 @Named(CQLQueryExecutor.CQL)
 @Singleton
 @Unstable
-public class CQLQueryExecutor implements QueryExecutor
+public class CQLQueryExecutor implements QueryExecutor, Initializable
 {
     /**
      * Query language ID.
      */
     public static final String CQL = "cql";
 
+    /**
+     * Name of the query parameter holding the CQL fields to return, as a list or separated by commas. When it is
+     * bound, only the corresponding stored fields are fetched from Solr.
+     * @since 0.0.3
+     */
+    public static final String FIELDS = "cql.fields";
+
     private static final String SORT = "sort";
 
+    private static final String FILTER_QUERIES = "fq";
+
+    private static final String ROWS = "rows";
+
+    private static final String FIELD_LIST = "fl";
+
+    private static final String MATCH_NONE = "-*:*";
+
+    private static final String ID_FIELD = "id ";
+
+    private static final String ID_TIEBREAKER = ID_FIELD + "asc";
+
+    private static final String FAILED_TO_PARSE = "Failed to parse the CQL statement";
+
     @Inject
     private Provider<XWikiContext> contextProvider;
 
@@ -73,32 +121,284 @@ public class CQLQueryExecutor implements QueryExecutor
     @Inject
     private CQLToSolrQueryConverter queryConverter;
 
+    @Inject
+    private CQLToSolrFieldListConverter fieldListConverter;
+
+    @Inject
+    private CQLStatementRewriter statementRewriter;
+
+    @Inject
+    private CompiledCQLStatementCache compiledStatementCache;
+
+    @Inject
+    private ConfluenceIdPrefetcher idPrefetcher;
+
+    @Inject
+    private CQLResultCache resultCache;
+
+    @Inject
+    private CQLSingleFlight singleFlight;
+
+    @Inject
+    private CQLConfiguration configuration;
+
     @Inject
     private Logger logger;
 
+    private AQLStatementCache statementCache;
+
+    private final AtomicLong skippedQueries = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int parserCacheSize = this.configuration.getParserCacheSize();
+        if (parserCacheSize > 0) {
+            this.statementCache = new AQLStatementCache(parserCacheSize, this.configuration.getParserCacheMaxWeight());
+        }
+    }
+
     @Override
     public <T> List<T> execute(Query query) throws QueryException
+    {
+        return executeSolrQuery(toSolrQuery(query));
+    }
+
+    /**
+     * Convert the given CQL query to the Solr query executed by {@link #execute(Query)}.
+     *
+     * @param query the CQL query, with its bound values
+     * @return the Solr query to execute with {@link #executeSolrQuery(Query)}
+     * @throws QueryException if the statement cannot be parsed or converted
+     * @since 0.0.3
+     */
+    public Query toSolrQuery(Query query) throws QueryException
+    {
+        try {
+            return toSolrQuery(query, parse(query.getStatement()));
+        } catch (ParserException | IOException e) {
+            throw new QueryException(FAILED_TO_PARSE, query, e);
+        }
+    }
+
+    /**
+     * Convert the given CQL queries to the Solr queries executed by {@link #execute(Query)}. The statements are all
+     * parsed before being converted, so that the Confluence ids used by all of them are resolved at once.
+     *
+     * @param queries the CQL queries, with their bound values
+     * @return the Solr queries to execute with {@link #executeSolrQuery(Query)}, in the order of the given queries.
+     *     The conversion of each query fails independently: its future is then completed exceptionally with a
+     *     {@link QueryException}.
+     * @since 0.0.3
+     */
+    public List<CompletableFuture<Query>> toSolrQueries(List<Query> queries)
+    {
+        String wiki = this.contextProvider.get().getWikiId();
+        List<Object> statements = new ArrayList<>(queries.size());
+        List<AQLStatement> statementsToCompile = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            try {
+                AQLStatement statement = parse(query.getStatement());
+                statements.add(statement);
+                if (this.compiledStatementCache.get(wiki, statement) == null) {
+                    statementsToCompile.add(statement);
+                }
+            } catch (ParserException | IOException e) {
+                statements.add(new QueryException(FAILED_TO_PARSE, query, e));
+            }
+        }
+
+        List<CompletableFuture<Query>> solrQueries = new ArrayList<>(queries.size());
+        this.idPrefetcher.prefetch(statementsToCompile);
+        try {
+            for (int i = 0; i < queries.size(); i++) {
+                CompletableFuture<Query> solrQuery = new CompletableFuture<>();
+                Object statement = statements.get(i);
+                try {
+                    if (statement instanceof QueryException) {
+                        throw (QueryException) statement;
+                    }
+                    solrQuery.complete(toSolrQuery(queries.get(i), (AQLStatement) statement));
+                } catch (QueryException e) {
+                    solrQuery.completeExceptionally(e);
+                }
+                solrQueries.add(solrQuery);
+            }
+        } finally {
+            this.idPrefetcher.clear();
+        }
+        return solrQueries;
+    }
+
+    /**
+     * Execute a Solr query returned by {@link #toSolrQuery(Query)} or {@link #toSolrQueries(List)}.
+     *
+     * @param <T> the expected type of the results
+     * @param solrQuery the Solr query to execute
+     * @return the result of the query, possibly shared with other executions: it must not be modified
+     * @throws QueryException if the query fails
+     * @since 0.0.3
+     */
+    public <T> List<T> executeSolrQuery(Query solrQuery) throws QueryException
+    {
+        CQLToSolrWrappingQuery cqlSolrQuery = (CQLToSolrWrappingQuery) solrQuery;
+        List<T> result;
+        if (!this.resultCache.isEnabled() || cqlSolrQuery.matchingNothing) {
+            result = solrQuery.execute();
+        } else {
+            String cql = cqlSolrQuery.getWrappedQuery().getStatement();
+            result = this.resultCache.execute(cql, solrQuery);
+            this.logger.debug("CQL result cache: [{}], statement [{}]: [{}]", this.resultCache, cql,
+                this.resultCache.getStatistics(cql));
+        }
+        return cqlSolrQuery.countOnly ? getCount(result) : result;
+    }
+
+    /**
+     * Execute the given CQL query and iterate over all the documents it matches. The documents are fetched from Solr
+     * lazily, one page at a time, using a cursor ({@code cursorMark}): fetching a page doesn't get slower as the
+     * iteration goes, and only one page is kept in memory, however many documents match. The sort of the query gets
+     * the unique key ({@code id asc}) as a tiebreaker, as required by Solr cursors.
+     *
+     * @param query the CQL query, with its bound values. Its offset and limit are ignored.
+     * @param pageSize the number of documents fetched from Solr at once
+     * @return the matching documents, fetched during the iteration. The iteration throws an
+     *     {@link IllegalStateException} caused by a {@link QueryException} if a page cannot be fetched.
+     * @throws QueryException if the statement cannot be parsed or converted, or if the query is a count query
+     * @since 0.0.3
+     */
+    public Iterator<SolrDocument> iterate(Query query, int pageSize) throws QueryException
+    {
+        Query solrQuery = toSolrQuery(query);
+        if (((CQLToSolrWrappingQuery) solrQuery).countOnly) {
+            throw new QueryException("The results of a count query cannot be iterated", query, null);
+        }
+        if (((CQLToSolrWrappingQuery) solrQuery).matchingNothing) {
+            return Collections.emptyIterator();
+        }
+        return new SolrCursorIterator(solrQuery, Math.max(1, pageSize));
+    }
+
+    private Query toSolrQuery(Query query, AQLStatement statement) throws QueryException
     {
         String solrStatement;
+        List<String> solrFilterQueries;
         String solrSortParameter;
+        Set<String> cqlParameterNames;
+        String solrFieldList;
         String cql = query.getStatement();
         try {
-            AQLStatement cqlAst = AQLParser.parse(cql);
-            solrStatement = queryConverter.getSolrStatement(cqlAst);
-            solrSortParameter = queryConverter.getSolrSortParameter(cqlAst);
-        } catch (ParserException | IOException e) {
-            throw new QueryException("Failed to parse the CQL statement", query, e);
+            CompiledCQLStatement compiled = compile(statement);
+            if (compiled.isMatchingNothing()) {
+                this.logger.debug("CQL Statement [{}] matches nothing, Solr is not queried ([{}] queries skipped)",
+                    cql, this.skippedQueries.incrementAndGet());
+                return new CQLToSolrWrappingQuery(query,
+                    CQLCountQueryExecutor.CQL_COUNT.equals(query.getLanguage()));
+            }
+            Map<String, Object> namedValues = query.getNamedParameters();
+            Map<Integer, Object> positionalValues = query.getPositionalParameters();
+            solrStatement = queryConverter.getSolrStatement(compiled, namedValues, positionalValues);
+            solrFilterQueries = queryConverter.getSolrFilterQueries(compiled, namedValues, positionalValues);
+            solrSortParameter = compiled.getSolrSortParameter();
+            cqlParameterNames = compiled.getParameterNames();
+            solrFieldList = getSolrFieldList(query.getNamedParameters().get(FIELDS));
+        } catch (ParserException e) {
+            throw new QueryException(FAILED_TO_PARSE, query, e);
+        }
+
+        this.logger.debug("CQL Statement [{}] converted to Solr query [{}], filter queries {}, sort parameter [{}] for "
+            + "execution", cql, solrStatement, solrFilterQueries, solrSortParameter);
+
+        return wrapAsSolrQuery(query, solrStatement, solrFilterQueries, solrSortParameter, cqlParameterNames,
+            solrFieldList);
+    }
+
+    private String getSolrFieldList(Object cqlFields) throws ConversionException
+    {
+        if (cqlFields == null) {
+            return null;
+        }
+
+        List<String> fields = new ArrayList<>();
+        if (cqlFields instanceof Iterable) {
+            ((Iterable<?>) cqlFields).forEach(field -> fields.add(String.valueOf(field)));
+        } else if (cqlFields instanceof Object[]) {
+            Arrays.stream((Object[]) cqlFields).forEach(field -> fields.add(String.valueOf(field)));
+        } else {
+            fields.addAll(Arrays.asList(String.valueOf(cqlFields).split(",")));
+        }
+        fields.removeIf(field -> field.trim().isEmpty());
+        return this.fieldListConverter.getSolrFieldList(fields);
+    }
+
+    /**
+     * @return the number of executed statements which were known to match nothing, and for which Solr was not queried
+     * @since 0.0.3
+     */
+    public long getSkippedQueryCount()
+    {
+        return this.skippedQueries.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> getCount(List<?> result)
+    {
+        QueryResponse response = (QueryResponse) result.get(0);
+        return (List<T>) Collections.singletonList(response.getResults().getNumFound());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> getEmptyResult(Query query)
+    {
+        // Same result as the Solr query executor, with no document found.
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(0);
+        results.setStart(Math.max(query.getOffset(), 0));
+        NamedList<Object> response = new NamedList<>();
+        response.add("response", results);
+        QueryResponse queryResponse = new QueryResponse();
+        queryResponse.setResponse(response);
+        return (List<T>) Collections.singletonList(queryResponse);
+    }
+
+    private CompiledCQLStatement compile(AQLStatement statement) throws ParserException
+    {
+        String wiki = this.contextProvider.get().getWikiId();
+        CompiledCQLStatement compiled = this.compiledStatementCache.get(wiki, statement);
+        if (compiled == null) {
+            AQLStatement rewritten = statement;
+            if (this.configuration.isRewriteEnabled()) {
+                rewritten = this.statementRewriter.rewrite(statement);
+            }
+            compiled = this.queryConverter.compile(rewritten);
+            this.compiledStatementCache.set(wiki, statement, compiled);
         }
+        this.logger.debug("CQL conversion cache: [{}]", this.compiledStatementCache);
+        return compiled;
+    }
 
-        this.logger.debug("CQL Statement [{}] converted to Solr query [{}], sort parameter [{}] for execution",
-            cql, solrStatement, solrSortParameter);
+    private AQLStatement parse(String cql) throws ParserException, IOException
+    {
+        if (this.statementCache == null) {
+            return AQLParser.parse(cql);
+        }
 
-        return wrapAsSolrQuery(query, solrStatement, solrSortParameter).execute();
+        AQLStatement statement = this.statementCache.parse(cql);
+        this.logger.debug("CQL statement cache: [{}]", this.statementCache);
+        return statement;
     }
 
-    private Query wrapAsSolrQuery(Query query, String solrStatement, String solrSortParameter)
+    private Query wrapAsSolrQuery(Query query, String solrStatement, List<String> solrFilterQueries,
+        String solrSortParameter, Set<String> cqlParameterNames, String solrFieldList)
     {
-        Query q = new CQLToSolrWrappingQuery(query, solrStatement);
+        boolean countOnly = CQLCountQueryExecutor.CQL_COUNT.equals(query.getLanguage());
+        Query q = new CQLToSolrWrappingQuery(query, solrStatement, solrFilterQueries, cqlParameterNames, countOnly,
+            solrFieldList);
+        if (countOnly) {
+            // The documents are not returned, there is no need to sort them.
+            return q;
+        }
+
         Object existingSortParameter = q.getNamedParameters().get(SORT);
         boolean sortParameterUnset = existingSortParameter == null || (existingSortParameter instanceof String
             && ((String) existingSortParameter).isEmpty());
@@ -116,10 +416,40 @@ public class CQLQueryExecutor implements QueryExecutor
     {
         private final String solrStatement;
 
-        CQLToSolrWrappingQuery(Query query, String solrStatement)
+        private final List<String> solrFilterQueries;
+
+        private final Set<String> cqlParameterNames;
+
+        private final boolean matchingNothing;
+
+        private final boolean countOnly;
+
+        private final String solrFieldList;
+
+        /**
+         * A query known to match nothing, for which Solr is not queried.
+         */
+        CQLToSolrWrappingQuery(Query query, boolean countOnly)
+        {
+            this(query, MATCH_NONE, Collections.emptyList(), Collections.emptySet(), true, countOnly, null);
+        }
+
+        CQLToSolrWrappingQuery(Query query, String solrStatement, List<String> solrFilterQueries,
+            Set<String> cqlParameterNames, boolean countOnly, String solrFieldList)
+        {
+            this(query, solrStatement, solrFilterQueries, cqlParameterNames, false, countOnly, solrFieldList);
+        }
+
+        private CQLToSolrWrappingQuery(Query query, String solrStatement, List<String> solrFilterQueries,
+            Set<String> cqlParameterNames, boolean matchingNothing, boolean countOnly, String solrFieldList)
         {
             super(query);
             this.solrStatement = solrStatement;
+            this.solrFilterQueries = solrFilterQueries;
+            this.cqlParameterNames = cqlParameterNames;
+            this.matchingNothing = matchingNothing;
+            this.countOnly = countOnly;
+            this.solrFieldList = solrFieldList;
         }
 
         @Override
@@ -134,10 +464,69 @@ public class CQLQueryExecutor implements QueryExecutor
             return solrStatement;
         }
 
+        @Override
+        public Map<String, Object> getNamedParameters()
+        {
+            Map<String, Object> namedParameters = super.getNamedParameters();
+            if (solrFilterQueries.isEmpty() && cqlParameterNames.isEmpty() && !countOnly
+                && !namedParameters.containsKey(FIELDS))
+            {
+                return namedParameters;
+            }
+
+            // The values bound to the parameters of the CQL statement are already in the Solr statement, they are not
+            // Solr parameters.
+            Map<String, Object> parameters = new LinkedHashMap<>(namedParameters);
+            parameters.keySet().removeAll(cqlParameterNames);
+            parameters.remove(FIELDS);
+            if (solrFieldList != null) {
+                // Like the sort parameter, a field list given by the callee has priority.
+                parameters.putIfAbsent(FIELD_LIST, solrFieldList);
+            }
+            if (countOnly) {
+                // Only the number of matching documents is returned.
+                parameters.remove(SORT);
+                parameters.put(ROWS, 0);
+            }
+            if (solrFilterQueries.isEmpty()) {
+                return parameters;
+            }
+
+            // The filter queries are added to the ones given by the callee, without modifying the wrapped query so
+            // that it can be executed again.
+            List<Object> filterQueries = new ArrayList<>(solrFilterQueries);
+            Object existingFilterQueries = namedParameters.get(FILTER_QUERIES);
+            if (existingFilterQueries instanceof Iterable) {
+                ((Iterable<?>) existingFilterQueries).forEach(filterQueries::add);
+            } else if (existingFilterQueries instanceof Object[]) {
+                filterQueries.addAll(Arrays.asList((Object[]) existingFilterQueries));
+            } else if (existingFilterQueries != null) {
+                filterQueries.add(existingFilterQueries);
+            }
+
+            parameters.put(FILTER_QUERIES, filterQueries);
+            return parameters;
+        }
+
+        @Override
+        public int getOffset()
+        {
+            return countOnly ? 0 : super.getOffset();
+        }
+
+        @Override
+        public int getLimit()
+        {
+            return countOnly ? 0 : super.getLimit();
+        }
+
         @Override
         public <T> List<T> execute() throws QueryException
         {
-            return queryExecutorManager.execute(this);
+            if (matchingNothing) {
+                return getEmptyResult(this);
+            }
+            return singleFlight.execute(this, () -> queryExecutorManager.execute(this));
         }
 
         // Workaround for https://jira.xwiki.org/browse/XWIKI-22176
@@ -170,4 +559,120 @@ public class CQLQueryExecutor implements QueryExecutor
             return this;
         }
     }
+
+    /**
+     * A page of the results of a Solr query, starting at the given cursor mark.
+     */
+    private static final class SolrCursorPageQuery extends WrappingQuery
+    {
+        private final String cursorMark;
+
+        private final int pageSize;
+
+        SolrCursorPageQuery(Query solrQuery, String cursorMark, int pageSize)
+        {
+            super(solrQuery);
+            this.cursorMark = cursorMark;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public int getOffset()
+        {
+            // Solr cursors don't support offsets.
+            return 0;
+        }
+
+        @Override
+        public int getLimit()
+        {
+            return pageSize;
+        }
+
+        @Override
+        public Map<String, Object> getNamedParameters()
+        {
+            Map<String, Object> parameters = new LinkedHashMap<>(super.getNamedParameters());
+            parameters.put(SORT, getSortWithTiebreaker(parameters.get(SORT)));
+            parameters.put(CursorMarkParams.CURSOR_MARK_PARAM, cursorMark);
+            return parameters;
+        }
+
+        private static String getSortWithTiebreaker(Object sort)
+        {
+            String sortClauses = sort == null ? "" : String.valueOf(sort).trim();
+            if (sortClauses.isEmpty()) {
+                // Solr's default order, which needs to be explicit when using a cursor.
+                return "score desc," + ID_TIEBREAKER;
+            }
+
+            for (String sortClause : sortClauses.split(",")) {
+                if (sortClause.trim().startsWith(ID_FIELD)) {
+                    // The documents are already sorted by their unique key.
+                    return sortClauses;
+                }
+            }
+            return sortClauses + ',' + ID_TIEBREAKER;
+        }
+    }
+
+    /**
+     * Iterates over the results of a Solr query, fetching them page by page with a cursor.
+     */
+    private class SolrCursorIterator implements Iterator<SolrDocument>
+    {
+        private final Query solrQuery;
+
+        private final int pageSize;
+
+        private String cursorMark = CursorMarkParams.CURSOR_MARK_START;
+
+        private Iterator<SolrDocument> page = Collections.emptyIterator();
+
+        private boolean lastPage;
+
+        SolrCursorIterator(Query solrQuery, int pageSize)
+        {
+            this.solrQuery = solrQuery;
+            this.pageSize = pageSize;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            // The documents the current user cannot view are removed from the pages, which can end up empty.
+            while (!this.page.hasNext() && !this.lastPage) {
+                fetchNextPage();
+            }
+            return this.page.hasNext();
+        }
+
+        @Override
+        public SolrDocument next()
+        {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.page.next();
+        }
+
+        private void fetchNextPage()
+        {
+            QueryResponse response;
+            try {
+                Query pageQuery = new SolrCursorPageQuery(this.solrQuery, this.cursorMark, this.pageSize);
+                response = (QueryResponse) queryExecutorManager.execute(pageQuery).get(0);
+            } catch (QueryException e) {
+                throw new IllegalStateException(String.format("Failed to fetch the results of Solr query [%s] after "
+                    + "cursor mark [%s]", this.solrQuery.getStatement(), this.cursorMark), e);
+            }
+
+            String nextCursorMark = response.getNextCursorMark();
+            // Solr returns the same cursor mark once all the results have been returned.
+            this.lastPage = nextCursorMark == null || nextCursorMark.equals(this.cursorMark);
+            this.cursorMark = nextCursorMark;
+            SolrDocumentList results = response.getResults();
+            this.page = results == null ? Collections.emptyIterator() : results.iterator();
+        }
+    }
 }
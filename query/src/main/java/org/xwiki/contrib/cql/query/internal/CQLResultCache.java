@@ -0,0 +1,410 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.concurrent.ExecutionContextRunnable;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Keeps the results of the CQL queries, so that the queries executed repeatedly, for instance by popular pages, don't
+ * hit Solr each time. Disabled unless {@code cql.result.cache.size} is set.
+ * <p>
+ * A result is identified by the converted Solr query with all its parameters, the wiki and the current user: Solr
+ * results are filtered according to the view rights of the current user, which can be granted to a user directly, so
+ * results are not shared between users. A result is returned as is during its lifespan, and then, during its stale
+ * lifespan, it is still returned while it is refreshed in the background, so that no execution waits for a refresh.
+ * <p>
+ * The invalidation is coarse: any document change in a wiki invalidates all its results, and a change in the main wiki
+ * invalidates all the results since it can hold global users, groups and rights. Documents are indexed by Solr
+ * asynchronously, so the results computed while Solr is indexing documents are not kept, as they may not reflect the
+ * latest changes yet, and all the results are invalidated once Solr is done indexing.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLResultCache.class)
+@Singleton
+public class CQLResultCache implements Initializable, Disposable
+{
+    private static final long MILLISECONDS = 1000L;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private SolrIndexingStatus solrIndexingStatus;
+
+    @Inject
+    private ComponentManager componentManager;
+
+    @Inject
+    private Logger logger;
+
+    private Cache<Entry> cache;
+
+    private Cache<Statistics> statistics;
+
+    private ExecutorService refresher;
+
+    private long lifespan;
+
+    private long staleLifespan;
+
+    private final AtomicLong globalGeneration = new AtomicLong();
+
+    // Whether Solr was indexing documents the last time it was checked.
+    private final AtomicBoolean indexing = new AtomicBoolean();
+
+    private final Map<String, AtomicLong> wikiGenerations = new ConcurrentHashMap<>();
+
+    private final Statistics globalStatistics = new Statistics();
+
+    private final AtomicLong refreshes = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * The execution statistics of a CQL statement.
+     * @since 0.0.3
+     */
+    public static final class Statistics
+    {
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong staleHits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        /**
+         * @return the number of executions answered by a result within its lifespan
+         */
+        public long getHitCount()
+        {
+            return this.hits.get();
+        }
+
+        /**
+         * @return the number of executions answered by a result past its lifespan, which was then refreshed
+         */
+        public long getStaleHitCount()
+        {
+            return this.staleHits.get();
+        }
+
+        /**
+         * @return the number of executions which queried Solr
+         */
+        public long getMissCount()
+        {
+            return this.misses.get();
+        }
+
+        /**
+         * @return the ratio of executions answered by the cache, stale or not, between 0 and 1
+         */
+        public double getHitRate()
+        {
+            long answered = getHitCount() + getStaleHitCount();
+            long total = answered + getMissCount();
+            return total == 0 ? 0 : (double) answered / total;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%d hits, %d stale hits, %d misses (hit rate %.2f)", getHitCount(),
+                getStaleHitCount(), getMissCount(), getHitRate());
+        }
+    }
+
+    /**
+     * A cached result.
+     */
+    private static final class Entry
+    {
+        private final List<?> result;
+
+        private final long time;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(List<?> result)
+        {
+            this.result = result;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configuration.getResultCacheSize();
+        this.lifespan = Math.max(0, this.configuration.getResultCacheLifespan()) * MILLISECONDS;
+        this.staleLifespan = Math.max(0, this.configuration.getResultCacheStaleLifespan()) * MILLISECONDS;
+        if (size <= 0 || this.lifespan + this.staleLifespan == 0) {
+            return;
+        }
+
+        LRUCacheConfiguration cacheConfiguration = new LRUCacheConfiguration("cql.result", size);
+        cacheConfiguration.getLRUEvictionConfiguration()
+            .setLifespan((int) ((this.lifespan + this.staleLifespan) / MILLISECONDS));
+        try {
+            this.cache = this.cacheManager.createNewCache(cacheConfiguration);
+            this.statistics = this.cacheManager.createNewCache(new LRUCacheConfiguration("cql.result.stats", size));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the CQL result cache", e);
+        }
+
+        this.refresher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "CQL result cache refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return whether results are cached at all
+     */
+    public boolean isEnabled()
+    {
+        return this.cache != null;
+    }
+
+    /**
+     * Execute the given Solr query, or return its cached result.
+     *
+     * @param <T> the expected type of the results
+     * @param cql the executed CQL statement, to keep its statistics
+     * @param solrQuery the Solr query the CQL statement is converted to, with all its parameters
+     * @return the result of the query, possibly shared with other executions: it must not be modified
+     * @throws QueryException if the query fails
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> execute(String cql, Query solrQuery) throws QueryException
+    {
+        if (!isEnabled()) {
+            return solrQuery.execute();
+        }
+
+        // Checked before computing the key, since the end of an indexing invalidates the results.
+        boolean indexing = isIndexing();
+        XWikiContext xcontext = this.contextProvider.get();
+        String wiki = solrQuery.getWiki() == null ? xcontext.getWikiId() : solrQuery.getWiki();
+        DocumentReference user = xcontext.getUserReference();
+        // The key holds the current generations: results stored after an invalidation are stored under an outdated
+        // key, which can't be reached anymore.
+        String key = getKey(wiki, user, solrQuery);
+        Statistics statementStatistics = getStatistics(cql, true);
+
+        Entry entry = this.cache.get(key);
+        long age = entry == null ? 0 : System.currentTimeMillis() - entry.time;
+        if (entry != null && age < this.lifespan) {
+            this.globalStatistics.hits.incrementAndGet();
+            statementStatistics.hits.incrementAndGet();
+            return (List<T>) entry.result;
+        }
+
+        if (entry != null && age < this.lifespan + this.staleLifespan) {
+            this.globalStatistics.staleHits.incrementAndGet();
+            statementStatistics.staleHits.incrementAndGet();
+            if (entry.refreshing.compareAndSet(false, true)) {
+                this.refresher.execute(new ExecutionContextRunnable(() -> refresh(key, entry, solrQuery, wiki, user),
+                    this.componentManager));
+            }
+            return (List<T>) entry.result;
+        }
+
+        this.globalStatistics.misses.incrementAndGet();
+        statementStatistics.misses.incrementAndGet();
+        List<T> result = solrQuery.execute();
+        store(key, result, indexing);
+        return result;
+    }
+
+    private void refresh(String key, Entry entry, Query solrQuery, String wiki, DocumentReference user)
+    {
+        XWikiContext xcontext = this.contextProvider.get();
+        xcontext.setWikiId(wiki);
+        xcontext.setUserReference(user);
+        try {
+            boolean indexing = isIndexing();
+            if (store(key, solrQuery.execute(), indexing)) {
+                this.refreshes.incrementAndGet();
+            }
+        } catch (QueryException e) {
+            this.logger.warn("Failed to refresh the cached result of Solr query [{}]", solrQuery.getStatement(), e);
+        } finally {
+            // A stored result replaces the refreshed entry, otherwise let a later execution try again.
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * @param indexing whether Solr was indexing documents when the query was executed
+     */
+    private boolean store(String key, List<?> result, boolean indexing)
+    {
+        // A result computed while Solr was indexing may miss changes, even if the indexing is now over.
+        if (indexing || isIndexing()) {
+            this.logger.debug("Not caching the result of a CQL query while Solr is indexing documents");
+            return false;
+        }
+
+        this.cache.set(key, new Entry(result));
+        return true;
+    }
+
+    private boolean isIndexing()
+    {
+        boolean indexing = this.solrIndexingStatus.isIndexing();
+        if (!indexing && this.indexing.getAndSet(false)) {
+            // The documents changed before the end of the indexing are now searchable, so the results stored before
+            // may be outdated, in any wiki.
+            this.globalGeneration.incrementAndGet();
+        } else if (indexing) {
+            this.indexing.set(true);
+        }
+        return indexing;
+    }
+
+    private String getKey(String wiki, DocumentReference user, Query solrQuery)
+    {
+        return this.globalGeneration.get() + "/" + this.wikiGenerations.computeIfAbsent(wiki, w -> new AtomicLong())
+            .get() + '/' + SolrQueryKey.getKey(wiki, user, solrQuery);
+    }
+
+    /**
+     * Forget the results of the given wiki, or of all the wikis if it is the main wiki.
+     *
+     * @param wiki the wiki in which a document changed
+     */
+    public void invalidate(String wiki)
+    {
+        if (!isEnabled()) {
+            return;
+        }
+
+        this.invalidations.incrementAndGet();
+        if (wiki.equals(this.contextProvider.get().getMainXWiki())) {
+            this.globalGeneration.incrementAndGet();
+        } else {
+            this.wikiGenerations.computeIfAbsent(wiki, w -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param cql a CQL statement
+     * @return the execution statistics of the statement, or null if it was not executed since the statistics were
+     *         evicted from the memory
+     */
+    public Statistics getStatistics(String cql)
+    {
+        return getStatistics(cql, false);
+    }
+
+    private Statistics getStatistics(String cql, boolean create)
+    {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Statistics statementStatistics = this.statistics.get(cql);
+        if (statementStatistics == null && create) {
+            // Concurrent executions of a new statement might start with separate statistics, losing a few counts.
+            statementStatistics = new Statistics();
+            this.statistics.set(cql, statementStatistics);
+        }
+        return statementStatistics;
+    }
+
+    /**
+     * @return the execution statistics of all the CQL statements taken together
+     */
+    public Statistics getStatistics()
+    {
+        return this.globalStatistics;
+    }
+
+    /**
+     * @return the number of stale results refreshed in the background
+     */
+    public long getRefreshCount()
+    {
+        return this.refreshes.get();
+    }
+
+    /**
+     * @return the number of times results were invalidated because documents changed
+     */
+    public long getInvalidationCount()
+    {
+        return this.invalidations.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s, %d refreshes, %d invalidations", this.globalStatistics, getRefreshCount(),
+            getInvalidationCount());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.cache != null) {
+            this.refresher.shutdownNow();
+            this.cache.dispose();
+            this.statistics.dispose();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidates the cached CQL query results of a wiki when one of its documents is created, updated or deleted.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(CQLResultCacheListener.NAME)
+@Singleton
+public class CQLResultCacheListener extends AbstractEventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.cql.query.internal.CQLResultCacheListener";
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    // Lazily loaded to avoid initializing the cache when the listener is registered.
+    @Inject
+    private Provider<CQLResultCache> resultCacheProvider;
+
+    /**
+     * Default constructor.
+     */
+    public CQLResultCacheListener()
+    {
+        super(NAME, Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.configuration.getResultCacheSize() > 0) {
+            this.resultCacheProvider.get()
+                .invalidate(((XWikiDocument) source).getDocumentReference().getWikiReference().getName());
+        }
+    }
+}
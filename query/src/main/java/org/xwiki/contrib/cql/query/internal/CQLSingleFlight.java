@@ -0,0 +1,182 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Coalesces the concurrent executions of the same Solr query, with the same parameters, in the same wiki and for the
+ * same user: the first execution queries Solr, and the others wait for its result instead of sending the same request.
+ * This avoids hitting Solr many times at once when a popular page is displayed by many users, for instance when its
+ * cached results expire.
+ * <p>
+ * The waiting executions query Solr themselves if the first execution fails, or if it doesn't finish in time.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLSingleFlight.class)
+@Singleton
+public class CQLSingleFlight
+{
+    /**
+     * An execution of a Solr query.
+     * @param <T> the expected type of the results
+     * @since 0.0.3
+     */
+    @FunctionalInterface
+    public interface QueryExecution<T>
+    {
+        /**
+         * @return the result of the query
+         * @throws QueryException if the query fails
+         */
+        List<T> execute() throws QueryException;
+    }
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, CompletableFuture<List<?>>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong collapsed = new AtomicLong();
+
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private final AtomicLong leaderFailures = new AtomicLong();
+
+    /**
+     * Execute the given Solr query, or wait for the result of an identical execution in progress.
+     *
+     * @param <T> the expected type of the results
+     * @param solrQuery the Solr query, with all its parameters
+     * @param execution the actual execution of the query
+     * @return the result of the query, possibly shared with other executions: it must not be modified
+     * @throws QueryException if the query fails
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> execute(Query solrQuery, QueryExecution<T> execution) throws QueryException
+    {
+        if (!this.configuration.isSingleFlightEnabled()) {
+            return execution.execute();
+        }
+
+        XWikiContext xcontext = this.contextProvider.get();
+        String wiki = solrQuery.getWiki() == null ? xcontext.getWikiId() : solrQuery.getWiki();
+        String key = SolrQueryKey.getKey(wiki, xcontext.getUserReference(), solrQuery);
+
+        CompletableFuture<List<?>> flight = new CompletableFuture<>();
+        CompletableFuture<List<?>> leader = this.inFlight.putIfAbsent(key, flight);
+        if (leader == null) {
+            return lead(key, flight, execution);
+        }
+
+        try {
+            List<T> result = (List<T>) leader.get(this.configuration.getSingleFlightTimeout(), TimeUnit.MILLISECONDS);
+            this.collapsed.incrementAndGet();
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new QueryException("Interrupted while waiting for an identical Solr query", solrQuery, e);
+        } catch (TimeoutException e) {
+            this.timeouts.incrementAndGet();
+            this.logger.debug("Timed out waiting for an identical Solr query, querying Solr again");
+        } catch (ExecutionException e) {
+            // The failure is reported to the first execution, the others try again on their own.
+            this.leaderFailures.incrementAndGet();
+            this.logger.debug("An identical Solr query failed, querying Solr again: [{}]", e.getCause().toString());
+        }
+        return execution.execute();
+    }
+
+    private <T> List<T> lead(String key, CompletableFuture<List<?>> flight, QueryExecution<T> execution)
+        throws QueryException
+    {
+        try {
+            List<T> result = execution.execute();
+            flight.complete(result);
+            return result;
+        } catch (QueryException | RuntimeException e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (!flight.isDone()) {
+                // An error was thrown: release the executions waiting for this one instead of letting them time out.
+                flight.completeExceptionally(new IllegalStateException("The Solr query failed with an error"));
+            }
+            this.inFlight.remove(key, flight);
+        }
+    }
+
+    /**
+     * @return the number of executions which got the result of an identical execution instead of querying Solr
+     */
+    public long getCollapsedCount()
+    {
+        return this.collapsed.get();
+    }
+
+    /**
+     * @return the number of executions which queried Solr after waiting too long for an identical execution
+     */
+    public long getTimeoutCount()
+    {
+        return this.timeouts.get();
+    }
+
+    /**
+     * @return the number of executions which queried Solr because the identical execution they waited for failed
+     */
+    public long getLeaderFailureCount()
+    {
+        return this.leaderFailures.get();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d collapsed, %d timeouts, %d leader failures", getCollapsedCount(), getTimeoutCount(),
+            getLeaderFailureCount());
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.query.converters.CompiledCQLStatement;
+
+/**
+ * Keeps the CQL statements converted to Solr, per wiki, so they don't need to be converted again at each execution.
+ * The conversion depends on the wiki because Confluence ids and space keys are resolved in the current wiki.
+ * The statements are identified by their canonical text, so statements written differently but having the same
+ * canonical form share their conversion.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CompiledCQLStatementCache.class)
+@Singleton
+public class CompiledCQLStatementCache implements Initializable, Disposable
+{
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    private Cache<CompiledCQLStatement> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configuration.getConversionCacheSize();
+        if (size > 0) {
+            try {
+                this.cache = this.cacheManager.createNewCache(new LRUCacheConfiguration("cql.conversion", size));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the CQL conversion cache", e);
+            }
+        }
+    }
+
+    /**
+     * @param wiki the wiki in which the statement is executed
+     * @param statement the parsed CQL statement
+     * @return the cached conversion of the statement, or null if it is not cached
+     */
+    public CompiledCQLStatement get(String wiki, AQLStatement statement)
+    {
+        if (this.cache == null) {
+            return null;
+        }
+
+        CompiledCQLStatement compiled = this.cache.get(getKey(wiki, statement));
+        if (compiled == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return compiled;
+    }
+
+    /**
+     * @param wiki the wiki in which the statement is executed
+     * @param statement the parsed CQL statement
+     * @param compiled the conversion of the statement to keep
+     */
+    public void set(String wiki, AQLStatement statement, CompiledCQLStatement compiled)
+    {
+        if (this.cache != null) {
+            this.cache.set(getKey(wiki, statement), compiled);
+        }
+    }
+
+    /**
+     * Forget all the cached conversions, for instance because the components used to convert statements changed.
+     */
+    public void invalidate()
+    {
+        if (this.cache != null) {
+            this.cache.removeAll();
+        }
+    }
+
+    /**
+     * @return the number of conversions found in the cache
+     */
+    public long getHitCount()
+    {
+        return this.hits.get();
+    }
+
+    /**
+     * @return the number of conversions looked up but not found in the cache
+     */
+    public long getMissCount()
+    {
+        return this.misses.get();
+    }
+
+    /**
+     * @return the ratio of lookups answered by the cache, between 0 and 1
+     */
+    public double getHitRate()
+    {
+        long hitCount = getHitCount();
+        long total = hitCount + getMissCount();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d hits, %d misses (hit rate %.2f)", getHitCount(), getMissCount(), getHitRate());
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.cache != null) {
+            this.cache.dispose();
+        }
+    }
+
+    private static String getKey(String wiki, AQLStatement statement)
+    {
+        // Wiki identifiers can't contain ':', so the key is not ambiguous.
+        return wiki + ':' + statement.getCanonicalText();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Starts loading the Confluence ids of a wiki in memory as soon as the wiki is ready, when the id index is enabled.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(ConfluenceIdIndexListener.NAME)
+@Singleton
+public class ConfluenceIdIndexListener extends AbstractEventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.cql.query.internal.ConfluenceIdIndexListener";
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    // Lazily loaded to avoid initializing the index when the listener is registered.
+    @Inject
+    private Provider<ConfluenceIdIndex> idIndexProvider;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    /**
+     * Default constructor.
+     */
+    public ConfluenceIdIndexListener()
+    {
+        super(NAME, Arrays.asList(new ApplicationReadyEvent(), new WikiReadyEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (this.configuration.isIdIndexEnabled()) {
+            String wiki = event instanceof WikiReadyEvent
+                ? ((WikiReadyEvent) event).getWikiId()
+                : this.contextProvider.get().getMainXWiki();
+            this.idIndexProvider.get().load(wiki);
+        }
+    }
+}
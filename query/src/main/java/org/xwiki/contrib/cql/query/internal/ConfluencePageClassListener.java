@@ -0,0 +1,148 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.XObjectAddedEvent;
+import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
+import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseObjectReference;
+
+/**
+ * Invalidates the cached Confluence ids held by the Confluence.Code.ConfluencePageClass objects of a document when
+ * these objects change or the document is created or deleted. Renaming a document deletes it and creates it under its
+ * new name, so renames are covered as well.
+ * The converted CQL statements are invalidated too, since they contain the documents matching the ids they use, and
+ * the in-memory index of the ids is updated.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(ConfluencePageClassListener.NAME)
+@Singleton
+public class ConfluencePageClassListener extends AbstractEventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.cql.query.internal.ConfluencePageClassListener";
+
+    private static final String CONFLUENCE_PAGE_CLASS = "Confluence.Code.ConfluencePageClass";
+
+    private static final EntityReference CONFLUENCE_PAGE_CLASS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("Confluence", "Code"), "ConfluencePageClass");
+
+    // Lazily loaded to avoid initializing the caches when the listener is registered.
+    @Inject
+    private Provider<ConfluenceIdCache> idCacheProvider;
+
+    @Inject
+    private Provider<CompiledCQLStatementCache> compiledStatementCacheProvider;
+
+    @Inject
+    private Provider<ConfluenceIdIndex> idIndexProvider;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    /**
+     * Default constructor.
+     */
+    public ConfluencePageClassListener()
+    {
+        super(NAME, Arrays.asList(
+            new XObjectAddedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)),
+            new XObjectUpdatedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)),
+            new XObjectDeletedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)),
+            new DocumentCreatedEvent(),
+            new DocumentDeletedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument doc = (XWikiDocument) source;
+        Set<Long> newIds = new HashSet<>();
+        collectIds(doc, newIds);
+        // The previous version of the document holds the ids which are not valid anymore.
+        Set<Long> oldIds = new HashSet<>();
+        collectIds(doc.getOriginalDocument(), oldIds);
+
+        if (newIds.isEmpty() && oldIds.isEmpty()) {
+            return;
+        }
+
+        ConfluenceIdCache idCache = this.idCacheProvider.get();
+        DocumentReference documentReference = doc.getDocumentReference();
+        String wiki = documentReference.getWikiReference().getName();
+        for (Long id : oldIds) {
+            idCache.invalidate(wiki, id);
+        }
+        for (Long id : newIds) {
+            idCache.invalidate(wiki, id);
+        }
+        this.compiledStatementCacheProvider.get().invalidate();
+
+        oldIds.removeAll(newIds);
+        this.idIndexProvider.get().update(wiki, oldIds, newIds, this.serializer.serialize(documentReference));
+    }
+
+    private static void collectIds(XWikiDocument doc, Set<Long> ids)
+    {
+        if (doc == null) {
+            return;
+        }
+
+        List<BaseObject> objects = doc.getXObjects(CONFLUENCE_PAGE_CLASS_REFERENCE);
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                // Deleted objects leave holes in the list.
+                if (object != null) {
+                    ids.add(object.getLongValue("id"));
+                }
+            }
+        }
+    }
+}
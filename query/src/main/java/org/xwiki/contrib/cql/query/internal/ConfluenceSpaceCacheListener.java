@@ -0,0 +1,153 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.xwiki.query.Query.HQL;
+
+/**
+ * Invalidates the cached Confluence spaces when a space home page is created, updated or deleted (renaming a space
+ * moves its home page, which deletes it and creates it under its new name, and a space resolver may read the key of a
+ * space from its home page), and, if enabled, resolves the root spaces of each wiki as space keys as soon as the wiki
+ * is ready to fill the cache.
+ * The converted CQL statements are invalidated too, since they contain the spaces matching the keys they use.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named(ConfluenceSpaceCacheListener.NAME)
+@Singleton
+public class ConfluenceSpaceCacheListener extends AbstractEventListener
+{
+    /**
+     * The name of this listener.
+     */
+    public static final String NAME = "org.xwiki.contrib.cql.query.internal.ConfluenceSpaceCacheListener";
+
+    private static final String ROOT_SPACES = "select space.name from XWikiSpace space where space.parent is null";
+
+    @Inject
+    private CQLConfiguration configuration;
+
+    // Lazily loaded to avoid initializing the caches when the listener is registered.
+    @Inject
+    private Provider<ConfluenceSpaceCache> spaceCacheProvider;
+
+    @Inject
+    private Provider<CompiledCQLStatementCache> compiledStatementCacheProvider;
+
+    @Inject
+    private Provider<ConfluenceSpaceResolver> spaceResolverProvider;
+
+    @Inject
+    private Provider<QueryManager> queryManagerProvider;
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private EntityReferenceProvider defaultEntityReferenceProvider;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Default constructor.
+     */
+    public ConfluenceSpaceCacheListener()
+    {
+        super(NAME, Arrays.asList(new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent(),
+            new ApplicationReadyEvent(), new WikiReadyEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof ApplicationReadyEvent) {
+            prewarm(this.contextProvider.get().getMainXWiki());
+        } else if (event instanceof WikiReadyEvent) {
+            prewarm(((WikiReadyEvent) event).getWikiId());
+        } else if (isSpaceHome((XWikiDocument) source)) {
+            this.spaceCacheProvider.get().invalidate();
+            this.compiledStatementCacheProvider.get().invalidate();
+        }
+    }
+
+    private boolean isSpaceHome(XWikiDocument doc)
+    {
+        return this.defaultEntityReferenceProvider.getDefaultReference(EntityType.DOCUMENT).getName()
+            .equals(doc.getDocumentReference().getName());
+    }
+
+    private void prewarm(String wiki)
+    {
+        if (!this.configuration.isSpaceCachePrewarmEnabled() || !this.spaceCacheProvider.get().isEnabled()) {
+            return;
+        }
+
+        XWikiContext xcontext = this.contextProvider.get();
+        String currentWiki = xcontext.getWikiId();
+        try {
+            List<String> spaceKeys = this.queryManagerProvider.get().createQuery(ROOT_SPACES, HQL)
+                .setWiki(wiki)
+                .execute();
+            // Space keys are resolved in the current wiki.
+            xcontext.setWikiId(wiki);
+            ConfluenceSpaceResolver spaceResolver = this.spaceResolverProvider.get();
+            for (String spaceKey : spaceKeys) {
+                spaceResolver.getSpaceByKey(null, spaceKey);
+            }
+            this.logger.debug("Resolved [{}] root spaces of wiki [{}] as Confluence space keys: [{}]",
+                spaceKeys.size(), wiki, this.spaceCacheProvider.get());
+        } catch (QueryException | ConversionException e) {
+            this.logger.warn("Failed to fill the Confluence space cache of wiki [{}]", wiki, e);
+        } finally {
+            xcontext.setWikiId(currentWiki);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+/**
+ * Default {@link CQLConfiguration}, reading the {@code cql.*} properties of xwiki.properties.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Singleton
+public class DefaultCQLConfiguration implements CQLConfiguration
+{
+    private static final String PREFIX = "cql.";
+
+    private static final long DEFAULT_PARSER_CACHE_MAX_WEIGHT = 1000000L;
+
+    private static final int DEFAULT_ID_CACHE_SIZE = 10000;
+
+    private static final int DEFAULT_ID_CACHE_NEGATIVE_LIFESPAN = 60;
+
+    private static final int DEFAULT_SPACE_CACHE_SIZE = 1000;
+
+    private static final int DEFAULT_TERMS_QUERY_THRESHOLD = 50;
+
+    private static final int DEFAULT_RESULT_CACHE_LIFESPAN = 60;
+
+    private static final int DEFAULT_RESULT_CACHE_STALE_LIFESPAN = 60;
+
+    private static final int DEFAULT_SINGLE_FLIGHT_TIMEOUT = 10000;
+
+    private static final int DEFAULT_ASYNC_THREADS = 4;
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+
+    private static final int DEFAULT_BATCH_PARALLELISM = 4;
+
+    private static final int DEFAULT_STREAM_PAGE_SIZE = 500;
+
+    private static final String DATE_MATH_ROUNDING = PREFIX + "dateMath.rounding";
+
+    private static final List<String> DATE_MATH_UNITS =
+        Arrays.asList("SECOND", "MINUTE", "HOUR", "DAY", "MONTH", "YEAR");
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Inject
+    private Logger logger;
+
+    // The last invalid rounding which was reported, so it is not reported again at each conversion.
+    private volatile String invalidDateMathRounding;
+
+    @Override
+    public int getParserCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "parser.cache.size", 0);
+    }
+
+    @Override
+    public long getParserCacheMaxWeight()
+    {
+        return this.configuration.getProperty(PREFIX + "parser.cache.maxWeight", DEFAULT_PARSER_CACHE_MAX_WEIGHT);
+    }
+
+    @Override
+    public int getConversionCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "conversion.cache.size", 0);
+    }
+
+    @Override
+    public int getIdCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "id.cache.size", DEFAULT_ID_CACHE_SIZE);
+    }
+
+    @Override
+    public int getIdCacheNegativeLifespan()
+    {
+        return this.configuration.getProperty(PREFIX + "id.cache.negativeLifespan",
+            DEFAULT_ID_CACHE_NEGATIVE_LIFESPAN);
+    }
+
+    @Override
+    public boolean isIdIndexEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "id.index.enabled", false);
+    }
+
+    @Override
+    public int getSpaceCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "space.cache.size", DEFAULT_SPACE_CACHE_SIZE);
+    }
+
+    @Override
+    public boolean isSpaceCachePrewarmEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "space.cache.prewarm", false);
+    }
+
+    @Override
+    public boolean isFilterQuerySplitEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "filterQueries.enabled", true);
+    }
+
+    @Override
+    public boolean isRewriteEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "rewrite.enabled", true);
+    }
+
+    @Override
+    public int getTermsQueryThreshold()
+    {
+        return this.configuration.getProperty(PREFIX + "termsQuery.threshold", DEFAULT_TERMS_QUERY_THRESHOLD);
+    }
+
+    @Override
+    public int getResultCacheSize()
+    {
+        return this.configuration.getProperty(PREFIX + "result.cache.size", 0);
+    }
+
+    @Override
+    public int getResultCacheLifespan()
+    {
+        return this.configuration.getProperty(PREFIX + "result.cache.lifespan", DEFAULT_RESULT_CACHE_LIFESPAN);
+    }
+
+    @Override
+    public int getResultCacheStaleLifespan()
+    {
+        return this.configuration.getProperty(PREFIX + "result.cache.staleLifespan",
+            DEFAULT_RESULT_CACHE_STALE_LIFESPAN);
+    }
+
+    @Override
+    public boolean isSingleFlightEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "singleFlight.enabled", true);
+    }
+
+    @Override
+    public int getSingleFlightTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "singleFlight.timeout", DEFAULT_SINGLE_FLIGHT_TIMEOUT);
+    }
+
+    @Override
+    public int getAsyncThreads()
+    {
+        return this.configuration.getProperty(PREFIX + "async.threads", DEFAULT_ASYNC_THREADS);
+    }
+
+    @Override
+    public int getAsyncQueueSize()
+    {
+        return this.configuration.getProperty(PREFIX + "async.queueSize", DEFAULT_ASYNC_QUEUE_SIZE);
+    }
+
+    @Override
+    public int getBatchParallelism()
+    {
+        return this.configuration.getProperty(PREFIX + "batch.parallelism", DEFAULT_BATCH_PARALLELISM);
+    }
+
+    @Override
+    public int getStreamPageSize()
+    {
+        return this.configuration.getProperty(PREFIX + "stream.pageSize", DEFAULT_STREAM_PAGE_SIZE);
+    }
+
+    @Override
+    public String getDateMathRounding()
+    {
+        String rounding = this.configuration.getProperty(DATE_MATH_ROUNDING, String.class);
+        if (rounding == null || rounding.trim().isEmpty() || "none".equalsIgnoreCase(rounding.trim())) {
+            return null;
+        }
+
+        String unit = rounding.trim().toUpperCase(Locale.ROOT);
+        if (!DATE_MATH_UNITS.contains(unit)) {
+            // The unit is inserted in the Solr date math, so anything else would break the queries.
+            if (!unit.equals(this.invalidDateMathRounding)) {
+                this.invalidDateMathRounding = unit;
+                this.logger.warn("Invalid value [{}] for [{}], it should be one of {}."
+                    + " The current time won't be rounded.", rounding, DATE_MATH_ROUNDING, DATE_MATH_UNITS);
+            }
+            return null;
+        }
+        return unit;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
+
+/**
+ * Default {@link SolrIndexingStatus}, based on the size of the queue of the Solr indexer. The queue doesn't include
+ * the documents the indexer took from it and did not commit yet, so Solr is still considered as indexing during a
+ * short while after its queue is found empty.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Singleton
+public class DefaultSolrIndexingStatus implements SolrIndexingStatus
+{
+    // Long enough for the indexer to commit the last documents taken from its queue.
+    private static final long COMMIT_DELAY = 5000L;
+
+    // Lazily loaded to avoid initializing Solr when this component is initialized.
+    @Inject
+    private Provider<SolrIndexer> solrIndexerProvider;
+
+    private final AtomicLong lastQueuedTime = new AtomicLong();
+
+    @Override
+    public boolean isIndexing()
+    {
+        long now = System.currentTimeMillis();
+        if (this.solrIndexerProvider.get().getQueueSize() > 0) {
+            this.lastQueuedTime.set(now);
+            return true;
+        }
+        return now - this.lastQueuedTime.get() < COMMIT_DELAY;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Tells whether Solr is still indexing documents, in which case the results of the Solr queries may not reflect the
+ * latest document changes yet. The default implementation relies on the internal API of the XWiki Solr module, so
+ * that it can be replaced when this API changes without touching the components using it.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Role
+public interface SolrIndexingStatus
+{
+    /**
+     * @return whether documents are waiting to be indexed by Solr
+     */
+    boolean isIndexing();
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.internal;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryFilter;
+
+/**
+ * Identifies the executions of a Solr query which give the same result: same query with the same parameters, in the
+ * same wiki and for the same user.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+public final class SolrQueryKey
+{
+    private SolrQueryKey()
+    {
+    }
+
+    /**
+     * @param wiki the wiki in which the query is executed
+     * @param user the user executing the query, whose rights filter the results
+     * @param solrQuery the Solr query, with all its parameters
+     * @return the key of the execution
+     */
+    public static String getKey(String wiki, DocumentReference user, Query solrQuery)
+    {
+        StringBuilder key = new StringBuilder();
+        appendKeyPart(key, wiki);
+        appendKeyPart(key, user);
+        appendKeyPart(key, solrQuery.getStatement());
+        appendKeyPart(key, solrQuery.getOffset());
+        appendKeyPart(key, solrQuery.getLimit());
+        appendKeyPart(key, new TreeMap<>(solrQuery.getNamedParameters()));
+        for (QueryFilter filter : solrQuery.getFilters()) {
+            appendKeyPart(key, filter.getClass().getName());
+        }
+        return key.toString();
+    }
+
+    private static void appendKeyPart(StringBuilder key, Object part)
+    {
+        // The parts are prefixed by their length or size, so that the key is not ambiguous whatever they contain.
+        if (part instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) part;
+            key.append('{').append(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                appendKeyPart(key, entry.getKey());
+                appendKeyPart(key, entry.getValue());
+            }
+        } else if (part instanceof Iterable) {
+            key.append('[');
+            for (Object element : (Iterable<?>) part) {
+                appendKeyPart(key, element);
+            }
+            key.append(']');
+        } else if (part instanceof Object[]) {
+            key.append('[');
+            for (Object element : (Object[]) part) {
+                appendKeyPart(key, element);
+            }
+            key.append(']');
+        } else {
+            String string = String.valueOf(part);
+            key.append(string.length()).append(':').append(string);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.contrib.cql.aqlparser.AQLParserState;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAndExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLConstantClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNotExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLBooleanOperation;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Helpers to implement {@link CQLRewriteRule}s.
+ * In a list of clauses, the negation of a clause is carried by the operator of the previous clause
+ * ({@code a AND NOT b}). The rules only rewrite lists in which all the operators are the same, which are easier to
+ * handle as a list of {@link Term}s joined by a single operator.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Unstable
+public final class CQLClauses
+{
+    private CQLClauses()
+    {
+    }
+
+    /**
+     * A clause of a list of clauses, with its negation.
+     *
+     * @version $Id$
+     * @since 0.0.3
+     */
+    public static final class Term
+    {
+        private final AbstractAQLClause clause;
+
+        private final boolean negated;
+
+        /**
+         * @param clause the clause
+         * @param negated whether the clause is preceded by NOT
+         * @since 0.0.3
+         */
+        public Term(AbstractAQLClause clause, boolean negated)
+        {
+            this.clause = clause;
+            this.negated = negated;
+        }
+
+        /**
+         * @return the clause
+         * @since 0.0.3
+         */
+        public AbstractAQLClause getClause()
+        {
+            return this.clause;
+        }
+
+        /**
+         * @return whether the clause is preceded by NOT
+         * @since 0.0.3
+         */
+        public boolean isNegated()
+        {
+            return this.negated;
+        }
+
+        /**
+         * @return the clause if it is an atom which is not negated, null otherwise
+         * @since 0.0.3
+         */
+        public AQLAtomicClause getPositiveAtom()
+        {
+            return !this.negated && this.clause instanceof AQLAtomicClause ? (AQLAtomicClause) this.clause : null;
+        }
+    }
+
+    /**
+     * @param clausesWithNextOp a list of clauses
+     * @return whether all the clauses are joined by AND or AND NOT
+     * @since 0.0.3
+     */
+    public static boolean isConjunction(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (nextOp != null && !nextOp.isAnd()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param clausesWithNextOp a list of clauses
+     * @return whether all the clauses are joined by OR. A list containing OR NOT is not a disjunction.
+     * @since 0.0.3
+     */
+    public static boolean isDisjunction(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            if (nextOp != null && (nextOp.isAnd() || nextOp.isNot())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param clausesWithNextOp a list of clauses
+     * @return the clauses with their negation
+     * @since 0.0.3
+     */
+    public static List<Term> toTerms(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        List<Term> terms = new ArrayList<>(clausesWithNextOp.size());
+        boolean negated = false;
+        for (AQLClauseWithNextOperator clauseWithNextOp : clausesWithNextOp) {
+            terms.add(new Term(clauseWithNextOp.getClause(), negated));
+            AQLClauseOperator nextOp = clauseWithNextOp.getNextOperator();
+            negated = nextOp != null && nextOp.isNot();
+        }
+        return terms;
+    }
+
+    /**
+     * @param terms the clauses with their negation
+     * @param and true to join the clauses with AND, false to join them with OR
+     * @param parserState the parser state to give to the clauses created to keep the list valid
+     * @return the list of clauses. An empty list of terms is replaced by its neutral element: a clause matching
+     *     everything for a conjunction, nothing for a disjunction.
+     * @since 0.0.3
+     */
+    public static List<AQLClauseWithNextOperator> toClauses(List<Term> terms, boolean and,
+        AQLParserState parserState)
+    {
+        if (terms.isEmpty()) {
+            return Collections.singletonList(
+                new AQLClauseWithNextOperator(parserState, new AQLConstantClause(parserState, and), null));
+        }
+
+        List<Term> joined = terms;
+        if (terms.get(0).isNegated()) {
+            // A list can't start with NOT.
+            joined = new ArrayList<>(terms.size() + 1);
+            joined.add(new Term(new AQLConstantClause(parserState, and), false));
+            joined.addAll(terms);
+        }
+
+        List<AQLClauseWithNextOperator> clausesWithNextOp = new ArrayList<>(joined.size());
+        for (int i = 0; i < joined.size(); i++) {
+            AbstractAQLClause clause = joined.get(i).getClause();
+            AQLClauseOperator nextOp = null;
+            if (i + 1 < joined.size()) {
+                Term next = joined.get(i + 1);
+                nextOp = new AQLClauseOperator(next.getClause().getParserState(), and, next.isNegated());
+            }
+            clausesWithNextOp.add(new AQLClauseWithNextOperator(clause.getParserState(), clause, nextOp));
+        }
+        return clausesWithNextOp;
+    }
+
+    /**
+     * @param clausesWithNextOp a list of clauses
+     * @return whether the clauses are known to match nothing, whatever the content of the wiki, because of the
+     *     constant clauses they contain
+     * @since 0.0.3
+     */
+    public static boolean isMatchingNothing(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        return isMatchingNothing(AbstractAQLBooleanExpression.fromClauses(clausesWithNextOp));
+    }
+
+    /**
+     * @param clausesWithNextOp a list of clauses
+     * @return whether the clauses are known to match everything, whatever the content of the wiki, because of the
+     *     constant clauses they contain
+     * @since 0.0.3
+     */
+    public static boolean isMatchingEverything(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        return isMatchingEverything(AbstractAQLBooleanExpression.fromClauses(clausesWithNextOp));
+    }
+
+    /**
+     * @param clause a clause
+     * @return whether the clause is known to match nothing, see {@link #isMatchingNothing(List)}
+     * @since 0.0.3
+     */
+    public static boolean isMatchingNothing(AbstractAQLClause clause)
+    {
+        if (clause instanceof AQLClausesWithNextOperator) {
+            return isMatchingNothing(((AQLClausesWithNextOperator) clause).getBooleanExpression());
+        }
+
+        return clause instanceof AQLConstantClause && !((AQLConstantClause) clause).isTrue();
+    }
+
+    /**
+     * @param clause a clause
+     * @return whether the clause is known to match everything, see {@link #isMatchingEverything(List)}
+     * @since 0.0.3
+     */
+    public static boolean isMatchingEverything(AbstractAQLClause clause)
+    {
+        if (clause instanceof AQLClausesWithNextOperator) {
+            return isMatchingEverything(((AQLClausesWithNextOperator) clause).getBooleanExpression());
+        }
+
+        return clause instanceof AQLConstantClause && ((AQLConstantClause) clause).isTrue();
+    }
+
+    /**
+     * @param expression a boolean expression
+     * @return whether the expression is known to match nothing, see {@link #isMatchingNothing(List)}
+     * @since 0.0.3
+     */
+    public static boolean isMatchingNothing(AbstractAQLBooleanExpression expression)
+    {
+        return isMatching(expression, false);
+    }
+
+    /**
+     * @param expression a boolean expression
+     * @return whether the expression is known to match everything, see {@link #isMatchingEverything(List)}
+     * @since 0.0.3
+     */
+    public static boolean isMatchingEverything(AbstractAQLBooleanExpression expression)
+    {
+        return isMatching(expression, true);
+    }
+
+    private static boolean isMatching(AbstractAQLBooleanExpression expression, boolean everything)
+    {
+        if (expression instanceof AQLClauseExpression) {
+            AbstractAQLClause clause = ((AQLClauseExpression) expression).getClause();
+            return clause instanceof AQLConstantClause && ((AQLConstantClause) clause).isTrue() == everything;
+        }
+
+        if (expression instanceof AQLNotExpression) {
+            return isMatching(((AQLNotExpression) expression).getOperand(), !everything);
+        }
+
+        // An AND matches everything if all its operands do, and nothing if any of them does. Conversely for OR.
+        boolean all = (expression instanceof AQLAndExpression) == everything;
+        for (AbstractAQLBooleanExpression operand : ((AbstractAQLBooleanOperation) expression).getOperands()) {
+            if (isMatching(operand, everything) != all) {
+                return !all;
+            }
+        }
+        return all;
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters;
+
+import java.util.List;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A rule simplifying parsed CQL statements before they are converted to Solr. The rules are applied to each list of
+ * clauses of the statement, from the innermost groups to the top-level clauses, in the order of their
+ * {@link javax.annotation.Priority} (lowest value first).
+ * A rule must not change the documents matched by the clauses it rewrites.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Role
+@Unstable
+public interface CQLRewriteRule
+{
+    /**
+     * @param clausesWithNextOp the clauses to rewrite: the top-level clauses of a statement, or the clauses of a group
+     *     between parentheses. The nested groups have already been rewritten.
+     * @return the rewritten clauses, or the given list itself if the rule does not apply
+     */
+    List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp);
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Applies the {@link CQLRewriteRule}s to a statement, from the innermost groups of clauses to the statement itself.
+ * The rules are applied in the order of their priority, each one to the result of the previous one.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component(roles = CQLStatementRewriter.class)
+@Singleton
+public class CQLStatementRewriter
+{
+    @Inject
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param statement the statement to rewrite
+     * @return the rewritten statement, or the given statement if no rule changed it
+     */
+    public AQLStatement rewrite(AQLStatement statement)
+    {
+        List<CQLRewriteRule> rules;
+        try {
+            rules = this.converterRegistry.getRewriteRules();
+        } catch (ComponentLookupException e) {
+            this.logger.warn("Failed to load the CQL rewrite rules, the statement is not rewritten: [{}]",
+                e.getMessage());
+            return statement;
+        }
+
+        if (rules.isEmpty()) {
+            return statement;
+        }
+
+        List<AQLClauseWithNextOperator> clausesWithNextOp = statement.getClausesWithNextOp();
+        List<AQLClauseWithNextOperator> rewritten = rewrite(clausesWithNextOp, rules);
+        if (rewritten == clausesWithNextOp) {
+            return statement;
+        }
+
+        return new AQLStatement(statement.getParserState(), rewritten, statement.getOrderByClauses());
+    }
+
+    private List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp,
+        List<CQLRewriteRule> rules)
+    {
+        List<AQLClauseWithNextOperator> result = rewriteGroups(clausesWithNextOp, rules);
+        for (CQLRewriteRule rule : rules) {
+            List<AQLClauseWithNextOperator> rewritten = rule.rewrite(result);
+            if (rewritten != result && !rewritten.isEmpty()) {
+                this.logger.debug("CQL rewrite rule [{}] rewrote {} clauses at [{}] into {} clauses",
+                    rule.getClass().getName(), result.size(), result.get(0).getParserState(), rewritten.size());
+                result = rewritten;
+            }
+        }
+        return result;
+    }
+
+    private List<AQLClauseWithNextOperator> rewriteGroups(List<AQLClauseWithNextOperator> clausesWithNextOp,
+        List<CQLRewriteRule> rules)
+    {
+        List<AQLClauseWithNextOperator> result = null;
+        for (int i = 0; i < clausesWithNextOp.size(); i++) {
+            AQLClauseWithNextOperator clauseWithNextOp = clausesWithNextOp.get(i);
+            AbstractAQLClause clause = clauseWithNextOp.getClause();
+            if (clause instanceof AQLClausesWithNextOperator) {
+                List<AQLClauseWithNextOperator> group = ((AQLClausesWithNextOperator) clause).getClausesWithNextOp();
+                List<AQLClauseWithNextOperator> rewrittenGroup = rewrite(group, rules);
+                if (rewrittenGroup != group) {
+                    if (result == null) {
+                        result = new ArrayList<>(clausesWithNextOp);
+                    }
+                    result.set(i, new AQLClauseWithNextOperator(clauseWithNextOp.getParserState(),
+                        new AQLClausesWithNextOperator(clause.getParserState(), rewrittenGroup),
+                        clauseWithNextOp.getNextOperator()));
+                }
+            }
+        }
+        return result == null ? clausesWithNextOp : result;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Priority;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Removes the clauses which don't change the result of the list they are in: the clauses matching everything joined by
+ * AND, like a tautology found by {@link ContradictionCQLRewriteRule}, and the clauses matching nothing joined by OR.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("constants")
+@Priority(600)
+@Singleton
+public class ConstantsCQLRewriteRule implements CQLRewriteRule
+{
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() < 2) {
+            return clausesWithNextOp;
+        }
+
+        boolean and = CQLClauses.isConjunction(clausesWithNextOp);
+        if (!and && !CQLClauses.isDisjunction(clausesWithNextOp)) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> terms = CQLClauses.toTerms(clausesWithNextOp);
+        List<Term> result = new ArrayList<>(terms.size());
+        for (Term term : terms) {
+            if (!isNeutral(term, and)) {
+                result.add(term);
+            }
+        }
+
+        if (result.size() == terms.size()) {
+            return clausesWithNextOp;
+        }
+
+        return CQLClauses.toClauses(result, and, clausesWithNextOp.get(0).getParserState());
+    }
+
+    private static boolean isNeutral(Term term, boolean and)
+    {
+        if (and) {
+            // NOT of a clause matching nothing matches everything.
+            return term.isNegated()
+                ? CQLClauses.isMatchingNothing(term.getClause())
+                : CQLClauses.isMatchingEverything(term.getClause());
+        }
+        return !term.isNegated() && CQLClauses.isMatchingNothing(term.getClause());
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLConstantClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStringLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Detects the clauses which can't be satisfied together, and the ones which are always satisfied together:
+ * <ul>
+ * <li>conditions joined by AND on a field having a single value per content, like
+ * {@code type = page AND type = blogpost} or {@code space = A AND space = B};</li>
+ * <li>a clause and its opposite, like {@code label = a AND label != a} or {@code label = a OR label != a}.</li>
+ * </ul>
+ * Such clauses are replaced by a constant clause matching nothing (AND) or everything (OR). The other clauses are
+ * kept, so that they are still checked during the conversion.
+ * Only the known content types are considered: the conditions on other types are left to the converter, which reports
+ * them as unsupported. A space key could be resolved ignoring its case, or not: two keys differing only by their case
+ * may designate the same space, and may also designate two different spaces. So such keys are never considered as
+ * conflicting, and a space is only considered as excluded by a key written with the exact same case.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("contradictions")
+@Priority(500)
+@Singleton
+public class ContradictionCQLRewriteRule implements CQLRewriteRule
+{
+    private static final String TYPE = "type";
+
+    private static final String SPACE = "space";
+
+    private static final Set<String> KNOWN_TYPES = new LinkedHashSet<>(Arrays.asList("page", "blogpost"));
+
+    @Inject
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() < 2) {
+            return clausesWithNextOp;
+        }
+
+        boolean and = CQLClauses.isConjunction(clausesWithNextOp);
+        if (!and && !CQLClauses.isDisjunction(clausesWithNextOp)) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> terms = CQLClauses.toTerms(clausesWithNextOp);
+        Set<Integer> replaced = new TreeSet<>();
+        if (and) {
+            replaced.addAll(getContradictions(terms, TYPE));
+            replaced.addAll(getContradictions(terms, SPACE));
+        }
+        replaced.addAll(getOpposites(terms));
+
+        if (replaced.isEmpty()) {
+            return clausesWithNextOp;
+        }
+
+        int first = replaced.iterator().next();
+        List<Term> result = new ArrayList<>(terms.size() - replaced.size() + 1);
+        for (int i = 0; i < terms.size(); i++) {
+            if (i == first) {
+                // A contradiction in a conjunction, or a tautology in a disjunction.
+                result.add(new Term(new AQLConstantClause(terms.get(i).getClause().getParserState(), !and), false));
+            } else if (!replaced.contains(i)) {
+                result.add(terms.get(i));
+            }
+        }
+        return CQLClauses.toClauses(result, and, clausesWithNextOp.get(0).getParserState());
+    }
+
+    /**
+     * @return the indexes of the conditions on the given single-valued field, if they can't be satisfied together
+     */
+    private List<Integer> getContradictions(List<Term> terms, String field)
+    {
+        if (!isHandledByDefault(field)) {
+            return Collections.emptyList();
+        }
+
+        Set<String> possibleValues = null;
+        Set<String> excludedValues = new HashSet<>();
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < terms.size(); i++) {
+            Term term = terms.get(i);
+            if (!(term.getClause() instanceof AQLAtomicClause)) {
+                continue;
+            }
+
+            AQLAtomicClause atom = (AQLAtomicClause) term.getClause();
+            Set<String> values = getValues(atom, field);
+            if (values != null) {
+                AQLOperator op = atom.getOp().getOperator();
+                if ((op == AQLOperator.EQ || op == AQLOperator.IN) != term.isNegated()) {
+                    possibleValues = possibleValues == null ? new HashSet<>(values)
+                        : intersect(possibleValues, values, SPACE.equals(field));
+                } else {
+                    excludedValues.addAll(values);
+                }
+                indexes.add(i);
+            }
+        }
+
+        if (possibleValues == null) {
+            // Excluding values is never a contradiction, Solr also indexes contents of other types and spaces.
+            return Collections.emptyList();
+        }
+
+        possibleValues.removeAll(excludedValues);
+        return possibleValues.isEmpty() ? indexes : Collections.emptyList();
+    }
+
+    /**
+     * @return the values of each set matching a value of the other set, ignoring the case if asked
+     */
+    private static Set<String> intersect(Set<String> a, Set<String> b, boolean ignoreCase)
+    {
+        Set<String> result = new HashSet<>();
+        for (String value : a) {
+            if (b.stream().anyMatch(other -> ignoreCase ? value.equalsIgnoreCase(other) : value.equals(other))) {
+                result.add(value);
+            }
+        }
+        for (String value : b) {
+            if (a.stream().anyMatch(other -> ignoreCase ? value.equalsIgnoreCase(other) : value.equals(other))) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values compared by the atom if it is a (non-)equality on the given field using string literals
+     *     (known types only for the type field), null otherwise
+     */
+    private static Set<String> getValues(AQLAtomicClause atom, String field)
+    {
+        if (!field.equals(atom.getField())) {
+            return null;
+        }
+
+        AQLOperator op = atom.getOp().getOperator();
+        if (op != AQLOperator.EQ && op != AQLOperator.NEQ && op != AQLOperator.IN && op != AQLOperator.NOT_IN) {
+            return null;
+        }
+
+        AbstractAQLRightHandValue right = atom.getRight();
+        List<AbstractAQLAtomicValue> values;
+        if (right instanceof AQLInExpression) {
+            values = ((AQLInExpression) right).getValues();
+        } else if (right instanceof AbstractAQLAtomicValue) {
+            values = Collections.singletonList((AbstractAQLAtomicValue) right);
+        } else {
+            return null;
+        }
+
+        Set<String> strings = new HashSet<>();
+        for (AbstractAQLAtomicValue value : values) {
+            if (!(value instanceof AQLStringLiteral)) {
+                return null;
+            }
+
+            String string = ((AQLStringLiteral) value).getString();
+            if (TYPE.equals(field) && !KNOWN_TYPES.contains(string)) {
+                return null;
+            }
+            strings.add(string);
+        }
+        return strings;
+    }
+
+    /**
+     * @return the indexes of the clauses whose opposite is also in the list
+     */
+    private Set<Integer> getOpposites(List<Term> terms)
+    {
+        Set<Integer> indexes = new TreeSet<>();
+        for (int i = 0; i < terms.size(); i++) {
+            for (int j = i + 1; j < terms.size(); j++) {
+                if (isOpposite(terms.get(i), terms.get(j))) {
+                    indexes.add(i);
+                    indexes.add(j);
+                }
+            }
+        }
+        return indexes;
+    }
+
+    private boolean isOpposite(Term a, Term b)
+    {
+        if (a.isNegated() != b.isNegated()) {
+            return a.getClause().equals(b.getClause());
+        }
+
+        if (!(a.getClause() instanceof AQLAtomicClause) || !(b.getClause() instanceof AQLAtomicClause)) {
+            return false;
+        }
+
+        AQLAtomicClause atomA = (AQLAtomicClause) a.getClause();
+        AQLAtomicClause atomB = (AQLAtomicClause) b.getClause();
+        return atomA.getField().equals(atomB.getField())
+            && getOppositeOperator(atomA.getOp().getOperator()) == atomB.getOp().getOperator()
+            && Objects.equals(atomA.getRight(), atomB.getRight())
+            // A specialized converter might not convert the opposite operators to opposite Solr queries.
+            && isHandledByDefault(atomA.getField());
+    }
+
+    private static AQLOperator getOppositeOperator(AQLOperator op)
+    {
+        switch (op) {
+            case EQ:
+                return AQLOperator.NEQ;
+            case NEQ:
+                return AQLOperator.EQ;
+            case IN:
+                return AQLOperator.NOT_IN;
+            case NOT_IN:
+                return AQLOperator.IN;
+            case CONTAINS:
+                return AQLOperator.DOES_NOT_CONTAIN;
+            case DOES_NOT_CONTAIN:
+                return AQLOperator.CONTAINS;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isHandledByDefault(String field)
+    {
+        try {
+            return this.converterRegistry.getAtomConverter(field.toLowerCase()) == null;
+        } catch (ComponentLookupException e) {
+            this.logger.debug("Could not look up the converter of field [{}]", field, e);
+            return false;
+        }
+    }
+}
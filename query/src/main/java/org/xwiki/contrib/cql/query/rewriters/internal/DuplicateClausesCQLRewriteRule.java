@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Priority;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Removes the clauses repeated in a list of clauses joined by the same operator ({@code a AND b AND a} becomes
+ * {@code a AND b}).
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("duplicateClauses")
+@Priority(400)
+@Singleton
+public class DuplicateClausesCQLRewriteRule implements CQLRewriteRule
+{
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() < 2) {
+            return clausesWithNextOp;
+        }
+
+        boolean and = CQLClauses.isConjunction(clausesWithNextOp);
+        if (!and && !CQLClauses.isDisjunction(clausesWithNextOp)) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> terms = CQLClauses.toTerms(clausesWithNextOp);
+        List<Term> result = new ArrayList<>(terms.size());
+        Set<AbstractAQLClause> clauses = new HashSet<>();
+        Set<AbstractAQLClause> negatedClauses = new HashSet<>();
+        for (Term term : terms) {
+            if ((term.isNegated() ? negatedClauses : clauses).add(term.getClause())) {
+                result.add(term);
+            }
+        }
+
+        if (result.size() == terms.size()) {
+            return clausesWithNextOp;
+        }
+
+        return CQLClauses.toClauses(result, and, clausesWithNextOp.get(0).getParserState());
+    }
+}
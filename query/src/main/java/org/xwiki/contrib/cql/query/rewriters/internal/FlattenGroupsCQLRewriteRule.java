@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Priority;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClausesWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Removes the parentheses which don't change the meaning of the statement: around a single clause, and around a
+ * group joined by the same operator as the clauses around it ({@code a AND (b AND c)} becomes {@code a AND b AND c}).
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("flattenGroups")
+@Priority(100)
+@Singleton
+public class FlattenGroupsCQLRewriteRule implements CQLRewriteRule
+{
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() == 1) {
+            List<AQLClauseWithNextOperator> result = clausesWithNextOp;
+            List<AQLClauseWithNextOperator> nested = getGroupClauses(result.get(0).getClause());
+            while (nested != null) {
+                result = nested;
+                nested = result.size() == 1 ? getGroupClauses(result.get(0).getClause()) : null;
+            }
+            return result;
+        }
+
+        boolean and = CQLClauses.isConjunction(clausesWithNextOp);
+        if (!and && !CQLClauses.isDisjunction(clausesWithNextOp)) {
+            return unwrapSingleClauseGroups(clausesWithNextOp);
+        }
+
+        List<Term> terms = new ArrayList<>(clausesWithNextOp.size());
+        boolean changed = false;
+        for (Term term : CQLClauses.toTerms(clausesWithNextOp)) {
+            List<AQLClauseWithNextOperator> nested = getGroupClauses(term.getClause());
+            if (nested != null && nested.size() == 1) {
+                terms.add(new Term(nested.get(0).getClause(), term.isNegated()));
+                changed = true;
+            } else if (nested != null && !term.isNegated()
+                && (and ? CQLClauses.isConjunction(nested) : CQLClauses.isDisjunction(nested)))
+            {
+                terms.addAll(CQLClauses.toTerms(nested));
+                changed = true;
+            } else {
+                terms.add(term);
+            }
+        }
+
+        return changed
+            ? CQLClauses.toClauses(terms, and, clausesWithNextOp.get(0).getParserState())
+            : clausesWithNextOp;
+    }
+
+    private static List<AQLClauseWithNextOperator> unwrapSingleClauseGroups(
+        List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        List<AQLClauseWithNextOperator> result = null;
+        for (int i = 0; i < clausesWithNextOp.size(); i++) {
+            AQLClauseWithNextOperator clauseWithNextOp = clausesWithNextOp.get(i);
+            List<AQLClauseWithNextOperator> nested = getGroupClauses(clauseWithNextOp.getClause());
+            if (nested != null && nested.size() == 1) {
+                if (result == null) {
+                    result = new ArrayList<>(clausesWithNextOp);
+                }
+                result.set(i, new AQLClauseWithNextOperator(clauseWithNextOp.getParserState(),
+                    nested.get(0).getClause(), clauseWithNextOp.getNextOperator()));
+            }
+        }
+        return result == null ? clausesWithNextOp : result;
+    }
+
+    private static List<AQLClauseWithNextOperator> getGroupClauses(AbstractAQLClause clause)
+    {
+        return clause instanceof AQLClausesWithNextOperator
+            ? ((AQLClausesWithNextOperator) clause).getClausesWithNextOp()
+            : null;
+    }
+}
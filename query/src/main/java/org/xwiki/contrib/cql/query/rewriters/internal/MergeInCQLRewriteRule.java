@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLFunctionCall;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLRightHandValue;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Merges the equalities on the same field joined by OR into a single IN clause ({@code label = a OR label = b}
+ * becomes {@code label IN (a, b)}), and the inequalities on the same field joined by AND into a single NOT IN clause.
+ * Clauses using functions are left as is, as the converters only support some of them on their own.
+ * This is only done for the fields handled by the default converter: a specialized converter might not convert the
+ * merged clause like the original ones.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("mergeIn")
+@Priority(200)
+@Singleton
+public class MergeInCQLRewriteRule implements CQLRewriteRule
+{
+    @Inject
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() < 2) {
+            return clausesWithNextOp;
+        }
+
+        boolean and = CQLClauses.isConjunction(clausesWithNextOp);
+        if (!and && !CQLClauses.isDisjunction(clausesWithNextOp)) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> terms = CQLClauses.toTerms(clausesWithNextOp);
+        Map<String, List<Integer>> mergeableTermsByField = new LinkedHashMap<>();
+        for (int i = 0; i < terms.size(); i++) {
+            AQLAtomicClause atom = terms.get(i).getPositiveAtom();
+            if (atom != null && isMergeable(atom, and)) {
+                mergeableTermsByField.computeIfAbsent(atom.getField(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Term[] merged = terms.toArray(new Term[0]);
+        boolean changed = false;
+        for (List<Integer> indexes : mergeableTermsByField.values()) {
+            if (indexes.size() > 1) {
+                merged[indexes.get(0)] = new Term(merge(terms, indexes, and), false);
+                for (int i = 1; i < indexes.size(); i++) {
+                    merged[indexes.get(i)] = null;
+                }
+                changed = true;
+            }
+        }
+
+        if (!changed) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> result = new ArrayList<>(merged.length);
+        for (Term term : merged) {
+            if (term != null) {
+                result.add(term);
+            }
+        }
+        return CQLClauses.toClauses(result, and, clausesWithNextOp.get(0).getParserState());
+    }
+
+    private boolean isMergeable(AQLAtomicClause atom, boolean and)
+    {
+        AQLOperator op = atom.getOp().getOperator();
+        boolean mergeableOp = and
+            ? op == AQLOperator.NEQ || op == AQLOperator.NOT_IN
+            : op == AQLOperator.EQ || op == AQLOperator.IN;
+        if (!mergeableOp) {
+            return false;
+        }
+
+        for (AbstractAQLAtomicValue value : getValues(atom.getRight())) {
+            if (value instanceof AQLFunctionCall) {
+                return false;
+            }
+        }
+        return isHandledByDefault(atom.getField());
+    }
+
+    private boolean isHandledByDefault(String field)
+    {
+        try {
+            return this.converterRegistry.getAtomConverter(field.toLowerCase()) == null;
+        } catch (ComponentLookupException e) {
+            this.logger.debug("Could not look up the converter of field [{}], its clauses are not merged", field, e);
+            return false;
+        }
+    }
+
+    private static AQLAtomicClause merge(List<Term> terms, List<Integer> indexes, boolean and)
+    {
+        AQLAtomicClause first = (AQLAtomicClause) terms.get(indexes.get(0)).getClause();
+        List<AbstractAQLAtomicValue> values = new ArrayList<>();
+        for (int index : indexes) {
+            AQLAtomicClause atom = (AQLAtomicClause) terms.get(index).getClause();
+            for (AbstractAQLAtomicValue value : getValues(atom.getRight())) {
+                if (!values.contains(value)) {
+                    values.add(value);
+                }
+            }
+        }
+
+        AQLOperator op = and ? AQLOperator.NOT_IN : AQLOperator.IN;
+        return new AQLAtomicClause(first.getParserState(), first.getField(),
+            new AQLAtomicClauseOperator(first.getOp().getParserState(), op),
+            new AQLInExpression(first.getRight().getParserState(), values));
+    }
+
+    private static List<AbstractAQLAtomicValue> getValues(AbstractAQLRightHandValue right)
+    {
+        if (right instanceof AQLInExpression) {
+            return ((AQLInExpression) right).getValues();
+        }
+
+        if (right instanceof AbstractAQLAtomicValue) {
+            return Collections.singletonList((AbstractAQLAtomicValue) right);
+        }
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query.rewriters.internal;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Priority;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.contrib.cql.aqlparser.AQLOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClauseOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLConstantClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLDateLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLNumberLiteral;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLRangeExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLAtomicValue;
+import org.xwiki.contrib.cql.aqlparser.ast.AbstractAQLClause;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses;
+import org.xwiki.contrib.cql.query.rewriters.CQLClauses.Term;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+
+/**
+ * Merges the comparisons of the same field joined by AND into a single range ({@code created > X AND created < Y}
+ * becomes one Solr range query). When a field has several lower or upper bounds which can be compared (dates or
+ * numbers), only the tightest one is kept.
+ * Bounds which can't be satisfied together, like {@code created > 2024-02-01 AND created < 2024-01-01}, are replaced
+ * by a clause matching nothing.
+ * This is only done for the date fields handled by the default converter: they have a single value per document, so
+ * the bounds apply to the same value.
+ *
+ * @version $Id$
+ * @since 0.0.3
+ */
+@Component
+@Named("mergeRanges")
+@Priority(300)
+@Singleton
+public class MergeRangesCQLRewriteRule implements CQLRewriteRule
+{
+    private static final List<String> SINGLE_VALUED_FIELDS = Arrays.asList("created", "lastmodified");
+
+    @Inject
+    private CQLConverterRegistry converterRegistry;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public List<AQLClauseWithNextOperator> rewrite(List<AQLClauseWithNextOperator> clausesWithNextOp)
+    {
+        if (clausesWithNextOp.size() < 2 || !CQLClauses.isConjunction(clausesWithNextOp)) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> terms = CQLClauses.toTerms(clausesWithNextOp);
+        Map<String, List<Integer>> boundsByField = new LinkedHashMap<>();
+        for (int i = 0; i < terms.size(); i++) {
+            AQLAtomicClause atom = terms.get(i).getPositiveAtom();
+            if (atom != null && isBound(atom) && isSingleValued(atom.getField())) {
+                boundsByField.computeIfAbsent(atom.getField(), k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        Term[] merged = terms.toArray(new Term[0]);
+        boolean changed = false;
+        for (List<Integer> indexes : boundsByField.values()) {
+            if (indexes.size() > 1) {
+                AbstractAQLClause mergedClause = merge(terms, indexes);
+                if (mergedClause != null) {
+                    merged[indexes.get(0)] = new Term(mergedClause, false);
+                    for (int i = 1; i < indexes.size(); i++) {
+                        merged[indexes.get(i)] = null;
+                    }
+                    changed = true;
+                }
+            }
+        }
+
+        if (!changed) {
+            return clausesWithNextOp;
+        }
+
+        List<Term> result = new ArrayList<>(merged.length);
+        for (Term term : merged) {
+            if (term != null) {
+                result.add(term);
+            }
+        }
+        return CQLClauses.toClauses(result, true, clausesWithNextOp.get(0).getParserState());
+    }
+
+    private boolean isSingleValued(String field)
+    {
+        if (!SINGLE_VALUED_FIELDS.contains(field)) {
+            return false;
+        }
+
+        try {
+            // A specialized converter might not support ranges.
+            return this.converterRegistry.getAtomConverter(field) == null;
+        } catch (ComponentLookupException e) {
+            this.logger.debug("Could not look up the converter of field [{}], its ranges are not merged", field, e);
+            return false;
+        }
+    }
+
+    private static boolean isBound(AQLAtomicClause atom)
+    {
+        return isLower(atom) || isUpper(atom);
+    }
+
+    private static boolean isLower(AQLAtomicClause atom)
+    {
+        AQLOperator op = atom.getOp().getOperator();
+        return op == AQLOperator.GT || op == AQLOperator.GTE;
+    }
+
+    private static boolean isUpper(AQLAtomicClause atom)
+    {
+        AQLOperator op = atom.getOp().getOperator();
+        return op == AQLOperator.LT || op == AQLOperator.LTE;
+    }
+
+    /**
+     * @return the clause replacing all the given bounds, or null if they can't be merged
+     */
+    private static AbstractAQLClause merge(List<Term> terms, List<Integer> indexes)
+    {
+        List<AQLAtomicClause> lowers = new ArrayList<>();
+        List<AQLAtomicClause> uppers = new ArrayList<>();
+        for (int index : indexes) {
+            AQLAtomicClause atom = (AQLAtomicClause) terms.get(index).getClause();
+            (isLower(atom) ? lowers : uppers).add(atom);
+        }
+
+        AQLAtomicClause lower = getTightest(lowers, true);
+        AQLAtomicClause upper = getTightest(uppers, false);
+        if ((!lowers.isEmpty() && lower == null) || (!uppers.isEmpty() && upper == null)) {
+            return null;
+        }
+
+        if (upper == null) {
+            return lower;
+        }
+
+        if (lower == null) {
+            return upper;
+        }
+
+        if (isComparable(lower.getRight(), upper.getRight())) {
+            int c = compare((AbstractAQLAtomicValue) lower.getRight(), (AbstractAQLAtomicValue) upper.getRight());
+            boolean inclusive =
+                lower.getOp().getOperator() == AQLOperator.GTE && upper.getOp().getOperator() == AQLOperator.LTE;
+            if (c > 0 || (c == 0 && !inclusive)) {
+                // The range is empty.
+                return new AQLConstantClause(lower.getParserState(), false);
+            }
+        }
+
+        return new AQLAtomicClause(lower.getParserState(), lower.getField(),
+            new AQLAtomicClauseOperator(lower.getOp().getParserState(), AQLOperator.RANGE),
+            new AQLRangeExpression(lower.getRight().getParserState(),
+                (AbstractAQLAtomicValue) lower.getRight(), lower.getOp().getOperator() == AQLOperator.GTE,
+                (AbstractAQLAtomicValue) upper.getRight(), upper.getOp().getOperator() == AQLOperator.LTE));
+    }
+
+    /**
+     * @return the tightest of the given bounds, or null if there are none or if they can't be compared
+     */
+    private static AQLAtomicClause getTightest(List<AQLAtomicClause> bounds, boolean lower)
+    {
+        AQLAtomicClause tightest = null;
+        for (AQLAtomicClause bound : bounds) {
+            if (tightest == null) {
+                tightest = bound;
+            } else if (!isComparable(tightest.getRight(), bound.getRight())) {
+                return null;
+            } else {
+                AQLOperator op = bound.getOp().getOperator();
+                int c = compare((AbstractAQLAtomicValue) bound.getRight(),
+                    (AbstractAQLAtomicValue) tightest.getRight());
+                boolean exclusive = op == AQLOperator.GT || op == AQLOperator.LT;
+                if ((lower ? c > 0 : c < 0) || (c == 0 && exclusive)) {
+                    tightest = bound;
+                }
+            }
+        }
+        return tightest;
+    }
+
+    static boolean isComparable(Object a, Object b)
+    {
+        if (a instanceof AQLDateLiteral && b instanceof AQLDateLiteral) {
+            return true;
+        }
+
+        return a instanceof AQLNumberLiteral && b instanceof AQLNumberLiteral
+            && toNumber((AQLNumberLiteral) a) != null && toNumber((AQLNumberLiteral) b) != null;
+    }
+
+    static int compare(AbstractAQLAtomicValue a, AbstractAQLAtomicValue b)
+    {
+        if (a instanceof AQLNumberLiteral) {
+            return toNumber((AQLNumberLiteral) a).compareTo(toNumber((AQLNumberLiteral) b));
+        }
+
+        AQLDateLiteral dateA = (AQLDateLiteral) a;
+        AQLDateLiteral dateB = (AQLDateLiteral) b;
+        int c = Integer.compare(dateA.getYear(), dateB.getYear());
+        if (c == 0) {
+            c = Integer.compare(dateA.getMonth(), dateB.getMonth());
+        }
+        if (c == 0) {
+            c = Integer.compare(dateA.getDay(), dateB.getDay());
+        }
+        if (c == 0) {
+            // A date without time is converted to midnight.
+            c = Integer.compare(Math.max(dateA.getHours(), 0), Math.max(dateB.getHours(), 0));
+        }
+        if (c == 0) {
+            c = Integer.compare(Math.max(dateA.getMinutes(), 0), Math.max(dateB.getMinutes(), 0));
+        }
+        return c;
+    }
+
+    private static BigDecimal toNumber(AQLNumberLiteral number)
+    {
+        try {
+            return new BigDecimal(number.getNumber());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.AQLSerializer;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Unit test for {@link AQLSerializer} and the structural equality of the AST nodes.
+ * @version $Id$
+ */
+class AQLSerializerTest
+{
+    private static String serialize(String cql) throws Exception
+    {
+        return AQLSerializer.serialize(AQLParser.parse(cql));
+    }
+
+    private static void assertSameFingerprint(String expected, String actual) throws Exception
+    {
+        assertEquals(AQLParser.parse(expected).getFingerprint(), AQLParser.parse(actual).getFingerprint());
+    }
+
+    @Test
+    void serialize() throws Exception
+    {
+        assertEquals("label = \"a\" and title ~ \"it's\"", serialize("Label = a AND title ~ 'it\\'s'"));
+        assertEquals("label = \"a\" and title ~ \"x\\\"y\"", serialize("title ~ \"x\\\"y\" and label = a"));
+        assertEquals("label in (\"a\", \"b\", \"c\") or space = \"A\"",
+            serialize("space = A or label in (c,'b',\"a\")"));
+        assertEquals("(label = \"b\" or label = \"c\") and label = \"a\" and not label = \"d\"",
+            serialize("label = a and not label = d and (label = c or label = b)"));
+        assertEquals("label = \"a\" or label = \"b\" and not (label = \"c\" or label = \"d\")",
+            serialize("label = b and not (label = d or label = c) or label = a"));
+        assertEquals("label = \"a\" and label = \"b\" and label = \"c\"",
+            serialize("label = c and (label = b and label = a)"));
+        assertEquals(
+            "created > \"2024-01-02\" and lastmodified < \"2024-01-02 03:04\" order by title desc, created",
+            serialize("lastmodified < \"2024/1/2 3:04\" and created > 2024-1-2 order by title desc, created asc"));
+        assertEquals("created > startOfDay(\"-4d\") and creator = currentUser() and title = 42",
+            serialize("title = 42 and creator = currentUser() and created > startOfDay(\"-4d\")"));
+        assertEquals("label = :tag and title ~ ?1 and title ~ ?2",
+            serialize("title ~ ? and label = :tag and title ~ ?"));
+    }
+
+    @Test
+    void canonicalTextCanBeParsed() throws Exception
+    {
+        String canonical =
+            serialize("label = b and not (label = d or label = c) or created > 2024-01-01 order by title");
+        assertEquals(canonical, serialize(canonical));
+        assertEquals(canonical, AQLParser.parse(
+            "label = b and not (label = d or label = c) or created > 2024-01-01 order by title").getCanonicalText());
+    }
+
+    @Test
+    void fingerprint() throws Exception
+    {
+        assertSameFingerprint("label = a and title ~ b", "TITLE ~ 'b'  and  Label = \"a\"");
+        assertSameFingerprint("label in (a, b) or space = A", "space = A or label in (b, a)");
+        assertSameFingerprint("label = :tag or title ~ ?", "title ~ ?1 or label = :tag");
+        assertNotEquals(AQLParser.parse("label = a and title ~ b").getFingerprint(),
+            AQLParser.parse("label = a or title ~ b").getFingerprint());
+        assertNotEquals(AQLParser.parse("label = a order by title, created").getFingerprint(),
+            AQLParser.parse("label = a order by created, title").getFingerprint());
+        assertNotEquals(AQLParser.parse("label = a and not title ~ b").getFingerprint(),
+            AQLParser.parse("title ~ b and not label = a").getFingerprint());
+    }
+
+    @Test
+    void structuralEquality() throws Exception
+    {
+        AQLStatement statement = AQLParser.parse("label = a and (title ~ \"b\" or created > 2024-01-01 )");
+        AQLStatement other = AQLParser.parse("  LABEL = 'a'  AND  ( title ~ b OR created > \"2024-01-01\" )");
+        assertEquals(statement, other);
+        assertEquals(statement.hashCode(), other.hashCode());
+        assertEquals(statement.getBooleanExpression(), other.getBooleanExpression());
+        assertNotEquals(statement, AQLParser.parse("(title ~ b or created > 2024-01-01 ) and label = a"));
+        assertNotEquals(AQLParser.parse("label = a"), AQLParser.parse("label = a order by title"));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.aqlparser.AQLStatementCache;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLAtomicClause;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLInExpression;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for {@link AQLStatementCache}.
+ * @version $Id$
+ */
+class AQLStatementCacheTest
+{
+    private static final String LABEL_IN = "label in (a, b)";
+
+    private static final String TITLE = "title = a";
+
+    @Test
+    void sharesParsedStatements() throws ParserException
+    {
+        AQLStatementCache cache = new AQLStatementCache(10, 1000);
+        AQLStatement statement = cache.parse(LABEL_IN);
+        assertSame(statement, cache.parse(LABEL_IN));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(LABEL_IN.length(), cache.getWeight());
+
+        AQLInExpression in =
+            (AQLInExpression) ((AQLAtomicClause) statement.getClausesWithNextOp().get(0).getClause()).getRight();
+        assertThrows(UnsupportedOperationException.class, () -> in.getValues().clear());
+        assertThrows(UnsupportedOperationException.class, () -> statement.getClausesWithNextOp().clear());
+    }
+
+    @Test
+    void cachesParseErrors()
+    {
+        AQLStatementCache cache = new AQLStatementCache(10, 1000);
+        ParserException first = assertThrows(ParserException.class, () -> cache.parse("title in ()"));
+        assertSame(first, assertThrows(ParserException.class, () -> cache.parse("title in ()")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedBySize() throws ParserException
+    {
+        AQLStatementCache cache = new AQLStatementCache(2, 1000);
+        AQLStatement labelIn = cache.parse(LABEL_IN);
+        AQLStatement title = cache.parse(TITLE);
+        cache.parse(LABEL_IN);
+        cache.parse("space = A");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(labelIn, cache.parse(LABEL_IN));
+        assertNotSame(title, cache.parse(TITLE));
+    }
+
+    @Test
+    void evictsByWeight() throws ParserException
+    {
+        AQLStatementCache cache = new AQLStatementCache(10, LABEL_IN.length() + TITLE.length());
+        cache.parse(LABEL_IN);
+        cache.parse(TITLE);
+        assertEquals(0, cache.getEvictionCount());
+
+        cache.parse("space = A");
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(TITLE.length() + "space = A".length(), cache.getWeight());
+
+        // Statements heavier than the whole cache are parsed but not kept.
+        String heavy = "title in (a, b, c, d, e, f, g, h, i, j, k, l, m, n, o, p)";
+        cache.parse(heavy);
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.component.event.ComponentDescriptorAddedEvent;
+import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.ConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.contrib.cql.query.internal.CQLComponentListener;
+import org.xwiki.contrib.cql.query.internal.CompiledCQLStatementCache;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit test for {@link CQLComponentListener}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLComponentListenerTest
+{
+    @InjectMockComponents
+    private CQLComponentListener listener;
+
+    @MockComponent
+    private CompiledCQLStatementCache compiledStatementCache;
+
+    @MockComponent
+    private CQLConverterRegistry converterRegistry;
+
+    @MockComponent
+    private ConfluenceSpaceCache spaceCache;
+
+    @Test
+    void listensToTheComponentsTakingPartInTheConversion()
+    {
+        assertTrue(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class))));
+        assertTrue(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new ComponentDescriptorRemovedEvent(ConfluenceIdResolver.class))));
+        assertFalse(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new ComponentDescriptorAddedEvent(Runnable.class))));
+    }
+
+    @Test
+    void invalidatesTheConversions()
+    {
+        this.listener.onEvent(new ComponentDescriptorAddedEvent(CQLToSolrAtomConverter.class), null, null);
+
+        verify(this.converterRegistry).invalidate();
+        verify(this.compiledStatementCache).invalidate();
+        verify(this.spaceCache).invalidate();
+    }
+
+    @Test
+    void invalidatesTheSpacesWhenASpaceResolverIsInstalled()
+    {
+        this.listener.onEvent(new ComponentDescriptorAddedEvent(ConfluenceSpaceResolver.class), null, null);
+
+        // The keys resolved before may be resolved differently by the new resolver.
+        verify(this.spaceCache).invalidate();
+        verify(this.compiledStatementCache).invalidate();
+    }
+}
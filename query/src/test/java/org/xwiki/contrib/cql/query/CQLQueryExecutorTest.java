@@ -20,25 +20,49 @@
 package org.xwiki.contrib.cql.query;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrServerException;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
 import org.xwiki.component.internal.ContextComponentManagerProvider;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrFieldListConverter;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrSortParameterConverter;
 import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdPrefetcher;
 import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageClassConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
 import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ContextSlotValueProvider;
 import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceIdResolver;
 import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceSpaceResolver;
 import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLCountQueryExecutor;
 import org.xwiki.contrib.cql.query.internal.CQLQueryExecutor;
+import org.xwiki.contrib.cql.query.internal.CQLSingleFlight;
+import org.xwiki.contrib.cql.query.rewriters.internal.CQLStatementRewriter;
+import org.xwiki.contrib.cql.query.rewriters.internal.ConstantsCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.ContradictionCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.DuplicateClausesCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.FlattenGroupsCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.MergeInCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.MergeRangesCQLRewriteRule;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.query.Query;
 import org.xwiki.query.QueryException;
@@ -59,9 +83,14 @@ import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
 import com.xpn.xwiki.test.reference.ReferenceComponentList;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -83,7 +112,22 @@ import static org.mockito.Mockito.when;
     TestCQLToSolrAtomConverter.class,
     TestCQLToSolrSortParameterConverter.class,
     DefaultCQLToSolrSortParameterConverter.class,
-    CQLToSolrQueryConverter.class
+    ContextSlotValueProvider.class,
+    CQLConverterRegistry.class,
+    ConfluenceIdPrefetcher.class,
+    ConfluenceIdCache.class,
+    ConfluenceSpaceCache.class,
+    CQLToSolrQueryConverter.class,
+    CQLToSolrFieldListConverter.class,
+    FlattenGroupsCQLRewriteRule.class,
+    MergeInCQLRewriteRule.class,
+    MergeRangesCQLRewriteRule.class,
+    DuplicateClausesCQLRewriteRule.class,
+    ContradictionCQLRewriteRule.class,
+    ConstantsCQLRewriteRule.class,
+    CQLStatementRewriter.class,
+    CQLSingleFlight.class,
+    CQLCountQueryExecutor.class
 })
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
 @ReferenceComponentList
@@ -109,6 +153,9 @@ class CQLQueryExecutorTest
     @MockComponent
     private SolrInstance solr;
 
+    @MockComponent
+    private CQLConfiguration configuration;
+
     private final MockitoComponentMockingRule<QueryExecutor> componentManager =
         new MockitoComponentMockingRule<>(SolrQueryExecutor.class);
 
@@ -138,4 +185,156 @@ class CQLQueryExecutorTest
             "cql");
         assertSame(r, query.execute().get(0));
     }
+
+    @Test
+    void executeWithFilterQueries() throws QueryException, SolrServerException, IOException
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+
+        QueryResponse r = mock(QueryResponse.class);
+        when(r.getResults()).thenReturn(new SolrDocumentList());
+        when(solr.query(any(SolrQuery.class))).then(invocation -> {
+            SolrQuery solrQuery = (SolrQuery) invocation.getArguments()[0];
+            assertEquals("mysolrfieldA:The\\ answer~ OR mysolrfieldB:The\\ answer~", solrQuery.getQuery());
+            assertTrue(Arrays.asList(solrQuery.getFilterQueries()).containsAll(Arrays.asList(
+                "creator:*\\:XWiki.Guest", "mysolrfieldA:1337 OR mysolrfieldB:1337", "locale:en")));
+            assertEquals(1, Arrays.stream(solrQuery.getFilterQueries()).filter("locale:en"::equals).count());
+            return r;
+        });
+
+        Query query = queryManager.createQuery("creator = currentUser() and test1 = 1337 and test2 ~ 42", "cql");
+        query.bindValue("fq", "locale:en");
+        assertSame(r, query.execute().get(0));
+        // The filter queries don't accumulate in the query when it is executed again.
+        assertSame(r, query.execute().get(0));
+    }
+
+    @Test
+    void executeWithParameters() throws QueryException, SolrServerException, IOException
+    {
+        QueryResponse r = mock(QueryResponse.class);
+        when(r.getResults()).thenReturn(new SolrDocumentList());
+        when(solr.query(any(SolrQuery.class))).then(invocation -> {
+            SolrQuery solrQuery = (SolrQuery) invocation.getArguments()[0];
+            assertEquals("(property.XWiki.TagClass.tags:my\\ tag) AND (title_sort:a\\(b~)", solrQuery.getQuery());
+            // The values bound to the CQL parameters are not sent to Solr.
+            assertNull(solrQuery.get("tag"));
+            return r;
+        });
+
+        Query query = queryManager.createQuery("label = :tag and title ~ ?", "cql");
+        query.bindValue("tag", "my tag");
+        query.bindValue(1, "a(b");
+        assertSame(r, query.execute().get(0));
+    }
+
+    @Test
+    void executeMatchingNothing() throws QueryException, SolrServerException, IOException
+    {
+        when(configuration.isRewriteEnabled()).thenReturn(true);
+
+        Query query = queryManager.createQuery("label = mytag and type = page and type = blogpost", "cql");
+        QueryResponse response = (QueryResponse) query.execute().get(0);
+        assertEquals(0, response.getResults().getNumFound());
+        assertTrue(response.getResults().isEmpty());
+        assertEquals(1, cqlQueryExecutor.getSkippedQueryCount());
+        verify(solr, never()).query(any(SolrQuery.class));
+    }
+
+    @Test
+    void toSolrQueries() throws Exception
+    {
+        Query query = queryManager.createQuery("label = :tag", "cql");
+        query.bindValue("tag", "mytag");
+        Query invalidQuery = queryManager.createQuery("label = ", "cql");
+
+        List<CompletableFuture<Query>> solrQueries =
+            cqlQueryExecutor.toSolrQueries(Arrays.asList(query, invalidQuery));
+
+        assertEquals(2, solrQueries.size());
+        assertEquals("property.XWiki.TagClass.tags:mytag", solrQueries.get(0).get().getStatement());
+        ExecutionException exception = assertThrows(ExecutionException.class, () -> solrQueries.get(1).get());
+        assertTrue(exception.getCause() instanceof QueryException);
+    }
+
+    @Test
+    void iterate() throws Exception
+    {
+        SolrDocument first = new SolrDocument();
+        SolrDocument second = new SolrDocument();
+        SolrDocument third = new SolrDocument();
+        List<String> cursorMarks = new ArrayList<>();
+        when(solr.query(any(SolrQuery.class))).then(invocation -> {
+            SolrQuery solrQuery = (SolrQuery) invocation.getArguments()[0];
+            assertEquals("title_sort desc,id asc", solrQuery.getSortField());
+            assertEquals(Integer.valueOf(2), solrQuery.getRows());
+            String cursorMark = solrQuery.get("cursorMark");
+            cursorMarks.add(cursorMark);
+
+            SolrDocumentList results = new SolrDocumentList();
+            String nextCursorMark = cursorMark;
+            if ("*".equals(cursorMark)) {
+                results.addAll(Arrays.asList(first, second));
+                nextCursorMark = "AoE1";
+            } else if ("AoE1".equals(cursorMark)) {
+                results.add(third);
+                nextCursorMark = "AoE2";
+            }
+            QueryResponse r = mock(QueryResponse.class);
+            when(r.getResults()).thenReturn(results);
+            when(r.getNextCursorMark()).thenReturn(nextCursorMark);
+            return r;
+        });
+
+        Query query = queryManager.createQuery("label = mytag order by title desc", "cql");
+        Iterator<SolrDocument> documents = cqlQueryExecutor.iterate(query, 2);
+        // Solr is queried lazily.
+        verify(solr, never()).query(any(SolrQuery.class));
+
+        List<SolrDocument> result = new ArrayList<>();
+        documents.forEachRemaining(result::add);
+        assertEquals(Arrays.asList(first, second, third), result);
+        assertEquals(Arrays.asList("*", "AoE1", "AoE2"), cursorMarks);
+    }
+
+    @Test
+    void executeCount() throws QueryException, SolrServerException, IOException
+    {
+        SolrDocumentList results = new SolrDocumentList();
+        results.setNumFound(100000);
+        QueryResponse r = mock(QueryResponse.class);
+        when(r.getResults()).thenReturn(results);
+        when(solr.query(any(SolrQuery.class))).then(invocation -> {
+            SolrQuery solrQuery = (SolrQuery) invocation.getArguments()[0];
+            assertEquals("property.XWiki.TagClass.tags:mytag", solrQuery.getQuery());
+            assertEquals(Integer.valueOf(0), solrQuery.getRows());
+            assertNull(solrQuery.getSortField());
+            return r;
+        });
+
+        Query query = queryManager.createQuery("label = mytag order by title desc", "cqlcount");
+        query.setOffset(20);
+        assertEquals(Collections.singletonList(100000L), query.execute());
+    }
+
+    @Test
+    void executeWithFields() throws QueryException, SolrServerException, IOException
+    {
+        QueryResponse r = mock(QueryResponse.class);
+        when(r.getResults()).thenReturn(new SolrDocumentList());
+        when(solr.query(any(SolrQuery.class))).then(invocation -> {
+            SolrQuery solrQuery = (SolrQuery) invocation.getArguments()[0];
+            assertEquals("id,type,wiki,spaces,name,locale,title_*,date", solrQuery.getFields());
+            assertNull(solrQuery.get(CQLQueryExecutor.FIELDS));
+            return r;
+        });
+
+        Query query = queryManager.createQuery("label = mytag", "cql");
+        query.bindValue(CQLQueryExecutor.FIELDS, Arrays.asList("title", "lastModified"));
+        assertSame(r, query.execute().get(0));
+
+        query.bindValue(CQLQueryExecutor.FIELDS, "title, body");
+        QueryException exception = assertThrows(QueryException.class, query::execute);
+        assertTrue(exception.getCause().getMessage().startsWith("Field [body] cannot be returned"));
+    }
 }
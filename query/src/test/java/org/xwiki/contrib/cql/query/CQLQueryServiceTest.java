@@ -0,0 +1,268 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLQueryExecutor;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryExecutor;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CQLQueryService}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLQueryServiceTest
+{
+    private static final String WIKI = "mywiki";
+
+    private static final DocumentReference USER = new DocumentReference(WIKI, "XWiki", "User");
+
+    private static final DocumentReference DOC_REF = new DocumentReference(WIKI, "Space", "Page");
+
+    @InjectMockComponents
+    private CQLQueryService queryService;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @MockComponent
+    private Execution execution;
+
+    @MockComponent(classToMock = CQLQueryExecutor.class)
+    @Named(CQLQueryExecutor.CQL)
+    private QueryExecutor queryExecutor;
+
+    private final XWikiContext xcontext = mock(XWikiContext.class);
+
+    private final XWikiDocument doc = mock(XWikiDocument.class);
+
+    private final XWikiDocument loadedDoc = mock(XWikiDocument.class);
+
+    private final List<Object> result = Collections.singletonList("result");
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getAsyncThreads()).thenReturn(1);
+        when(this.configuration.getAsyncQueueSize()).thenReturn(1);
+        when(this.configuration.getBatchParallelism()).thenReturn(1);
+
+        when(this.contextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWikiId()).thenReturn(WIKI);
+        when(this.xcontext.getUserReference()).thenReturn(USER);
+        when(this.xcontext.getDoc()).thenReturn(this.doc);
+        when(this.doc.getDocumentReference()).thenReturn(DOC_REF);
+        XWiki xwiki = mock(XWiki.class);
+        when(this.xcontext.getWiki()).thenReturn(xwiki);
+        when(xwiki.getDocument(DOC_REF, this.xcontext)).thenReturn(this.loadedDoc);
+        when(this.xcontext.getLocale()).thenReturn(Locale.FRENCH);
+    }
+
+    @Test
+    void executesInTheBackgroundWithTheCallerContext() throws Exception
+    {
+        Query query = mock(Query.class);
+        Thread caller = Thread.currentThread();
+        when(query.execute()).then(invocation -> {
+            assertNotEquals(caller, Thread.currentThread());
+            return this.result;
+        });
+
+        assertSame(this.result, this.queryService.executeAsync(query).get(10, TimeUnit.SECONDS));
+        verify(this.xcontext).setWikiId(WIKI);
+        verify(this.xcontext).setUserReference(USER);
+        // The document of the caller is not shared with the background thread.
+        verify(this.xcontext).setDoc(this.loadedDoc);
+        verify(this.xcontext).setLocale(Locale.FRENCH);
+    }
+
+    @Test
+    void reportsFailures() throws Exception
+    {
+        Query query = mock(Query.class);
+        QueryException failure = new QueryException("Solr is down", query, null);
+        when(query.execute()).thenThrow(failure);
+
+        CompletableFuture<List<Object>> future = this.queryService.executeAsync(query);
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> future.get(10, TimeUnit.SECONDS));
+        assertSame(failure, exception.getCause());
+    }
+
+    @Test
+    void executesInTheCallerThreadWhenTooManyQueriesWait() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Query blockedQuery = mock(Query.class);
+        when(blockedQuery.execute()).then(invocation -> {
+            started.countDown();
+            release.await();
+            return this.result;
+        });
+        Query waitingQuery = mock(Query.class);
+        when(waitingQuery.execute()).thenReturn(this.result);
+        Query query = mock(Query.class);
+        Thread caller = Thread.currentThread();
+        List<Object> callerResult = Collections.singletonList("caller result");
+        when(query.execute()).then(invocation -> {
+            assertSame(caller, Thread.currentThread());
+            return callerResult;
+        });
+
+        // The only thread is busy and the only place in the queue is taken.
+        CompletableFuture<List<Object>> blocked = this.queryService.executeAsync(blockedQuery);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<List<Object>> waiting = this.queryService.executeAsync(waitingQuery);
+        assertEquals(2, this.queryService.getPendingQueryCount());
+
+        CompletableFuture<List<Object>> future = this.queryService.executeAsync(query);
+        assertTrue(future.isDone());
+        assertSame(callerResult, future.get());
+        assertEquals(1, this.queryService.getCallerExecutionCount());
+        assertFalse(waiting.isDone());
+
+        release.countDown();
+        assertSame(this.result, blocked.get(10, TimeUnit.SECONDS));
+        assertSame(this.result, waiting.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelsTheQueriesWaitingWhenDisposed() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        Query blockedQuery = mock(Query.class);
+        when(blockedQuery.execute()).then(invocation -> {
+            started.countDown();
+            // Interrupted when the service is disposed.
+            Thread.sleep(10000);
+            return this.result;
+        });
+        Query waitingQuery = mock(Query.class);
+
+        this.queryService.executeAsync(blockedQuery);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        CompletableFuture<List<Object>> waiting = this.queryService.executeAsync(waitingQuery);
+
+        this.queryService.dispose();
+
+        assertThrows(CancellationException.class, waiting::join);
+        verify(waitingQuery, never()).execute();
+        // The queries submitted afterwards are cancelled rather than executed by the caller.
+        Query query = mock(Query.class);
+        assertTrue(this.queryService.executeAsync(query).isCancelled());
+        verify(query, never()).execute();
+    }
+
+    private static Query mockSolrQuery(String statement)
+    {
+        Query solrQuery = mock(Query.class);
+        when(solrQuery.getStatement()).thenReturn(statement);
+        return solrQuery;
+    }
+
+    @Test
+    void executeBatch() throws Exception
+    {
+        CQLQueryExecutor cqlQueryExecutor = (CQLQueryExecutor) this.queryExecutor;
+        Query solrQueryA = mockSolrQuery("title:a");
+        Query solrQueryB = mockSolrQuery("title:b");
+        Query sameSolrQueryA = mockSolrQuery("title:a");
+        QueryException failure = new QueryException("Failed to parse the CQL statement", null, null);
+        CompletableFuture<Query> failedConversion = new CompletableFuture<>();
+        failedConversion.completeExceptionally(failure);
+        List<Query> queries = Arrays.asList(mock(Query.class), mock(Query.class), mock(Query.class),
+            mock(Query.class));
+        when(cqlQueryExecutor.toSolrQueries(queries)).thenReturn(Arrays.asList(
+            CompletableFuture.completedFuture(solrQueryA), CompletableFuture.completedFuture(solrQueryB),
+            CompletableFuture.completedFuture(sameSolrQueryA), failedConversion));
+
+        // The distinct queries are executed one after the other.
+        AtomicInteger running = new AtomicInteger();
+        List<Object> resultA = Collections.singletonList("a");
+        List<Object> resultB = Collections.singletonList("b");
+        when(cqlQueryExecutor.executeSolrQuery(any())).then(invocation -> {
+            assertEquals(1, running.incrementAndGet());
+            Thread.sleep(10);
+            running.decrementAndGet();
+            return invocation.getArgument(0) == solrQueryA ? resultA : resultB;
+        });
+
+        List<CompletableFuture<List<Object>>> results = this.queryService.executeBatch(queries);
+
+        assertEquals(4, results.size());
+        assertSame(resultA, results.get(0).get(10, TimeUnit.SECONDS));
+        assertSame(resultB, results.get(1).get(10, TimeUnit.SECONDS));
+        assertSame(resultA, results.get(2).get(10, TimeUnit.SECONDS));
+        ExecutionException exception =
+            assertThrows(ExecutionException.class, () -> results.get(3).get(10, TimeUnit.SECONDS));
+        assertSame(failure, exception.getCause());
+        verify(cqlQueryExecutor).executeSolrQuery(solrQueryA);
+        verify(cqlQueryExecutor).executeSolrQuery(solrQueryB);
+        verify(cqlQueryExecutor, never()).executeSolrQuery(sameSolrQueryA);
+        assertEquals(0, this.queryService.getCallerExecutionCount());
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLResultCache;
+import org.xwiki.contrib.cql.query.internal.CQLResultCacheListener;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CQLResultCacheListener}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLResultCacheListenerTest
+{
+    @InjectMockComponents
+    private CQLResultCacheListener listener;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private CQLResultCache resultCache;
+
+    private static XWikiDocument mockDocument(String wiki)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(new DocumentReference(wiki, "Space", "Page"));
+        return doc;
+    }
+
+    @Test
+    void invalidatesTheResultsOfTheWikiOfChangedDocuments()
+    {
+        when(this.configuration.getResultCacheSize()).thenReturn(100);
+
+        this.listener.onEvent(new DocumentCreatedEvent(), mockDocument("xwiki"), null);
+        this.listener.onEvent(new DocumentUpdatedEvent(), mockDocument("subwiki"), null);
+        this.listener.onEvent(new DocumentDeletedEvent(), mockDocument("otherwiki"), null);
+
+        verify(this.resultCache).invalidate("xwiki");
+        verify(this.resultCache).invalidate("subwiki");
+        verify(this.resultCache).invalidate("otherwiki");
+    }
+
+    @Test
+    void doesNothingWhenDisabled()
+    {
+        this.listener.onEvent(new DocumentUpdatedEvent(), mockDocument("xwiki"), null);
+
+        verify(this.resultCache, never()).invalidate(any());
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLResultCache;
+import org.xwiki.contrib.cql.query.internal.SolrIndexingStatus;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CQLResultCache}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLResultCacheTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final String CQL = "label = mytag";
+
+    private static final DocumentReference USER = new DocumentReference(WIKI, "XWiki", "User");
+
+    @InjectMockComponents
+    private CQLResultCache resultCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private SolrIndexingStatus solrIndexingStatus;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @MockComponent
+    private Execution execution;
+
+    private final XWikiContext xcontext = mock(XWikiContext.class);
+
+    private final Query query = mock(Query.class);
+
+    private final List<Object> result = Collections.singletonList("result");
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getResultCacheSize()).thenReturn(100);
+        when(this.configuration.getResultCacheLifespan()).thenReturn(60);
+        when(this.configuration.getResultCacheStaleLifespan()).thenReturn(60);
+        when(this.cacheManager.createNewCache(any(LRUCacheConfiguration.class)))
+            .then(invocation -> CacheMocks.newCache());
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.contextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWikiId()).thenReturn(WIKI);
+        when(this.xcontext.getMainXWiki()).thenReturn(WIKI);
+        when(this.xcontext.getUserReference()).thenReturn(USER);
+
+        when(this.query.getStatement()).thenReturn("property.XWiki.TagClass.tags:mytag");
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("fq", Collections.singletonList("type:DOCUMENT"));
+        when(this.query.getNamedParameters()).thenReturn(parameters);
+        when(this.query.getFilters()).thenReturn(Collections.emptyList());
+        when(this.query.execute()).thenReturn(this.result);
+    }
+
+    @Test
+    void cachesResultsPerUser() throws Exception
+    {
+        assertSame(this.result, this.resultCache.execute(CQL, this.query));
+        assertSame(this.result, this.resultCache.execute(CQL, this.query));
+        verify(this.query, times(1)).execute();
+
+        when(this.xcontext.getUserReference()).thenReturn(new DocumentReference(WIKI, "XWiki", "Other"));
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(2)).execute();
+
+        CQLResultCache.Statistics statistics = this.resultCache.getStatistics(CQL);
+        assertEquals(1, statistics.getHitCount());
+        assertEquals(2, statistics.getMissCount());
+        assertEquals(1, this.resultCache.getStatistics().getHitCount());
+    }
+
+    @Test
+    void invalidatesResultsOfChangedWikis() throws Exception
+    {
+        this.resultCache.execute(CQL, this.query);
+
+        this.resultCache.invalidate("otherwiki");
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(1)).execute();
+
+        // A change in the main wiki invalidates all the results.
+        this.resultCache.invalidate(WIKI);
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(2)).execute();
+        assertEquals(2, this.resultCache.getInvalidationCount());
+    }
+
+    @Test
+    void doesNotCacheResultsWhileIndexing() throws Exception
+    {
+        when(this.solrIndexingStatus.isIndexing()).thenReturn(true);
+
+        this.resultCache.execute(CQL, this.query);
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    void doesNotCacheResultsComputedWhileIndexing() throws Exception
+    {
+        // The indexing is over when the result is stored, but the result may miss the last changes.
+        when(this.solrIndexingStatus.isIndexing()).thenReturn(true, false);
+
+        this.resultCache.execute(CQL, this.query);
+        this.resultCache.execute(CQL, this.query);
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    void invalidatesResultsWhenTheIndexingIsOver() throws Exception
+    {
+        this.resultCache.execute(CQL, this.query);
+        when(this.solrIndexingStatus.isIndexing()).thenReturn(true);
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(1)).execute();
+
+        when(this.solrIndexingStatus.isIndexing()).thenReturn(false);
+        this.resultCache.execute(CQL, this.query);
+        this.resultCache.execute(CQL, this.query);
+        verify(this.query, times(2)).execute();
+    }
+
+    @Test
+    void refreshesStaleResultsInTheBackground() throws Exception
+    {
+        // Results are stale as soon as they are cached.
+        when(this.configuration.getResultCacheLifespan()).thenReturn(0);
+        this.resultCache.initialize();
+
+        this.resultCache.execute(CQL, this.query);
+        List<Object> refreshed = Collections.singletonList("refreshed");
+        when(this.query.execute()).thenReturn(refreshed);
+
+        assertSame(this.result, this.resultCache.execute(CQL, this.query));
+        assertEquals(1, this.resultCache.getStatistics(CQL).getStaleHitCount());
+        verify(this.query, timeout(5000).times(2)).execute();
+        verify(this.xcontext, timeout(5000)).setUserReference(USER);
+    }
+
+    @Test
+    void retriesRefreshesNotStoredWhileIndexing() throws Exception
+    {
+        when(this.configuration.getResultCacheLifespan()).thenReturn(0);
+        this.resultCache.initialize();
+        AtomicInteger executions = new AtomicInteger();
+        when(this.query.execute()).then(invocation -> {
+            executions.incrementAndGet();
+            return this.result;
+        });
+
+        this.resultCache.execute(CQL, this.query);
+        when(this.solrIndexingStatus.isIndexing()).thenReturn(true);
+
+        // Each stale hit refreshes the result again once the previous refresh, which could not be stored, is over.
+        long deadline = System.currentTimeMillis() + 5000;
+        while (executions.get() < 3 && System.currentTimeMillis() < deadline) {
+            assertSame(this.result, this.resultCache.execute(CQL, this.query));
+            Thread.sleep(10);
+        }
+        assertTrue(executions.get() >= 3);
+        assertEquals(0, this.resultCache.getRefreshCount());
+    }
+}
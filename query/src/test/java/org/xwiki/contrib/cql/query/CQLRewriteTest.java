@@ -0,0 +1,292 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLClauseWithNextOperator;
+import org.xwiki.contrib.cql.aqlparser.ast.AQLStatement;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.CompiledCQLStatement;
+import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdPrefetcher;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageClassConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ContextSlotValueProvider;
+import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.rewriters.CQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.CQLStatementRewriter;
+import org.xwiki.contrib.cql.query.rewriters.internal.ConstantsCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.ContradictionCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.DuplicateClausesCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.FlattenGroupsCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.MergeInCQLRewriteRule;
+import org.xwiki.contrib.cql.query.rewriters.internal.MergeRangesCQLRewriteRule;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.annotation.ComponentList;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.test.MockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.InjectMockitoOldcore;
+import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
+import com.xpn.xwiki.test.reference.ReferenceComponentList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for the {@link CQLRewriteRule}s and the {@link CQLStatementRewriter}.
+ * @version $Id$
+ */
+@OldcoreTest
+@ReferenceComponentList
+@ComponentList({
+    DefaultConfluenceIdResolver.class,
+    DefaultConfluenceSpaceResolver.class,
+    ConfluencePageClassConfluenceIdResolver.class,
+    AncestorCQLToSolrAtomConverter.class,
+    ContentCQLToSolrAtomConverter.class,
+    ParentCQLToSolrAtomConverter.class,
+    DefaultCQLToSolrAtomConverter.class,
+    ContextSlotValueProvider.class,
+    CQLConverterRegistry.class,
+    ConfluenceIdPrefetcher.class,
+    ConfluenceIdCache.class,
+    ConfluenceSpaceCache.class,
+    CQLToSolrQueryConverter.class,
+    FlattenGroupsCQLRewriteRule.class,
+    MergeInCQLRewriteRule.class,
+    MergeRangesCQLRewriteRule.class,
+    DuplicateClausesCQLRewriteRule.class,
+    ContradictionCQLRewriteRule.class,
+    ConstantsCQLRewriteRule.class,
+    CQLStatementRewriter.class,
+    TestCQLToSolrAtomConverter.class
+})
+class CQLRewriteTest
+{
+    private static final DocumentReference GUEST = new DocumentReference("xwiki", "XWiki", "Guest");
+
+    @InjectMockComponents
+    private CQLToSolrQueryConverter queryConverter;
+
+    @InjectMockitoOldcore
+    private MockitoOldcore mockitoOldcore;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @BeforeEach
+    void configure()
+    {
+        mockitoOldcore.getXWikiContext().setUserReference(GUEST);
+    }
+
+    private String rewrite(String ruleHint, String cql) throws Exception
+    {
+        CQLRewriteRule rule = mockitoOldcore.getMocker().getInstance(CQLRewriteRule.class, ruleHint);
+        AQLStatement statement = AQLParser.parse(cql);
+        List<AQLClauseWithNextOperator> rewritten = rule.rewrite(statement.getClausesWithNextOp());
+        return queryConverter.getSolrStatement(
+            new AQLStatement(statement.getParserState(), rewritten, Collections.emptyList()));
+    }
+
+    private void assertUnchanged(String ruleHint, String cql) throws Exception
+    {
+        CQLRewriteRule rule = mockitoOldcore.getMocker().getInstance(CQLRewriteRule.class, ruleHint);
+        List<AQLClauseWithNextOperator> clauses = AQLParser.parse(cql).getClausesWithNextOp();
+        assertSame(clauses, rule.rewrite(clauses), cql);
+    }
+
+    private String t(String cql) throws Exception
+    {
+        CQLStatementRewriter rewriter = mockitoOldcore.getMocker().getInstance(CQLStatementRewriter.class);
+        return queryConverter.getSolrStatement(rewriter.rewrite(AQLParser.parse(cql)));
+    }
+
+    @Test
+    void flattenGroups() throws Exception
+    {
+        assertEquals(
+            "(property.XWiki.TagClass.tags:a) AND (property.XWiki.TagClass.tags:b) AND (title_sort:c~)",
+            rewrite("flattenGroups", "label = a and (label = b and title ~ c)"));
+        assertEquals("property.XWiki.TagClass.tags:a", rewrite("flattenGroups", "((label = a))"));
+        // A group can't be inlined in a list of clauses joined by another operator, or if it is negated.
+        assertUnchanged("flattenGroups", "label = a or (label = b and title ~ c)");
+        assertUnchanged("flattenGroups", "label = a and not (label = b and title ~ c)");
+    }
+
+    @Test
+    void mergeIn() throws Exception
+    {
+        assertEquals(
+            "(property.XWiki.TagClass.tags:(a OR b OR d)) OR (title_sort:c~)",
+            rewrite("mergeIn", "label = a or label = b or title ~ c or label in (b, d)"));
+        assertEquals(
+            "-property.XWiki.TagClass.tags:(a OR b)",
+            rewrite("mergeIn", "label != a and label not in (a, b)"));
+        assertUnchanged("mergeIn", "label = a and label = b");
+        assertUnchanged("mergeIn", "label = a or label = b and title ~ c");
+        assertUnchanged("mergeIn", "creator = currentUser() or creator = admin");
+        // Fields with a specialized converter are left to it.
+        assertUnchanged("mergeIn", "test1 = a or test1 = b");
+        assertUnchanged("mergeIn", "test2 != a and test2 != b");
+        assertUnchanged("mergeIn", "content = 1 or content = 2");
+    }
+
+    @Test
+    void mergeRanges() throws Exception
+    {
+        assertEquals(
+            "creationdate:{\"2024-01-02T00:00:00.000Z\" TO \"2024-03-01T00:00:00.000Z\"]",
+            rewrite("mergeRanges", "created > 2024-01-02 and created <= 2024-03-01 and created > 2023-12-01"));
+        assertEquals(
+            "(date:[* TO \"2024-01-02T00:00:00.000Z\"}) AND (title_sort:c~)",
+            rewrite("mergeRanges", "lastmodified <= 2024-01-02 and title ~ c and lastmodified < 2024-01-02"));
+        // Functions can't be compared, so there is no tightest bound.
+        assertEquals(
+            "(-*:*) AND (title_sort:b~)",
+            rewrite("mergeRanges", "created > 2024-02-01 and title ~ b and created < 2024-01-01"));
+        assertEquals("-*:*", rewrite("mergeRanges", "created > 2024-01-01 and created <= 2024-01-01"));
+        assertEquals(
+            "creationdate:[\"2024-01-01T00:00:00.000Z\" TO \"2024-01-01T00:00:00.000Z\"]",
+            rewrite("mergeRanges", "created >= 2024-01-01 and created <= 2024-01-01"));
+        assertUnchanged("mergeRanges", "created > startOfWeek() and created > 2024-01-02");
+        assertUnchanged("mergeRanges", "created > 2024-01-02 or created < 2024-03-01");
+    }
+
+    @Test
+    void exactCurrentTimeInMergedRange() throws Exception
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CQLRewriteRule rule = mockitoOldcore.getMocker().getInstance(CQLRewriteRule.class, "mergeRanges");
+        AQLStatement statement = AQLParser.parse("title ~ answer and created > now(\"-1d\") and created < now()");
+        CompiledCQLStatement compiled = queryConverter.compile(new AQLStatement(statement.getParserState(),
+            rule.rewrite(statement.getClausesWithNextOp()), Collections.emptyList()));
+        assertEquals(Collections.singletonList("{!cache=false}creationdate:{NOW-1DAYS TO NOW}"),
+            queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void duplicateClauses() throws Exception
+    {
+        assertEquals(
+            "(property.XWiki.TagClass.tags:a) AND (title_sort:b~)",
+            rewrite("duplicateClauses", "label = a and title ~ b and label = a"));
+        assertUnchanged("duplicateClauses", "label = a and not label = a");
+    }
+
+    @Test
+    void contradictions() throws Exception
+    {
+        assertEquals(
+            "(-*:*) AND (title_sort:b~)",
+            rewrite("contradictions", "type = page and title ~ b and type = blogpost"));
+        assertEquals("-*:*", rewrite("contradictions", "type = page and not type in (page, blogpost)"));
+        assertUnchanged("contradictions", "type in (page, blogpost) and type != page");
+        assertUnchanged("contradictions", "type = page or type = blogpost");
+        // Other types of contents are indexed, so excluding all the known types is not a contradiction.
+        assertUnchanged("contradictions", "type != page and type != blogpost");
+
+        assertEquals("-*:*", rewrite("contradictions", "space in (A, b) and space != A and space != b"));
+        assertEquals("-*:*", rewrite("contradictions", "space = a and space in (a, B) and space != a"));
+        // Keys differing only by their case may designate different spaces, or the same one.
+        assertUnchanged("contradictions", "space in (A, B) and space != a and space != b");
+        assertUnchanged("contradictions", "space = a and space = A");
+        assertUnchanged("contradictions", "space = currentSpace() and space = A");
+    }
+
+    @Test
+    void opposites() throws Exception
+    {
+        assertEquals(
+            "(-*:*) AND (title_sort:b~)",
+            rewrite("contradictions", "label = a and title ~ b and label != a"));
+        assertEquals("-*:*", rewrite("contradictions", "label = a and not label = a"));
+        assertEquals("-*:*", rewrite("contradictions", "title ~ a and title !~ a"));
+        assertEquals(
+            "(*:*) OR (title_sort:b~)",
+            rewrite("contradictions", "label in (a, b) or title ~ b or label not in (a, b)"));
+        assertUnchanged("contradictions", "label = a and label != b");
+        assertUnchanged("contradictions", "label = a and label = b or label != a");
+    }
+
+    @Test
+    void constants() throws Exception
+    {
+        assertEquals("property.XWiki.TagClass.tags:a", t("label = a and (type = page or type != page)"));
+        assertEquals("property.XWiki.TagClass.tags:a", t("label = a or (label = b and not label = b)"));
+        assertEquals("property.XWiki.TagClass.tags:a", t("label = a and not (type = page and type = blogpost)"));
+    }
+
+    @Test
+    void matchingNothing() throws Exception
+    {
+        CQLStatementRewriter rewriter = mockitoOldcore.getMocker().getInstance(CQLStatementRewriter.class);
+        assertTrue(queryConverter.compile(rewriter.rewrite(AQLParser.parse(
+            "(type = page and type = blogpost) or (created > 2024-02-01 and created < 2024-01-01 )")))
+            .isMatchingNothing());
+        assertTrue(queryConverter.compile(rewriter.rewrite(AQLParser.parse(
+            "label = a and title ~ b and space = A and space = B"))).isMatchingNothing());
+        assertFalse(queryConverter.compile(rewriter.rewrite(AQLParser.parse(
+            "label = a and title ~ b or type = page and type = blogpost"))).isMatchingNothing());
+        // AND binds tighter than OR.
+        assertTrue(queryConverter.compile(rewriter.rewrite(AQLParser.parse(
+            "label = a and (type = page and type = blogpost) or (created > 2024-02-01 and created < 2024-01-01 )")))
+            .isMatchingNothing());
+    }
+
+    @Test
+    void rewriteStatement() throws Exception
+    {
+        assertEquals(
+            "(property.XWiki.TagClass.tags:(a OR b)) AND (date:{NOW/WEEK TO NOW+WEEK/WEEK}) "
+                + "AND (property.XWiki.TagClass.tags:a)",
+            t("(label = a or label = b) and (lastmodified > startOfWeek() and lastmodified < endOfWeek())"
+                + " and label = a"));
+    }
+
+    @Test
+    void unchangedStatement() throws Exception
+    {
+        CQLStatementRewriter rewriter = mockitoOldcore.getMocker().getInstance(CQLStatementRewriter.class);
+        AQLStatement statement = AQLParser.parse("label = a and title ~ b order by title");
+        assertSame(statement, rewriter.rewrite(statement));
+    }
+}
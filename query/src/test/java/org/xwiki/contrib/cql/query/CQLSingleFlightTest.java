@@ -0,0 +1,227 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CQLSingleFlight;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CQLSingleFlight}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLSingleFlightTest
+{
+    private static final String WIKI = "xwiki";
+
+    @InjectMockComponents
+    private CQLSingleFlight singleFlight;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    private final Query query = mock(Query.class);
+
+    private final List<Object> result = Collections.singletonList("result");
+
+    private final AtomicInteger executions = new AtomicInteger();
+
+    @BeforeEach
+    void setUp()
+    {
+        when(this.configuration.isSingleFlightEnabled()).thenReturn(true);
+        when(this.configuration.getSingleFlightTimeout()).thenReturn(10000);
+
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWikiId()).thenReturn(WIKI);
+        when(xcontext.getUserReference()).thenReturn(new DocumentReference(WIKI, "XWiki", "User"));
+
+        when(this.query.getStatement()).thenReturn("property.XWiki.TagClass.tags:mytag");
+        when(this.query.getNamedParameters()).thenReturn(new HashMap<>());
+        when(this.query.getFilters()).thenReturn(Collections.emptyList());
+    }
+
+    /**
+     * Start an execution which blocks in Solr until the given latch is released, and then throws the given failure,
+     * if any.
+     */
+    private CompletableFuture<List<Object>> startBlockedExecution(CountDownLatch started, CountDownLatch release,
+        Throwable failure)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return this.singleFlight.execute(this.query, () -> {
+                    this.executions.incrementAndGet();
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new QueryException("Interrupted", this.query, e);
+                    }
+                    if (failure instanceof QueryException) {
+                        throw (QueryException) failure;
+                    } else if (failure instanceof Error) {
+                        throw (Error) failure;
+                    }
+                    return this.result;
+                });
+            } catch (QueryException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private List<Object> execute() throws QueryException
+    {
+        return this.singleFlight.execute(this.query, () -> {
+            this.executions.incrementAndGet();
+            return Collections.singletonList("own result");
+        });
+    }
+
+    /**
+     * Start an execution in a separate thread, and wait for it to wait for the result of the blocked execution.
+     */
+    private Thread startFollower(AtomicReference<List<Object>> followerResult) throws InterruptedException
+    {
+        Thread follower = new Thread(() -> {
+            try {
+                followerResult.set(execute());
+            } catch (QueryException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        follower.start();
+        while (follower.isAlive() && follower.getState() != Thread.State.TIMED_WAITING) {
+            Thread.sleep(1);
+        }
+        return follower;
+    }
+
+    @Test
+    void sharesTheResultOfAnIdenticalExecution() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Object>> leader = startBlockedExecution(started, release, null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicReference<List<Object>> followerResult = new AtomicReference<>();
+        Thread follower = startFollower(followerResult);
+        release.countDown();
+
+        assertSame(this.result, leader.get(10, TimeUnit.SECONDS));
+        follower.join(10000);
+        assertSame(this.result, followerResult.get());
+        assertEquals(1, this.executions.get());
+        assertEquals(1, this.singleFlight.getCollapsedCount());
+
+        // The flight is over, the next execution queries Solr.
+        assertEquals(Collections.singletonList("own result"), execute());
+    }
+
+    @Test
+    void queriesSolrWhenTheLeaderFails() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Object>> leader = startBlockedExecution(started, release,
+            new QueryException("Solr is down", this.query, null));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicReference<List<Object>> followerResult = new AtomicReference<>();
+        Thread follower = startFollower(followerResult);
+        release.countDown();
+
+        assertThrows(Exception.class, () -> leader.get(10, TimeUnit.SECONDS));
+        follower.join(10000);
+        assertEquals(Collections.singletonList("own result"), followerResult.get());
+        assertEquals(1, this.singleFlight.getLeaderFailureCount());
+    }
+
+    @Test
+    void queriesSolrWhenTheLeaderThrowsAnError() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Object>> leader =
+            startBlockedExecution(started, release, new StackOverflowError("Arbitrary error"));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        AtomicReference<List<Object>> followerResult = new AtomicReference<>();
+        Thread follower = startFollower(followerResult);
+        release.countDown();
+
+        assertThrows(Exception.class, () -> leader.get(10, TimeUnit.SECONDS));
+        // The follower doesn't wait until its timeout.
+        follower.join(5000);
+        assertEquals(Collections.singletonList("own result"), followerResult.get());
+        assertEquals(1, this.singleFlight.getLeaderFailureCount());
+    }
+
+    @Test
+    void queriesSolrAfterTheTimeout() throws Exception
+    {
+        when(this.configuration.getSingleFlightTimeout()).thenReturn(10);
+
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<List<Object>> leader = startBlockedExecution(started, release, null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        assertEquals(Collections.singletonList("own result"), execute());
+        assertEquals(1, this.singleFlight.getTimeoutCount());
+
+        release.countDown();
+        assertSame(this.result, leader.get(10, TimeUnit.SECONDS));
+    }
+}
@@ -20,22 +20,40 @@
 package org.xwiki.contrib.cql.query;
     
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.xwiki.contrib.cql.aqlparser.AQLParser;
 import org.xwiki.contrib.cql.query.converters.CQLToSolrQueryConverter;
+import org.xwiki.contrib.cql.query.converters.CompiledCQLStatement;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
 import org.xwiki.contrib.cql.aqlparser.exceptions.ParserException;
 import org.xwiki.contrib.cql.query.converters.DefaultCQLToSolrAtomConverter;
 import org.xwiki.contrib.cql.query.converters.internal.AncestorCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.CQLConverterRegistry;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdPrefetcher;
 import org.xwiki.contrib.cql.query.converters.internal.ConfluencePageClassConfluenceIdResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
 import org.xwiki.contrib.cql.query.converters.internal.ContentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.converters.internal.ContextSlotValueProvider;
 import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceIdResolver;
 import org.xwiki.contrib.cql.query.converters.internal.DefaultConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.internal.IndexConfluenceIdResolver;
 import org.xwiki.contrib.cql.query.converters.internal.ParentCQLToSolrAtomConverter;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -53,10 +71,14 @@ import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
 import com.xpn.xwiki.test.reference.ReferenceComponentList;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singletonList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -72,10 +94,16 @@ import static org.xwiki.query.Query.HQL;
     DefaultConfluenceIdResolver.class,
     DefaultConfluenceSpaceResolver.class,
     ConfluencePageClassConfluenceIdResolver.class,
+    IndexConfluenceIdResolver.class,
     AncestorCQLToSolrAtomConverter.class,
     ContentCQLToSolrAtomConverter.class,
     ParentCQLToSolrAtomConverter.class,
     DefaultCQLToSolrAtomConverter.class,
+    ContextSlotValueProvider.class,
+    CQLConverterRegistry.class,
+    ConfluenceIdPrefetcher.class,
+    ConfluenceIdCache.class,
+    ConfluenceSpaceCache.class,
     CQLToSolrQueryConverter.class
 })
 class CQLTest
@@ -136,6 +164,16 @@ class CQLTest
     @MockComponent
     private QueryManager queryManager;
 
+    // Leaves the Confluence id cache disabled, so each test resolves its ids.
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    // Disabled unless a test enables it, so the ids are resolved with HQL queries.
+    @MockComponent
+    private ConfluenceIdIndex idIndex;
+
+    private final AtomicInteger idQueryCount = new AtomicInteger();
+
     private String t(String cql) throws ParserException, IOException
     {
         return queryConverter.getSolrStatement(AQLParser.parse(cql));
@@ -155,7 +193,7 @@ class CQLTest
         mockitoOldcore.getXWikiContext().setDoc(new XWikiDocument(SUBPAGE_REF));
 
 
-        AtomicLong id = new AtomicLong();
+        AtomicReference<Object> id = new AtomicReference<>();
 
         Query mockQuery = mock(Query.class);
         when(mockQuery.bindValue(any(), any())).then(invocation -> {
@@ -166,7 +204,12 @@ class CQLTest
         when(mockQuery.setLimit(anyInt())).thenReturn(mockQuery);
         when(mockQuery.setWiki(any())).thenReturn(mockQuery);
         when(mockQuery.execute()).then(invocation -> {
-            switch ((int) id.get()) {
+            idQueryCount.incrementAndGet();
+            if (id.get() instanceof Collection) {
+                return getDocumentsByIds((Collection<?>) id.get(), mockQuery);
+            }
+
+            switch (((Long) id.get()).intValue()) {
                 case 42: return Collections.singletonList(THE_ANSWER_DOC);
                 case 1337: return Collections.singletonList(THE_LEET_DOC);
                 case 111: throw new QueryException("The query failed", mockQuery, new Exception("Arbitrary cause"));
@@ -177,6 +220,26 @@ class CQLTest
         when(queryManager.createQuery(any(), eq(HQL))).then(invocation -> mockQuery);
     }
 
+    private static List<Object[]> getDocumentsByIds(Collection<?> ids, Query mockQuery) throws QueryException
+    {
+        List<Object[]> results = new ArrayList<>();
+        for (Object id : ids) {
+            switch (((Long) id).intValue()) {
+                case 42:
+                    results.add(new Object[] { id, "MySpaceTests.MyPage.SubPage.TheAnswer.WebHome" });
+                    break;
+                case 1337:
+                    results.add(new Object[] { id, "MySpaceTests.MyPage.SubPage.LEET.WebHome" });
+                    break;
+                case 111:
+                    throw new QueryException("The query failed", mockQuery, new Exception("Arbitrary cause"));
+                default:
+                    break;
+            }
+        }
+        return results;
+    }
+
     @Test
     void testComplex() throws Exception
     {
@@ -227,6 +290,82 @@ class CQLTest
             t("type = blogpost AND created > startOfDay(\"-4d\") order by created desc"));
     }
 
+    @Test
+    void testCompiledStatementFollowsTheContext() throws Exception
+    {
+        CompiledCQLStatement compiled =
+            queryConverter.compile(AQLParser.parse("creator = currentUser() and space = currentSpace()"));
+        assertTrue(compiled.getSolrStatement().hasSlots());
+        assertEquals(
+            "(creator:*\\:XWiki.Guest) AND (space_facet:0\\/MySpaceTests.)",
+            queryConverter.getSolrStatement(compiled));
+
+        mockitoOldcore.getXWikiContext().setUserReference(new DocumentReference("xwiki", "XWiki", "Admin"));
+        assertEquals(
+            "(creator:*\\:XWiki.Admin) AND (space_facet:0\\/MySpaceTests.)",
+            queryConverter.getSolrStatement(compiled));
+    }
+
+    @Test
+    void testBindParameters() throws Exception
+    {
+        CompiledCQLStatement compiled = queryConverter.compile(
+            AQLParser.parse("space = :space and label = :tag and title ~ ? and created > ?"));
+        assertEquals(new HashSet<>(Arrays.asList("space", "tag")), compiled.getParameterNames());
+
+        Map<String, Object> namedValues = new HashMap<>();
+        namedValues.put("space", "ProjectA");
+        namedValues.put("tag", "my tag");
+        Map<Integer, Object> positionalValues = new HashMap<>();
+        positionalValues.put(1, "a(b");
+        positionalValues.put(2, new Date(0));
+        assertEquals(
+            "(space_facet:0\\/ProjectA.) AND (property.XWiki.TagClass.tags:my\\ tag) AND (title_sort:a\\(b~)"
+                + " AND (creationdate:{\"1970-01-01T00:00:00Z\" TO *])",
+            queryConverter.getSolrStatement(compiled, namedValues, positionalValues));
+
+        positionalValues.remove(2);
+        ConversionException thrown = assertThrows(ConversionException.class,
+            () -> queryConverter.getSolrStatement(compiled, namedValues, positionalValues));
+        assertEquals("No value bound for parameter [?2] (line 1, col 61, pos 60)", thrown.getMessage());
+    }
+
+    @Test
+    void testMixedPositionalParameters()
+    {
+        for (String cql : Arrays.asList("title = ?2 and label = ?", "title = ? and label = ?1")) {
+            ParserException thrown = assertThrows(ParserException.class, () -> AQLParser.parse(cql));
+            assertTrue(thrown.getMessage().startsWith(
+                "Parameters [?] and numbered parameters like [?1] cannot be used in the same statement (line 1,"));
+        }
+    }
+
+    @Test
+    void testDateParameters() throws Exception
+    {
+        CompiledCQLStatement compiled =
+            queryConverter.compile(AQLParser.parse("created > :from and lastmodified <= :to"));
+
+        Map<String, Object> namedValues = new HashMap<>();
+        namedValues.put("from", "2024-01-01");
+        namedValues.put("to", "2024/02/03 13:45");
+        assertEquals("(creationdate:{\"2024-01-01T00:00:00.000Z\" TO *])"
+                + " AND (date:[* TO \"2024-02-03T13:45:00.000Z\"])",
+            queryConverter.getSolrStatement(compiled, namedValues, emptyMap()));
+
+        namedValues.put("from", "yesterday");
+        ConversionException thrown = assertThrows(ConversionException.class,
+            () -> queryConverter.getSolrStatement(compiled, namedValues, emptyMap()));
+        assertEquals("Parameter [:from] must be bound to a date, got [yesterday] (line 1, col 11, pos 10)",
+            thrown.getMessage());
+    }
+
+    @Test
+    void testTypeParameter()
+    {
+        expectParserException("Parameters are not supported with field [type] (line 1, col 8, pos 7)", "type = :type");
+    }
+
     @Test
     void testTextAndSpaceFacet() throws Exception
     {
@@ -238,6 +377,123 @@ class CQLTest
             t("space in (ProjectA, ProjectB, ProjectC) AND label = mytag AND text ~ query"));
     }
 
+    @Test
+    void testFilterQueries() throws Exception
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled = queryConverter.compile(AQLParser.parse(
+            "space in (ProjectA, ProjectB, ProjectC) AND label = mytag AND text ~ query"
+                + " AND NOT creator = currentUser()"));
+        assertEquals(
+            "title_sort:query~ OR property.XWiki.TagClass.tags:query~ OR content:query~",
+            queryConverter.getSolrStatement(compiled));
+        assertEquals(Arrays.asList(
+            "space_facet:(0\\/ProjectA. OR 0\\/ProjectB. OR 0\\/ProjectC.)",
+            "property.XWiki.TagClass.tags:mytag",
+            "-(creator:*\\:XWiki.Guest)"),
+            queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void testExactCurrentTimeFilterQueriesNotCached() throws Exception
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled = queryConverter.compile(
+            AQLParser.parse("title ~ answer and created > now('-1d') and lastmodified > startOfDay()"));
+        assertEquals(Arrays.asList("{!cache=false}creationdate:{NOW-1DAYS TO *]", "date:{NOW/DAY TO *]"),
+            queryConverter.getSolrFilterQueries(compiled));
+
+        // Once rounded, the current time is the same for many executions.
+        when(configuration.getDateMathRounding()).thenReturn("HOUR");
+        compiled = queryConverter.compile(AQLParser.parse("title ~ answer and created > now('-1d')"));
+        assertEquals(Collections.singletonList("creationdate:{NOW/HOUR-1DAYS TO *]"),
+            queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void testDateMathRounding() throws Exception
+    {
+        when(configuration.getDateMathRounding()).thenReturn("MINUTE");
+        assertEquals("(creationdate:[* TO NOW/MINUTE}) AND (date:{NOW/DAY-1DAYS TO *])",
+            t("created < now() and lastmodified > startOfDay('-1d')"));
+    }
+
+    @Test
+    void testOnlyFilterQueries() throws Exception
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled =
+            queryConverter.compile(AQLParser.parse("(type = page or type = blogpost) and title ~ answer"));
+        assertEquals("title_sort:answer~", queryConverter.getSolrStatement(compiled));
+        assertEquals(1, compiled.getFilterQueries().size());
+
+        compiled = queryConverter.compile(AQLParser.parse("label = mytag"));
+        assertEquals("*:*", queryConverter.getSolrStatement(compiled));
+        assertEquals(Collections.singletonList("property.XWiki.TagClass.tags:mytag"),
+            queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void testNoFilterQueriesInDisjunctions() throws Exception
+    {
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled =
+            queryConverter.compile(AQLParser.parse("label = mytag and space = currentSpace() or title ~ answer"));
+        assertEquals(
+            "((property.XWiki.TagClass.tags:mytag) AND (space_facet:0\\/MySpaceTests.)) OR (title_sort:answer~)",
+            queryConverter.getSolrStatement(compiled));
+        assertEquals(emptyList(), queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void testOperatorPrecedence() throws Exception
+    {
+        // AND binds tighter than OR, NOT only applies to the clause following it.
+        assertEquals(
+            "(property.XWiki.TagClass.tags:a) OR ((property.XWiki.TagClass.tags:b) AND -(title_sort:c~))",
+            t("label = a or label = b and not title ~ c"));
+        assertEquals(
+            "((property.XWiki.TagClass.tags:a) AND (property.XWiki.TagClass.tags:b)) "
+                + "OR ((property.XWiki.TagClass.tags:c) AND -(property.XWiki.TagClass.tags:d)) "
+                + "OR (property.XWiki.TagClass.tags:e)",
+            t("label = a and label = b or label = c and not label = d or label = e"));
+        // A negated operand of OR matches all the documents but the excluded ones, instead of excluding them from
+        // the whole disjunction.
+        assertEquals("(property.XWiki.TagClass.tags:a) OR (*:* -(property.XWiki.TagClass.tags:b))",
+            t("label = a or not label = b"));
+        assertEquals(
+            "((property.XWiki.TagClass.tags:a) AND (property.XWiki.TagClass.tags:b)) "
+                + "OR (*:* -(property.XWiki.TagClass.tags:c))",
+            t("label = a and label = b or not label = c"));
+
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled = queryConverter.compile(
+            AQLParser.parse("label = a and (title ~ b or label = c and not title ~ d)"));
+        assertEquals("(title_sort:b~) OR ((property.XWiki.TagClass.tags:c) AND -(title_sort:d~))",
+            queryConverter.getSolrStatement(compiled));
+        assertEquals(singletonList("property.XWiki.TagClass.tags:a"), queryConverter.getSolrFilterQueries(compiled));
+    }
+
+    @Test
+    void testTermsQuery() throws Exception
+    {
+        when(configuration.getTermsQueryThreshold()).thenReturn(3);
+        assertEquals("property.XWiki.TagClass.tags:(a OR b)", t("label in (a, b)"));
+        assertEquals(
+            "{!terms f=property.XWiki.TagClass.tags v='a,b c,it\\'s'}",
+            t("label in (a, 'b c', \"it's\")"));
+        assertEquals("-{!terms f=space_facet v='0/A.,0/B.,0/C.'}", t("space not in (A, B, C)"));
+        // The terms are separated by commas, a value containing one requires a boolean query.
+        assertEquals("property.XWiki.TagClass.tags:(a OR b,c OR d)", t("label in (a, 'b,c', d)"));
+
+        when(configuration.isFilterQuerySplitEnabled()).thenReturn(true);
+        CompiledCQLStatement compiled =
+            queryConverter.compile(AQLParser.parse("label in (a, b, c) and title ~ answer"));
+        assertEquals("title_sort:answer~", queryConverter.getSolrStatement(compiled));
+        assertEquals(Collections.singletonList("{!terms f=property.XWiki.TagClass.tags v='a,b,c'}"),
+            queryConverter.getSolrFilterQueries(compiled));
+    }
+
     @Test
     void testTextEqual() throws Exception
     {
@@ -560,6 +816,57 @@ class CQLTest
             t("id not in (42, 1337)"));
     }
 
+    @Test
+    void testCQLIdsResolvedInOneQuery() throws Exception
+    {
+        assertEquals(
+            "(fullname:(MySpaceTests.MyPage.SubPage.TheAnswer.WebHome OR MySpaceTests.MyPage.SubPage.LEET.WebHome))"
+                + " OR (space_exact:MySpaceTests.MyPage.SubPage.TheAnswer)",
+            t("content in (42, 1337) or parent = 42"));
+        assertEquals(1, idQueryCount.get());
+    }
+
+    @Test
+    void testCQLIdsResolvedWithTheIndex() throws Exception
+    {
+        when(idIndex.isEnabled()).thenReturn(true);
+        when(idIndex.get(anyString(), eq(42L))).thenReturn("Indexed.TheAnswer");
+
+        // The ids which are not in the index are still resolved with HQL.
+        assertEquals(
+            "fullname:(Indexed.TheAnswer OR MySpaceTests.MyPage.SubPage.LEET.WebHome)",
+            t("content in (42, 1337)"));
+        assertEquals("fullname:Indexed.TheAnswer", t("content = 42"));
+        assertEquals(1, idQueryCount.get());
+    }
+
+    @Test
+    void testCQLIdsResolvedWithHQLWhileTheIndexIsNotLoaded() throws Exception
+    {
+        // The index returns nothing until the ids of the wiki are loaded.
+        when(idIndex.isEnabled()).thenReturn(true);
+
+        assertEquals(
+            "fullname:MySpaceTests.MyPage.SubPage.TheAnswer.WebHome",
+            t("content = 42"));
+        assertEquals(1, idQueryCount.get());
+    }
+
+    @Test
+    void testCQLIdsNotFoundInBatch()
+    {
+        expectParserException(
+            "Could not find the document matching Confluence id [222] (line 1, col 23, pos 22)",
+            "content = 42 or id in (1337, 222)");
+    }
+
+    @Test
+    void testQueryExceptionWhileHandlingConfluenceIDsInBatch()
+    {
+        ParserException thrown = assertThrows(ParserException.class, () -> t("parent in (42, 111)"));
+        assertTrue(thrown.getMessage().endsWith("(line 1, col 11, pos 10)"));
+    }
+
     @Test
     void testCQLContent() throws Exception
     {
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.converters.CQLToSolrFieldListConverter;
+import org.xwiki.contrib.cql.query.converters.ConversionException;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link CQLToSolrFieldListConverter}.
+ * @version $Id$
+ */
+@ComponentTest
+class CQLToSolrFieldListConverterTest
+{
+    private static final String DOCUMENT_FIELDS = "id,type,wiki,spaces,name,locale";
+
+    @InjectMockComponents
+    private CQLToSolrFieldListConverter fieldListConverter;
+
+    @Test
+    void alwaysFetchesTheFieldsIdentifyingTheDocuments() throws Exception
+    {
+        assertEquals(DOCUMENT_FIELDS, this.fieldListConverter.getSolrFieldList(Collections.emptyList()));
+    }
+
+    @Test
+    void convertsFields() throws Exception
+    {
+        assertEquals(DOCUMENT_FIELDS + ",title_*,creationdate,author",
+            this.fieldListConverter.getSolrFieldList(Arrays.asList("title", " Created ", "contributor", "user")));
+    }
+
+    @Test
+    void contentAndIdDesignateTheDocument() throws Exception
+    {
+        assertEquals(DOCUMENT_FIELDS, this.fieldListConverter.getSolrFieldList(Arrays.asList("content", "id")));
+        assertEquals(DOCUMENT_FIELDS + ",doccontentraw",
+            this.fieldListConverter.getSolrFieldList(Arrays.asList("content", "text")));
+    }
+
+    @Test
+    void failsOnUnknownFields()
+    {
+        ConversionException exception = assertThrows(ConversionException.class,
+            () -> this.fieldListConverter.getSolrFieldList(Arrays.asList("title", "body")));
+        assertTrue(exception.getMessage().startsWith("Field [body] cannot be returned"));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.xwiki.cache.Cache;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Mocks of XWiki caches backed by a map, for the tests of the components using caches.
+ * @version $Id$
+ */
+public final class CacheMocks
+{
+    private CacheMocks()
+    {
+    }
+
+    /**
+     * @param <T> the type of the cached values
+     * @return a cache keeping its entries in a map, without any eviction
+     */
+    public static <T> Cache<T> newCache()
+    {
+        Map<String, T> entries = new HashMap<>();
+        @SuppressWarnings("unchecked")
+        Cache<T> cache = mock(Cache.class);
+        doAnswer(invocation -> entries.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(cache).set(any(), any());
+        when(cache.get(any())).then(invocation -> entries.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> entries.remove(invocation.<String>getArgument(0))).when(cache).remove(any());
+        doAnswer(invocation -> {
+            entries.clear();
+            return null;
+        }).when(cache).removeAll();
+        return cache;
+    }
+}
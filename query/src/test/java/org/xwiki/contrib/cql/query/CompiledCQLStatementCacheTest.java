@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.contrib.cql.aqlparser.AQLParser;
+import org.xwiki.contrib.cql.query.converters.CompiledCQLStatement;
+import org.xwiki.contrib.cql.query.converters.SolrStatementTemplate;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CompiledCQLStatementCache;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CompiledCQLStatementCache}.
+ * @version $Id$
+ */
+@ComponentTest
+class CompiledCQLStatementCacheTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final CompiledCQLStatement COMPILED =
+        new CompiledCQLStatement(SolrStatementTemplate.compile("title:a"), null);
+
+    @InjectMockComponents
+    private CompiledCQLStatementCache compiledStatementCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getConversionCacheSize()).thenReturn(100);
+        when(this.cacheManager.createNewCache(any(LRUCacheConfiguration.class)))
+            .then(invocation -> CacheMocks.newCache());
+    }
+
+    @Test
+    void cachesConversionsPerWiki() throws Exception
+    {
+        assertNull(this.compiledStatementCache.get(WIKI, AQLParser.parse("title ~ a")));
+
+        this.compiledStatementCache.set(WIKI, AQLParser.parse("title ~ a"), COMPILED);
+
+        // The statement is parsed again at each execution when the parser cache is disabled.
+        assertSame(COMPILED, this.compiledStatementCache.get(WIKI, AQLParser.parse("title ~ a")));
+        // Ids and space keys are resolved in the current wiki.
+        assertNull(this.compiledStatementCache.get("otherwiki", AQLParser.parse("title ~ a")));
+        assertNull(this.compiledStatementCache.get(WIKI, AQLParser.parse("title ~ b")));
+
+        assertEquals(1, this.compiledStatementCache.getHitCount());
+        assertEquals(3, this.compiledStatementCache.getMissCount());
+        assertEquals(0.25, this.compiledStatementCache.getHitRate());
+    }
+
+    @Test
+    void sharesConversionsOfStatementsWithTheSameCanonicalText() throws Exception
+    {
+        this.compiledStatementCache.set(WIKI, AQLParser.parse("label = a and title ~ b"), COMPILED);
+
+        assertSame(COMPILED, this.compiledStatementCache.get(WIKI, AQLParser.parse("TITLE ~ 'b'  and  Label = a")));
+        assertNull(this.compiledStatementCache.get(WIKI, AQLParser.parse("label = a or title ~ b")));
+    }
+
+    @Test
+    void invalidatesConversions() throws Exception
+    {
+        this.compiledStatementCache.set(WIKI, AQLParser.parse("title ~ a"), COMPILED);
+        this.compiledStatementCache.set("otherwiki", AQLParser.parse("title ~ a"), COMPILED);
+
+        this.compiledStatementCache.invalidate();
+
+        assertNull(this.compiledStatementCache.get(WIKI, AQLParser.parse("title ~ a")));
+        assertNull(this.compiledStatementCache.get("otherwiki", AQLParser.parse("title ~ a")));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ConfluenceIdCache}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluenceIdCacheTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final DocumentReference DOC = new DocumentReference(WIKI, "Space", "Page");
+
+    @InjectMockComponents
+    private ConfluenceIdCache idCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getIdCacheSize()).thenReturn(100);
+        when(this.configuration.getIdCacheNegativeLifespan()).thenReturn(60);
+        when(this.cacheManager.createNewCache(any(LRUCacheConfiguration.class)))
+            .then(invocation -> CacheMocks.newCache());
+    }
+
+    @Test
+    void cachesFoundAndMissingIds()
+    {
+        assertNull(this.idCache.get(WIKI, 42));
+
+        this.idCache.set(WIKI, 42, DOC, this.idCache.getGeneration());
+        this.idCache.set(WIKI, 222, null, this.idCache.getGeneration());
+
+        assertSame(DOC, this.idCache.get(WIKI, 42));
+        assertSame(ConfluenceIdCache.NOT_FOUND, this.idCache.get(WIKI, 222));
+        // Ids are resolved per wiki.
+        assertNull(this.idCache.get("otherwiki", 42));
+
+        assertEquals(1, this.idCache.getHitCount());
+        assertEquals(1, this.idCache.getNegativeHitCount());
+        assertEquals(2, this.idCache.getMissCount());
+        assertEquals(0.5, this.idCache.getHitRate());
+    }
+
+    @Test
+    void invalidatesIds()
+    {
+        this.idCache.set(WIKI, 42, DOC, this.idCache.getGeneration());
+        this.idCache.set(WIKI, 222, null, this.idCache.getGeneration());
+
+        this.idCache.invalidate(WIKI, 42);
+        this.idCache.invalidate(WIKI, 222);
+
+        assertNull(this.idCache.get(WIKI, 42));
+        assertNull(this.idCache.get(WIKI, 222));
+        assertEquals(1, this.idCache.getInvalidationCount());
+    }
+
+    @Test
+    void doesNotCacheIdsResolvedDuringAnInvalidation()
+    {
+        long generation = this.idCache.getGeneration();
+        // A document holding the id changed while the id was resolved.
+        this.idCache.invalidate(WIKI, 42);
+        this.idCache.set(WIKI, 42, DOC, generation);
+        this.idCache.set(WIKI, 222, null, generation);
+
+        assertNull(this.idCache.get(WIKI, 42));
+        assertNull(this.idCache.get(WIKI, 222));
+
+        this.idCache.set(WIKI, 42, DOC, this.idCache.getGeneration());
+        assertSame(DOC, this.idCache.get(WIKI, 42));
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.ConfluenceIdIndexListener;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ConfluenceIdIndexListener}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluenceIdIndexListenerTest
+{
+    @InjectMockComponents
+    private ConfluenceIdIndexListener listener;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private ConfluenceIdIndex idIndex;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @BeforeEach
+    void setUp()
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getMainXWiki()).thenReturn("xwiki");
+    }
+
+    @Test
+    void loadsTheIdsOfTheWikisWhenReady()
+    {
+        when(this.configuration.isIdIndexEnabled()).thenReturn(true);
+
+        this.listener.onEvent(new ApplicationReadyEvent(), null, null);
+        verify(this.idIndex).load("xwiki");
+
+        this.listener.onEvent(new WikiReadyEvent("subwiki"), null, null);
+        verify(this.idIndex).load("subwiki");
+    }
+
+    @Test
+    void doesNothingWhenDisabled()
+    {
+        this.listener.onEvent(new ApplicationReadyEvent(), null, null);
+        this.listener.onEvent(new WikiReadyEvent("subwiki"), null, null);
+
+        verify(this.idIndex, never()).load(any());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.environment.Environment;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.xwiki.query.Query.HQL;
+
+/**
+ * Unit test for {@link ConfluenceIdIndex}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluenceIdIndexTest
+{
+    private static final String WIKI = "xwiki";
+
+    // More than two pages of ids.
+    private static final int ID_COUNT = 20001;
+
+    @InjectMockComponents
+    private ConfluenceIdIndex idIndex;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private Environment environment;
+
+    @MockComponent
+    private ExecutionContextManager executionContextManager;
+
+    @MockComponent
+    private Execution execution;
+
+    @TempDir
+    File permanentDirectory;
+
+    private final List<Object> lastIds = Collections.synchronizedList(new ArrayList<>());
+
+    @BeforeComponent
+    void configure()
+    {
+        when(this.configuration.isIdIndexEnabled()).thenReturn(true);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        when(this.environment.getPermanentDirectory()).thenReturn(this.permanentDirectory);
+
+        Query query = mock(Query.class);
+        Object[] lastId = new Object[1];
+        int[] limit = new int[1];
+        when(query.setWiki(WIKI)).thenReturn(query);
+        when(query.bindValue(eq("lastId"), any())).then(invocation -> {
+            lastId[0] = invocation.getArgument(1);
+            this.lastIds.add(lastId[0]);
+            return query;
+        });
+        when(query.setLimit(anyInt())).then(invocation -> {
+            limit[0] = invocation.getArgument(0);
+            return query;
+        });
+        // The ids are sorted, and each document holds two of them.
+        when(query.execute()).then(invocation -> {
+            List<Object[]> rows = new ArrayList<>();
+            for (long id = Math.max(0, (Long) lastId[0] + 1); id < ID_COUNT && rows.size() < limit[0]; id++) {
+                rows.add(new Object[] { id, "Space.Page" + id / 2 });
+            }
+            return rows;
+        });
+        when(this.queryManager.createQuery(anyString(), eq(HQL))).thenReturn(query);
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException
+    {
+        // The ids are loaded and saved in the background.
+        for (int i = 0; i < 1000 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+
+    @Test
+    void loadsTheIdsByPages() throws Exception
+    {
+        assertTrue(this.idIndex.isEnabled());
+
+        this.idIndex.load(WIKI);
+        waitFor(() -> this.idIndex.get(WIKI, 0) != null);
+
+        assertEquals("Space.Page0", this.idIndex.get(WIKI, 1));
+        assertEquals("Space.Page10000", this.idIndex.get(WIKI, ID_COUNT - 1));
+        assertNull(this.idIndex.get(WIKI, ID_COUNT));
+        // The next page starts after the last id of the previous one.
+        assertEquals(Arrays.asList(Long.MIN_VALUE, 9999L, 19999L), this.lastIds);
+
+        File snapshot = new File(this.permanentDirectory, "cql/ids/xwiki.1.ids");
+        waitFor(snapshot::exists);
+    }
+
+    @Test
+    void updatesTheIds() throws Exception
+    {
+        this.idIndex.load(WIKI);
+        waitFor(() -> this.idIndex.get(WIKI, 0) != null);
+
+        // A document gets a new id and loses another one.
+        this.idIndex.update(WIKI, Collections.singletonList(1L), Collections.singletonList(30000L), "Space.Page0");
+        // A new document.
+        this.idIndex.update(WIKI, Collections.emptyList(), Collections.singletonList(30001L), "Space.New");
+        // A deleted document.
+        this.idIndex.update(WIKI, Arrays.asList(2L, 3L), Collections.emptyList(), "Space.Page1");
+
+        assertEquals("Space.Page0", this.idIndex.get(WIKI, 0));
+        assertNull(this.idIndex.get(WIKI, 1));
+        assertNull(this.idIndex.get(WIKI, 2));
+        assertNull(this.idIndex.get(WIKI, 3));
+        assertEquals("Space.Page0", this.idIndex.get(WIKI, 30000));
+        assertEquals("Space.New", this.idIndex.get(WIKI, 30001));
+    }
+
+    @Test
+    void ignoresTheUpdatesOfWikisNotLoaded()
+    {
+        this.idIndex.update("otherwiki", Collections.emptyList(), Collections.singletonList(1L), "Space.Page");
+
+        assertEquals(0, this.idIndex.getMemoryFootprint("otherwiki"));
+    }
+}
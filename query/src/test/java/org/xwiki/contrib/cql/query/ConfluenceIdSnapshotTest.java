@@ -0,0 +1,97 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdSnapshot;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit test for {@link ConfluenceIdSnapshot}.
+ * @version $Id$
+ */
+class ConfluenceIdSnapshotTest
+{
+    @TempDir
+    File directory;
+
+    private File write(long... ids) throws IOException
+    {
+        File file = new File(directory, "ids/xwiki.ids");
+        try (ConfluenceIdSnapshot.Writer writer = new ConfluenceIdSnapshot.Writer(file, 1)) {
+            for (long id : ids) {
+                writer.add(id, "Space.Page" + id + "\u00e9");
+            }
+            writer.commit();
+        }
+        return file;
+    }
+
+    @Test
+    void looksUpIds() throws IOException
+    {
+        ConfluenceIdSnapshot snapshot = ConfluenceIdSnapshot.open(write(-5, 0, 42, 1337, 65536));
+
+        assertEquals(5, snapshot.size());
+        assertEquals("Space.Page-5\u00e9", snapshot.get(-5));
+        assertEquals("Space.Page42\u00e9", snapshot.get(42));
+        assertEquals("Space.Page65536\u00e9", snapshot.get(65536));
+        assertEquals(3, snapshot.indexOf(1337));
+        assertNull(snapshot.get(43));
+        assertNull(snapshot.get(Long.MAX_VALUE));
+
+        // Only the snapshot is left in the directory.
+        assertEquals(1, new File(directory, "ids").list().length);
+    }
+
+    @Test
+    void emptySnapshot() throws IOException
+    {
+        ConfluenceIdSnapshot snapshot = ConfluenceIdSnapshot.open(write());
+        assertEquals(0, snapshot.size());
+        assertNull(snapshot.get(42));
+    }
+
+    @Test
+    void rejectsUnsortedIds()
+    {
+        assertThrows(IllegalArgumentException.class, () -> write(42, 1));
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException
+    {
+        File file = write(1, 2, 3);
+        byte[] content = Files.readAllBytes(file.toPath());
+        File truncated = new File(directory, "truncated.ids");
+        Files.write(truncated.toPath(), Arrays.copyOf(content, content.length - 1));
+
+        assertThrows(IOException.class, () -> ConfluenceIdSnapshot.open(truncated));
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdWikiIndex;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit test for {@link ConfluenceIdWikiIndex}.
+ * @version $Id$
+ */
+class ConfluenceIdWikiIndexTest
+{
+    private static final String WIKI = "xwiki";
+
+    @TempDir
+    File directory;
+
+    private ConfluenceIdWikiIndex newIndex() throws IOException
+    {
+        ConfluenceIdWikiIndex index = new ConfluenceIdWikiIndex(this.directory, WIKI);
+        index.openSnapshot();
+        return index;
+    }
+
+    /**
+     * Save a snapshot with the ids 1 to 3, held by the documents A to C.
+     */
+    private void saveSnapshot() throws IOException
+    {
+        ConfluenceIdWikiIndex index = newIndex();
+        index.load(1, "A");
+        index.load(2, "B");
+        index.load(3, "C");
+        index.endLoad();
+        index.saveSnapshot();
+    }
+
+    @Test
+    void loadsIds() throws IOException
+    {
+        ConfluenceIdWikiIndex index = newIndex();
+        assertFalse(index.isReady());
+
+        index.load(1, "A");
+        index.load(2, "B");
+        // The first document holding an id wins.
+        index.load(2, "C");
+        index.endLoad();
+
+        assertTrue(index.isReady());
+        assertEquals("A", index.get(1));
+        assertEquals("B", index.get(2));
+        assertNull(index.get(3));
+        assertTrue(index.hasChanges());
+    }
+
+    @Test
+    void savesAndOpensSnapshots() throws IOException
+    {
+        saveSnapshot();
+        assertArrayEquals(new String[] { "xwiki.1.ids" }, this.directory.list());
+
+        ConfluenceIdWikiIndex index = newIndex();
+        // The snapshot is used until the ids are loaded again.
+        assertTrue(index.isReady());
+        assertEquals("A", index.get(1));
+        assertEquals("C", index.get(3));
+        assertFalse(index.hasChanges());
+
+        index.load(1, "A");
+        index.load(2, "B");
+        index.load(3, "C");
+        index.endLoad();
+        assertFalse(index.hasChanges());
+    }
+
+    @Test
+    void mergesTheLoadedIdsWithTheSnapshot() throws IOException
+    {
+        saveSnapshot();
+        ConfluenceIdWikiIndex index = newIndex();
+
+        index.load(2, "B2");
+        index.load(4, "D");
+        index.endLoad();
+
+        // 1 and 3 were not loaded from the database anymore.
+        assertNull(index.get(1));
+        assertEquals("B2", index.get(2));
+        assertNull(index.get(3));
+        assertEquals("D", index.get(4));
+
+        index.saveSnapshot();
+        // Each snapshot is written to a new file, and the previous one is deleted.
+        assertArrayEquals(new String[] { "xwiki.2.ids" }, this.directory.list());
+        assertFalse(index.hasChanges());
+
+        index = newIndex();
+        assertNull(index.get(1));
+        assertEquals("B2", index.get(2));
+        assertNull(index.get(3));
+        assertEquals("D", index.get(4));
+    }
+
+    @Test
+    void keepsTheIdsChangedWhileLoading() throws IOException
+    {
+        saveSnapshot();
+        ConfluenceIdWikiIndex index = newIndex();
+
+        index.load(1, "A");
+        // Events received while the ids are being loaded from the database, which might have been read before.
+        index.update(Collections.singletonList(2L), Collections.emptyList(), "B");
+        index.update(Collections.singletonList(3L), Arrays.asList(3L, 5L), "E");
+        index.update(Collections.emptyList(), Collections.singletonList(4L), "F");
+        index.load(2, "B");
+        index.load(3, "C");
+        index.load(4, "D");
+        index.endLoad();
+
+        assertEquals("A", index.get(1));
+        assertNull(index.get(2));
+        assertEquals("E", index.get(3));
+        assertEquals("F", index.get(4));
+        assertEquals("E", index.get(5));
+
+        // Updates after the loading always apply.
+        index.update(Collections.singletonList(1L), Collections.emptyList(), "A");
+        assertNull(index.get(1));
+    }
+
+    @Test
+    void keepsTheIdsRemovedBeforeTheSnapshotIsOpened() throws IOException
+    {
+        saveSnapshot();
+        ConfluenceIdWikiIndex index = new ConfluenceIdWikiIndex(this.directory, WIKI);
+
+        index.update(Collections.singletonList(2L), Collections.emptyList(), "B");
+        index.openSnapshot();
+
+        assertEquals("A", index.get(1));
+        assertNull(index.get(2));
+        assertEquals("C", index.get(3));
+    }
+
+    @Test
+    void keepsTheIdsChangedWhileSaving() throws Exception
+    {
+        ConfluenceIdWikiIndex index = newIndex();
+        for (long id = 0; id < 1000; id++) {
+            index.load(id, "Page" + id);
+        }
+        index.endLoad();
+
+        CompletableFuture<Void> saving = CompletableFuture.runAsync(() -> {
+            try {
+                for (int i = 0; i < 20; i++) {
+                    index.saveSnapshot();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        for (long id = 0; id < 1000; id++) {
+            index.update(Collections.singletonList(id), id % 2 == 0 ? Collections.emptyList()
+                : Collections.singletonList(id + 1000), "Updated" + id);
+        }
+        saving.get();
+
+        for (long id = 0; id < 1000; id++) {
+            assertNull(index.get(id));
+            assertEquals(id % 2 == 0 ? null : "Updated" + id, index.get(id + 1000));
+        }
+
+        index.saveSnapshot();
+        ConfluenceIdWikiIndex reopened = newIndex();
+        for (long id = 0; id < 1000; id++) {
+            assertNull(reopened.get(id));
+            assertEquals(id % 2 == 0 ? null : "Updated" + id, reopened.get(id + 1000));
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdCache;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.contrib.cql.query.internal.CompiledCQLStatementCache;
+import org.xwiki.contrib.cql.query.internal.ConfluencePageClassListener;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.internal.event.XObjectAddedEvent;
+import com.xpn.xwiki.internal.event.XObjectDeletedEvent;
+import com.xpn.xwiki.internal.event.XObjectUpdatedEvent;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseObjectReference;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ConfluencePageClassListener}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluencePageClassListenerTest
+{
+    private static final String WIKI = "mywiki";
+
+    private static final String CONFLUENCE_PAGE_CLASS = "Confluence.Code.ConfluencePageClass";
+
+    private static final DocumentReference DOC_REF = new DocumentReference(WIKI, "Space", "Page");
+
+    @InjectMockComponents
+    private ConfluencePageClassListener listener;
+
+    @MockComponent
+    private ConfluenceIdCache idCache;
+
+    @MockComponent
+    private CompiledCQLStatementCache compiledStatementCache;
+
+    @MockComponent
+    private ConfluenceIdIndex idIndex;
+
+    @MockComponent
+    @Named("local")
+    private EntityReferenceSerializer<String> serializer;
+
+    private XWikiDocument mockDocument(XWikiDocument originalDocument, Long... ids)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(DOC_REF);
+        when(doc.getOriginalDocument()).thenReturn(originalDocument);
+        List<BaseObject> objects = new ArrayList<>();
+        for (Long id : ids) {
+            BaseObject object = mock(BaseObject.class);
+            when(object.getLongValue("id")).thenReturn(id);
+            objects.add(object);
+        }
+        // Deleted objects leave holes in the list.
+        objects.add(null);
+        when(doc.getXObjects(any(EntityReference.class))).thenReturn(objects);
+        when(this.serializer.serialize(DOC_REF)).thenReturn("Space.Page");
+        return doc;
+    }
+
+    @Test
+    void listensToTheConfluencePageClassObjects()
+    {
+        BaseObjectReference objectReference =
+            new BaseObjectReference(new DocumentReference(WIKI, Arrays.asList("Confluence", "Code"),
+                "ConfluencePageClass"), 0, DOC_REF);
+        assertTrue(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new XObjectAddedEvent(objectReference))));
+        assertTrue(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new XObjectUpdatedEvent(objectReference))));
+        assertTrue(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new XObjectDeletedEvent(objectReference))));
+        assertFalse(this.listener.getEvents().stream()
+            .anyMatch(event -> event.matches(new XObjectAddedEvent(BaseObjectReference.any("XWiki.TagClass")))));
+    }
+
+    @Test
+    void objectAdded()
+    {
+        XWikiDocument doc = mockDocument(mockDocument(null), 42L);
+
+        this.listener.onEvent(new XObjectAddedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)), doc, null);
+
+        verify(this.idCache).invalidate(WIKI, 42L);
+        verify(this.compiledStatementCache).invalidate();
+        verify(this.idIndex).update(WIKI, Collections.emptySet(), Collections.singleton(42L), "Space.Page");
+    }
+
+    @Test
+    void objectUpdatedWithAnotherId()
+    {
+        XWikiDocument doc = mockDocument(mockDocument(null, 42L), 1337L);
+
+        this.listener.onEvent(new XObjectUpdatedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)), doc, null);
+
+        // Both the old and the new id could be cached, as found or as not found.
+        verify(this.idCache).invalidate(WIKI, 42L);
+        verify(this.idCache).invalidate(WIKI, 1337L);
+        verify(this.compiledStatementCache).invalidate();
+        verify(this.idIndex).update(WIKI, Collections.singleton(42L), Collections.singleton(1337L), "Space.Page");
+    }
+
+    @Test
+    void objectDeleted()
+    {
+        XWikiDocument doc = mockDocument(mockDocument(null, 42L, 1337L), 1337L);
+
+        this.listener.onEvent(new XObjectDeletedEvent(BaseObjectReference.any(CONFLUENCE_PAGE_CLASS)), doc, null);
+
+        verify(this.idCache).invalidate(WIKI, 42L);
+        verify(this.idCache).invalidate(WIKI, 1337L);
+        verify(this.compiledStatementCache).invalidate();
+        verify(this.idIndex).update(WIKI, Collections.singleton(42L), Collections.singleton(1337L), "Space.Page");
+    }
+
+    @Test
+    void documentDeleted()
+    {
+        // The deleted document is empty, its content is in the original document.
+        XWikiDocument doc = mockDocument(mockDocument(null, 42L));
+
+        this.listener.onEvent(new DocumentDeletedEvent(DOC_REF), doc, null);
+
+        verify(this.idCache).invalidate(WIKI, 42L);
+        verify(this.compiledStatementCache).invalidate();
+        verify(this.idIndex).update(WIKI, Collections.singleton(42L), Collections.emptySet(), "Space.Page");
+    }
+
+    @Test
+    void ignoresDocumentsWithoutConfluenceIds()
+    {
+        this.listener.onEvent(new DocumentDeletedEvent(DOC_REF), mockDocument(mockDocument(null)), null);
+
+        verify(this.idCache, never()).invalidate(anyString(), anyLong());
+        verify(this.compiledStatementCache, never()).invalidate();
+        verify(this.idIndex, never()).update(any(), any(), any(), any());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Arrays;
+
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.InOrder;
+import org.xwiki.bridge.event.ApplicationReadyEvent;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiReadyEvent;
+import org.xwiki.contrib.cql.query.converters.ConfluenceSpaceResolver;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.contrib.cql.query.internal.CompiledCQLStatementCache;
+import org.xwiki.contrib.cql.query.internal.ConfluenceSpaceCacheListener;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceProvider;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.xwiki.query.Query.HQL;
+
+/**
+ * Unit test for {@link ConfluenceSpaceCacheListener}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluenceSpaceCacheListenerTest
+{
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private ConfluenceSpaceCacheListener listener;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @MockComponent
+    private ConfluenceSpaceCache spaceCache;
+
+    @MockComponent
+    private CompiledCQLStatementCache compiledStatementCache;
+
+    @MockComponent
+    private ConfluenceSpaceResolver spaceResolver;
+
+    @MockComponent
+    private QueryManager queryManager;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @MockComponent
+    private EntityReferenceProvider defaultEntityReferenceProvider;
+
+    private XWikiContext xcontext;
+
+    private Query query;
+
+    @BeforeEach
+    void setUp() throws Exception
+    {
+        this.xcontext = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+        when(this.xcontext.getWikiId()).thenReturn("currentwiki");
+        when(this.defaultEntityReferenceProvider.getDefaultReference(EntityType.DOCUMENT))
+            .thenReturn(new EntityReference("WebHome", EntityType.DOCUMENT));
+
+        this.query = mock(Query.class);
+        when(this.queryManager.createQuery(anyString(), eq(HQL))).thenReturn(this.query);
+        when(this.query.setWiki(any())).thenReturn(this.query);
+        when(this.query.execute()).thenReturn(Arrays.asList("SPA", "LEET"));
+    }
+
+    private static XWikiDocument mockDocument(DocumentReference documentReference)
+    {
+        XWikiDocument doc = mock(XWikiDocument.class);
+        when(doc.getDocumentReference()).thenReturn(documentReference);
+        return doc;
+    }
+
+    @Test
+    void invalidatesWhenASpaceHomeChanges()
+    {
+        this.listener.onEvent(new DocumentCreatedEvent(),
+            mockDocument(new DocumentReference("xwiki", "SPA", "WebHome")), null);
+        // A space resolver may read the key of the space from its home page.
+        this.listener.onEvent(new DocumentUpdatedEvent(),
+            mockDocument(new DocumentReference("xwiki", "SPA", "WebHome")), null);
+        this.listener.onEvent(new DocumentDeletedEvent(),
+            mockDocument(new DocumentReference("xwiki", Arrays.asList("SPA", "Page"), "WebHome")), null);
+
+        verify(this.spaceCache, times(3)).invalidate();
+        verify(this.compiledStatementCache, times(3)).invalidate();
+    }
+
+    @Test
+    void ignoresOtherDocuments()
+    {
+        this.listener.onEvent(new DocumentCreatedEvent(),
+            mockDocument(new DocumentReference("xwiki", "SPA", "Page")), null);
+        this.listener.onEvent(new DocumentUpdatedEvent(),
+            mockDocument(new DocumentReference("xwiki", "SPA", "Page")), null);
+
+        verify(this.spaceCache, never()).invalidate();
+        verify(this.compiledStatementCache, never()).invalidate();
+    }
+
+    @Test
+    void prewarmsTheRootSpacesOfTheReadyWikis() throws Exception
+    {
+        when(this.configuration.isSpaceCachePrewarmEnabled()).thenReturn(true);
+        when(this.spaceCache.isEnabled()).thenReturn(true);
+
+        this.listener.onEvent(new ApplicationReadyEvent(), null, null);
+        this.listener.onEvent(new WikiReadyEvent("subwiki"), null, null);
+
+        verify(this.query).setWiki("xwiki");
+        verify(this.query).setWiki("subwiki");
+        verify(this.spaceResolver, times(2)).getSpaceByKey(null, "SPA");
+        verify(this.spaceResolver, times(2)).getSpaceByKey(null, "LEET");
+        // The space keys are resolved in the wiki being prewarmed.
+        InOrder inOrder = inOrder(this.xcontext, this.spaceResolver);
+        inOrder.verify(this.xcontext).setWikiId("subwiki");
+        inOrder.verify(this.spaceResolver).getSpaceByKey(null, "SPA");
+        inOrder.verify(this.xcontext).setWikiId("currentwiki");
+    }
+
+    @Test
+    void restoresTheCurrentWikiWhenThePrewarmFails() throws Exception
+    {
+        when(this.configuration.isSpaceCachePrewarmEnabled()).thenReturn(true);
+        when(this.spaceCache.isEnabled()).thenReturn(true);
+        when(this.query.execute()).thenThrow(new QueryException("The query failed", this.query, null));
+
+        this.listener.onEvent(new WikiReadyEvent("subwiki"), null, null);
+
+        verify(this.xcontext).setWikiId("currentwiki");
+        verify(this.spaceResolver, never()).getSpaceByKey(any(), any());
+        assertEquals(1, this.logCapture.size());
+        assertEquals("Failed to fill the Confluence space cache of wiki [subwiki]", this.logCapture.getMessage(0));
+    }
+
+    @Test
+    void doesNotPrewarmWhenDisabled() throws Exception
+    {
+        // The cache is enabled, but not its prewarm.
+        when(this.spaceCache.isEnabled()).thenReturn(true);
+        this.listener.onEvent(new ApplicationReadyEvent(), null, null);
+
+        // The prewarm is enabled, but not the cache.
+        when(this.configuration.isSpaceCachePrewarmEnabled()).thenReturn(true);
+        when(this.spaceCache.isEnabled()).thenReturn(false);
+        this.listener.onEvent(new WikiReadyEvent("subwiki"), null, null);
+
+        verify(this.queryManager, never()).createQuery(any(), any());
+        verify(this.spaceResolver, never()).getSpaceByKey(any(), any());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceSpaceCache;
+import org.xwiki.contrib.cql.query.internal.CQLConfiguration;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.test.annotation.BeforeComponent;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link ConfluenceSpaceCache}.
+ * @version $Id$
+ */
+@ComponentTest
+class ConfluenceSpaceCacheTest
+{
+    private static final String WIKI = "xwiki";
+
+    private static final SpaceReference SPACE = new SpaceReference(WIKI, "SPA");
+
+    @InjectMockComponents
+    private ConfluenceSpaceCache spaceCache;
+
+    @MockComponent
+    private CacheManager cacheManager;
+
+    @MockComponent
+    private CQLConfiguration configuration;
+
+    @BeforeComponent
+    void configure() throws Exception
+    {
+        when(this.configuration.getSpaceCacheSize()).thenReturn(100);
+        when(this.cacheManager.createNewCache(any(LRUCacheConfiguration.class)))
+            .then(invocation -> CacheMocks.newCache());
+    }
+
+    @Test
+    void cachesSpacesByKeyAndByDocument()
+    {
+        assertTrue(this.spaceCache.isEnabled());
+        assertNull(this.spaceCache.getSpaceByKey(WIKI, "SPA"));
+
+        this.spaceCache.setSpaceByKey(WIKI, "SPA", SPACE);
+        this.spaceCache.setSpaceByDocument("xwiki:SPA.Page.WebHome", SPACE);
+
+        assertSame(SPACE, this.spaceCache.getSpaceByKey(WIKI, "SPA"));
+        // Space keys are resolved per wiki.
+        assertNull(this.spaceCache.getSpaceByKey("otherwiki", "SPA"));
+        assertSame(SPACE, this.spaceCache.getSpaceByDocument("xwiki:SPA.Page.WebHome"));
+
+        assertEquals(1, this.spaceCache.getKeyHitCount());
+        assertEquals(2, this.spaceCache.getKeyMissCount());
+        assertEquals(1, this.spaceCache.getDocumentHitCount());
+        assertEquals(0, this.spaceCache.getDocumentMissCount());
+    }
+
+    @Test
+    void invalidatesSpaces()
+    {
+        this.spaceCache.setSpaceByKey(WIKI, "SPA", SPACE);
+        this.spaceCache.setSpaceByDocument("xwiki:SPA.Page.WebHome", SPACE);
+
+        this.spaceCache.invalidate();
+
+        assertNull(this.spaceCache.getSpaceByKey(WIKI, "SPA"));
+        assertNull(this.spaceCache.getSpaceByDocument("xwiki:SPA.Page.WebHome"));
+        assertEquals(1, this.spaceCache.getInvalidationCount());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import javax.inject.Named;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.cql.query.internal.DefaultCQLConfiguration;
+import org.xwiki.test.LogLevel;
+import org.xwiki.test.junit5.LogCaptureExtension;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link DefaultCQLConfiguration}.
+ * @version $Id$
+ */
+@ComponentTest
+class DefaultCQLConfigurationTest
+{
+    private static final String DATE_MATH_ROUNDING = "cql.dateMath.rounding";
+
+    @RegisterExtension
+    private LogCaptureExtension logCapture = new LogCaptureExtension(LogLevel.WARN);
+
+    @InjectMockComponents
+    private DefaultCQLConfiguration configuration;
+
+    @MockComponent
+    @Named("xwikiproperties")
+    private ConfigurationSource configurationSource;
+
+    @Test
+    void dateMathRounding()
+    {
+        assertNull(this.configuration.getDateMathRounding());
+
+        when(this.configurationSource.getProperty(DATE_MATH_ROUNDING, String.class)).thenReturn(" hour ");
+        assertEquals("HOUR", this.configuration.getDateMathRounding());
+
+        when(this.configurationSource.getProperty(DATE_MATH_ROUNDING, String.class)).thenReturn("none");
+        assertNull(this.configuration.getDateMathRounding());
+    }
+
+    @Test
+    void invalidDateMathRounding()
+    {
+        when(this.configurationSource.getProperty(DATE_MATH_ROUNDING, String.class)).thenReturn("DAY}");
+
+        assertNull(this.configuration.getDateMathRounding());
+        // The invalid value is only reported once.
+        assertNull(this.configuration.getDateMathRounding());
+
+        assertEquals(1, this.logCapture.size());
+        assertEquals("Invalid value [DAY}] for [cql.dateMath.rounding], it should be one of "
+            + "[SECOND, MINUTE, HOUR, DAY, MONTH, YEAR]. The current time won't be rounded.",
+            this.logCapture.getMessage(0));
+    }
+}
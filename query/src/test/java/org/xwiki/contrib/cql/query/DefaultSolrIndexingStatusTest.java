@@ -0,0 +1,58 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.internal.DefaultSolrIndexingStatus;
+import org.xwiki.search.solr.internal.api.SolrIndexer;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link DefaultSolrIndexingStatus}.
+ * @version $Id$
+ */
+@ComponentTest
+class DefaultSolrIndexingStatusTest
+{
+    @InjectMockComponents
+    private DefaultSolrIndexingStatus solrIndexingStatus;
+
+    @MockComponent
+    private SolrIndexer solrIndexer;
+
+    @Test
+    void isIndexingUntilTheLastQueuedDocumentsAreCommitted()
+    {
+        assertFalse(this.solrIndexingStatus.isIndexing());
+
+        when(this.solrIndexer.getQueueSize()).thenReturn(3);
+        assertTrue(this.solrIndexingStatus.isIndexing());
+
+        // The last documents taken from the queue are not committed right away.
+        when(this.solrIndexer.getQueueSize()).thenReturn(0);
+        assertTrue(this.solrIndexingStatus.isIndexing());
+    }
+}
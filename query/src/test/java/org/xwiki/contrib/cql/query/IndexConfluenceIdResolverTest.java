@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.inject.Named;
+import javax.inject.Provider;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.converters.internal.ConfluenceIdIndex;
+import org.xwiki.contrib.cql.query.converters.internal.IndexConfluenceIdResolver;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.test.junit5.mockito.ComponentTest;
+import org.xwiki.test.junit5.mockito.InjectMockComponents;
+import org.xwiki.test.junit5.mockito.MockComponent;
+
+import com.xpn.xwiki.XWikiContext;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link IndexConfluenceIdResolver}.
+ * @version $Id$
+ */
+@ComponentTest
+class IndexConfluenceIdResolverTest
+{
+    private static final String WIKI = "mywiki";
+
+    private static final DocumentReference DOC = new DocumentReference(WIKI, "Space", "Page");
+
+    @InjectMockComponents
+    private IndexConfluenceIdResolver resolver;
+
+    @MockComponent
+    private ConfluenceIdIndex idIndex;
+
+    @MockComponent
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @MockComponent
+    private Provider<XWikiContext> contextProvider;
+
+    @BeforeEach
+    void setUp()
+    {
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(this.contextProvider.get()).thenReturn(xcontext);
+        when(xcontext.getWikiId()).thenReturn(WIKI);
+        when(this.documentReferenceResolver.resolve("Space.Page", new WikiReference(WIKI))).thenReturn(DOC);
+    }
+
+    @Test
+    void resolvesIdsWithTheIndex() throws Exception
+    {
+        when(this.idIndex.isEnabled()).thenReturn(true);
+        when(this.idIndex.get(WIKI, 42)).thenReturn("Space.Page");
+
+        assertEquals(DOC, this.resolver.getDocumentById(null, 42));
+        // The ids which are not found are left to the next resolvers.
+        assertNull(this.resolver.getDocumentById(null, 1337));
+        assertEquals(Collections.singletonMap(42L, DOC),
+            this.resolver.getDocumentsByIds(null, Arrays.asList(42L, 1337L)));
+    }
+
+    @Test
+    void leavesIdsToTheNextResolversWhenNotLoaded() throws Exception
+    {
+        // The index returns nothing while the ids of the wiki are being loaded.
+        when(this.idIndex.isEnabled()).thenReturn(true);
+
+        assertNull(this.resolver.getDocumentById(null, 42));
+        assertTrue(this.resolver.getDocumentsByIds(null, Arrays.asList(42L, 1337L)).isEmpty());
+    }
+
+    @Test
+    void leavesIdsToTheNextResolversWhenDisabled() throws Exception
+    {
+        assertNull(this.resolver.getDocumentById(null, 42));
+        assertTrue(this.resolver.getDocumentsByIds(null, Arrays.asList(42L, 1337L)).isEmpty());
+        verify(this.idIndex, never()).get(anyString(), anyLong());
+    }
+}
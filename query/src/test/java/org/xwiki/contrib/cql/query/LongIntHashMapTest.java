@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.converters.internal.LongIntHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.xwiki.contrib.cql.query.converters.internal.LongIntHashMap.NO_VALUE;
+
+/**
+ * Unit test for {@link LongIntHashMap}.
+ * @version $Id$
+ */
+class LongIntHashMapTest
+{
+    @Test
+    void putGetRemove()
+    {
+        LongIntHashMap map = new LongIntHashMap(0);
+        assertEquals(NO_VALUE, map.get(42));
+        assertEquals(NO_VALUE, map.put(42, 1));
+        assertEquals(NO_VALUE, map.put(0, 2));
+        assertEquals(NO_VALUE, map.put(-1, 3));
+        assertEquals(1, map.put(42, 4));
+        assertEquals(3, map.size());
+
+        assertEquals(4, map.get(42));
+        assertEquals(2, map.get(0));
+        assertEquals(3, map.get(-1));
+
+        assertEquals(2, map.remove(0));
+        assertEquals(NO_VALUE, map.remove(0));
+        assertEquals(4, map.remove(42));
+        assertEquals(NO_VALUE, map.get(42));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    void behavesLikeAHashMap()
+    {
+        Random random = new Random(42);
+        LongIntHashMap map = new LongIntHashMap(0);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            // A small range of keys, to get many collisions and removals in the middle of probe sequences.
+            long key = random.nextInt(5000) - 10;
+            int value = random.nextInt(1000);
+            Integer previous;
+            switch (random.nextInt(3)) {
+                case 0:
+                    previous = expected.put(key, value);
+                    assertEquals(previous == null ? NO_VALUE : previous, map.put(key, value));
+                    break;
+                case 1:
+                    previous = expected.remove(key);
+                    assertEquals(previous == null ? NO_VALUE : previous, map.remove(key));
+                    break;
+                default:
+                    previous = expected.get(key);
+                    assertEquals(previous == null ? NO_VALUE : previous, map.get(key));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+    }
+
+    @Test
+    void holdsAMillionIds()
+    {
+        LongIntHashMap map = new LongIntHashMap(1000000);
+        long footprint = map.getMemoryFootprint();
+        for (int i = 0; i < 1000000; i++) {
+            map.put(65536L + 7L * i, i);
+        }
+
+        assertEquals(1000000, map.size());
+        assertEquals(999999, map.get(65536L + 7L * 999999));
+        // Sized upfront: no growth while loading.
+        assertEquals(footprint, map.getMemoryFootprint());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.cql.query;
+
+import java.util.Random;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.jupiter.api.Test;
+import org.xwiki.contrib.cql.query.converters.SolrStatementBuilder;
+import org.xwiki.contrib.cql.query.converters.Utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit test for {@link Utils}.
+ * @version $Id$
+ */
+class UtilsTest
+{
+    private static final String[] SOLR_SPECIAL_CHARS = new String[] {
+        "+", "-", "&&", "||", "!", "(", ")", "{", "}", "[", "]", "^", "\"", "~", "*", "?", ":", "/", "\\", " ",
+        "AND", "OR", "NOT"};
+
+    private static final String[] ESCAPED_SOLR_SPECIAL_CHARS = new String[] {
+        "\\+", "\\-", "\\&&", "\\||", "\\!", "\\(", "\\)", "\\{", "\\}", "\\[", "\\]", "\\^", "\\\"", "\\~",
+        "\\*", "\\?", "\\:", "\\/", "\\\\", "\\ ", "\\AND", "\\OR", "\\NOT"};
+
+    @Test
+    void escapeSolr()
+    {
+        assertEquals("\"\"", Utils.escapeSolr(""));
+        assertEquals("a\\ \\AND\\ b\\ \\OR\\ \\NOT\\ c", Utils.escapeSolr("a AND b OR NOT c"));
+        assertEquals("x\\&&y\\||z&w|v", Utils.escapeSolr("x&&y||z&w|v"));
+        assertEquals("\\&&&\\|||", Utils.escapeSolr("&&&|||"));
+        assertEquals("\\ANDROID\\ B\\ORN\\ A\\NOT", Utils.escapeSolr("ANDROID BORN ANOT"));
+        assertEquals("\\+\\-\\!\\(\\)\\{\\}\\[\\]\\^\\\"\\~\\*\\?\\:\\/\\\\", Utils.escapeSolr("+-!(){}[]^\"~*?:/\\"));
+
+        String unescaped = "nothing_to_escape.42";
+        assertSame(unescaped, Utils.escapeSolr(unescaped));
+
+        assertEquals("\"\"", new SolrStatementBuilder().appendEscaped("").toString());
+        assertEquals("f:a\\ b", new SolrStatementBuilder().append("f:").appendEscaped("a b").toString());
+    }
+
+    @Test
+    void escapeSolrLikeReplaceEach()
+    {
+        char[] alphabet = "ANDORT&|+- \\\"\u00e9a".toCharArray();
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            char[] value = new char[1 + random.nextInt(12)];
+            for (int j = 0; j < value.length; j++) {
+                value[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            String v = new String(value);
+            assertEquals(StringUtils.replaceEach(v, SOLR_SPECIAL_CHARS, ESCAPED_SOLR_SPECIAL_CHARS),
+                Utils.escapeSolr(v), v);
+        }
+    }
+}